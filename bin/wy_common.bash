@@ -73,3 +73,11 @@ tmp=$(echo $LIBDIR/wyrt-v*.jar)
 WYRT_JAR=${tmp##* }
 WHILEY_BOOTPATH="$WYRT_JAR"
 
+# Prefer the precompiled library bundle, where one has been built, since
+# it is much faster to load.
+tmp=$(echo $LIBDIR/wyrt-v*.wylib)
+WYRT_BUNDLE=${tmp##* }
+if [ -f "$WYRT_BUNDLE" ]; then
+    WHILEY_BOOTPATH="$WYRT_BUNDLE"
+fi
+
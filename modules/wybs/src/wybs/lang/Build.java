@@ -151,5 +151,15 @@ public interface Build {
 		 */
 		public Set<Path.Entry<?>> apply(Collection<? extends Path.Entry<?>> group)
 				throws IOException;
+
+		/**
+		 * Determine whether or not this rule may be applied to several
+		 * compilation groups at the same time (e.g. because its builder keeps
+		 * no state between files). Otherwise, a rule is applied to at most one
+		 * group at a time.
+		 *
+		 * @return
+		 */
+		public boolean isThreadSafe();
 	}
 }
@@ -0,0 +1,630 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.util;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import wybs.lang.Build;
+import wycc.util.Profiler;
+import wyfs.lang.Path;
+
+/**
+ * <p>
+ * Executes a build as a graph of tasks, using a fixed pool of threads. Each
+ * task applies a single build rule to a group of files. Initially, the given
+ * source files are split into groups, and there is one task for each rule on
+ * each group. Then, every file generated by a task gives rise to a new task
+ * for each rule, which is applied to that file alone. Thus, for example, one
+ * file may be verified whilst another is translated to Java.
+ * </p>
+ * <p>
+ * A builder may need to compile several source files together (e.g. because
+ * they depend upon each other). Therefore, source files are only split into
+ * groups using the dependencies recorded in the project's dependency graph
+ * (if any). Each group is a strongly connected component of those
+ * dependencies, and a task on a group waits until the tasks for the same rule
+ * on the groups it depends upon have completed. Source files whose
+ * dependencies are unknown are kept together in one group. Since the recorded
+ * dependencies may be out of date, a task on a group which fails, or which
+ * turns out to depend upon a group not yet built, is discarded. The rule is
+ * then applied once more to all source files not yet successfully built, as
+ * would have happened had they not been split.
+ * </p>
+ * <p>
+ * Builders are generally not thread-safe. Therefore, unless a rule is
+ * thread-safe, at most one task is executed for it at any given time. Ready
+ * tasks for each rule are executed in a fixed order, which is determined by
+ * the position of each task in the graph (rather than when it became ready).
+ * </p>
+ * <p>
+ * The messages logged by each task through an <code>OrderedLogger</code> are
+ * buffered, and emitted in the same fixed order once all earlier tasks have
+ * completed. Thus, the log of a parallel build does not depend upon how tasks
+ * were interleaved. If a task fails, no further tasks are started and, once
+ * all running tasks have completed, the failure of the earliest failed task is
+ * rethrown.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class BuildScheduler {
+
+	private final StdProject project;
+
+	private final List<Build.Rule> rules;
+
+	private final int threads;
+
+	/**
+	 * The tasks which have been created but not yet completed (including those
+	 * currently executing).
+	 */
+	private final TreeSet<Task> outstanding = new TreeSet<Task>();
+
+	/**
+	 * The tasks which have completed, but whose log messages have not yet been
+	 * emitted.
+	 */
+	private final TreeSet<Task> completed = new TreeSet<Task>();
+
+	/**
+	 * The tasks which are ready to execute, for each rule.
+	 */
+	private final ArrayList<TreeSet<Task>> ready = new ArrayList<TreeSet<Task>>();
+
+	/**
+	 * The number of tasks currently executing for each rule.
+	 */
+	private final int[] running;
+
+	/**
+	 * The groups into which the source files are split, in an order where
+	 * every group follows those it depends upon.
+	 */
+	private final ArrayList<List<Path.Entry<?>>> groups = new ArrayList<List<Path.Entry<?>>>();
+
+	/**
+	 * The group containing each source file.
+	 */
+	private final HashMap<Path.ID, Integer> groupOf = new HashMap<Path.ID, Integer>();
+
+	/**
+	 * The groups which each group (transitively) depends upon.
+	 */
+	private final ArrayList<BitSet> ancestors = new ArrayList<BitSet>();
+
+	/**
+	 * The initial task for each rule on each group.
+	 */
+	private Task[][] roots;
+
+	/**
+	 * The task (if any) which applies each rule once more to those source
+	 * files whose initial tasks were discarded.
+	 */
+	private final Task[] retries;
+
+	/**
+	 * The tasks which have failed, along with the cause of their failure.
+	 */
+	private final TreeMap<Task, Throwable> failures = new TreeMap<Task, Throwable>();
+
+	private ExecutorService executor;
+
+	/**
+	 * The timer running when the build began (if any). The timers of every
+	 * task are nested within this, regardless of the thread executing them.
+	 */
+	private Profiler.Timer timer;
+
+	BuildScheduler(StdProject project, int threads) {
+		this.project = project;
+		this.rules = project.rules();
+		this.threads = threads;
+		this.running = new int[rules.size()];
+		this.retries = new Task[rules.size()];
+		for (int i = 0; i != rules.size(); ++i) {
+			ready.add(new TreeSet<Task>());
+		}
+	}
+
+	/**
+	 * Build a given set of source entries, including all files which depend
+	 * upon them. This returns once every task has completed.
+	 *
+	 * @param sources
+	 * @throws Exception
+	 */
+	void build(Collection<? extends Path.Entry<?>> sources) throws Exception {
+		timer = Profiler.current();
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "build");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			synchronized (this) {
+				split(sort(sources));
+				roots = new Task[rules.size()][groups.size()];
+				int index = 0;
+				for (int g = 0; g != groups.size(); ++g) {
+					for (int i = 0; i != rules.size(); ++i) {
+						Task task = new Task(null, index++, i, groups.get(g));
+						task.root = g;
+						roots[i][g] = task;
+						for (int h = ancestors.get(g).nextSetBit(0); h >= 0; h = ancestors
+								.get(g).nextSetBit(h + 1)) {
+							roots[i][h].waiters.add(task);
+							task.waiting++;
+						}
+						add(task);
+					}
+				}
+				dispatch();
+				while (!outstanding.isEmpty()) {
+					wait();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		if (!failures.isEmpty()) {
+			Throwable t = failures.firstEntry().getValue();
+			if (t instanceof Exception) {
+				throw (Exception) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
+			} else {
+				throw new RuntimeException(t);
+			}
+		}
+	}
+
+	/**
+	 * Split the given source files into groups, such that each group is a
+	 * strongly connected component of the dependencies recorded between them.
+	 * The groups are ordered such that every group follows those it depends
+	 * upon. If there is no dependency graph, then all source files are placed
+	 * into a single group.
+	 *
+	 * @param sources
+	 *            --- the source files in a fixed order.
+	 */
+	private void split(List<Path.Entry<?>> sources) {
+		DependencyGraph graph = project.getDependencyGraph();
+		if (graph == null || sources.size() < 2) {
+			addGroup(sources, new BitSet());
+			return;
+		}
+		// Source files whose dependencies are unknown are represented by the
+		// first such file, and thus end up in the same group.
+		HashMap<Path.ID, Path.Entry<?>> nodes = new HashMap<Path.ID, Path.Entry<?>>();
+		Path.Entry<?> unknown = null;
+		for (Path.Entry<?> entry : sources) {
+			if (graph.hash(entry.id()) != null) {
+				nodes.put(entry.id(), entry);
+			} else {
+				if (unknown == null) {
+					unknown = entry;
+				}
+				nodes.put(entry.id(), unknown);
+			}
+		}
+		HashMap<Path.Entry<?>, List<Path.Entry<?>>> edges = new HashMap<Path.Entry<?>, List<Path.Entry<?>>>();
+		HashMap<Path.Entry<?>, List<Path.Entry<?>>> members = new HashMap<Path.Entry<?>, List<Path.Entry<?>>>();
+		for (Path.Entry<?> entry : sources) {
+			Path.Entry<?> node = nodes.get(entry.id());
+			List<Path.Entry<?>> targets = edges.get(node);
+			if (targets == null) {
+				targets = new ArrayList<Path.Entry<?>>();
+				edges.put(node, targets);
+				members.put(node, new ArrayList<Path.Entry<?>>());
+			}
+			members.get(node).add(entry);
+			ArrayList<Path.ID> dependencies = new ArrayList<Path.ID>(
+					graph.dependencies(entry.id()));
+			Collections.sort(dependencies);
+			for (Path.ID id : dependencies) {
+				Path.Entry<?> target = nodes.get(id);
+				if (target != null && target != node) {
+					targets.add(target);
+				}
+			}
+		}
+		HashMap<Path.Entry<?>, Integer> indices = new HashMap<Path.Entry<?>, Integer>();
+		HashMap<Path.Entry<?>, Integer> lowlinks = new HashMap<Path.Entry<?>, Integer>();
+		ArrayList<Path.Entry<?>> stack = new ArrayList<Path.Entry<?>>();
+		for (Path.Entry<?> entry : sources) {
+			Path.Entry<?> node = nodes.get(entry.id());
+			if (!indices.containsKey(node)) {
+				connect(node, edges, members, indices, lowlinks, stack);
+			}
+		}
+	}
+
+	/**
+	 * Visit a given node using Tarjan's algorithm for finding strongly
+	 * connected components. Since a component is only completed once every
+	 * component reachable from it has been, each group is added after those it
+	 * depends upon.
+	 *
+	 * @param node
+	 * @param edges
+	 *            --- the nodes which each node depends upon.
+	 * @param members
+	 *            --- the source files represented by each node.
+	 * @param indices
+	 * @param lowlinks
+	 * @param stack
+	 */
+	private void connect(Path.Entry<?> node,
+			HashMap<Path.Entry<?>, List<Path.Entry<?>>> edges,
+			HashMap<Path.Entry<?>, List<Path.Entry<?>>> members,
+			HashMap<Path.Entry<?>, Integer> indices,
+			HashMap<Path.Entry<?>, Integer> lowlinks,
+			ArrayList<Path.Entry<?>> stack) {
+		int index = indices.size();
+		indices.put(node, index);
+		lowlinks.put(node, index);
+		stack.add(node);
+		for (Path.Entry<?> target : edges.get(node)) {
+			if (!indices.containsKey(target)) {
+				connect(target, edges, members, indices, lowlinks, stack);
+				lowlinks.put(node,
+						Math.min(lowlinks.get(node), lowlinks.get(target)));
+			} else if (stack.contains(target)) {
+				lowlinks.put(node,
+						Math.min(lowlinks.get(node), indices.get(target)));
+			}
+		}
+		if (lowlinks.get(node).intValue() == index) {
+			// Node is the root of a component, which consists of it and all
+			// nodes above it on the stack.
+			List<Path.Entry<?>> component = stack.subList(stack.indexOf(node),
+					stack.size());
+			ArrayList<Path.Entry<?>> group = new ArrayList<Path.Entry<?>>();
+			for (Path.Entry<?> n : component) {
+				group.addAll(members.get(n));
+			}
+			BitSet dependencies = new BitSet();
+			for (Path.Entry<?> n : component) {
+				for (Path.Entry<?> target : edges.get(n)) {
+					Integer g = groupOf.get(target.id());
+					if (g != null) {
+						dependencies.set(g);
+						dependencies.or(ancestors.get(g));
+					}
+				}
+			}
+			component.clear();
+			addGroup(sort(group), dependencies);
+		}
+	}
+
+	private void addGroup(List<Path.Entry<?>> group, BitSet dependencies) {
+		for (Path.Entry<?> entry : group) {
+			groupOf.put(entry.id(), groups.size());
+		}
+		groups.add(group);
+		ancestors.add(dependencies);
+	}
+
+	private void add(Task task) {
+		outstanding.add(task);
+		if (task.waiting == 0) {
+			ready.get(task.rule).add(task);
+		}
+	}
+
+	/**
+	 * Start the next ready task for every rule which is not already executing
+	 * one or, for thread-safe rules, every ready task. No tasks are started
+	 * once a failure has occurred.
+	 */
+	private void dispatch() {
+		if (!failures.isEmpty()) {
+			// Discard all tasks which have not yet started
+			outstanding.removeAll(blocked());
+			for (TreeSet<Task> tasks : ready) {
+				outstanding.removeAll(tasks);
+				tasks.clear();
+			}
+			return;
+		}
+		for (int i = 0; i != rules.size(); ++i) {
+			TreeSet<Task> tasks = ready.get(i);
+			boolean threadSafe = rules.get(i).isThreadSafe();
+			while (!tasks.isEmpty() && (running[i] == 0 || threadSafe)) {
+				final Task task = tasks.pollFirst();
+				task.started = true;
+				running[i]++;
+				executor.execute(new Runnable() {
+					public void run() {
+						execute(task);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Determine the outstanding tasks which are waiting for other tasks to
+	 * complete.
+	 *
+	 * @return
+	 */
+	private List<Task> blocked() {
+		ArrayList<Task> r = new ArrayList<Task>();
+		for (Task task : outstanding) {
+			if (task.waiting > 0) {
+				r.add(task);
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Execute a given task on the current thread.
+	 *
+	 * @param task
+	 */
+	private void execute(Task task) {
+		Set<Path.Entry<?>> generated = null;
+		Set<Path.Entry<?>> dependents = null;
+		Throwable failure = null;
+		OrderedLogger.begin();
+		Profiler.adopt(timer);
+		try {
+			generated = rules.get(task.rule).apply(task.group);
+			DependencyGraph graph = project.getDependencyGraph();
+			if (graph != null) {
+				// Dependents built alongside a changed module have already
+				// seen its new interface, so need not be rebuilt.
+				dependents = project.dependents(graph.changed(task.group));
+				dependents.removeAll(task.group);
+			}
+		} catch (Throwable t) {
+			failure = t;
+		} finally {
+			task.messages = OrderedLogger.end();
+			Profiler.adopt(null);
+		}
+		completed(task, generated, dependents, failure);
+	}
+
+	private synchronized void completed(Task task,
+			Set<Path.Entry<?>> generated, Set<Path.Entry<?>> dependents,
+			Throwable failure) {
+		running[task.rule]--;
+		if (task.root >= 0 && groups.size() > 1
+				&& (failure != null || !built(task))) {
+			// The recorded dependencies were out of date, so this task is
+			// discarded and its files are built again.
+			retry(task, dependents);
+			task.messages = Collections.emptyList();
+		} else if (failure != null) {
+			failures.put(task, failure);
+		} else {
+			if (dependents != null
+					&& (task.root >= 0 || task == retries[task.rule])) {
+				// Every other source file is built after those it depends
+				// upon, so has already seen their new interfaces.
+				dependents.addAll(task.dependents);
+				Iterator<Path.Entry<?>> iter = dependents.iterator();
+				while (iter.hasNext()) {
+					if (groupOf.containsKey(iter.next().id())) {
+						iter.remove();
+					}
+				}
+			}
+			// Create a task for each rule on each generated file. The order of
+			// creation is fixed, since it determines the order of execution.
+			int index = 0;
+			for (Path.Entry<?> entry : sort(generated)) {
+				List<Path.Entry<?>> group = Collections
+						.<Path.Entry<?>> singletonList(entry);
+				for (int i = 0; i != rules.size(); ++i) {
+					add(new Task(task, index++, i, group));
+				}
+			}
+			if (dependents != null && !dependents.isEmpty()) {
+				List<Path.Entry<?>> group = sort(dependents);
+				for (int i = 0; i != rules.size(); ++i) {
+					add(new Task(task, index++, i, group));
+				}
+			}
+		}
+		for (Task waiter : task.waiters) {
+			if (--waiter.waiting == 0 && outstanding.contains(waiter)) {
+				ready.get(waiter.rule).add(waiter);
+			}
+		}
+		outstanding.remove(task);
+		completed.add(task);
+		dispatch();
+		// Emit the messages of every completed task which no outstanding task
+		// precedes. Since tasks are ordered first by depth, any task created
+		// in the future must be preceded by the outstanding task creating it.
+		while (!completed.isEmpty()
+				&& (outstanding.isEmpty() || completed.first().compareTo(
+						outstanding.first()) < 0)) {
+			OrderedLogger.emit(completed.pollFirst().messages);
+		}
+		if (outstanding.isEmpty()) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Determine whether a given initial task was built after every group its
+	 * files actually depend upon (as now recorded in the dependency graph).
+	 *
+	 * @param task
+	 * @return
+	 */
+	private boolean built(Task task) {
+		DependencyGraph graph = project.getDependencyGraph();
+		for (Path.Entry<?> entry : task.group) {
+			for (Path.ID id : graph.dependencies(entry.id())) {
+				Integer g = groupOf.get(id);
+				if (g != null && g != task.root
+						&& !ancestors.get(task.root).get(g)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Apply the rule of a given (discarded) initial task once more to its
+	 * files. These are built together with those of every other initial task
+	 * for the rule which has not yet started (since they may depend upon
+	 * them), once every initial task for the rule which has started is
+	 * complete.
+	 *
+	 * @param task
+	 * @param dependents
+	 *            --- the files which depend upon any file of the task whose
+	 *            interface changed, or null if there are none.
+	 */
+	private void retry(Task task, Set<Path.Entry<?>> dependents) {
+		Task retry = retries[task.rule];
+		if (retry == null) {
+			// NOTE: the retry follows every initial task in the fixed order.
+			retry = new Task(null, groups.size() * rules.size() + task.rule,
+					task.rule, new ArrayList<Path.Entry<?>>());
+			retries[task.rule] = retry;
+			for (Task t : roots[task.rule]) {
+				if (t == task || !outstanding.contains(t)) {
+					continue;
+				} else if (t.started) {
+					t.waiters.add(retry);
+					retry.waiting++;
+				} else {
+					ready.get(t.rule).remove(t);
+					outstanding.remove(t);
+					retry.group.addAll(t.group);
+				}
+			}
+			add(retry);
+		}
+		retry.group.addAll(task.group);
+		retry.group = sort(retry.group);
+		if (dependents != null) {
+			retry.dependents.addAll(dependents);
+		}
+	}
+
+	/**
+	 * Sort a collection of entries into a fixed order, based on their IDs and
+	 * suffixes.
+	 *
+	 * @param entries
+	 * @return
+	 */
+	private static List<Path.Entry<?>> sort(
+			Collection<? extends Path.Entry<?>> entries) {
+		ArrayList<Path.Entry<?>> r = new ArrayList<Path.Entry<?>>(entries);
+		Collections.sort(r, new Comparator<Path.Entry<?>>() {
+			public int compare(Path.Entry<?> e1, Path.Entry<?> e2) {
+				int c = e1.id().compareTo(e2.id());
+				if (c == 0) {
+					c = e1.suffix().compareTo(e2.suffix());
+				}
+				return c;
+			}
+		});
+		return r;
+	}
+
+	/**
+	 * A task applies a given rule to a group of files. Tasks are ordered first
+	 * by their depth in the task graph, and then by the path from the root of
+	 * the graph. This order corresponds to that of a sequential, breadth-first
+	 * build.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Task implements Comparable<Task> {
+		private final int rule;
+		private List<Path.Entry<?>> group;
+		private final int[] path;
+		private List<OrderedLogger.Message> messages;
+
+		/**
+		 * The group to which this initial task applies its rule, or -1 if this
+		 * is not an initial task.
+		 */
+		private int root = -1;
+
+		/**
+		 * The number of tasks which must complete before this can start, and
+		 * the tasks waiting for this to complete.
+		 */
+		private int waiting;
+		private final ArrayList<Task> waiters = new ArrayList<Task>();
+
+		/**
+		 * The files which depend upon any file whose interface changed during
+		 * a discarded task (which this task builds again).
+		 */
+		private final HashSet<Path.Entry<?>> dependents = new HashSet<Path.Entry<?>>();
+
+		private boolean started;
+
+		private Task(Task parent, int index, int rule,
+				List<Path.Entry<?>> group) {
+			this.rule = rule;
+			this.group = group;
+			if (parent == null) {
+				path = new int[] { index };
+			} else {
+				path = Arrays.copyOf(parent.path, parent.path.length + 1);
+				path[parent.path.length] = index;
+			}
+		}
+
+		public int compareTo(Task t) {
+			if (path.length != t.path.length) {
+				return path.length < t.path.length ? -1 : 1;
+			}
+			for (int i = 0; i != path.length; ++i) {
+				if (path[i] != t.path[i]) {
+					return path[i] < t.path[i] ? -1 : 1;
+				}
+			}
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,308 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.util;
+
+import java.io.*;
+import java.util.*;
+
+import wyfs.lang.Path;
+import wyfs.util.Trie;
+
+/**
+ * <p>
+ * Records the dependencies between modules, as determined by the builders
+ * which compile them. Each module is associated with the set of modules it
+ * depends upon (e.g. those it imports, or which contain names it uses) and a
+ * hash of its <i>interface</i>. The interface of a module is everything
+ * visible to those modules which depend upon it (e.g. the names and types of
+ * its declarations, but not their bodies). Thus, when a module is recompiled,
+ * its dependents need only be recompiled if its interface has changed.
+ * </p>
+ * <p>
+ * A dependency graph can be saved to a file and loaded again, so that it can
+ * be used across builds. The file format is a simple line-based text format,
+ * where each line gives a module, its interface hash and its dependencies.
+ * A missing or unreadable file simply results in an empty graph, in which
+ * case the build falls back to recompiling only those modules which have
+ * themselves been modified.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> modules are identified only by their <code>Path.ID</code>. It
+ * is assumed that the dependencies of a module are of the same content type
+ * as the module itself (e.g. Whiley source files depend on Whiley source
+ * files).
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class DependencyGraph {
+
+	/**
+	 * The version of the file format. Files with a different version are
+	 * ignored.
+	 */
+	private static final String VERSION = "wybs-dependencies 1";
+
+	/**
+	 * The file in which this graph is saved. This may be null, in which case
+	 * the graph is not saved.
+	 */
+	private final File file;
+
+	/**
+	 * The modules recorded in this graph.
+	 */
+	private final HashMap<Path.ID, Node> nodes = new HashMap<Path.ID, Node>();
+
+	/**
+	 * The entries whose interface has changed, and which have not yet been
+	 * returned from <code>changed()</code>.
+	 */
+	private final LinkedHashSet<Path.Entry<?>> changed = new LinkedHashSet<Path.Entry<?>>();
+
+	/**
+	 * Construct an empty dependency graph which is not saved.
+	 */
+	public DependencyGraph() {
+		this.file = null;
+	}
+
+	private DependencyGraph(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Load a dependency graph from a given file. If the file does not exist,
+	 * or cannot be read, then an empty graph is returned. In either case, the
+	 * graph will be saved to this file.
+	 *
+	 * @param file
+	 *            --- file holding the graph.
+	 * @return
+	 */
+	public static DependencyGraph load(File file) {
+		DependencyGraph graph = new DependencyGraph(file);
+		if (file.exists()) {
+			try {
+				graph.read(file);
+			} catch (IOException e) {
+				// The graph is only an optimisation, so an unreadable file is
+				// treated as empty.
+				graph.nodes.clear();
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Record the dependencies and interface hash of a given module, which has
+	 * just been compiled. If the interface hash differs from that previously
+	 * recorded, then the entry is marked as changed.
+	 *
+	 * @param entry
+	 *            --- the (source) entry of the module which was compiled.
+	 * @param dependencies
+	 *            --- the modules upon which this module depends.
+	 * @param hash
+	 *            --- the hash of the module's interface.
+	 */
+	public synchronized void record(Path.Entry<?> entry,
+			Collection<Path.ID> dependencies, String hash) {
+		Path.ID id = entry.id();
+		Node node = nodes.get(id);
+		if (node == null) {
+			node = new Node();
+			nodes.put(id, node);
+		}
+		if (!hash.equals(node.hash)) {
+			changed.add(entry);
+		}
+		node.hash = hash;
+		node.dependencies.clear();
+		node.dependencies.addAll(dependencies);
+		node.dependencies.remove(id);
+	}
+
+	/**
+	 * Return the interface hash recorded for a given module, or null if none
+	 * is recorded.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized String hash(Path.ID id) {
+		Node node = nodes.get(id);
+		return node == null ? null : node.hash;
+	}
+
+	/**
+	 * Return the modules upon which a given module depends.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized Set<Path.ID> dependencies(Path.ID id) {
+		Node node = nodes.get(id);
+		if (node == null) {
+			return Collections.EMPTY_SET;
+		} else {
+			return new HashSet<Path.ID>(node.dependencies);
+		}
+	}
+
+	/**
+	 * Return the modules which depend upon a given module.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized Set<Path.ID> dependents(Path.ID id) {
+		HashSet<Path.ID> r = new HashSet<Path.ID>();
+		for (Map.Entry<Path.ID, Node> e : nodes.entrySet()) {
+			if (e.getValue().dependencies.contains(id)) {
+				r.add(e.getKey());
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Return (and clear) those of the given entries whose interface has
+	 * changed since they were last returned from this method. Entries are
+	 * only considered changed once, so that their dependents are not rebuilt
+	 * repeatedly.
+	 *
+	 * @param entries
+	 *            --- the entries to check, typically those just built.
+	 * @return
+	 */
+	public synchronized List<Path.Entry<?>> changed(
+			Collection<? extends Path.Entry<?>> entries) {
+		ArrayList<Path.Entry<?>> r = new ArrayList<Path.Entry<?>>();
+		for (Path.Entry<?> entry : entries) {
+			if (changed.remove(entry)) {
+				r.add(entry);
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Save this graph to the file from which it was loaded. This has no effect
+	 * if the graph is not associated with a file.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (file == null) {
+			return;
+		}
+		// Modules are written in a fixed order, so that the file is stable
+		// across builds.
+		TreeMap<String, Node> sorted = new TreeMap<String, Node>();
+		for (Map.Entry<Path.ID, Node> e : nodes.entrySet()) {
+			sorted.put(toString(e.getKey()), e.getValue());
+		}
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			out.println(VERSION);
+			for (Map.Entry<String, Node> e : sorted.entrySet()) {
+				Node node = e.getValue();
+				out.print(e.getKey());
+				out.print('\t');
+				out.print(node.hash);
+				TreeSet<String> dependencies = new TreeSet<String>();
+				for (Path.ID dependency : node.dependencies) {
+					dependencies.add(toString(dependency));
+				}
+				for (String dependency : dependencies) {
+					out.print('\t');
+					out.print(dependency);
+				}
+				out.println();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private void read(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			if (!VERSION.equals(in.readLine())) {
+				return;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length < 2) {
+					throw new IOException("invalid dependency graph: " + file);
+				}
+				Node node = new Node();
+				node.hash = fields[1];
+				for (int i = 2; i < fields.length; ++i) {
+					node.dependencies.add(Trie.fromString(fields[i]));
+				}
+				nodes.put(Trie.fromString(fields[0]), node);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Convert a path ID into a string using '/' as the separator, regardless
+	 * of platform.
+	 *
+	 * @param id
+	 * @return
+	 */
+	private static String toString(Path.ID id) {
+		StringBuilder r = new StringBuilder();
+		for (int i = 0; i != id.size(); ++i) {
+			if (i != 0) {
+				r.append('/');
+			}
+			r.append(id.get(i));
+		}
+		return r.toString();
+	}
+
+	private static final class Node {
+		/**
+		 * The hash of this module's interface.
+		 */
+		private String hash;
+
+		/**
+		 * The modules upon which this module depends.
+		 */
+		private final HashSet<Path.ID> dependencies = new HashSet<Path.ID>();
+	}
+}
@@ -0,0 +1,124 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import wycc.util.Logger;
+
+/**
+ * <p>
+ * A logger which ensures messages logged by builders remain ordered during a
+ * parallel build. When used outside of a build task, messages are passed
+ * straight through to the underlying logger. However, when used by a task
+ * being executed by a <code>BuildScheduler</code>, messages are instead
+ * buffered by the task. The scheduler then emits the buffered messages of
+ * each task in a fixed order, regardless of the order in which tasks actually
+ * completed.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> messages are passed to the underlying logger whilst holding
+ * its lock. Thus, messages from different threads are never interleaved.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class OrderedLogger implements Logger {
+
+	/**
+	 * The messages buffered by the task currently executing on this thread, or
+	 * null if no task is executing.
+	 */
+	private static final ThreadLocal<List<Message>> buffer = new ThreadLocal<List<Message>>();
+
+	private final Logger logger;
+
+	public OrderedLogger(Logger logger) {
+		this.logger = logger;
+	}
+
+	public void logTimedMessage(String msg, long time, long memory) {
+		List<Message> messages = buffer.get();
+		if (messages != null) {
+			messages.add(new Message(this, msg, time, memory));
+		} else {
+			emit(msg, time, memory);
+		}
+	}
+
+	private void emit(String msg, long time, long memory) {
+		synchronized (logger) {
+			logger.logTimedMessage(msg, time, memory);
+		}
+	}
+
+	/**
+	 * Begin buffering the messages logged on the current thread.
+	 */
+	static void begin() {
+		buffer.set(new ArrayList<Message>());
+	}
+
+	/**
+	 * Stop buffering the messages logged on the current thread, returning
+	 * those buffered since <code>begin()</code> was called.
+	 *
+	 * @return
+	 */
+	static List<Message> end() {
+		List<Message> messages = buffer.get();
+		buffer.remove();
+		return messages;
+	}
+
+	/**
+	 * Emit a list of buffered messages to their respective loggers.
+	 *
+	 * @param messages
+	 */
+	static void emit(List<Message> messages) {
+		for (Message m : messages) {
+			m.logger.emit(m.msg, m.time, m.memory);
+		}
+	}
+
+	static final class Message {
+		private final OrderedLogger logger;
+		private final String msg;
+		private final long time;
+		private final long memory;
+
+		private Message(OrderedLogger logger, String msg, long time,
+				long memory) {
+			this.logger = logger;
+			this.msg = msg;
+			this.time = time;
+			this.memory = memory;
+		}
+	}
+}
@@ -58,6 +58,12 @@ public class StdBuildRule implements Build.Rule {
 	 */
 	final Content.Filter<?> excludes;
 
+	/**
+	 * Indicates whether or not the builder may be used to build several groups
+	 * of files at the same time.
+	 */
+	final boolean threadSafe;
+
 	/**
 	 * Construct a standard build rule.
 	 *
@@ -81,11 +87,44 @@ public class StdBuildRule implements Build.Rule {
 	public StdBuildRule(Builder builder, Path.Root srcRoot,
 			Content.Filter<?> includes, Content.Filter<?> excludes,
 			Path.Root targetRoot) {
+		this(builder, srcRoot, includes, excludes, targetRoot, false);
+	}
+
+	/**
+	 * Construct a standard build rule, which may be thread-safe.
+	 *
+	 * @param builder
+	 *            The builder used to build files using this rule.
+	 * @param srcRoot
+	 *            The source root containing all files which might be built
+	 *            using this rule.
+	 * @param includes
+	 *            A content filter used to determine which files contained in
+	 *            the source root should be built by this rule. Maybe null.
+	 * @param excludes
+	 *            A content filter used to determine which files contained in
+	 *            the source root should be not built by this rule. Maybe null.
+	 * @param targetRoot
+	 *            The destination root into which all files built using this
+	 *            rule are placed.
+	 * @param threadSafe
+	 *            Indicates whether or not the builder may be used to build
+	 *            several groups of files at the same time.
+	 */
+	public StdBuildRule(Builder builder, Path.Root srcRoot,
+			Content.Filter<?> includes, Content.Filter<?> excludes,
+			Path.Root targetRoot, boolean threadSafe) {
 		this.builder = builder;
 		this.source = srcRoot;
 		this.target = targetRoot;
 		this.includes = includes;
 		this.excludes = excludes;
+		this.threadSafe = threadSafe;
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return threadSafe;
 	}
 
 	@Override
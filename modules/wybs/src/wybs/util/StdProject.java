@@ -48,6 +48,12 @@ import wyfs.lang.Path;
  * is fine. However, in more complex compilation pipelines this can lead to
  * compilation failures.
  * </p>
+ * <p>
+ * When more than one thread is permitted, the build is instead executed as a
+ * graph of tasks by a <code>BuildScheduler</code>. This allows later stages
+ * for one file (e.g. verification) to proceed whilst earlier stages for other
+ * files are still underway.
+ * </p>
  *
  * @author David J. Pearce
  */
@@ -66,6 +72,20 @@ public class StdProject implements Build.Project {
 	 */
 	protected final ArrayList<Build.Rule> rules;
 
+	/**
+	 * The dependencies between modules, as recorded by the builders. This is
+	 * used to determine which modules must be rebuilt when the interface of a
+	 * module they depend upon changes. This may be null, in which case only
+	 * the files given to <code>build()</code> (and those generated from them)
+	 * are built.
+	 */
+	protected DependencyGraph graph;
+
+	/**
+	 * The number of threads which may be used to build files. When this is
+	 * one, files are built sequentially on the calling thread.
+	 */
+	protected int threads = 1;
 
 	public StdProject(Collection<Path.Root> roots) {
 		this.roots = new ArrayList<Path.Root>(roots);
@@ -93,6 +113,46 @@ public class StdProject implements Build.Project {
 		rules.add(rule);
 	}
 
+	/**
+	 * Set the dependency graph used to determine which modules must be
+	 * rebuilt. This may be null, in which case no dependencies are tracked.
+	 *
+	 * @param graph
+	 */
+	public void setDependencyGraph(DependencyGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Get the dependency graph associated with this project, or null if there
+	 * is none.
+	 *
+	 * @return
+	 */
+	public DependencyGraph getDependencyGraph() {
+		return graph;
+	}
+
+	/**
+	 * Set the number of threads which may be used to build files. Builds using
+	 * more than one thread require that the loggers given to builders are
+	 * instances of <code>OrderedLogger</code>, if their output is to remain
+	 * ordered.
+	 *
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("invalid number of threads: "
+					+ threads);
+		}
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
 	/**
 	 * Get the roots associated with this project.
 	 *
@@ -238,7 +298,9 @@ public class StdProject implements Build.Project {
 
 	/**
 	 * Build a given set of source entries, including all files which depend
-	 * upon them.
+	 * upon them. If a dependency graph is present, then any module which
+	 * depends upon a module whose interface changed during the build is also
+	 * rebuilt.
 	 *
 	 * @param sources
 	 *            --- a collection of source file entries. This will not be
@@ -247,6 +309,11 @@ public class StdProject implements Build.Project {
 	 */
 	public void build(Collection<? extends Path.Entry<?>> sources) throws Exception {
 
+		if (threads > 1) {
+			new BuildScheduler(this, threads).build(sources);
+			return;
+		}
+
 		// Continue building all source files until there are none left. This is
 		// actually quite a naive implementation, as it ignores the potential
 		// need for staging dependencies.
@@ -255,9 +322,43 @@ public class StdProject implements Build.Project {
 			for (Build.Rule r : rules) {
 				generated.addAll(r.apply(sources));
 			}
+			if (graph != null) {
+				// Dependents built alongside a changed module have already
+				// seen its new interface, so need not be rebuilt.
+				Set<Path.Entry<?>> dependents = dependents(graph
+						.changed(sources));
+				dependents.removeAll(sources);
+				generated.addAll(dependents);
+			}
 			sources = generated;
 		} while (sources.size() > 0);
 
 		// Done!
 	}
+
+	/**
+	 * Determine the entries which depend upon a given set of entries whose
+	 * interface has changed, and which must therefore be rebuilt. Dependents
+	 * are assumed to have the same content type as the entry they depend upon.
+	 * Dependents which no longer exist are ignored.
+	 *
+	 * @param changed
+	 *            --- entries whose interface has changed.
+	 * @return
+	 * @throws IOException
+	 */
+	Set<Path.Entry<?>> dependents(List<Path.Entry<?>> changed)
+			throws IOException {
+		HashSet<Path.Entry<?>> r = new HashSet<Path.Entry<?>>();
+		for (Path.Entry<?> entry : changed) {
+			Content.Type<?> ct = entry.contentType();
+			for (Path.ID id : graph.dependents(entry.id())) {
+				Path.Entry<?> dependent = get(id, ct);
+				if (dependent != null) {
+					r.add(dependent);
+				}
+			}
+		}
+		return r;
+	}
 }
@@ -0,0 +1,643 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package wycc.util;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * <p>
+ * Records how long each part of a build takes, so that the parts responsible
+ * for a slow build can be identified. A build is divided into a hierarchy of
+ * <i>timers</i>, such as one for each phase of a builder, one for each module
+ * within a phase, and one for each declaration within a module. Each timer
+ * records the wall-clock time taken, along with the CPU time and the number
+ * of bytes allocated by its thread (where the JVM supports this). Timers may
+ * also carry counters (e.g. the number of rewrite steps taken), and the
+ * profiler records the hit rates of caches used during the build.
+ * </p>
+ *
+ * <p>
+ * There is at most one profiler enabled at any time, and timers are started
+ * using the static <code>start()</code> method. Every timer started on a given
+ * thread is nested within the timer most recently started (and not yet
+ * stopped) on that thread. Work handed off to another thread can remain
+ * within the same hierarchy by passing the current timer to
+ * <code>adopt()</code> on that thread. When no profiler is enabled, timers
+ * cost almost nothing. For example:
+ * </p>
+ *
+ * <pre>
+ * Profiler.Timer timer = Profiler.start(&quot;module&quot;, name);
+ * try {
+ * 	...
+ * } finally {
+ * 	timer.stop();
+ * }
+ * </pre>
+ *
+ * <p>
+ * The recorded timings can be written out either as a JSON summary, where
+ * timers with the same name in the same place of the hierarchy are combined,
+ * or in the trace event format understood by Chrome's trace viewer (i.e.
+ * <code>chrome://tracing</code>), where every timer is shown individually.
+ * </p>
+ *
+ * <p>
+ * <b>NOTE:</b> the CPU time and allocation recorded for a timer include only
+ * those of the thread on which it was started. In particular, they do not
+ * include work done on behalf of the timer by other threads.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class Profiler {
+
+	/**
+	 * The profiler currently enabled, or null if profiling is disabled.
+	 */
+	private static volatile Profiler profiler;
+
+	/**
+	 * The timer most recently started on each thread, and not yet stopped.
+	 */
+	private static final ThreadLocal<Timer> current = new ThreadLocal<Timer>();
+
+	private static final ThreadMXBean threads = ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * The method used to determine the number of bytes allocated by a thread.
+	 * This is not part of the standard management interface and, hence, may
+	 * not be available.
+	 */
+	private static final Method allocatedBytes = allocatedBytesMethod();
+
+	/**
+	 * The time (in nanoseconds) at which this profiler was enabled.
+	 */
+	private final long origin = System.nanoTime();
+
+	/**
+	 * The timers which have been stopped, in the order they were stopped.
+	 */
+	private final ArrayList<Timer> timers = new ArrayList<Timer>();
+
+	private final TreeMap<String, Long> counters = new TreeMap<String, Long>();
+
+	/**
+	 * The number of hits and misses recorded for each cache.
+	 */
+	private final TreeMap<String, long[]> caches = new TreeMap<String, long[]>();
+
+	private Profiler() {
+	}
+
+	/**
+	 * Enable profiling, discarding anything recorded by a previously enabled
+	 * profiler.
+	 *
+	 * @return
+	 */
+	public static Profiler enable() {
+		profiler = new Profiler();
+		return profiler;
+	}
+
+	/**
+	 * Disable profiling. Timers which are currently running will still be
+	 * recorded when stopped.
+	 */
+	public static void disable() {
+		profiler = null;
+	}
+
+	/**
+	 * Get the profiler currently enabled, or null if profiling is disabled.
+	 *
+	 * @return
+	 */
+	public static Profiler get() {
+		return profiler;
+	}
+
+	/**
+	 * Start a new timer, nested within the current timer for this thread.
+	 *
+	 * @param category
+	 *            --- kind of activity being timed (e.g. "phase", "module").
+	 * @param name
+	 *            --- name of activity being timed.
+	 * @return
+	 */
+	public static Timer start(String category, String name) {
+		Profiler p = profiler;
+		if (p == null) {
+			return Timer.NULL;
+		}
+		Timer timer = new Timer(p, current.get(), category, name);
+		current.set(timer);
+		return timer;
+	}
+
+	/**
+	 * Get the timer most recently started on this thread, and not yet
+	 * stopped. This is null if there is no such timer.
+	 *
+	 * @return
+	 */
+	public static Timer current() {
+		return current.get();
+	}
+
+	/**
+	 * Nest all timers subsequently started on this thread within a given
+	 * timer, which was started on another thread. This is used by threads
+	 * performing work on behalf of another, and should be reset (by passing
+	 * null) once that work is complete.
+	 *
+	 * @param timer
+	 *            --- timer to nest within, or null.
+	 */
+	public static void adopt(Timer timer) {
+		if (timer == null || timer == Timer.NULL) {
+			current.remove();
+		} else {
+			current.set(timer);
+		}
+	}
+
+	/**
+	 * Add a given amount to a named counter, provided profiling is enabled.
+	 *
+	 * @param name
+	 * @param amount
+	 */
+	public static void count(String name, long amount) {
+		Profiler p = profiler;
+		if (p != null) {
+			synchronized (p) {
+				Long v = p.counters.get(name);
+				p.counters.put(name, v == null ? amount : v + amount);
+			}
+		}
+	}
+
+	/**
+	 * Record a number of hits and misses for a named cache, provided
+	 * profiling is enabled.
+	 *
+	 * @param name
+	 * @param hits
+	 * @param misses
+	 */
+	public static void cache(String name, long hits, long misses) {
+		Profiler p = profiler;
+		if (p != null) {
+			synchronized (p) {
+				long[] v = p.caches.get(name);
+				if (v == null) {
+					v = new long[2];
+					p.caches.put(name, v);
+				}
+				v[0] += hits;
+				v[1] += misses;
+			}
+		}
+	}
+
+	private synchronized void record(Timer timer) {
+		timers.add(timer);
+	}
+
+	// =========================================================================
+	// JSON
+	// =========================================================================
+
+	/**
+	 * Write a summary of everything recorded in JSON format. Timers with the
+	 * same category and name, and nested within the same timer, are combined
+	 * into a single entry.
+	 *
+	 * @param out
+	 */
+	public synchronized void writeJson(PrintWriter out) {
+		Node root = summarise();
+		out.println("{");
+		out.print("  \"timers\": ");
+		writeNodes(root.children.values(), "  ", out);
+		out.println(",");
+		out.print("  \"counters\": ");
+		writeCounters(counters, out);
+		out.println(",");
+		out.print("  \"caches\": {");
+		boolean first = true;
+		for (Map.Entry<String, long[]> e : caches.entrySet()) {
+			long hits = e.getValue()[0];
+			long misses = e.getValue()[1];
+			double rate = hits + misses == 0 ? 0 : (double) hits
+					/ (hits + misses);
+			out.print(first ? "\n" : ",\n");
+			out.print("    " + quote(e.getKey()) + ": {\"hits\": " + hits
+					+ ", \"misses\": " + misses + ", \"hitRate\": "
+					+ decimal(rate) + "}");
+			first = false;
+		}
+		out.println(first ? "}" : "\n  }");
+		out.println("}");
+		out.flush();
+	}
+
+	private static void writeNodes(Collection<Node> nodes, String indent,
+			PrintWriter out) {
+		if (nodes.isEmpty()) {
+			out.print("[]");
+			return;
+		}
+		out.println("[");
+		String inner = indent + "  ";
+		boolean first = true;
+		for (Node node : nodes) {
+			if (!first) {
+				out.println(",");
+			}
+			first = false;
+			out.print(inner + "{\"category\": " + quote(node.category)
+					+ ", \"name\": " + quote(node.name) + ", \"count\": "
+					+ node.count + ", \"time\": " + millis(node.time)
+					+ ", \"cpu\": " + millis(node.cpu) + ", \"allocated\": "
+					+ node.allocated);
+			if (!node.counters.isEmpty()) {
+				out.print(", \"counters\": ");
+				writeCounters(node.counters, out);
+			}
+			if (!node.children.isEmpty()) {
+				out.print(", \"children\": ");
+				writeNodes(node.children.values(), inner, out);
+			}
+			out.print("}");
+		}
+		out.println();
+		out.print(indent + "]");
+	}
+
+	private static void writeCounters(Map<String, Long> counters,
+			PrintWriter out) {
+		out.print("{");
+		boolean first = true;
+		for (Map.Entry<String, Long> e : counters.entrySet()) {
+			out.print((first ? "" : ", ") + quote(e.getKey()) + ": "
+					+ e.getValue());
+			first = false;
+		}
+		out.print("}");
+	}
+
+	/**
+	 * Combine the recorded timers into a tree, where each node represents all
+	 * timers of a given category and name nested within the same node.
+	 *
+	 * @return
+	 */
+	private Node summarise() {
+		ArrayList<Timer> sorted = new ArrayList<Timer>(timers);
+		Collections.sort(sorted, new Comparator<Timer>() {
+			public int compare(Timer t1, Timer t2) {
+				return t1.start < t2.start ? -1 : (t1.start == t2.start ? 0
+						: 1);
+			}
+		});
+		Node root = new Node(null, null);
+		IdentityHashMap<Timer, Node> nodes = new IdentityHashMap<Timer, Node>();
+		for (Timer timer : sorted) {
+			node(timer, root, nodes).add(timer);
+		}
+		return root;
+	}
+
+	private static Node node(Timer timer, Node root,
+			IdentityHashMap<Timer, Node> nodes) {
+		if (timer == null) {
+			return root;
+		}
+		Node node = nodes.get(timer);
+		if (node == null) {
+			node = node(timer.parent, root, nodes).child(timer.category,
+					timer.name);
+			nodes.put(timer, node);
+		}
+		return node;
+	}
+
+	private static final class Node {
+		private final String category;
+		private final String name;
+		private int count;
+		private long time;
+		private long cpu;
+		private long allocated;
+		private final TreeMap<String, Long> counters = new TreeMap<String, Long>();
+		private final LinkedHashMap<String, Node> children = new LinkedHashMap<String, Node>();
+
+		public Node(String category, String name) {
+			this.category = category;
+			this.name = name;
+		}
+
+		public Node child(String category, String name) {
+			String key = category + ":" + name;
+			Node child = children.get(key);
+			if (child == null) {
+				child = new Node(category, name);
+				children.put(key, child);
+			}
+			return child;
+		}
+
+		public void add(Timer timer) {
+			count++;
+			time += timer.time;
+			cpu += Math.max(0, timer.cpu);
+			allocated += Math.max(0, timer.allocated);
+			if (timer.counters != null) {
+				for (Map.Entry<String, Long> e : timer.counters.entrySet()) {
+					Long v = counters.get(e.getKey());
+					counters.put(e.getKey(),
+							v == null ? e.getValue() : v + e.getValue());
+				}
+			}
+		}
+	}
+
+	// =========================================================================
+	// Trace Events
+	// =========================================================================
+
+	/**
+	 * Write every recorded timer in the trace event format understood by
+	 * Chrome's trace viewer. Each timer becomes a complete event on the thread
+	 * which ran it, and the counters and cache hit rates are written as
+	 * counter events at the end of the trace.
+	 *
+	 * @param out
+	 */
+	public synchronized void writeTrace(PrintWriter out) {
+		out.println("{\"traceEvents\": [");
+		HashMap<Long, String> names = new HashMap<Long, String>();
+		long end = 0;
+		boolean first = true;
+		for (Timer timer : timers) {
+			names.put(timer.thread, timer.threadName);
+			long start = timer.start - origin;
+			end = Math.max(end, start + timer.time);
+			out.print(first ? "" : ",\n");
+			first = false;
+			out.print("{\"name\": " + quote(timer.name) + ", \"cat\": "
+					+ quote(timer.category) + ", \"ph\": \"X\", \"ts\": "
+					+ micros(start) + ", \"dur\": " + micros(timer.time)
+					+ ", \"pid\": 1, \"tid\": " + timer.thread
+					+ ", \"args\": {\"cpu\": " + millis(timer.cpu)
+					+ ", \"allocated\": " + timer.allocated);
+			if (timer.counters != null) {
+				for (Map.Entry<String, Long> e : timer.counters.entrySet()) {
+					out.print(", " + quote(e.getKey()) + ": " + e.getValue());
+				}
+			}
+			out.print("}}");
+		}
+		for (Map.Entry<Long, String> e : names.entrySet()) {
+			out.print(first ? "" : ",\n");
+			first = false;
+			out.print("{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": "
+					+ e.getKey() + ", \"args\": {\"name\": "
+					+ quote(e.getValue()) + "}}");
+		}
+		if (!counters.isEmpty()) {
+			out.print(first ? "" : ",\n");
+			first = false;
+			out.print("{\"name\": \"counters\", \"ph\": \"C\", \"ts\": "
+					+ micros(end) + ", \"pid\": 1, \"args\": ");
+			writeCounters(counters, out);
+			out.print("}");
+		}
+		if (!caches.isEmpty()) {
+			out.print(first ? "" : ",\n");
+			first = false;
+			out.print("{\"name\": \"cache hit rates\", \"ph\": \"C\", \"ts\": "
+					+ micros(end) + ", \"pid\": 1, \"args\": {");
+			boolean firstCache = true;
+			for (Map.Entry<String, long[]> e : caches.entrySet()) {
+				long total = e.getValue()[0] + e.getValue()[1];
+				double rate = total == 0 ? 0 : (double) e.getValue()[0] / total;
+				out.print((firstCache ? "" : ", ") + quote(e.getKey()) + ": "
+						+ decimal(rate));
+				firstCache = false;
+			}
+			out.print("}}");
+		}
+		out.println();
+		out.println("], \"displayTimeUnit\": \"ms\"}");
+		out.flush();
+	}
+
+	// =========================================================================
+	// Helpers
+	// =========================================================================
+
+	private static String quote(String str) {
+		StringBuilder r = new StringBuilder("\"");
+		for (int i = 0; i != str.length(); ++i) {
+			char c = str.charAt(i);
+			switch (c) {
+			case '"':
+				r.append("\\\"");
+				break;
+			case '\\':
+				r.append("\\\\");
+				break;
+			case '\n':
+				r.append("\\n");
+				break;
+			case '\t':
+				r.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					r.append(String.format("\\u%04x", (int) c));
+				} else {
+					r.append(c);
+				}
+			}
+		}
+		return r.append('"').toString();
+	}
+
+	private static String millis(long nanos) {
+		return decimal(nanos / 1000000.0);
+	}
+
+	private static String micros(long nanos) {
+		return decimal(nanos / 1000.0);
+	}
+
+	private static String decimal(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static Method allocatedBytesMethod() {
+		try {
+			Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+			if (c.isInstance(threads)) {
+				Method m = c.getMethod("getThreadAllocatedBytes", long.class);
+				// Check the method actually works on this JVM
+				m.invoke(threads, Thread.currentThread().getId());
+				return m;
+			}
+		} catch (Throwable e) {
+			// not supported
+		}
+		return null;
+	}
+
+	private static long allocated() {
+		if (allocatedBytes != null) {
+			try {
+				return (Long) allocatedBytes.invoke(threads, Thread
+						.currentThread().getId());
+			} catch (Exception e) {
+				// fall through
+			}
+		}
+		return -1;
+	}
+
+	private static long cpuTime() {
+		if (threads.isCurrentThreadCpuTimeSupported()) {
+			return threads.getCurrentThreadCpuTime();
+		}
+		return -1;
+	}
+
+	/**
+	 * Represents a single timed activity. A timer begins running when it is
+	 * created, and must be stopped exactly once on the same thread.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Timer {
+
+		/**
+		 * The timer returned when profiling is disabled, which records
+		 * nothing.
+		 */
+		private static final Timer NULL = new Timer();
+
+		private final Profiler profiler;
+		private final Timer parent;
+		private final String category;
+		private final String name;
+		private final long thread;
+		private final String threadName;
+		private final long start;
+		private final long startCpu;
+		private final long startAllocated;
+		private long time;
+		private long cpu;
+		private long allocated;
+		private TreeMap<String, Long> counters;
+
+		private Timer() {
+			this.profiler = null;
+			this.parent = null;
+			this.category = null;
+			this.name = null;
+			this.thread = 0;
+			this.threadName = null;
+			this.start = 0;
+			this.startCpu = 0;
+			this.startAllocated = 0;
+		}
+
+		private Timer(Profiler profiler, Timer parent, String category,
+				String name) {
+			Thread t = Thread.currentThread();
+			this.profiler = profiler;
+			this.parent = parent;
+			this.category = category;
+			this.name = name;
+			this.thread = t.getId();
+			this.threadName = t.getName();
+			this.startCpu = cpuTime();
+			this.startAllocated = allocated();
+			this.start = System.nanoTime();
+		}
+
+		/**
+		 * Add a given amount to a named counter of this timer.
+		 *
+		 * @param name
+		 * @param amount
+		 */
+		public void count(String name, long amount) {
+			if (profiler != null) {
+				if (counters == null) {
+					counters = new TreeMap<String, Long>();
+				}
+				Long v = counters.get(name);
+				counters.put(name, v == null ? amount : v + amount);
+			}
+		}
+
+		/**
+		 * Stop this timer, and record it with the profiler which started it.
+		 * The timer enclosing this timer then becomes the current timer for
+		 * this thread. Any timers nested within this timer which are still
+		 * running (e.g. because an exception was thrown) are abandoned, and
+		 * never recorded.
+		 */
+		public void stop() {
+			if (profiler == null) {
+				return;
+			}
+			time = System.nanoTime() - start;
+			long c = cpuTime();
+			cpu = c < 0 || startCpu < 0 ? -1 : c - startCpu;
+			long a = allocated();
+			allocated = a < 0 || startAllocated < 0 ? -1 : a - startAllocated;
+			for (Timer t = current.get(); t != null; t = t.parent) {
+				if (t == this) {
+					adopt(parent);
+					break;
+				}
+			}
+			profiler.record(this);
+		}
+	}
+}
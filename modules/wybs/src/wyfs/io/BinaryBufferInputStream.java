@@ -0,0 +1,303 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyfs.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * A binary input stream which reads from a <code>ByteBuffer</code>, rather
+ * than from an underlying input stream. This is considerably faster than
+ * <code>BinaryInputStream</code>, which reads values one bit at a time. Here,
+ * bits are taken from an accumulator which is refilled a byte at a time, such
+ * that values of up to 32 bits can be read with a single mask and shift.
+ * Likewise, variable-length integers are decoded a chunk (rather than a bit) at
+ * a time.
+ * </p>
+ *
+ * <p>
+ * When reading from a file, the buffer may be mapped directly onto the file
+ * (see <code>open()</code>). Since mapping a file is relatively expensive,
+ * small files are simply read into memory instead.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BinaryBufferInputStream extends BinaryInputStream {
+
+	/**
+	 * Files of at least this size (in bytes) are mapped into memory, rather
+	 * than read.
+	 */
+	public static final int MAP_THRESHOLD = 64 * 1024;
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * The bits which have been taken from the buffer, but not yet read. The
+	 * next bit to be read is the least significant.
+	 */
+	private long bits;
+
+	/**
+	 * The number of bits which have been taken from the buffer, but not yet
+	 * read. This is always less than eight between reads.
+	 */
+	private int nbits;
+
+	public BinaryBufferInputStream(ByteBuffer buffer) {
+		super(null);
+		this.buffer = buffer;
+	}
+
+	public BinaryBufferInputStream(byte[] bytes) {
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Open a given file for reading. If the file is large enough, it is mapped
+	 * into memory; otherwise, it is read in its entirety.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static BinaryBufferInputStream open(File file) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("file too large: " + file);
+			}
+			ByteBuffer buffer;
+			if (size >= MAP_THRESHOLD) {
+				// NOTE: the mapping remains valid after the channel is closed
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+					// keep reading
+				}
+				buffer.flip();
+			}
+			return new BinaryBufferInputStream(buffer);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Read the remainder of a given input stream into memory, and then close
+	 * it.
+	 *
+	 * @param input
+	 * @param size
+	 *            --- expected number of bytes in the stream, or -1 if unknown.
+	 * @return
+	 * @throws IOException
+	 */
+	public static BinaryBufferInputStream load(InputStream input, int size)
+			throws IOException {
+		try {
+			byte[] bytes = new byte[size >= 0 ? size : 8192];
+			int count = 0;
+			int n;
+			while ((n = input.read(bytes, count, bytes.length - count)) >= 0) {
+				count += n;
+				if (count == bytes.length) {
+					int b = input.read();
+					if (b < 0) {
+						break;
+					}
+					byte[] tmp = new byte[bytes.length * 2 + 1];
+					System.arraycopy(bytes, 0, tmp, 0, count);
+					bytes = tmp;
+					bytes[count++] = (byte) b;
+				}
+			}
+			return new BinaryBufferInputStream(ByteBuffer.wrap(bytes, 0, count));
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Determine the position of the next byte to be read within the
+	 * underlying buffer. This is only meaningful at a byte boundary.
+	 *
+	 * @return
+	 */
+	public int position() {
+		return buffer.position() - (nbits >> 3);
+	}
+
+	/**
+	 * Return a buffer over the next <code>n</code> bytes of this stream,
+	 * which are then skipped. The returned buffer shares the contents of
+	 * this stream's buffer, rather than copying them. This must be called at
+	 * a byte boundary.
+	 *
+	 * @param n
+	 * @return
+	 * @throws IOException
+	 */
+	public ByteBuffer slice(int n) throws IOException {
+		pad_u8();
+		if (n > buffer.remaining()) {
+			throw new EOFException();
+		}
+		ByteBuffer r = buffer.slice();
+		r.limit(n);
+		buffer.position(buffer.position() + n);
+		return r;
+	}
+
+	public int read() throws IOException {
+		if (nbits == 0) {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		} else {
+			return read_un(8);
+		}
+	}
+
+	public int read(byte[] bytes) throws IOException {
+		return read(bytes, 0, bytes.length);
+	}
+
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (nbits != 0) {
+			for (int i = 0; i != length; ++i) {
+				bytes[offset + i] = (byte) read_un(8);
+			}
+			return length;
+		} else if (length == 0) {
+			return 0;
+		} else if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		length = Math.min(length, buffer.remaining());
+		buffer.get(bytes, offset, length);
+		return length;
+	}
+
+	public long skip(long n) throws IOException {
+		if (nbits != 0) {
+			return super.skip(n);
+		}
+		n = Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + (int) n);
+		return n;
+	}
+
+	public int available() {
+		return buffer.remaining() + (nbits >> 3);
+	}
+
+	public int read_u8() throws IOException {
+		if (nbits == 0) {
+			// NOTE: mirrors BinaryInputStream, which does not report EOF here
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : 0xFF;
+		} else {
+			return read_un(8);
+		}
+	}
+
+	public int read_un(int n) throws IOException {
+		if (n == 0) {
+			return 0;
+		}
+		fill(n);
+		int r = (int) (bits & ((1L << n) - 1));
+		bits >>>= n;
+		nbits -= n;
+		return r;
+	}
+
+	/**
+	 * Read a variable-length integer, as written by
+	 * <code>BinaryOutputStream.write_uv()</code>. This is decoded a chunk at
+	 * a time, where each chunk is taken directly from the accumulator.
+	 */
+	public int read_uv() throws IOException {
+		int value = 0;
+		int shift = 0;
+		while (true) {
+			if (nbits < 4) {
+				fill(4);
+			}
+			int w = (int) bits & 0xF;
+			bits >>>= 4;
+			nbits -= 4;
+			value |= (w & 7) << shift;
+			if ((w & 8) == 0) {
+				return value;
+			}
+			shift += 3;
+		}
+	}
+
+	public boolean read_bit() throws IOException {
+		if (nbits == 0) {
+			fill(1);
+		}
+		boolean r = (bits & 1) != 0;
+		bits >>>= 1;
+		nbits--;
+		return r;
+	}
+
+	public void pad_u8() throws IOException {
+		int r = nbits & 7;
+		bits >>>= r;
+		nbits -= r;
+	}
+
+	public void close() {
+		// nothing to do
+	}
+
+	/**
+	 * Ensure at least <code>n</code> bits (where <code>n <= 32</code>) are
+	 * available in the accumulator. Bytes are only taken from the buffer as
+	 * necessary, so that fewer than eight bits remain after any read.
+	 *
+	 * @param n
+	 * @throws EOFException
+	 */
+	private void fill(int n) throws EOFException {
+		while (nbits < n) {
+			if (!buffer.hasRemaining()) {
+				throw new EOFException();
+			}
+			bits |= (long) (buffer.get() & 0xFF) << nbits;
+			nbits += 8;
+		}
+	}
+}
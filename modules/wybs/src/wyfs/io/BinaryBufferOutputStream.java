@@ -0,0 +1,242 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyfs.io;
+
+import java.io.*;
+
+/**
+ * <p>
+ * A binary output stream which accumulates bits and bytes in memory, rather
+ * than writing each byte to an underlying output stream as it is completed.
+ * This produces exactly the same bytes as <code>BinaryOutputStream</code>,
+ * but writes values with a single mask and shift rather than one bit at a
+ * time.
+ * </p>
+ *
+ * <p>
+ * If an underlying output stream is given, then the accumulated bytes are
+ * written to it when the buffer becomes full, and when this stream is flushed
+ * or closed. Otherwise, the bytes written can be obtained using
+ * <code>toByteArray()</code>.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BinaryBufferOutputStream extends BinaryOutputStream {
+
+	/**
+	 * The size of the buffer used when writing to an underlying output
+	 * stream.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private byte[] buffer;
+
+	/**
+	 * The number of completed bytes held in the buffer.
+	 */
+	private int length;
+
+	/**
+	 * The bits of the current (incomplete) byte, where the first bit written
+	 * is the least significant, and the number of them.
+	 */
+	private int bits;
+	private int nbits;
+
+	/**
+	 * The number of bytes already written to the underlying output stream.
+	 */
+	private int written;
+
+	/**
+	 * Construct a stream which accumulates everything written in memory.
+	 */
+	public BinaryBufferOutputStream() {
+		super(null);
+		this.buffer = new byte[256];
+	}
+
+	/**
+	 * Construct a stream which writes to a given output stream.
+	 *
+	 * @param output
+	 */
+	public BinaryBufferOutputStream(OutputStream output) {
+		super(output);
+		this.buffer = new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * Return the number of completed bytes written to this stream.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return written + length;
+	}
+
+	/**
+	 * Return the bytes written to this stream. This is only permitted when
+	 * there is no underlying output stream.
+	 *
+	 * @return
+	 */
+	public byte[] toByteArray() {
+		if (output != null) {
+			throw new IllegalStateException(
+					"bytes already written to underlying stream");
+		}
+		byte[] r = new byte[length];
+		System.arraycopy(buffer, 0, r, 0, length);
+		return r;
+	}
+
+	public void write(int i) throws IOException {
+		write_un(i & 0xFF, 8);
+	}
+
+	public void write(byte[] bytes) throws IOException {
+		write(bytes, 0, bytes.length);
+	}
+
+	public void write(byte[] bytes, int offset, int n) throws IOException {
+		if (nbits != 0) {
+			for (int i = 0; i != n; ++i) {
+				write_un(bytes[offset + i] & 0xFF, 8);
+			}
+		} else {
+			ensure(n);
+			if (n > buffer.length - length) {
+				// can only happen when writing to an underlying stream
+				output.write(bytes, offset, n);
+				written += n;
+			} else {
+				System.arraycopy(bytes, offset, buffer, length, n);
+				length += n;
+			}
+		}
+	}
+
+	public void write_u8(int w) throws IOException {
+		write_un(w & 0xFF, 8);
+	}
+
+	public void write_uv(int w) throws IOException {
+		if (w < 0) {
+			throw new IllegalArgumentException(
+					"cannot write negative number in a variable amount of space");
+		}
+		do {
+			int t = w & 7;
+			w = w >> 3;
+			write_un(w != 0 ? (8 | t) : t, 4);
+		} while (w != 0);
+	}
+
+	public void write_un(int value, int n) throws IOException {
+		while (n > 0) {
+			int k = Math.min(n, 8 - nbits);
+			bits |= (value & ((1 << k) - 1)) << nbits;
+			nbits += k;
+			value >>>= k;
+			n -= k;
+			if (nbits == 8) {
+				append(bits);
+				bits = 0;
+				nbits = 0;
+			}
+		}
+	}
+
+	public void write_bit(boolean bit) throws IOException {
+		write_un(bit ? 1 : 0, 1);
+	}
+
+	public void pad_u8() throws IOException {
+		if (nbits > 0) {
+			append(bits);
+			bits = 0;
+			nbits = 0;
+		}
+	}
+
+	/**
+	 * Write out any incomplete byte, padding it with ones (as for
+	 * <code>BinaryOutputStream</code>), and then any accumulated bytes to the
+	 * underlying stream (if there is one).
+	 */
+	public void flush() throws IOException {
+		if (nbits != 0) {
+			append((bits | (0xFF << nbits)) & 0xFF);
+			bits = 0;
+			nbits = 0;
+		}
+		if (output != null) {
+			output.write(buffer, 0, length);
+			written += length;
+			length = 0;
+			output.flush();
+		}
+	}
+
+	public void close() throws IOException {
+		flush();
+		if (output != null) {
+			output.close();
+		}
+	}
+
+	private void append(int b) throws IOException {
+		ensure(1);
+		buffer[length++] = (byte) b;
+	}
+
+	/**
+	 * Ensure there is space for at least <code>n</code> more bytes in the
+	 * buffer, either by growing it or by writing its contents to the
+	 * underlying stream. In the latter case, there may still be insufficient
+	 * space.
+	 *
+	 * @param n
+	 * @throws IOException
+	 */
+	private void ensure(int n) throws IOException {
+		if (length + n <= buffer.length) {
+			return;
+		} else if (output != null) {
+			output.write(buffer, 0, length);
+			written += length;
+			length = 0;
+		} else {
+			int size = Math.max(buffer.length * 2, length + n);
+			byte[] tmp = new byte[size];
+			System.arraycopy(buffer, 0, tmp, 0, length);
+			buffer = tmp;
+		}
+	}
+}
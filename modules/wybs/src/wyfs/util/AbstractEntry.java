@@ -34,7 +34,9 @@ import wyfs.lang.Path;
 /**
  * Provides a simple implementation of <code>Path.Entry</code>. This caches
  * content in a field and employs a <code>modifies</code> bit to determine if
- * that content needs to be written to permanent storage.
+ * that content needs to be written to permanent storage. Entries are
+ * thread-safe, so that contents are read at most once even when several
+ * builders access the same entry concurrently.
  *
  * @author David J. Pearce
  *
@@ -54,11 +56,11 @@ public abstract class AbstractEntry<T> implements Path.Entry<T> {
 		return id;
 	}
 
-	public void touch() {
+	public synchronized void touch() {
 		this.modified = true;
 	}
 
-	public boolean isModified() {
+	public synchronized boolean isModified() {
 		return modified;
 	}
 
@@ -66,32 +68,40 @@ public abstract class AbstractEntry<T> implements Path.Entry<T> {
 		return contentType;
 	}
 
-	public void refresh() throws IOException {
+	public synchronized void refresh() throws IOException {
+		discard();
+	}
+
+	/**
+	 * Discard the contents of this entry (unless they have been modified), so
+	 * that they are read again when next required.
+	 */
+	public synchronized void discard() {
 		if(!modified) {
 			contents = null; // reset contents
 		}
 	}
 
-	public void flush() throws IOException {
+	public synchronized void flush() throws IOException {
 		if(modified && contents != null) {
 			contentType.write(outputStream(), contents);
 			this.modified = false;
 		}
 	}
 
-	public T read() throws IOException {
+	public synchronized T read() throws IOException {
 		if (contents == null) {
 			contents = contentType.read(this,inputStream());
 		}
 		return contents;
 	}
 
-	public void write(T contents) throws IOException {
+	public synchronized void write(T contents) throws IOException {
 		this.modified = true;
 		this.contents = contents;
 	}
 
-	public void associate(Content.Type<T> contentType, T contents) {
+	public synchronized void associate(Content.Type<T> contentType, T contents) {
 		if(this.contentType != null) {
 			throw new IllegalArgumentException("content type already associated with this entry");
 		}
@@ -43,6 +43,11 @@ import wyfs.lang.Path.ID;
  * cannot be considered a concrete entry which can be read and written in the
  * normal manner. Rather, it provides access to entries. In a physical file
  * system, a folder would correspond to a directory.
+ * <p>
+ * <b>NOTE:</b> folders are thread-safe, since several builders may access the
+ * same folder concurrently during a parallel build. Locks are always acquired
+ * from parent to child folder.
+ * </p>
  *
  * @author David J. Pearce
  *
@@ -68,7 +73,7 @@ public abstract class AbstractFolder implements Path.Folder {
 	}
 
 	@Override
-	public boolean contains(Path.Entry<?> e) throws IOException {
+	public synchronized boolean contains(Path.Entry<?> e) throws IOException {
 		updateContents();
 		Path.ID eid = e.id();
 		boolean contained;
@@ -110,12 +115,12 @@ public abstract class AbstractFolder implements Path.Folder {
 	}
 
 	@Override
-	public boolean exists(ID id, Content.Type<?> ct) throws IOException{
+	public synchronized boolean exists(ID id, Content.Type<?> ct) throws IOException{
 		return get(id,ct) != null;
 	}
 
 	@Override
-	public <T> Path.Entry<T> get(ID eid, Content.Type<T> ct) throws IOException{
+	public synchronized <T> Path.Entry<T> get(ID eid, Content.Type<T> ct) throws IOException{
 		updateContents();
 
 		ID tid = id.append(eid.get(0));
@@ -150,7 +155,7 @@ public abstract class AbstractFolder implements Path.Folder {
 	}
 
 	@Override
-	public List<Entry<?>> getAll() throws IOException{
+	public synchronized List<Entry<?>> getAll() throws IOException{
 		ArrayList entries = new ArrayList();
 		updateContents();
 
@@ -173,7 +178,7 @@ public abstract class AbstractFolder implements Path.Folder {
 	}
 
 	@Override
-	public <T> void getAll(Content.Filter<T> filter, List<Entry<T>> entries) throws IOException{
+	public synchronized <T> void getAll(Content.Filter<T> filter, List<Entry<T>> entries) throws IOException{
 		updateContents();
 
 		// It would be nice to further optimise this loop. The key issue is that,
@@ -197,7 +202,7 @@ public abstract class AbstractFolder implements Path.Folder {
 	}
 
 	@Override
-	public <T> void getAll(Content.Filter<T> filter, Set<Path.ID> entries) throws IOException{
+	public synchronized <T> void getAll(Content.Filter<T> filter, Set<Path.ID> entries) throws IOException{
 		updateContents();
 
 		// It would be nice to further optimise this loop. The key issue is that,
@@ -220,13 +225,100 @@ public abstract class AbstractFolder implements Path.Folder {
 		}
 	}
 
+	/**
+	 * Refresh this folder from permanent storage. Items which still exist are
+	 * retained, and are themselves refreshed. Thus, entries whose contents
+	 * have already been read need only read them again if they have changed.
+	 * Entries which have been modified, but not yet flushed, are always
+	 * retained.
+	 */
 	@Override
-	public void refresh() {
+	public synchronized void refresh() throws IOException {
+		if (contents == null) {
+			// nothing has been loaded yet, so nothing to refresh.
+			return;
+		}
+
+		Path.Item[] ncontents = contents();
+		boolean[] retained = new boolean[nentries];
+		int count = ncontents.length;
+		for (int i = 0; i != ncontents.length; ++i) {
+			int index = indexOf(ncontents[i]);
+			if (index >= 0) {
+				retained[index] = true;
+				ncontents[i] = contents[index];
+				ncontents[i].refresh();
+			}
+		}
+		for (int i = 0; i != nentries; ++i) {
+			if (!retained[i] && contents[i] instanceof Entry
+					&& ((Entry) contents[i]).isModified()) {
+				ncontents = Arrays.copyOf(ncontents, count + 1);
+				ncontents[count++] = contents[i];
+			}
+		}
+
+		Arrays.sort(ncontents, entryComparator);
+		contents = ncontents;
+		nentries = count;
+	}
+
+	/**
+	 * Refresh a single item of this folder from permanent storage, rather than
+	 * the folder as a whole. If a corresponding item (i.e. with the same ID,
+	 * and either a folder or an entry of the same content type) is already
+	 * held then it is retained and, if an entry, refreshed. Otherwise, the
+	 * given item is added. Either way, the items of any subfolder are not
+	 * refreshed.
+	 *
+	 * @param item
+	 *            --- item now found on permanent storage.
+	 * @return the item now held by this folder.
+	 */
+	protected synchronized Path.Item refresh(Path.Item item) throws IOException {
+		updateContents();
+		int index = indexOf(item);
+		if (index < 0) {
+			insert(item);
+			return item;
+		} else if (contents[index] instanceof Entry) {
+			contents[index].refresh();
+		}
+		return contents[index];
+	}
+
+	/**
+	 * Remove the item of this folder corresponding to a given item, which no
+	 * longer exists on permanent storage. As for <code>refresh()</code>, an
+	 * entry which has been modified but not yet flushed is retained.
+	 *
+	 * @param item
+	 */
+	protected synchronized void remove(Path.Item item) {
+		if (contents == null) {
+			// nothing has been loaded yet, so nothing to remove.
+			return;
+		}
+		int index = indexOf(item);
+		if (index >= 0
+				&& !(contents[index] instanceof Entry && ((Entry) contents[index])
+						.isModified())) {
+			System.arraycopy(contents, index + 1, contents, index, nentries
+					- index - 1);
+			contents[--nentries] = null;
+		}
+	}
+
+	/**
+	 * Discard all items currently held by this folder, such that they are
+	 * recomputed when next required.
+	 */
+	protected synchronized void invalidate() {
 		contents = null;
 	}
 
 	@Override
-	public void flush() throws IOException {
+	public synchronized void flush() throws IOException {
 		if(contents != null) {
 			for(int i=0;i!=nentries;++i) {
 				contents[i].flush();
@@ -234,7 +326,7 @@ public abstract class AbstractFolder implements Path.Folder {
 		}
 	}
 
-	protected Path.Folder getFolder(String name) throws IOException {
+	protected synchronized Path.Folder getFolder(String name) throws IOException {
 		updateContents();
 
 		ID tid = id.append(name);
@@ -266,7 +358,7 @@ public abstract class AbstractFolder implements Path.Folder {
 	 *
 	 * @param item
 	 */
-	protected void insert(Path.Item item) throws IOException {
+	protected synchronized void insert(Path.Item item) throws IOException {
 		if (item.id().parent() != id) {
 			throw new IllegalArgumentException(
 					"Cannot insert with incorrect Path.Item (" + item.id() + ") into AbstractFolder (" + id + ")");
@@ -296,6 +388,33 @@ public abstract class AbstractFolder implements Path.Folder {
 		nentries++;
 	}
 
+	/**
+	 * Determine the index of the item in this folder which corresponds to a
+	 * given item. That is, the item with the same ID which is either a folder,
+	 * or an entry with the same content type. If there is no such item, then
+	 * -1 is returned.
+	 *
+	 * @param item
+	 * @return
+	 */
+	private int indexOf(Path.Item item) {
+		int idx = binarySearch(contents, nentries, item.id());
+		if (idx >= 0) {
+			do {
+				Path.Item ith = contents[idx];
+				if (ith instanceof Path.Folder && item instanceof Path.Folder) {
+					return idx;
+				} else if (ith instanceof Entry
+						&& item instanceof Entry
+						&& ((Entry) ith).contentType() == ((Entry) item)
+								.contentType()) {
+					return idx;
+				}
+			} while (++idx < nentries && contents[idx].id().equals(item.id()));
+		}
+		return -1;
+	}
+
 	private final void updateContents() throws IOException{
 		if(contents == null) {
 			contents = contents();
@@ -0,0 +1,292 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package wyfs.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import wyfs.io.BinaryBufferInputStream;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+
+/**
+ * <p>
+ * Provides an implementation of <code>Path.Root</code> for representing the
+ * contents of a library bundle. A bundle is a single file containing a number
+ * of (uncompressed) files, preceded by an index which records the name and
+ * location of each. Unlike a jar file, a bundle can be mapped directly into
+ * memory and its index read without decompressing anything. Furthermore, the
+ * contents of each file are then read directly from the mapped region. Bundles
+ * are constructed using <code>BundleWriter</code>.
+ * </p>
+ *
+ * <p>
+ * A bundle has the following layout, where all numbers are big-endian:
+ * </p>
+ *
+ * <pre>
+ * +-----------------------------------+
+ * | magic ("WYLB")           4 bytes  |
+ * | major version            u16      |
+ * | minor version            u16      |
+ * | number of files          u32      |
+ * +-----------------------------------+
+ * | name (modified UTF-8)    u16 + n  |
+ * | offset                   u32      |  repeated for each file, in
+ * | length                   u32      |  order of name
+ * | last modified            u64      |
+ * +-----------------------------------+
+ * | contents of each file             |
+ * +-----------------------------------+
+ * </pre>
+ *
+ * <p>
+ * Each name is the path of the file within the bundle (e.g.
+ * "whiley/lang/Math.wyil"), and each offset is taken from the start of the
+ * bundle.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class BundleRoot extends AbstractRoot<BundleRoot.Folder> implements Path.Root {
+
+	/**
+	 * The magic number which identifies a bundle.
+	 */
+	public static final int MAGIC = ('W' << 24) | ('Y' << 16) | ('L' << 8) | 'B';
+
+	public static final int MAJOR_VERSION = 0;
+	public static final int MINOR_VERSION = 1;
+
+	private final File file;
+
+	/**
+	 * The items contained in each folder of this bundle, indexed by the ID of
+	 * that folder.
+	 */
+	private HashMap<Path.ID, ArrayList<Path.Item>> folders;
+
+	/**
+	 * The modification time of the bundle when it was last read. The bundle
+	 * is only read again on a refresh if it has since changed.
+	 */
+	private long timestamp;
+
+	public BundleRoot(String file, Content.Registry contentTypes) throws IOException {
+		this(new File(file), contentTypes);
+	}
+
+	public BundleRoot(File file, Content.Registry contentTypes) throws IOException {
+		super(contentTypes);
+		this.file = file;
+		refresh();
+	}
+
+	@Override
+	public <T> Path.Entry<T> create(Path.ID id, Content.Type<T> ct) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void flush() {
+		// no-op, since bundles are read-only.
+	}
+
+	@Override
+	public synchronized void refresh() throws IOException {
+		if (folders != null && file.lastModified() == timestamp) {
+			// bundle unchanged, so entries remain valid.
+			return;
+		}
+		timestamp = file.lastModified();
+		ByteBuffer data = map(file);
+		DataInputStream index = new DataInputStream(new BinaryBufferInputStream(
+				data.duplicate()));
+		if (index.readInt() != MAGIC) {
+			throw new IOException("invalid bundle: " + file);
+		}
+		int major = index.readUnsignedShort();
+		int minor = index.readUnsignedShort();
+		if (major > MAJOR_VERSION
+				|| (major == MAJOR_VERSION && minor > MINOR_VERSION)) {
+			throw new IOException("unsupported bundle version: " + major + "."
+					+ minor);
+		}
+		int count = index.readInt();
+		String location = file.getPath();
+		HashMap<Path.ID, ArrayList<Path.Item>> folders = new HashMap<Path.ID, ArrayList<Path.Item>>();
+		folders.put(Trie.ROOT, new ArrayList<Path.Item>());
+		for (int i = 0; i != count; ++i) {
+			String filename = index.readUTF();
+			int offset = index.readInt();
+			int length = index.readInt();
+			long modified = index.readLong();
+			if (offset < 0 || length < 0 || offset > data.limit() - length) {
+				throw new IOException("invalid bundle: " + file);
+			}
+			int lastSlash = filename.lastIndexOf('/');
+			int lastDot = filename.lastIndexOf('.');
+			Trie pkg = lastSlash == -1 ? Trie.ROOT : Trie.fromString(filename
+					.substring(0, lastSlash));
+			String name = lastDot > lastSlash ? filename.substring(
+					lastSlash + 1, lastDot) : filename.substring(lastSlash + 1);
+			String suffix = lastDot > lastSlash ? filename
+					.substring(lastDot + 1) : "";
+			Entry e = new Entry(pkg.append(name), location, suffix,
+					slice(data, offset, length), modified);
+			contentTypes.associate(e);
+			folder(pkg, folders).add(e);
+		}
+		this.folders = folders;
+		root.invalidate();
+	}
+
+	@Override
+	protected Folder root() {
+		return new Folder(Trie.ROOT);
+	}
+
+	public String toString() {
+		return file.getPath();
+	}
+
+	/**
+	 * Determine the list of items for a given folder, creating it (and any
+	 * enclosing folders) if necessary.
+	 *
+	 * @param id
+	 * @param folders
+	 * @return
+	 */
+	private ArrayList<Path.Item> folder(Trie id,
+			HashMap<Path.ID, ArrayList<Path.Item>> folders) {
+		ArrayList<Path.Item> items = folders.get(id);
+		if (items == null) {
+			items = new ArrayList<Path.Item>();
+			folders.put(id, items);
+			folder(id.parent(), folders).add(new Folder(id));
+		}
+		return items;
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("bundle too large: " + file);
+			}
+			// NOTE: the mapping remains valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			input.close();
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+		ByteBuffer r = data.duplicate();
+		r.position(offset);
+		r.limit(offset + length);
+		return r.slice();
+	}
+
+	/**
+	 * Represents a folder within a bundle.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public final class Folder extends AbstractFolder {
+		public Folder(Path.ID id) {
+			super(id);
+		}
+
+		@Override
+		protected Path.Item[] contents() throws IOException {
+			ArrayList<Path.Item> items = folders.get(id);
+			if (items == null) {
+				return new Path.Item[0];
+			}
+			return items.toArray(new Path.Item[items.size()]);
+		}
+
+		@Override
+		public <T> wyfs.lang.Path.Entry<T> create(Path.ID id, Content.Type<T> ct) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static final class Entry<T> extends AbstractEntry<T> implements Path.Entry<T> {
+		private final String location;
+		private final String suffix;
+		private final ByteBuffer data;
+		private final long modified;
+
+		public Entry(Trie id, String location, String suffix, ByteBuffer data,
+				long modified) {
+			super(id);
+			this.location = location;
+			this.suffix = suffix;
+			this.data = data;
+			this.modified = modified;
+		}
+
+		public String location() {
+			return location;
+		}
+
+		public long lastModified() {
+			return modified;
+		}
+
+		public boolean isModified() {
+			// cannot modify something in a bundle.
+			return false;
+		}
+
+		public void touch() {
+			throw new UnsupportedOperationException();
+		}
+
+		public String suffix() {
+			return suffix;
+		}
+
+		public InputStream inputStream() throws IOException {
+			return new BinaryBufferInputStream(data.duplicate());
+		}
+
+		public OutputStream outputStream() throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public void write(T contents) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
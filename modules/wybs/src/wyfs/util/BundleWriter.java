@@ -0,0 +1,241 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package wyfs.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * <p>
+ * Responsible for constructing library bundles, as read by
+ * <code>BundleRoot</code>. Files are added from directories and jar files, and
+ * the bundle is then written out in one go. For example, the following
+ * constructs a bundle from the Whiley standard library:
+ * </p>
+ *
+ * <pre>
+ * java wyfs.util.BundleWriter lib/wyrt.wylib lib/wyrt.jar
+ * </pre>
+ *
+ * <p>
+ * The bundle is first written to a temporary file, which then replaces any
+ * existing bundle. This is important since an existing bundle may be mapped
+ * into memory by a running compiler, and must not be truncated underneath it.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class BundleWriter {
+
+	/**
+	 * The files to be written, indexed by their name within the bundle.
+	 */
+	private final TreeMap<String, Item> items = new TreeMap<String, Item>();
+
+	/**
+	 * Add a single file to this bundle, replacing any existing file of the
+	 * same name.
+	 *
+	 * @param name
+	 *            --- path of the file within the bundle (e.g.
+	 *            "whiley/lang/Math.wyil").
+	 * @param contents
+	 * @param modified
+	 *            --- last modification time of the file.
+	 */
+	public void add(String name, byte[] contents, long modified) {
+		items.put(name, new Item(contents, modified));
+	}
+
+	/**
+	 * Add every file contained in a given directory (or any subdirectory
+	 * thereof) which is accepted by a given filter.
+	 *
+	 * @param dir
+	 * @param filter
+	 * @throws IOException
+	 */
+	public void addDirectory(File dir, FileFilter filter) throws IOException {
+		addDirectory(dir, "", filter);
+	}
+
+	private void addDirectory(File dir, String prefix, FileFilter filter)
+			throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("not a directory: " + dir);
+		}
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				addDirectory(file, name + "/", filter);
+			} else if (filter.accept(file)) {
+				add(name, read(new FileInputStream(file)), file.lastModified());
+			}
+		}
+	}
+
+	/**
+	 * Add every file contained in a given jar file, except for its manifest.
+	 *
+	 * @param jar
+	 * @throws IOException
+	 */
+	public void addJar(File jar) throws IOException {
+		JarFile jf = new JarFile(jar);
+		try {
+			Enumeration<JarEntry> entries = jf.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry e = entries.nextElement();
+				if (!e.isDirectory() && !e.getName().startsWith("META-INF/")) {
+					add(e.getName(), read(jf.getInputStream(e)), e.getTime());
+				}
+			}
+		} finally {
+			jf.close();
+		}
+	}
+
+	/**
+	 * Write out the bundle to a given file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+			// First, determine the size of the header and index
+			int offset = 12;
+			for (String name : items.keySet()) {
+				offset += utfLength(name) + 16;
+			}
+			out.writeInt(BundleRoot.MAGIC);
+			out.writeShort(BundleRoot.MAJOR_VERSION);
+			out.writeShort(BundleRoot.MINOR_VERSION);
+			out.writeInt(items.size());
+			for (Map.Entry<String, Item> e : items.entrySet()) {
+				Item item = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeInt(offset);
+				out.writeInt(item.contents.length);
+				out.writeLong(item.modified);
+				offset += item.contents.length;
+			}
+			for (Item item : items.values()) {
+				out.write(item.contents);
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// On some platforms, an existing file cannot be replaced by
+			// renaming.
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("unable to write " + file);
+			}
+		}
+	}
+
+	/**
+	 * Determine the number of bytes needed to write a given string using
+	 * <code>DataOutputStream.writeUTF()</code>, including its length.
+	 *
+	 * @param str
+	 * @return
+	 */
+	private static int utfLength(String str) {
+		int length = 2;
+		for (int i = 0; i != str.length(); ++i) {
+			char c = str.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length += 1;
+			} else if (c <= 0x07FF) {
+				length += 2;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static byte[] read(InputStream input) throws IOException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = input.read(buf)) >= 0) {
+				bytes.write(buf, 0, n);
+			}
+			return bytes.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+	private static final class Item {
+		public final byte[] contents;
+		public final long modified;
+
+		public Item(byte[] contents, long modified) {
+			this.contents = contents;
+			this.modified = modified;
+		}
+	}
+
+	/**
+	 * Construct a bundle from the jar files and directories given on the
+	 * command line. Every file in a given directory is included.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("usage: java wyfs.util.BundleWriter <bundle> <jar|dir>...");
+			System.exit(1);
+		}
+		try {
+			BundleWriter writer = new BundleWriter();
+			for (int i = 1; i != args.length; ++i) {
+				File file = new File(args[i]);
+				if (file.isDirectory()) {
+					writer.addDirectory(file, DirectoryRoot.NULL_FILTER);
+				} else {
+					writer.addJar(file);
+				}
+			}
+			writer.write(new File(args[0]));
+		} catch (IOException e) {
+			System.err.println("error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -28,6 +28,7 @@ package wyfs.util;
 import java.io.*;
 import java.util.*;
 
+import wyfs.io.BinaryBufferInputStream;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
 import wyfs.lang.Content.Filter;
@@ -126,6 +127,10 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 		return dir;
 	}
 
+	public FileFilter filter() {
+		return filter;
+	}
+
 	public String toString() {
 		return dir.getPath();
 	}
@@ -181,6 +186,56 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 		return sources;
 	}
 
+	/**
+	 * Refresh only those items of this root corresponding to a given set of
+	 * physical files, which may have been added, modified or removed (for
+	 * example, as reported by a <code>DirectoryWatcher</code>). Only the items
+	 * for these files are updated, rather than rescanning the whole root.
+	 * Files which are not located within this root are ignored.
+	 *
+	 * @param files
+	 *            --- files on the physical file system which have changed.
+	 * @return --- entries corresponding to those files which still exist.
+	 *         Directories are added or removed as necessary, but the entries
+	 *         they contain are not returned.
+	 * @throws IOException
+	 */
+	public List<Path.Entry<?>> refresh(Collection<File> files)
+			throws IOException {
+		ArrayList<Path.Entry<?>> entries = new ArrayList<Path.Entry<?>>();
+		File location = dir.getAbsoluteFile();
+		for (File file : files) {
+			file = file.getAbsoluteFile();
+			LinkedList<File> dirs = new LinkedList<File>();
+			File parent = file.getParentFile();
+			while (parent != null && !parent.equals(location)) {
+				dirs.addFirst(parent);
+				parent = parent.getParentFile();
+			}
+			if (parent == null) {
+				continue; // not located within this root
+			}
+			Folder folder = root;
+			for (File d : dirs) {
+				Folder f = (Folder) folder.getFolder(d.getName());
+				if (f == null && d.isDirectory() && filter.accept(d)) {
+					f = (Folder) folder.refresh(folder.item(d));
+				}
+				folder = f;
+				if (folder == null) {
+					break;
+				}
+			}
+			if (folder != null) {
+				Path.Item item = folder.refresh(file);
+				if (item instanceof Entry) {
+					entries.add((Entry<?>) item);
+				}
+			}
+		}
+		return entries;
+	}
+
 	/**
 	 * An entry is a file on the file system which represents a Whiley module. The
 	 * file may be encoded in a range of different formats. For example, it may be a
@@ -192,11 +247,45 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 	public static final class Entry<T> extends AbstractEntry<T> implements Path.Entry<T> {
 		private final java.io.File file;
 
+		/**
+		 * The modification time and length of the file when its contents were
+		 * last read or written. These determine whether or not the contents
+		 * are out-of-date when this entry is refreshed.
+		 */
+		private long timestamp;
+		private long length;
+
 		public Entry(Path.ID id, java.io.File file) {
 			super(id);
 			this.file = file;
 		}
 
+		public synchronized T read() throws IOException {
+			if (contents == null) {
+				stamp();
+			}
+			return super.read();
+		}
+
+		public synchronized void flush() throws IOException {
+			boolean writing = modified && contents != null;
+			super.flush();
+			if (writing) {
+				stamp();
+			}
+		}
+
+		public synchronized void refresh() throws IOException {
+			if (file.lastModified() != timestamp || file.length() != length) {
+				super.refresh();
+			}
+		}
+
+		private void stamp() {
+			timestamp = file.lastModified();
+			length = file.length();
+		}
+
 		public String location() {
 			return file.getPath();
 		}
@@ -220,7 +309,7 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 		}
 
 		public InputStream inputStream() throws IOException {
-			return new FileInputStream(file);
+			return BinaryBufferInputStream.open(file);
 		}
 
 		public OutputStream outputStream() throws IOException {
@@ -253,19 +342,9 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 				Path.Item[] items = new Path.Item[files.length];
 				int count = 0;
 				for(int i=0;i!=files.length;++i) {
-					File file = files[i];
-					String filename = file.getName();
-					if (file.isDirectory()) {
-						items[count++] = new Folder(id.append(filename));
-					} else {
-						int idx = filename.lastIndexOf('.');
-						if (idx > 0) {
-							String name = filename.substring(0, idx);
-							Path.ID oid = id.append(name);
-							Entry e = new Entry(oid, file);
-							contentTypes.associate(e);
-							items[count++] = e;
-						}
+					Path.Item item = item(files[i]);
+					if (item != null) {
+						items[count++] = item;
 					}
 				}
 
@@ -281,8 +360,57 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 			}
 		}
 
+		/**
+		 * Refresh the item of this folder corresponding to a given file in
+		 * its directory, without listing the directory itself.
+		 *
+		 * @param file
+		 *            --- file which may have been added, modified or removed.
+		 * @return the item now held for the file, or null if it no longer
+		 *         exists.
+		 * @throws IOException
+		 */
+		private synchronized Path.Item refresh(File file) throws IOException {
+			if (file.exists() && filter.accept(file)) {
+				Path.Item item = item(file);
+				return item == null ? null : refresh(item);
+			}
+			// NOTE: a file which no longer exists may have been either a
+			// directory or a file, so both must be removed.
+			remove(new Folder(id.append(file.getName())));
+			Path.Item item = item(file);
+			if (item != null) {
+				remove(item);
+			}
+			return null;
+		}
+
+		/**
+		 * Construct the item corresponding to a given file in this folder's
+		 * directory, or null if there is none (i.e. the file has no suffix).
+		 *
+		 * @param file
+		 * @return
+		 */
+		private Path.Item item(File file) {
+			String filename = file.getName();
+			if (file.isDirectory()) {
+				return new Folder(id.append(filename));
+			} else {
+				int idx = filename.lastIndexOf('.');
+				if (idx > 0) {
+					String name = filename.substring(0, idx);
+					Path.ID oid = id.append(name);
+					Entry e = new Entry(oid, file);
+					contentTypes.associate(e);
+					return e;
+				}
+			}
+			return null;
+		}
+
 		@Override
-		public <T> Path.Entry<T> create(ID nid, Content.Type<T> ct)
+		public synchronized <T> Path.Entry<T> create(ID nid, Content.Type<T> ct)
 				throws IOException {
 			if (nid.size() == 1) {
 				// attempting to create an entry in this folder
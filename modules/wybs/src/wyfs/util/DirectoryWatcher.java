@@ -0,0 +1,487 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyfs.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import wyfs.lang.Path;
+
+/**
+ * <p>
+ * Watches a directory root for changes to the files it contains, notifying a
+ * listener of those entries which have been added or modified. Before the
+ * listener is notified, the items of the root for the changed files are
+ * refreshed so that they are in sync with the file system. Thus, a build
+ * started from the listener need not rescan the directory itself.
+ * </p>
+ *
+ * <p>
+ * Changes are detected by comparing the modification time and length of each
+ * file against those seen previously. Where the platform provides a file
+ * system watch service (i.e. <code>java.nio.file.WatchService</code>, from
+ * Java 7), only those files which it reports as changed are examined, and the
+ * directory is scanned in full only when it reports that changes may have been
+ * lost (i.e. on overflow). Otherwise, the directory is scanned at a fixed
+ * interval. Since a single save
+ * (or checkout) often touches several files in quick succession, the listener
+ * is only notified once no further changes have been seen for a given delay.
+ * All changes seen up to that point are then reported together.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class DirectoryWatcher implements Runnable {
+
+	/**
+	 * A listener is notified of those entries in the watched root which have
+	 * been added or modified. Entries which were removed are not reported,
+	 * although they will no longer be found in the root.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public interface Listener {
+		public void changed(List<Path.Entry<?>> entries);
+	}
+
+	/**
+	 * The default time (in milliseconds) between successive polls of the
+	 * directory.
+	 */
+	public static final int DEFAULT_INTERVAL = 1000;
+
+	/**
+	 * The default time (in milliseconds) for which no changes must be seen
+	 * before the listener is notified.
+	 */
+	public static final int DEFAULT_DELAY = 300;
+
+	private final DirectoryRoot root;
+	private final Listener listener;
+
+	/**
+	 * The time (in milliseconds) between successive polls of the directory.
+	 * When a watch service is available, this is instead the longest time
+	 * spent waiting for it to report a change.
+	 */
+	private long interval = DEFAULT_INTERVAL;
+
+	/**
+	 * The time (in milliseconds) for which no changes must be seen before the
+	 * listener is notified.
+	 */
+	private long delay = DEFAULT_DELAY;
+
+	/**
+	 * The watch service notifying us of changes to the directory, or null if
+	 * none is available (in which case the directory is polled).
+	 */
+	private volatile WatchService service;
+
+	/**
+	 * The modification time and length of each file when last seen.
+	 */
+	private HashMap<File, Stamp> snapshot;
+
+	private volatile boolean running;
+
+	public DirectoryWatcher(DirectoryRoot root, Listener listener) {
+		this.root = root;
+		this.listener = listener;
+	}
+
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * Watch the directory until <code>stop()</code> is called, notifying the
+	 * listener of any changes. This is intended to be run on a dedicated
+	 * thread, although it may also be run on the main thread of a program
+	 * which does nothing else.
+	 */
+	public void run() {
+		running = true;
+		HashSet<File> pending = new HashSet<File>();
+		long lastChange = 0;
+		service = WatchService.create();
+		try {
+			poll();
+			while (running) {
+				Set<File> changes;
+				if (service == null) {
+					Thread.sleep(interval);
+					changes = poll();
+				} else {
+					Set<File> events = service.await(pending.isEmpty() ? interval
+							: delay);
+					// NOTE: if changes may have been lost then the whole
+					// directory must be scanned.
+					changes = events != null ? update(events) : poll();
+				}
+				long now = System.currentTimeMillis();
+				if (!changes.isEmpty()) {
+					pending.addAll(changes);
+					lastChange = now;
+				} else if (!pending.isEmpty() && now - lastChange >= delay) {
+					List<Path.Entry<?>> entries = refresh(pending);
+					pending.clear();
+					if (!entries.isEmpty()) {
+						listener.changed(entries);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// stop watching
+		} catch (IOException e) {
+			// the directory (or watch service) is no longer accessible, so
+			// stop watching
+		} finally {
+			if (service != null) {
+				service.close();
+				service = null;
+			}
+		}
+		running = false;
+	}
+
+	/**
+	 * Stop watching the directory. When polling, this takes effect at the next
+	 * poll. Otherwise, the watch service is closed so as to take effect
+	 * immediately.
+	 */
+	public void stop() {
+		running = false;
+		WatchService s = service;
+		if (s != null) {
+			s.close();
+		}
+	}
+
+	/**
+	 * Scan the directory, returning those files which have been added,
+	 * modified or removed since the last scan. On the first scan, no changes
+	 * are reported.
+	 *
+	 * @return
+	 */
+	public synchronized Set<File> poll() {
+		HashMap<File, Stamp> nsnapshot = new HashMap<File, Stamp>();
+		ArrayList<File> dirs = new ArrayList<File>();
+		scan(root.location(), root.filter(), nsnapshot, dirs);
+		if (service != null) {
+			// NOTE: directories created since the last scan must be registered
+			for (File dir : dirs) {
+				service.register(dir);
+			}
+		}
+		HashSet<File> changes = new HashSet<File>();
+		if (snapshot != null) {
+			for (Map.Entry<File, Stamp> e : nsnapshot.entrySet()) {
+				if (!e.getValue().equals(snapshot.get(e.getKey()))) {
+					changes.add(e.getKey());
+				}
+			}
+			for (File file : snapshot.keySet()) {
+				if (!nsnapshot.containsKey(file)) {
+					changes.add(file);
+				}
+			}
+		}
+		snapshot = nsnapshot;
+		return changes;
+	}
+
+	/**
+	 * Examine only those files reported by the watch service, returning those
+	 * which have been added, modified or removed since they were last seen.
+	 * Directories which have been added are scanned (and registered), whilst
+	 * any files in directories which have been removed are reported as
+	 * removed.
+	 *
+	 * @param files
+	 * @return
+	 */
+	private synchronized Set<File> update(Set<File> files) {
+		FileFilter filter = root.filter();
+		HashSet<File> changes = new HashSet<File>();
+		for (File file : files) {
+			if (file.isDirectory()) {
+				// NOTE: a directory already registered has not been added,
+				// and changes to the files it contains are reported separately.
+				if (!service.isRegistered(file) && filter.accept(file)) {
+					HashMap<File, Stamp> nsnapshot = new HashMap<File, Stamp>();
+					ArrayList<File> dirs = new ArrayList<File>();
+					scan(file, filter, nsnapshot, dirs);
+					for (File dir : dirs) {
+						service.register(dir);
+					}
+					for (Map.Entry<File, Stamp> e : nsnapshot.entrySet()) {
+						if (!e.getValue().equals(snapshot.put(e.getKey(),
+								e.getValue()))) {
+							changes.add(e.getKey());
+						}
+					}
+				}
+			} else if (file.exists()) {
+				if (filter.accept(file)) {
+					Stamp stamp = new Stamp(file.lastModified(), file.length());
+					if (!stamp.equals(snapshot.put(file, stamp))) {
+						changes.add(file);
+					}
+				}
+			} else if (snapshot.remove(file) != null) {
+				changes.add(file);
+			} else {
+				// This may have been a directory, in which case the files
+				// it contained have also been removed.
+				String prefix = file.getPath() + File.separator;
+				Iterator<File> i = snapshot.keySet().iterator();
+				while (i.hasNext()) {
+					File f = i.next();
+					if (f.getPath().startsWith(prefix)) {
+						i.remove();
+						changes.add(f);
+					}
+				}
+				changes.add(file);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Refresh the items of the root corresponding to a given set of changed
+	 * files, and determine their entries. Only the items for these files are
+	 * refreshed, rather than the whole root. Files which no longer exist have
+	 * no corresponding entry, and are therefore ignored.
+	 *
+	 * @param files
+	 * @return
+	 * @throws IOException
+	 */
+	public List<Path.Entry<?>> refresh(Set<File> files) throws IOException {
+		return root.refresh(files);
+	}
+
+	private static void scan(File dir, FileFilter filter,
+			HashMap<File, Stamp> snapshot, List<File> dirs) {
+		File[] files = dir.listFiles(filter);
+		if (files == null) {
+			return;
+		}
+		dirs.add(dir);
+		for (File file : files) {
+			if (file.isDirectory()) {
+				scan(file, filter, snapshot, dirs);
+			} else {
+				snapshot.put(file, new Stamp(file.lastModified(), file.length()));
+			}
+		}
+	}
+
+	/**
+	 * Provides access to the platform's file system watch service (if any).
+	 * Since this is only available from Java 7, it is accessed reflectively.
+	 * The events it reports are mapped back to the files concerned, using the
+	 * directory for which each watch key was registered.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class WatchService {
+		private final Object service;
+		private final Object kinds;
+		private final Object overflow;
+		private final Method toPath;
+		private final Method register;
+		private final Method poll;
+		private final Method pollEvents;
+		private final Method kind;
+		private final Method context;
+		private final Method reset;
+		private final Method close;
+
+		/**
+		 * The directory registered for each watch key.
+		 */
+		private final HashMap<Object, File> keys = new HashMap<Object, File>();
+
+		/**
+		 * The directories registered with the watch service.
+		 */
+		private final HashSet<File> registered = new HashSet<File>();
+
+		private WatchService() throws Exception {
+			Class<?> fileSystems = Class.forName("java.nio.file.FileSystems");
+			Object fs = fileSystems.getMethod("getDefault").invoke(null);
+			service = Class.forName("java.nio.file.FileSystem")
+					.getMethod("newWatchService").invoke(fs);
+			Class<?> serviceClass = Class.forName("java.nio.file.WatchService");
+			Class<?> kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+			Class<?> kindsClass = Class
+					.forName("java.nio.file.StandardWatchEventKinds");
+			kinds = Array.newInstance(kindClass, 3);
+			Array.set(kinds, 0, kindsClass.getField("ENTRY_CREATE").get(null));
+			Array.set(kinds, 1, kindsClass.getField("ENTRY_MODIFY").get(null));
+			Array.set(kinds, 2, kindsClass.getField("ENTRY_DELETE").get(null));
+			overflow = kindsClass.getField("OVERFLOW").get(null);
+			toPath = File.class.getMethod("toPath");
+			register = Class.forName("java.nio.file.Path").getMethod(
+					"register", serviceClass, kinds.getClass());
+			poll = serviceClass.getMethod("poll", long.class, TimeUnit.class);
+			Class<?> keyClass = Class.forName("java.nio.file.WatchKey");
+			pollEvents = keyClass.getMethod("pollEvents");
+			Class<?> eventClass = Class.forName("java.nio.file.WatchEvent");
+			kind = eventClass.getMethod("kind");
+			context = eventClass.getMethod("context");
+			reset = keyClass.getMethod("reset");
+			close = serviceClass.getMethod("close");
+		}
+
+		/**
+		 * Create a watch service, or return null if none is available.
+		 *
+		 * @return
+		 */
+		public static WatchService create() {
+			try {
+				return new WatchService();
+			} catch (Exception e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Register a given directory (if not already registered), such that
+		 * changes to the files it contains are reported. If it cannot be
+		 * registered, changes to it will go unnoticed until some other change
+		 * causes the directory to be scanned.
+		 *
+		 * @param dir
+		 */
+		public void register(File dir) {
+			if (registered.add(dir)) {
+				try {
+					keys.put(register.invoke(toPath.invoke(dir), service, kinds),
+							dir);
+				} catch (Exception e) {
+					registered.remove(dir);
+				}
+			}
+		}
+
+		public boolean isRegistered(File dir) {
+			return registered.contains(dir);
+		}
+
+		/**
+		 * Wait for up to a given time for changes to be reported, returning
+		 * the files concerned. Directories which no longer exist are no longer
+		 * registered.
+		 *
+		 * @param timeout
+		 * @return the files reported as changed (which is empty if none were
+		 *         reported), or null if changes may have been lost.
+		 * @throws InterruptedException
+		 * @throws IOException
+		 *             if the watch service can no longer be used (e.g. it was
+		 *             closed).
+		 */
+		public Set<File> await(long timeout) throws InterruptedException,
+				IOException {
+			HashSet<File> files = new HashSet<File>();
+			try {
+				Object key = poll.invoke(service, timeout, TimeUnit.MILLISECONDS);
+				while (key != null) {
+					File dir = keys.get(key);
+					for (Object event : (List<?>) pollEvents.invoke(key)) {
+						if (dir == null || kind.invoke(event) == overflow) {
+							files = null;
+						} else if (files != null) {
+							files.add(new File(dir, context.invoke(event)
+									.toString()));
+						}
+					}
+					if (!(Boolean) reset.invoke(key)) {
+						keys.remove(key);
+						registered.remove(dir);
+					}
+					key = poll.invoke(service, 0L, TimeUnit.MILLISECONDS);
+				}
+			} catch (java.lang.reflect.InvocationTargetException e) {
+				if (e.getCause() instanceof InterruptedException) {
+					throw (InterruptedException) e.getCause();
+				}
+				throw new IOException(e.getCause().getMessage());
+			} catch (IllegalAccessException e) {
+				throw new IOException(e.getMessage());
+			}
+			return files;
+		}
+
+		public void close() {
+			try {
+				close.invoke(service);
+			} catch (Exception e) {
+				// nothing more can be done
+			}
+		}
+	}
+
+	private static final class Stamp {
+		private final long timestamp;
+		private final long length;
+
+		public Stamp(long timestamp, long length) {
+			this.timestamp = timestamp;
+			this.length = length;
+		}
+
+		public boolean equals(Object o) {
+			if (o instanceof Stamp) {
+				Stamp s = (Stamp) o;
+				return timestamp == s.timestamp && length == s.length;
+			}
+			return false;
+		}
+
+		public int hashCode() {
+			return (int) (timestamp ^ length);
+		}
+	}
+}
@@ -29,6 +29,7 @@ import java.io.*;
 import java.util.*;
 import java.util.jar.*;
 
+import wyfs.io.BinaryBufferInputStream;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
 import wyfs.lang.Content.Type;
@@ -44,6 +45,12 @@ public final class JarFileRoot extends AbstractRoot<JarFileRoot.Folder> implemen
 	private final File dir;
 	private Path.Item[] jfContents;
 
+	/**
+	 * The modification time of the jar file when it was last read. The jar
+	 * file is only read again on a refresh if it has since changed.
+	 */
+	private long timestamp;
+
 	public JarFileRoot(String dir, Content.Registry contentTypes) throws IOException {
 		super(contentTypes);
 		this.dir = new File(dir);
@@ -67,7 +74,12 @@ public final class JarFileRoot extends AbstractRoot<JarFileRoot.Folder> implemen
 	}
 
 	@Override
-	public void refresh() throws IOException {
+	public synchronized void refresh() throws IOException {
+		if (jfContents != null && dir.lastModified() == timestamp) {
+			// jar file unchanged, so entries remain valid.
+			return;
+		}
+		timestamp = dir.lastModified();
 		JarFile jf = new JarFile(dir);
 		Enumeration<JarEntry> entries = jf.entries();
 		this.jfContents = new Path.Item[jf.size()];
@@ -90,6 +102,7 @@ public final class JarFileRoot extends AbstractRoot<JarFileRoot.Folder> implemen
 				jfContents[i++] = new Folder(pkg);
 			}
 		}
+		root.invalidate();
 	}
 
 	@Override
@@ -181,7 +194,10 @@ public final class JarFileRoot extends AbstractRoot<JarFileRoot.Folder> implemen
 		}
 
 		public InputStream inputStream() throws IOException {
-			return parent.getInputStream(entry);
+			// NOTE: entries are read in their entirety, so that their
+			// contents can be decoded directly from memory.
+			return BinaryBufferInputStream.load(parent.getInputStream(entry),
+					(int) entry.getSize());
 		}
 
 		public OutputStream outputStream() throws IOException {
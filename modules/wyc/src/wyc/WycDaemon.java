@@ -0,0 +1,499 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyc;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+
+import wyc.util.WycBuildTask;
+import wycc.util.Pair;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+
+/**
+ * <p>
+ * A long-lived compiler process, which accepts build requests over a local
+ * socket. Starting a fresh JVM for every compilation means the standard
+ * library must be read, and its modules decoded, on every invocation. The
+ * daemon avoids this by retaining the roots created for each directory and
+ * jar file between requests. Thus, modules which have already been loaded
+ * (along with the types they contain) remain in memory and are only read
+ * again if the corresponding file changes.
+ * </p>
+ *
+ * <p>
+ * The daemon is started as follows:
+ * </p>
+ *
+ * <pre>
+ * java wyc.WycDaemon -start [-port n]
+ * </pre>
+ *
+ * <p>
+ * Requests are then made by running <code>wyc.WycDaemon</code> with the same
+ * arguments as would be given to <code>wyc.WycMain</code> (plus an optional
+ * <code>-port n</code>). The output and exit code of the build are those
+ * which <code>wyc.WycMain</code> would have produced. The daemon is stopped
+ * using <code>-stop</code>.
+ * </p>
+ *
+ * <p>
+ * Since the daemon runs builds with the permissions of the user who started
+ * it, every request must begin with a token known only to that user. This is
+ * chosen at random when the daemon starts, and written to a file in the
+ * <code>.wycd</code> directory of the user's home directory (see
+ * <code>tokenFile()</code>), which only they can read.
+ * </p>
+ *
+ * <p>
+ * <b>NOTE:</b> requests are handled one at a time, since builds share the
+ * retained roots. A client must send its request within a fixed time of
+ * connecting (see <code>setTimeout()</code>), so that it cannot hold up
+ * other clients. Whiley source files are always read afresh, since type
+ * checking annotates their syntax trees.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class WycDaemon {
+
+	/**
+	 * The port used when none is specified.
+	 */
+	public static final int DEFAULT_PORT = 4711;
+
+	/**
+	 * The default time (in milliseconds) to wait for a client to send its
+	 * request, before giving up on it.
+	 */
+	public static final int DEFAULT_TIMEOUT = 10000;
+
+	/**
+	 * The time (in milliseconds) to wait for a client to send its request.
+	 * Since requests are handled one at a time, a client which connects but
+	 * sends nothing would otherwise prevent any other request from being
+	 * handled.
+	 */
+	private int timeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * The token which every request must begin with. This is null until the
+	 * daemon starts serving requests.
+	 */
+	private String token;
+
+	/**
+	 * The registry shared by all roots retained by the daemon.
+	 */
+	private final WycBuildTask.Registry registry = new WycBuildTask.Registry();
+
+	/**
+	 * The roots retained between requests, indexed by location and file
+	 * filter (which is null for jar files).
+	 */
+	private final HashMap<Pair<File, FileFilter>, Path.Root> roots = new HashMap<Pair<File, FileFilter>, Path.Root>();
+
+	/**
+	 * Execute a single build request, as given on the command-line of the
+	 * client.
+	 *
+	 * @param dir
+	 *            --- working directory of the client, against which relative
+	 *            paths are resolved.
+	 * @param args
+	 *            --- command-line arguments given to the client.
+	 * @param stdout
+	 *            --- stream to which normal output is written.
+	 * @param stderr
+	 *            --- stream to which error output is written.
+	 * @return the exit code of the build.
+	 */
+	public int build(File dir, String[] args, OutputStream stdout,
+			OutputStream stderr) {
+		// Default to the client's directory, rather than our own
+		String[] nargs = new String[args.length + 2];
+		nargs[0] = "-wd";
+		nargs[1] = dir.getPath();
+		System.arraycopy(args, 0, nargs, 2, args.length);
+		BuildTask task = new BuildTask(this);
+		WycMain main = new WycMain(task, WycMain.DEFAULT_OPTIONS, stdout,
+				stderr);
+		task.setLogOut(main.stderr);
+		main.setWorkingDirectory(dir);
+		return main.run(nargs);
+	}
+
+	/**
+	 * Set the time to wait for a client to send its request, before giving up
+	 * on it.
+	 *
+	 * @param millis
+	 */
+	public void setTimeout(int millis) {
+		this.timeout = millis;
+	}
+
+	/**
+	 * Accept and execute build requests on a given port, until a request to
+	 * stop is received. Only connections from the local machine are accepted.
+	 *
+	 * @param port
+	 * @throws IOException
+	 */
+	public void serve(int port) throws IOException {
+		serve(port, tokenFile(port));
+	}
+
+	/**
+	 * Accept and execute build requests on a given port, until a request to
+	 * stop is received. Only connections from the local machine which supply
+	 * the token written to the given file are accepted.
+	 *
+	 * @param port
+	 * @param tokenFile
+	 *            --- file to which the token is written, which is removed
+	 *            when the daemon stops.
+	 * @throws IOException
+	 */
+	public void serve(int port, File tokenFile) throws IOException {
+		ServerSocket server = new ServerSocket(port, 50,
+				InetAddress.getByName("127.0.0.1"));
+		try {
+			token = generateToken();
+			writeToken(tokenFile, token);
+			boolean running = true;
+			while (running) {
+				Socket socket = server.accept();
+				try {
+					socket.setSoTimeout(timeout);
+					running = serve(socket);
+				} catch (IOException e) {
+					// problem with this client, but others are unaffected.
+				} finally {
+					socket.close();
+				}
+			}
+		} finally {
+			server.close();
+			tokenFile.delete();
+		}
+	}
+
+	/**
+	 * Execute the build request received on a given connection. A request
+	 * consists of the daemon's token and the client's working directory,
+	 * followed by the number of arguments and then the arguments themselves.
+	 * The response consists of the exit code, followed by the output written
+	 * to stdout and stderr.
+	 *
+	 * @param socket
+	 * @return false if the daemon should stop.
+	 * @throws IOException
+	 */
+	private boolean serve(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				socket.getInputStream()));
+		if (!MessageDigest.isEqual(token.getBytes("UTF-8"), in.readUTF()
+				.getBytes("UTF-8"))) {
+			// NOTE: nothing else is read from an unauthorised client
+			DataOutputStream out = new DataOutputStream(
+					socket.getOutputStream());
+			out.writeInt(WycMain.INTERNAL_FAILURE);
+			write(new byte[0], out);
+			write("invalid token\n".getBytes("UTF-8"), out);
+			out.flush();
+			return true;
+		}
+		File dir = new File(in.readUTF());
+		String[] args = new String[in.readInt()];
+		for (int i = 0; i != args.length; ++i) {
+			args[i] = in.readUTF();
+		}
+
+		boolean stop = args.length == 1 && args[0].equals("-stop");
+		ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		int code = stop ? WycMain.SUCCESS : build(dir, args, stdout, stderr);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				socket.getOutputStream()));
+		out.writeInt(code);
+		write(stdout.toByteArray(), out);
+		write(stderr.toByteArray(), out);
+		out.flush();
+		return !stop;
+	}
+
+	/**
+	 * Send a build request to the daemon listening on a given port, copying
+	 * its output to the given streams. The daemon's token is read from the
+	 * file it was written to when the daemon started.
+	 *
+	 * @param port
+	 * @param dir
+	 *            --- working directory against which relative paths are
+	 *            resolved.
+	 * @param args
+	 *            --- command-line arguments for the build.
+	 * @param stdout
+	 * @param stderr
+	 * @return the exit code of the build.
+	 * @throws IOException
+	 */
+	public static int request(int port, File dir, String[] args,
+			OutputStream stdout, OutputStream stderr) throws IOException {
+		return request(port, readToken(tokenFile(port)), dir, args, stdout,
+				stderr);
+	}
+
+	/**
+	 * Send a build request with a given token to the daemon listening on a
+	 * given port, copying its output to the given streams.
+	 *
+	 * @param port
+	 * @param token
+	 * @param dir
+	 *            --- working directory against which relative paths are
+	 *            resolved.
+	 * @param args
+	 *            --- command-line arguments for the build.
+	 * @param stdout
+	 * @param stderr
+	 * @return the exit code of the build.
+	 * @throws IOException
+	 */
+	public static int request(int port, String token, File dir,
+			String[] args, OutputStream stdout, OutputStream stderr)
+			throws IOException {
+		Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(token);
+			out.writeUTF(dir.getAbsolutePath());
+			out.writeInt(args.length);
+			for (String arg : args) {
+				out.writeUTF(arg);
+			}
+			out.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			int code = in.readInt();
+			stdout.write(read(in));
+			stderr.write(read(in));
+			stdout.flush();
+			stderr.flush();
+			return code;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Determine the file to which the token of the daemon listening on a
+	 * given port is written. This is located in the <code>.wycd</code>
+	 * directory of the user's home directory.
+	 *
+	 * @param port
+	 * @return
+	 */
+	public static File tokenFile(int port) {
+		File dir = new File(System.getProperty("user.home"), ".wycd");
+		return new File(dir, "token-" + port);
+	}
+
+	/**
+	 * Read the token from a given file.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static String readToken(File file) throws IOException {
+		if (!file.exists()) {
+			throw new IOException("daemon not running (no token in " + file
+					+ ")");
+		}
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String token = reader.readLine();
+			return token == null ? "" : token;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Write a token to a given file, such that only the current user can read
+	 * it. The enclosing directory is restricted to the current user first, so
+	 * that no other user can open the file between it being created and its
+	 * permissions being restricted.
+	 *
+	 * @param file
+	 * @param token
+	 * @throws IOException
+	 */
+	private static void writeToken(File file, String token) throws IOException {
+		File dir = file.getParentFile();
+		dir.mkdirs();
+		if (!restrict(dir, true)) {
+			throw new IOException("unable to restrict access to " + dir);
+		}
+		file.delete();
+		if (!file.createNewFile() || !restrict(file, false)) {
+			throw new IOException("unable to restrict access to " + file);
+		}
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(token);
+			writer.write("\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Restrict access to a given file (or directory) to its owner.
+	 *
+	 * @param file
+	 * @param executable
+	 *            --- whether the owner can execute (or search) the file.
+	 * @return true if successful.
+	 */
+	private static boolean restrict(File file, boolean executable) {
+		return file.setReadable(false, false) && file.setWritable(false, false)
+				&& file.setExecutable(false, false)
+				&& file.setReadable(true, true) && file.setWritable(true, true)
+				&& (!executable || file.setExecutable(true, true));
+	}
+
+	private static String generateToken() {
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder r = new StringBuilder();
+		for (byte b : bytes) {
+			r.append(String.format("%02x", b & 0xFF));
+		}
+		return r.toString();
+	}
+
+	private static void write(byte[] bytes, DataOutputStream out)
+			throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] read(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * A build task which reuses the roots retained by the daemon, rather than
+	 * creating fresh ones. Each retained root is refreshed before being used,
+	 * so that entries whose files have changed are read again.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class BuildTask extends WycBuildTask {
+		private final WycDaemon daemon;
+
+		public BuildTask(WycDaemon daemon) {
+			super(daemon.registry);
+			this.daemon = daemon;
+		}
+
+		protected DirectoryRoot directoryRoot(File dir, FileFilter filter)
+				throws IOException {
+			if (filter == whileyFileFilter) {
+				return super.directoryRoot(dir, filter);
+			}
+			return (DirectoryRoot) root(dir, filter);
+		}
+
+		protected Path.Root jarRoot(File jar) throws IOException {
+			return root(jar, null);
+		}
+
+		protected Path.Root bundleRoot(File bundle) throws IOException {
+			return root(bundle, null);
+		}
+
+		private Path.Root root(File file, FileFilter filter)
+				throws IOException {
+			Pair<File, FileFilter> key = new Pair<File, FileFilter>(
+					file.getCanonicalFile(), filter);
+			Path.Root root = daemon.roots.get(key);
+			if (root == null) {
+				if (filter != null) {
+					root = super.directoryRoot(file, filter);
+				} else if (file.getName().endsWith(".wylib")) {
+					root = super.bundleRoot(file);
+				} else {
+					root = super.jarRoot(file);
+				}
+				daemon.roots.put(key, root);
+			} else {
+				root.refresh();
+			}
+			return root;
+		}
+	}
+
+	public static void main(String[] _args) {
+		ArrayList<String> args = new ArrayList<String>(Arrays.asList(_args));
+		int port = DEFAULT_PORT;
+		int index = args.indexOf("-port");
+		if (index >= 0 && index + 1 < args.size()) {
+			port = Integer.parseInt(args.get(index + 1));
+			args.remove(index);
+			args.remove(index);
+		}
+
+		try {
+			if (args.size() == 1 && args.get(0).equals("-start")) {
+				new WycDaemon().serve(port);
+				System.exit(WycMain.SUCCESS);
+			} else {
+				System.exit(request(port, new File(System.getProperty("user.dir")),
+						args.toArray(new String[args.size()]), System.out,
+						System.err));
+			}
+		} catch (IOException e) {
+			System.err.println("wycd: " + e.getMessage());
+			System.exit(WycMain.INTERNAL_FAILURE);
+		}
+	}
+}
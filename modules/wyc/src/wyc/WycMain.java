@@ -42,9 +42,14 @@ import wycc.lang.Transform;
 import wycc.lang.Pipeline.Template;
 import wycc.lang.SyntaxError.InternalFailure;
 import wycc.util.OptArg;
+import wycc.util.Profiler;
 import wyil.*;
+import wyil.lang.Type;
 import wyil.lang.WyilFile;
 import wyil.util.*;
+import wyil.util.type.TypeMemo;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryWatcher;
 import static wycc.lang.SyntaxError.*;
 
 /**
@@ -90,6 +95,22 @@ public class WycMain {
 					"Specify where to place generated wyal files"),
 					new OptArg("wycsdir", OptArg.FILEDIR,
 					"Specify where to place generated wycs files"),
+			new OptArg("deps", OptArg.FILE,
+					"Record module dependencies in the given file, and rebuild modules affected by changes"),
+			new OptArg("threads", OptArg.INT,
+					"Specify the number of threads used to build files", 1),
+			new OptArg("watch",
+					"Rebuild source files whenever they change (until interrupted)"),
+			new OptArg("watchinterval", OptArg.INT,
+					"Specify the longest time (in ms) between checks for changes when watching",
+					DirectoryWatcher.DEFAULT_INTERVAL),
+			new OptArg("watchdelay", OptArg.INT,
+					"Specify the time (in ms) without changes before rebuilding when watching",
+					DirectoryWatcher.DEFAULT_DELAY),
+			new OptArg("profile", OptArg.FILE,
+					"Write timings and other build metrics to the given file (JSON format)"),
+			new OptArg("trace", OptArg.FILE,
+					"Write timings for each build phase to the given file (Chrome trace format)"),
 			new OptArg("X", OptArg.PIPELINECONFIGURE,
 					"configure existing pipeline stage"),
 			new OptArg("A", OptArg.PIPELINEAPPEND, "append new pipeline stage"),
@@ -150,6 +171,34 @@ public class WycMain {
 	 * Stream to which non-error messages are written
 	 */
 	public  PrintStream stdout;
+
+	/**
+	 * The directory against which relative paths given on the command-line
+	 * are resolved. When this is null, they are resolved against the current
+	 * directory of this process.
+	 */
+	protected File workingDirectory;
+
+	/**
+	 * The files to which build metrics are written, or null if they are not
+	 * required.
+	 */
+	protected File profileFile;
+	protected File traceFile;
+
+	/**
+	 * The longest time (in milliseconds) between checks for changes, and the
+	 * time for which no changes must be seen before rebuilding, when watching.
+	 */
+	protected int watchInterval = DirectoryWatcher.DEFAULT_INTERVAL;
+	protected int watchDelay = DirectoryWatcher.DEFAULT_DELAY;
+
+	/**
+	 * The number of hits and misses of each type memo table already written
+	 * to the profiler.
+	 */
+	private final HashMap<String, long[]> memoCounts = new HashMap<String, long[]>();
+
 	// =========================================================================
 	// Constructors & Configuration
 	// =========================================================================
@@ -170,6 +219,17 @@ public class WycMain {
 		}
 	}
 
+	/**
+	 * Set the directory against which relative paths given on the
+	 * command-line are resolved. This is useful when compiling on behalf of
+	 * another process (e.g. from a compiler daemon).
+	 *
+	 * @param dir
+	 */
+	public void setWorkingDirectory(File dir) {
+		this.workingDirectory = dir;
+	}
+
 	// =========================================================================
 	// Run Method
 	// =========================================================================
@@ -184,6 +244,9 @@ public class WycMain {
 			// =====================================================================
 
 			ArrayList<String> args = new ArrayList<String>(Arrays.asList(_args));
+			if (workingDirectory != null) {
+				resolve(args);
+			}
 			Map<String, Object> values = OptArg.parseOptions(args, options);
 
 			// Second, check if we're printing version
@@ -207,6 +270,15 @@ public class WycMain {
 
 			configure(values);
 
+			profileFile = (File) values.get("profile");
+			traceFile = (File) values.get("trace");
+			if (profileFile != null || traceFile != null) {
+				// NOTE: the memo tables are recorded first, so that only
+				// lookups made during this build are counted.
+				recordMemoTables();
+				Profiler.enable();
+			}
+
 			ArrayList<File> delta = new ArrayList<File>();
 			for (String arg : args) {
 				delta.add(new File(arg));
@@ -224,31 +296,149 @@ public class WycMain {
 			// Run Build Task
 			// =====================================================================
 
-			builder.build(delta);
-
-		} catch (InternalFailure e) {
-			e.outputSourceError(stderr,brief);
-			if (verbose) {
-				e.printStackTrace(stderr);
+			if (values.containsKey("watch")) {
+				watchInterval = (Integer) values.get("watchinterval");
+				watchDelay = (Integer) values.get("watchdelay");
+				return watch(delta, brief, verbose);
 			}
-			return INTERNAL_FAILURE;
-		} catch (SyntaxError e) {
-			e.outputSourceError(stderr,brief);
-			if (verbose) {
-				e.printStackTrace(stderr);
+
+			try {
+				builder.build(delta);
+			} finally {
+				profile();
 			}
-			return SYNTAX_ERROR;
+
 		} catch (Throwable e) {
-			stderr.println("internal failure (" + e.getMessage() + ")");
-			if (verbose) {
-				e.printStackTrace(stderr);
-			}
-			return INTERNAL_FAILURE;
+			return report(e, brief, verbose);
+		} finally {
+			Profiler.disable();
 		}
 
 		return SUCCESS;
 	}
 
+	/**
+	 * Build the given source files, and then rebuild source files in the
+	 * source directory whenever they change. Errors are reported as they
+	 * arise, but do not stop the watching. Thus, this only returns if the
+	 * watcher is interrupted.
+	 *
+	 * @param files
+	 *            --- source files to build initially.
+	 * @param brief
+	 * @param verbose
+	 * @return
+	 */
+	protected int watch(List<File> files, final boolean brief,
+			final boolean verbose) {
+		try {
+			builder.build(files);
+		} catch (Throwable e) {
+			report(e, brief, verbose);
+		} finally {
+			profile();
+		}
+		DirectoryWatcher watcher = new DirectoryWatcher(builder.getWhileyDir(),
+				new DirectoryWatcher.Listener() {
+					public void changed(List<Path.Entry<?>> entries) {
+						try {
+							builder.rebuild(entries);
+						} catch (Throwable e) {
+							report(e, brief, verbose);
+						} finally {
+							profile();
+						}
+					}
+				});
+		watcher.setInterval(watchInterval);
+		watcher.setDelay(watchDelay);
+		watcher.run();
+		return SUCCESS;
+	}
+
+	/**
+	 * Write out the build metrics recorded so far, provided profiling is
+	 * enabled. The hit rates of the type memo tables are recorded first, since
+	 * these are not otherwise reported to the profiler. Failing to write the
+	 * metrics is reported, but does not cause the build to fail.
+	 */
+	protected void profile() {
+		Profiler profiler = Profiler.get();
+		if (profiler == null) {
+			return;
+		}
+		recordMemoTables();
+		try {
+			if (profileFile != null) {
+				PrintWriter out = new PrintWriter(new FileWriter(profileFile));
+				try {
+					profiler.writeJson(out);
+				} finally {
+					out.close();
+				}
+			}
+			if (traceFile != null) {
+				PrintWriter out = new PrintWriter(new FileWriter(traceFile));
+				try {
+					profiler.writeTrace(out);
+				} finally {
+					out.close();
+				}
+			}
+		} catch (IOException e) {
+			stderr.println("wyc: unable to write build metrics ("
+					+ e.getMessage() + ")");
+		}
+	}
+
+	/**
+	 * Record the hits and misses of each type memo table since they were last
+	 * recorded.
+	 */
+	private void recordMemoTables() {
+		for (TypeMemo<?> memo : Type.memoTables()) {
+			long[] last = memoCounts.get(memo.name());
+			if (last == null) {
+				last = new long[2];
+				memoCounts.put(memo.name(), last);
+			}
+			long hits = memo.numHits();
+			long misses = memo.numMisses();
+			Profiler.cache("type " + memo.name(), hits - last[0], misses
+					- last[1]);
+			last[0] = hits;
+			last[1] = misses;
+		}
+	}
+
+	/**
+	 * Report an error which arose during a build, and determine the
+	 * corresponding exit code.
+	 *
+	 * @param e
+	 * @param brief
+	 *            --- enable brief reporting of error messages.
+	 * @param verbose
+	 *            --- additionally print the stack trace.
+	 * @return
+	 */
+	protected int report(Throwable e, boolean brief, boolean verbose) {
+		int code;
+		if (e instanceof SyntaxError) {
+			// NOTE: InternalFailure is a subclass of SyntaxError
+			((SyntaxError) e).outputSourceError(stderr, brief);
+			code = e instanceof InternalFailure ? INTERNAL_FAILURE
+					: SYNTAX_ERROR;
+		} else {
+			stderr.println("internal failure (" + e.getMessage() + ")");
+			code = INTERNAL_FAILURE;
+		}
+		if (verbose) {
+			e.printStackTrace(stderr);
+		}
+		return code;
+	}
+
 	// =========================================================================
 	// Helper Methods
 	// =========================================================================
@@ -282,6 +472,13 @@ public class WycMain {
 			builder.setWycsDir(wycsDir);
 		}
 
+		builder.setThreads((Integer) values.get("threads"));
+
+		File dependencyFile = (File) values.get("deps");
+		if (dependencyFile != null) {
+			builder.setDependencyFile(dependencyFile);
+		}
+
 		ArrayList<File> bootpath = (ArrayList<File>) values.get("bootpath");
 		builder.setBootPath(bootpath);
 
@@ -290,6 +487,54 @@ public class WycMain {
 		builder.setWhileyPath(whileypath);
 	}
 
+	/**
+	 * Resolve any relative paths given on the command-line against the
+	 * working directory. These are the arguments of options accepting files
+	 * or directories, along with the source files themselves.
+	 *
+	 * @param args
+	 */
+	protected void resolve(List<String> args) {
+		for (int i = 0; i < args.size(); ++i) {
+			String arg = args.get(i);
+			if (!arg.startsWith("-")) {
+				args.set(i, resolve(arg));
+				continue;
+			}
+			for (OptArg opt : options) {
+				if (arg.equals("-" + opt.option)
+						|| arg.equals("-" + opt.shortForm)) {
+					if (opt.argument != null && i + 1 < args.size()) {
+						String param = args.get(++i);
+						if (opt.argument == OptArg.FILE
+								|| opt.argument == OptArg.FILEDIR) {
+							args.set(i, resolve(param));
+						} else if (opt.argument == OptArg.FILELIST) {
+							String r = "";
+							for (String p : param.split(File.pathSeparator)) {
+								if (r.length() > 0) {
+									r += File.pathSeparator;
+								}
+								r += resolve(p);
+							}
+							args.set(i, r);
+						}
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	private String resolve(String path) {
+		File file = new File(path);
+		if (file.isAbsolute()) {
+			return path;
+		} else {
+			return new File(workingDirectory, path).getPath();
+		}
+	}
+
 	protected void version() {
 		stdout.println("Whiley Compiler (wyc) version "
 				+ MAJOR_VERSION + "." + MINOR_VERSION + "."
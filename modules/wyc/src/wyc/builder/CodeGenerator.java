@@ -38,6 +38,7 @@ import wycc.lang.NameID;
 import wycc.lang.SyntacticElement;
 import wycc.lang.SyntaxError;
 import wycc.util.Pair;
+import wycc.util.Profiler;
 import wycc.util.ResolveError;
 import wycc.util.Triple;
 import wyfs.lang.Path;
@@ -148,9 +149,12 @@ public final class CodeGenerator {
 	 */
 	public WyilFile generate(WhileyFile wf) {
 		ArrayList<WyilFile.Block> declarations = new ArrayList<WyilFile.Block>();
+		lambdas.clear();
 
 		// Go through each declaration and translate in the order of appearance.
 		for (WhileyFile.Declaration d : wf.declarations) {
+			Profiler.Timer timer = Profiler.start("declaration",
+					WhileyFile.name(d));
 			try {
 				if (d instanceof WhileyFile.Type) {
 					declarations.add(generate((WhileyFile.Type) d));
@@ -165,6 +169,8 @@ public final class CodeGenerator {
 			} catch (Throwable ex) {
 				WhileyFile.internalFailure(ex.getMessage(),
 						(WhileyFile.Context) d, d, ex);
+			} finally {
+				timer.stop();
 			}
 		}
 
@@ -20,6 +20,7 @@ import wycc.lang.NameID;
 import wycc.lang.SyntacticElement;
 import wycc.lang.SyntaxError;
 import wycc.util.Pair;
+import wycc.util.Profiler;
 import wycc.util.ResolveError;
 import wyfs.lang.Path;
 import wyfs.util.Trie;
@@ -140,6 +141,8 @@ public class FlowTypeChecker {
 		this.filename = wf.filename;
 
 		for (WhileyFile.Declaration decl : wf.declarations) {
+			Profiler.Timer timer = Profiler.start("declaration",
+					WhileyFile.name(decl));
 			try {
 				if (decl instanceof WhileyFile.FunctionOrMethod) {
 					propagate((WhileyFile.FunctionOrMethod) decl);
@@ -155,6 +158,8 @@ public class FlowTypeChecker {
 				throw e;
 			} catch (Throwable t) {
 				internalFailure(t.getMessage(), filename, decl, t);
+			} finally {
+				timer.stop();
 			}
 		}
 	}
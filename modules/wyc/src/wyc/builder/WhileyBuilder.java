@@ -27,6 +27,13 @@ package wyc.builder;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import wyfs.lang.Content;
 import wyfs.lang.Path;
@@ -42,6 +49,8 @@ import wycc.lang.Pipeline;
 import wycc.lang.Transform;
 import wycc.util.Logger;
 import wycc.util.Pair;
+import wycc.util.Profiler;
+import wycc.util.Triple;
 import wycc.util.ResolveError;
 
 /**
@@ -98,16 +107,31 @@ public final class WhileyBuilder implements Builder {
 	private final Build.Project project;
 
 	/**
-	 * The list of stages which must be applied to a Wyil file.
+	 * The pipeline from which the stages applied to each Wyil file are
+	 * instantiated.
 	 */
-	private final List<Transform<WyilFile>> stages;
+	private final Pipeline<WyilFile> pipeline;
+
+	/**
+	 * The number of threads used to generate and transform Wyil files. Once
+	 * type checking is complete, each module can be translated independently
+	 * of the others and, hence, modules are processed in parallel when this is
+	 * greater than one.
+	 */
+	private int threads = 1;
 
 	private Logger logger;
 
 	/**
-	 * A map of the source files currently being compiled.
+	 * A map of the source files currently being compiled. This is recorded
+	 * separately for each thread, since several groups of source files may be
+	 * compiled at the same time.
 	 */
-	private final HashMap<Path.ID, Path.Entry<WhileyFile>> srcFiles = new HashMap<Path.ID, Path.Entry<WhileyFile>>();
+	private final ThreadLocal<HashMap<Path.ID, Path.Entry<WhileyFile>>> srcFiles = new ThreadLocal<HashMap<Path.ID, Path.Entry<WhileyFile>>>() {
+		protected HashMap<Path.ID, Path.Entry<WhileyFile>> initialValue() {
+			return new HashMap<Path.ID, Path.Entry<WhileyFile>>();
+		}
+	};
 
 	/**
 	 * The import cache caches specific import queries to their result sets.
@@ -117,8 +141,30 @@ public final class WhileyBuilder implements Builder {
 	 */
 	private final HashMap<Trie,ArrayList<Path.ID>> importCache = new HashMap();
 
+	/**
+	 * The dependency graph into which the dependencies and interface hash of
+	 * each compiled module are recorded. This may be null, in which case no
+	 * dependencies are recorded.
+	 */
+	private DependencyGraph graph;
+
+	/**
+	 * The modules upon which each source file currently being compiled
+	 * depends. These are determined by recording the modules returned from,
+	 * or examined by, each query made of this builder whilst that source file
+	 * is being compiled.
+	 */
+	private final HashMap<Path.ID, HashSet<Path.ID>> dependencies = new HashMap<Path.ID, HashSet<Path.ID>>();
+
+	/**
+	 * The set into which dependencies are currently being recorded, or null if
+	 * dependencies are not currently being recorded. This is recorded
+	 * separately for each thread, since modules may be compiled in parallel.
+	 */
+	private final ThreadLocal<HashSet<Path.ID>> recording = new ThreadLocal<HashSet<Path.ID>>();
+
 	public WhileyBuilder(Build.Project namespace, Pipeline<WyilFile> pipeline) {
-		this.stages = pipeline.instantiate(this);
+		this.pipeline = pipeline;
 		this.logger = Logger.NULL;
 		this.project = namespace;
 	}
@@ -131,8 +177,37 @@ public final class WhileyBuilder implements Builder {
 		this.logger = logger;
 	}
 
+	public void setDependencyGraph(DependencyGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Set the number of threads used to generate and transform Wyil files.
+	 *
+	 * @param threads
+	 *            --- number of threads, which must be at least one.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("invalid number of threads: "
+					+ threads);
+		}
+		this.threads = threads;
+	}
+
 	public Set<Path.Entry<?>> build(Collection<Pair<Path.Entry<?>, Path.Root>> delta)
 			throws IOException {
+		Profiler.Timer timer = Profiler.start("phase", "Whiley => Wyil");
+		try {
+			return compile(delta);
+		} finally {
+			srcFiles.remove();
+			timer.stop();
+		}
+	}
+
+	private Set<Path.Entry<?>> compile(
+			Collection<Pair<Path.Entry<?>, Path.Root>> delta) throws IOException {
 		Runtime runtime = Runtime.getRuntime();
 		long startTime = System.currentTimeMillis();
 		long startMemory = runtime.freeMemory();
@@ -143,17 +218,24 @@ public final class WhileyBuilder implements Builder {
 		// Parse and register source files
 		// ========================================================================
 
-		srcFiles.clear();
+		HashMap<Path.ID, Path.Entry<WhileyFile>> sourceFiles = srcFiles.get();
+		Profiler.Timer phase = Profiler.start("phase", "parse");
 		int count=0;
 		for (Pair<Path.Entry<?>,Path.Root> p : delta) {
 			Path.Entry<?> src = p.first();
 			if (src.contentType() == WhileyFile.ContentType) {
 				Path.Entry<WhileyFile> sf = (Path.Entry<WhileyFile>) src;
+				Profiler.Timer timer = Profiler.start("module", sf.id().toString());
 				WhileyFile wf = sf.read();
+				timer.stop();
 				count++;
-				srcFiles.put(wf.module, sf);
+				sourceFiles.put(wf.module, sf);
+				synchronized (dependencies) {
+					dependencies.remove(wf.module);
+				}
 			}
 		}
+		phase.stop();
 
 		logger.logTimedMessage("Parsed " + count + " source file(s).",
 				System.currentTimeMillis() - tmpTime, tmpMemory - runtime.freeMemory());
@@ -177,8 +259,19 @@ public final class WhileyBuilder implements Builder {
 			}
 		}
 
+		phase = Profiler.start("phase", "type");
 		FlowTypeChecker flowChecker = new FlowTypeChecker(this);
-		flowChecker.propagate(files);
+		for (WhileyFile wf : files) {
+			Profiler.Timer timer = Profiler.start("module", wf.module.toString());
+			record(wf.module);
+			try {
+				flowChecker.propagate(wf);
+			} finally {
+				record(null);
+				timer.stop();
+			}
+		}
+		phase.stop();
 
 		logger.logTimedMessage("Typed " + count + " source file(s).",
 				System.currentTimeMillis() - tmpTime, tmpMemory - runtime.freeMemory());
@@ -191,37 +284,96 @@ public final class WhileyBuilder implements Builder {
 		tmpTime = System.currentTimeMillis();
 		tmpMemory = runtime.freeMemory();
 
-		//CodeGenerator generator = new CodeGenerator();
-		CodeGenerator generator = new CodeGenerator(this,flowChecker);
+		final ArrayList<Path.Entry<WhileyFile>> sources = new ArrayList<Path.Entry<WhileyFile>>();
+		final ArrayList<Path.Entry<WyilFile>> targets = new ArrayList<Path.Entry<WyilFile>>();
+		final ArrayList<Path.Entry<WyilInterface>> interfaces = new ArrayList<Path.Entry<WyilInterface>>();
 		HashSet<Path.Entry<?>> generatedFiles = new HashSet<Path.Entry<?>>();
 		for (Pair<Path.Entry<?>, Path.Root> p : delta) {
 			Path.Entry<?> src = p.first();
 			Path.Root dst = p.second();
 			if (src.contentType() == WhileyFile.ContentType) {
-				Path.Entry<WhileyFile> source = (Path.Entry<WhileyFile>) src;
 				Path.Entry<WyilFile> target = dst.create(src.id(),
 						WyilFile.ContentType);
+				sources.add((Path.Entry<WhileyFile>) src);
+				targets.add(target);
+				// NOTE: interface files are not reported as generated, since
+				// no further rules apply to them.
+				interfaces.add(dst.create(src.id(), WyilInterface.ContentType));
 				generatedFiles.add(target);
-				WhileyFile wf = source.read();
-				WyilFile wyil = generator.generate(wf);
-				target.write(wyil);
 			}
 		}
 
-		logger.logTimedMessage("Generated code for " + count + " source file(s).",
-					System.currentTimeMillis() - tmpTime, tmpMemory - runtime.freeMemory());
+		Worker[] workers = new Worker[Math.max(1,
+				Math.min(threads, sources.size()))];
+		List<Transform<WyilFile>> stages = pipeline.instantiate(this);
+		workers[0] = new Worker(flowChecker, stages);
+		for (int i = 1; i < workers.length; ++i) {
+			workers[i] = new Worker(new FlowTypeChecker(this),
+					pipeline.instantiate(this));
+		}
+		ExecutorService executor = null;
+		if (workers.length > 1) {
+			executor = Executors.newFixedThreadPool(workers.length,
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "wyil");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
 
-		// ========================================================================
-		// Pipeline Stages
-		// ========================================================================
+		try {
+			phase = Profiler.start("phase", "generate code");
+			execute(sources.size(), workers, executor, new Job() {
+				public void run(Worker worker, int index, Logger logger)
+						throws IOException {
+					Path.Entry<WhileyFile> source = sources.get(index);
+					WhileyFile wf = source.read();
+					Profiler.Timer timer = Profiler.start("module", wf.module.toString());
+					record(wf.module);
+					WyilFile wyil;
+					try {
+						wyil = worker.generator.generate(wf);
+					} finally {
+						record(null);
+						timer.stop();
+					}
+					WyilInterface stub = new WyilInterface(wyil,
+							targets.get(index));
+					targets.get(index).write(wyil);
+					interfaces.get(index).write(stub);
+					if (graph != null) {
+						graph.record(source, dependencies(wf.module),
+								stub.hash());
+					}
+				}
+			});
+			phase.stop();
 
-		for (Transform stage : stages) {
-			for (Pair<Path.Entry<?>, Path.Root> p : delta) {
-				Path.Entry<?> src = p.first();
-				Path.Root dst = p.second();
-				Path.Entry<WyilFile> wf = dst.get(src.id(),
-						WyilFile.ContentType);
-				process(wf.read(), stage);
+			logger.logTimedMessage("Generated code for " + count + " source file(s).",
+					System.currentTimeMillis() - tmpTime, tmpMemory - runtime.freeMemory());
+
+			// ====================================================================
+			// Pipeline Stages
+			// ====================================================================
+
+			for (int i = 0; i != stages.size(); ++i) {
+				final int stage = i;
+				phase = Profiler.start("phase",
+						name(stages.get(i).getClass().getSimpleName()));
+				execute(targets.size(), workers, executor, new Job() {
+					public void run(Worker worker, int index, Logger logger)
+							throws IOException {
+						process(targets.get(index).read(),
+								worker.stages.get(stage), logger);
+					}
+				});
+				phase.stop();
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
 			}
 		}
 
@@ -257,14 +409,15 @@ public final class WhileyBuilder implements Builder {
 	 */
 	public boolean isName(NameID nid) throws IOException {
 		Path.ID mid = nid.module();
-		Path.Entry<WhileyFile> wf = srcFiles.get(mid);
+		depends(mid);
+		Path.Entry<WhileyFile> wf = srcFiles.get().get(mid);
 		if(wf != null) {
 			// FIXME: check for the right kind of name
 			return wf.read().hasName(nid.name());
 		} else {
-			Path.Entry<WyilFile> m = project.get(mid,WyilFile.ContentType);
+			WyilFile m = WyilInterface.read(project, mid);
 			if(m != null) {
-				return m.read().hasName(nid.name());
+				return m.hasName(nid.name());
 			} else {
 				return false;
 			}
@@ -280,7 +433,10 @@ public final class WhileyBuilder implements Builder {
 	 */
 	public List<Path.ID> imports(Trie key) throws ResolveError {
 		try {
-			ArrayList<Path.ID> matches = importCache.get(key);
+			ArrayList<Path.ID> matches;
+			synchronized (importCache) {
+				matches = importCache.get(key);
+			}
 			if (matches != null) {
 				// cache hit
 				return matches;
@@ -288,7 +444,7 @@ public final class WhileyBuilder implements Builder {
 				// cache miss
 				matches = new ArrayList<Path.ID>();
 
-				for(Path.Entry<WhileyFile> sf : srcFiles.values()) {
+				for(Path.Entry<WhileyFile> sf : srcFiles.get().values()) {
 					if(key.matches(sf.id())) {
 						matches.add(sf.id());
 					}
@@ -309,7 +465,12 @@ public final class WhileyBuilder implements Builder {
 						matches.add(mid);
 					}
 				}
-				importCache.put(key, matches);
+				synchronized (importCache) {
+					importCache.put(key, matches);
+				}
+			}
+			for (Path.ID mid : matches) {
+				depends(mid);
 			}
 			return matches;
 		} catch(Exception e) {
@@ -326,7 +487,8 @@ public final class WhileyBuilder implements Builder {
 	 * @throws IOException
 	 */
 	public WhileyFile getSourceFile(Path.ID mid) throws IOException {
-		Path.Entry<WhileyFile> e = srcFiles.get(mid);
+		depends(mid);
+		Path.Entry<WhileyFile> e = srcFiles.get().get(mid);
 		if(e != null) {
 			return e.read();
 		} else {
@@ -336,31 +498,164 @@ public final class WhileyBuilder implements Builder {
 
 	/**
 	 * Get the (compiled) module associated with a given module identifier. If
-	 * the module does not exist, a resolve error is thrown.
+	 * the module does not exist, a resolve error is thrown. Where possible,
+	 * the module is read from its interface file, in which case the bodies of
+	 * its functions and methods are not available.
 	 *
 	 * @param mid
 	 * @return
 	 * @throws IOException
 	 */
 	public WyilFile getModule(Path.ID mid) throws IOException {
-		return project.get(mid, WyilFile.ContentType).read();
+		depends(mid);
+		return WyilInterface.read(project, mid);
 	}
 
 	// ======================================================================
 	// Private Implementation
 	// ======================================================================
 
-	private void process(WyilFile module, Transform stage) throws IOException {
+	/**
+	 * Begin recording the dependencies of a given module or, if the module is
+	 * null, stop recording dependencies. Dependencies are only recorded when
+	 * there is a dependency graph to record them into.
+	 *
+	 * @param mid
+	 */
+	private void record(Path.ID mid) {
+		if (graph == null || mid == null) {
+			recording.remove();
+		} else {
+			recording.set(dependencies(mid));
+		}
+	}
+
+	/**
+	 * Get the set of modules upon which a given module depends, creating it if
+	 * necessary.
+	 *
+	 * @param mid
+	 * @return
+	 */
+	private HashSet<Path.ID> dependencies(Path.ID mid) {
+		synchronized (dependencies) {
+			HashSet<Path.ID> deps = dependencies.get(mid);
+			if (deps == null) {
+				deps = new HashSet<Path.ID>();
+				dependencies.put(mid, deps);
+			}
+			return deps;
+		}
+	}
+
+	/**
+	 * Note that the module whose dependencies are currently being recorded (if
+	 * any) depends upon a given module.
+	 *
+	 * @param mid
+	 */
+	private void depends(Path.ID mid) {
+		HashSet<Path.ID> deps = recording.get();
+		if (deps != null) {
+			deps.add(mid);
+		}
+	}
+
+	/**
+	 * Apply a given job to every file being compiled. When more than one
+	 * worker is given, files are distributed amongst the workers as they
+	 * become free. In this case, the messages logged for each file are
+	 * buffered and then logged in file order once every file is complete. This
+	 * ensures the output of a build is the same regardless of the number of
+	 * threads used. Likewise, if the job fails on any file, then the failure
+	 * for the earliest such file is reported.
+	 *
+	 * @param n
+	 *            --- number of files being compiled.
+	 * @param workers
+	 *            --- workers to which files are distributed.
+	 * @param executor
+	 *            --- executor to run workers on, which is null if there is
+	 *            only one worker.
+	 * @param job
+	 *            --- job to apply to each file.
+	 * @throws IOException
+	 */
+	private void execute(final int n, Worker[] workers,
+			ExecutorService executor, final Job job) throws IOException {
+		if (workers.length == 1) {
+			for (int i = 0; i != n; ++i) {
+				job.run(workers[0], i, logger);
+			}
+			return;
+		}
+
+		final AtomicInteger next = new AtomicInteger();
+		final BufferedLogger[] logs = new BufferedLogger[n];
+		final Throwable[] failures = new Throwable[n];
+		final AtomicBoolean failed = new AtomicBoolean();
+		final Profiler.Timer timer = Profiler.current();
+		final HashMap<Path.ID, Path.Entry<WhileyFile>> sourceFiles = srcFiles.get();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (final Worker worker : workers) {
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					int i;
+					Profiler.adopt(timer);
+					srcFiles.set(sourceFiles);
+					// NOTE: files are claimed in order, so every file before
+					// one which fails has always been claimed.
+					while (!failed.get() && (i = next.getAndIncrement()) < n) {
+						logs[i] = new BufferedLogger();
+						try {
+							job.run(worker, i, logs[i]);
+						} catch (Throwable t) {
+							failures[i] = t;
+							failed.set(true);
+						}
+					}
+					srcFiles.remove();
+					Profiler.adopt(null);
+				}
+			}));
+		}
+		try {
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		for (int i = 0; i != n && logs[i] != null; ++i) {
+			logs[i].flush(logger);
+			Throwable t = failures[i];
+			if (t instanceof IOException) {
+				throw (IOException) t;
+			} else if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
+			} else if (t != null) {
+				throw new RuntimeException(t);
+			}
+		}
+	}
+
+	private void process(WyilFile module, Transform stage, Logger logger)
+			throws IOException {
 		Runtime runtime = Runtime.getRuntime();
 		long start = System.currentTimeMillis();
 		long memory = runtime.freeMemory();
 		String name = name(stage.getClass().getSimpleName());
+		Profiler.Timer timer = Profiler.start("module", module.id().toString());
 
 		try {
 			stage.apply(module);
 			logger.logTimedMessage("[" + module.filename() + "] applied "
 					+ name, System.currentTimeMillis() - start, memory - runtime.freeMemory());
-			System.gc();
 		} catch (RuntimeException ex) {
 			logger.logTimedMessage("[" + module.filename() + "] failed on "
 					+ name + " (" + ex.getMessage() + ")",
@@ -371,6 +666,8 @@ public final class WhileyBuilder implements Builder {
 					+ name + " (" + ex.getMessage() + ")",
 					System.currentTimeMillis() - start, memory - runtime.freeMemory());
 			throw ex;
+		} finally {
+			timer.stop();
 		}
 	}
 
@@ -387,4 +684,53 @@ public final class WhileyBuilder implements Builder {
 		}
 		return r;
 	}
+
+	/**
+	 * A job is applied to each file being compiled, using the given worker.
+	 * Any messages should be logged to the given logger.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private interface Job {
+		void run(Worker worker, int index, Logger logger) throws IOException;
+	}
+
+	/**
+	 * A worker holds the state required to generate and transform Wyil files.
+	 * Code generators and pipeline stages hold state about the file they are
+	 * currently processing and, hence, each thread requires its own.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private final class Worker {
+		private final CodeGenerator generator;
+		private final List<Transform<WyilFile>> stages;
+
+		public Worker(FlowTypeChecker resolver, List<Transform<WyilFile>> stages) {
+			this.generator = new CodeGenerator(WhileyBuilder.this, resolver);
+			this.stages = stages;
+		}
+	}
+
+	/**
+	 * A logger which simply retains messages, so they can be logged later on.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class BufferedLogger implements Logger {
+		private final ArrayList<Triple<String, Long, Long>> messages = new ArrayList<Triple<String, Long, Long>>();
+
+		public void logTimedMessage(String msg, long time, long memory) {
+			messages.add(new Triple<String, Long, Long>(msg, time, memory));
+		}
+
+		public void flush(Logger logger) {
+			for (Triple<String, Long, Long> m : messages) {
+				logger.logTimedMessage(m.first(), m.second(), m.third());
+			}
+		}
+	}
 }
@@ -180,6 +180,24 @@ public final class WhileyFile implements CompilationUnit {
 
 	}
 
+	/**
+	 * Determine a name for a given declaration, as used when reporting on it
+	 * (e.g. when profiling a build). Imports are named after the modules they
+	 * import from.
+	 *
+	 * @param d
+	 * @return
+	 */
+	public static String name(Declaration d) {
+		if (d instanceof NamedDeclaration) {
+			return ((NamedDeclaration) d).name();
+		} else if (d instanceof Import) {
+			return "import " + ((Import) d).filter;
+		} else {
+			return d.getClass().getSimpleName();
+		}
+	}
+
 	public abstract class NamedDeclaration extends AbstractContext implements
 			Declaration {
 		private final ArrayList<Modifier> modifiers;
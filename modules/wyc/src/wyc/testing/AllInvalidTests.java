@@ -74,7 +74,7 @@ public class AllInvalidTests {
 
 		File file = new File(WYC_LIB_DIR);
 		for(String f : file.list()) {
-			if(f.startsWith("wyrt-v")) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
 				WYRT_PATH = WYC_LIB_DIR + f;
 			}
 		}
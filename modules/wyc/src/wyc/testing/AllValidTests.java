@@ -73,7 +73,7 @@ public class AllValidTests {
 
 		File file = new File(WYC_LIB_DIR);
 		for(String f : file.list()) {
-			if(f.startsWith("wyrt-v")) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
 				WYRT_PATH = WYC_LIB_DIR + f;
 			}
 		}
@@ -1339,6 +1339,11 @@ public class AllValidTests {
 		runTest("Lambda_Valid_9");
 	}
 
+	@Test
+	public void Lambda_Valid_10() {
+		runTest("Lambda_Valid_10");
+	}
+
 	@Test
 	public void LengthOf_Valid_1() {
 		runTest("LengthOf_Valid_1");
@@ -1469,6 +1474,16 @@ public class AllValidTests {
 		runTest("ListAssign_Valid_11");
 	}
 
+	@Test
+	public void ListAssign_Valid_13() {
+		runTest("ListAssign_Valid_13");
+	}
+
+	@Test
+	public void ListAssign_Valid_14() {
+		runTest("ListAssign_Valid_14");
+	}
+
 	@Test
 	public void ListAssign_Valid_2() {
 		runTest("ListAssign_Valid_2");
@@ -1934,6 +1949,11 @@ public class AllValidTests {
 		runTest("RecordAssign_Valid_10");
 	}
 
+	@Test
+	public void RecordAssign_Valid_11() {
+		runTest("RecordAssign_Valid_11");
+	}
+
 	@Test
 	public void RecordAssign_Valid_2() {
 		runTest("RecordAssign_Valid_2");
@@ -2634,6 +2654,26 @@ public class AllValidTests {
 		runTest("Switch_Valid_13");
 	}
 
+	@Test
+	public void Switch_Valid_14() {
+		runTest("Switch_Valid_14");
+	}
+
+	@Test
+	public void Switch_Valid_15() {
+		runTest("Switch_Valid_15");
+	}
+
+	@Test
+	public void Switch_Valid_16() {
+		runTest("Switch_Valid_16");
+	}
+
+	@Test
+	public void Switch_Valid_17() {
+		runTest("Switch_Valid_17");
+	}
+
 	@Test
 	public void Switch_Valid_2() {
 		runTest("Switch_Valid_2");
@@ -2699,6 +2739,11 @@ public class AllValidTests {
 		runTest("TryCatch_Valid_4");
 	}
 
+	@Test
+	public void TryCatch_Valid_5() {
+		runTest("TryCatch_Valid_5");
+	}
+
 	@Test
 	public void TupleType_Valid_1() {
 		runTest("TupleType_Valid_1");
@@ -2944,6 +2989,26 @@ public class AllValidTests {
 		runTest("TypeEquals_Valid_47");
 	}
 
+	@Test
+	public void TypeEquals_Valid_48() {
+		runTest("TypeEquals_Valid_48");
+	}
+
+	@Test
+	public void TypeEquals_Valid_49() {
+		runTest("TypeEquals_Valid_49");
+	}
+
+	@Test
+	public void TypeEquals_Valid_50() {
+		runTest("TypeEquals_Valid_50");
+	}
+
+	@Test
+	public void TypeEquals_Valid_51() {
+		runTest("TypeEquals_Valid_51");
+	}
+
 	@Test
 	public void TypeEquals_Valid_5() {
 		runTest("TypeEquals_Valid_5");
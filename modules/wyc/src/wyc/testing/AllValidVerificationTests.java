@@ -72,7 +72,7 @@ public class AllValidVerificationTests {
 
 		File file = new File(WYC_LIB_DIR);
 		for(String f : file.list()) {
-			if(f.startsWith("wyrt-v")) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
 				WYRT_PATH = WYC_LIB_DIR + f;
 			}
 		}
@@ -1344,6 +1344,11 @@ public class AllValidVerificationTests {
 		runTest("Lambda_Valid_8");
 	}
 
+	@Ignore("#344") @Test
+	public void Lambda_Valid_10() {
+		runTest("Lambda_Valid_10");
+	}
+
 	@Test
 	public void LengthOf_Valid_1() {
 		runTest("LengthOf_Valid_1");
@@ -1487,6 +1492,16 @@ public class AllValidVerificationTests {
 		runTest("ListAssign_Valid_11");
 	}
 
+	@Ignore("Known Issue") @Test
+	public void ListAssign_Valid_13() {
+		runTest("ListAssign_Valid_13");
+	}
+
+	@Ignore("Known Issue") @Test
+	public void ListAssign_Valid_14() {
+		runTest("ListAssign_Valid_14");
+	}
+
 	@Test
 	public void ListAssign_Valid_2() {
 		runTest("ListAssign_Valid_2");
@@ -1955,6 +1970,11 @@ public class AllValidVerificationTests {
 		runTest("RecordAssign_Valid_10");
 	}
 
+	@Test
+	public void RecordAssign_Valid_11() {
+		runTest("RecordAssign_Valid_11");
+	}
+
 	@Test
 	public void RecordAssign_Valid_2() {
 		runTest("RecordAssign_Valid_2");
@@ -2657,6 +2677,26 @@ public class AllValidVerificationTests {
 		runTest("Switch_Valid_13");
 	}
 
+	@Test
+	public void Switch_Valid_14() {
+		runTest("Switch_Valid_14");
+	}
+
+	@Test
+	public void Switch_Valid_15() {
+		runTest("Switch_Valid_15");
+	}
+
+	@Test
+	public void Switch_Valid_16() {
+		runTest("Switch_Valid_16");
+	}
+
+	@Ignore("#336") @Test
+	public void Switch_Valid_17() {
+		runTest("Switch_Valid_17");
+	}
+
 	@Test
 	public void Switch_Valid_2() {
 		runTest("Switch_Valid_2");
@@ -2722,6 +2762,11 @@ public class AllValidVerificationTests {
 		runTest("TryCatch_Valid_4");
 	}
 
+	@Test
+	public void TryCatch_Valid_5() {
+		runTest("TryCatch_Valid_5");
+	}
+
 	@Test
 	public void TupleType_Valid_1() {
 		runTest("TupleType_Valid_1");
@@ -2967,6 +3012,26 @@ public class AllValidVerificationTests {
 		runTest("TypeEquals_Valid_47");
 	}
 
+	@Ignore("Known Issue") @Test
+	public void TypeEquals_Valid_48() {
+		runTest("TypeEquals_Valid_48");
+	}
+
+	@Test
+	public void TypeEquals_Valid_49() {
+		runTest("TypeEquals_Valid_49");
+	}
+
+	@Test
+	public void TypeEquals_Valid_50() {
+		runTest("TypeEquals_Valid_50");
+	}
+
+	@Test
+	public void TypeEquals_Valid_51() {
+		runTest("TypeEquals_Valid_51");
+	}
+
 	@Test
 	public void TypeEquals_Valid_5() {
 		runTest("TypeEquals_Valid_5");
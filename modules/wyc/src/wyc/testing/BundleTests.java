@@ -0,0 +1,153 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package wyc.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.List;
+
+import org.junit.*;
+
+import wyc.WycMain;
+import wyc.util.WycBuildTask;
+import wycc.util.Pair;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wyfs.util.BundleRoot;
+import wyfs.util.BundleWriter;
+import wyfs.util.JarFileRoot;
+import wyil.lang.WyilFile;
+
+/**
+ * Tests for library bundles. A bundle is constructed from the Whiley Runtime
+ * and must then provide exactly the same files, and be usable in place of it
+ * when compiling.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BundleTests {
+
+	/**
+	 * The directory containing the source files for each test case.
+	 */
+	public final static String WHILEY_SRC_DIR = "../../tests/valid".replace('/', File.separatorChar);
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	/**
+	 * The path to the Whiley RunTime (WyRT) library. This contains the Whiley
+	 * standard library, which includes various helper functions, etc.
+	 */
+	private static String WYRT_PATH;
+
+	static {
+		File file = new File(WYC_LIB_DIR);
+		for(String f : file.list()) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				WYRT_PATH = WYC_LIB_DIR + f;
+			}
+		}
+	}
+
+	private File dir;
+	private File bundle;
+
+	@Before public void setUp() throws IOException {
+		dir = File.createTempFile("bundle", "");
+		dir.delete();
+		dir.mkdirs();
+		bundle = new File(dir, "wyrt.wylib");
+		BundleWriter writer = new BundleWriter();
+		writer.addJar(new File(WYRT_PATH));
+		writer.write(bundle);
+	}
+
+	@After public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test public void Bundle_1() throws IOException {
+		Content.Registry registry = new WycBuildTask.Registry();
+		Content.Filter<WyilFile> filter = Content.filter("**",
+				WyilFile.ContentType);
+		List<Path.Entry<WyilFile>> expected = new JarFileRoot(WYRT_PATH,
+				registry).get(filter);
+		Path.Root root = new BundleRoot(bundle, registry);
+		assertTrue(expected.size() > 0);
+		assertEquals(expected.size(), root.get(filter).size());
+		for (Path.Entry<WyilFile> e : expected) {
+			Path.Entry<WyilFile> actual = root.get(e.id(), WyilFile.ContentType);
+			assertNotNull(e.id().toString(), actual);
+			assertArrayEquals(e.id().toString(), read(e.inputStream()),
+					read(actual.inputStream()));
+		}
+	}
+
+	@Test public void Bundle_2() throws IOException {
+		// Rebuilding the bundle is seen when the root is refreshed
+		Content.Registry registry = new WycBuildTask.Registry();
+		Content.Filter<WyilFile> filter = Content.filter("**",
+				WyilFile.ContentType);
+		BundleRoot root = new BundleRoot(bundle, registry);
+		int size = root.get(filter).size();
+		BundleWriter writer = new BundleWriter();
+		writer.addJar(new File(WYRT_PATH));
+		writer.add("whiley/lang/Extra.wyil", new byte[0], 0);
+		writer.write(bundle);
+		bundle.setLastModified(bundle.lastModified() + 1000);
+		root.refresh();
+		assertEquals(size + 1, root.get(filter).size());
+	}
+
+	@Test public void Bundle_3() throws IOException {
+		String file = new File(WHILEY_SRC_DIR, "Function_Valid_18.whiley").getPath();
+		Pair<Integer, String> r = TestUtils.compile("-bp", bundle.getPath(),
+				"-wd", WHILEY_SRC_DIR, "-od", dir.getPath(), "-verify", file);
+		assertEquals(r.second(), WycMain.SUCCESS, r.first().intValue());
+		assertTrue(new File(dir, "Function_Valid_18.wyil").exists());
+	}
+
+	private static byte[] read(InputStream input) throws IOException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			int b;
+			while ((b = input.read()) >= 0) {
+				bytes.write(b);
+			}
+			return bytes.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+}
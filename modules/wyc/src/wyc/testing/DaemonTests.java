@@ -0,0 +1,218 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyc.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.*;
+
+import wyc.WycDaemon;
+import wyc.WycMain;
+
+/**
+ * Tests for the compiler daemon. Each test makes several build requests
+ * against the same daemon, checking that later builds see changes made to
+ * files between requests. Requests are also made over a socket, to check that
+ * only clients with the daemon's token are served.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class DaemonTests {
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	/**
+	 * The path to the Whiley RunTime (WyRT) library. This contains the Whiley
+	 * standard library, which includes various helper functions, etc.
+	 */
+	private static String WYRT_PATH;
+
+	static {
+		File file = new File(WYC_LIB_DIR);
+		for(String f : file.list()) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				WYRT_PATH = new File(WYC_LIB_DIR + f).getAbsolutePath();
+			}
+		}
+	}
+
+	private static final String A = "function g(int x) => int:\n    return B.f(x)\n";
+
+	private static final String B = "public function f(int x) => int:\n    return x + 1\n";
+
+	private File dir;
+
+	private WycDaemon daemon;
+
+	@Before public void setUp() throws IOException {
+		dir = File.createTempFile("daemon", "");
+		dir.delete();
+		dir.mkdirs();
+		daemon = new WycDaemon();
+		write("A.whiley", A);
+		write("B.whiley", B);
+	}
+
+	@After public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test public void Daemon_1() throws IOException {
+		// Relative paths are resolved against the client's directory
+		assertEquals(WycMain.SUCCESS, compile("A.whiley", "B.whiley"));
+		assertTrue(new File(dir, "A.wyil").exists());
+		assertTrue(new File(dir, "B.wyil").exists());
+		assertEquals(WycMain.SUCCESS, compile("A.whiley", "B.whiley"));
+	}
+
+	@Test public void Daemon_2() throws IOException {
+		assertEquals(WycMain.SUCCESS, compile("A.whiley", "B.whiley"));
+		// Removing f from B must be seen by the next build
+		write("B.whiley", "public function h(int x) => int:\n    return x\n");
+		new File(dir, "B.wyil").setLastModified(0);
+		assertEquals(WycMain.SYNTAX_ERROR, compile("A.whiley", "B.whiley"));
+		write("B.whiley", B);
+		assertEquals(WycMain.SUCCESS, compile("A.whiley", "B.whiley"));
+	}
+
+	@Test public void Daemon_3() throws IOException {
+		// A syntax error in one request does not affect the next
+		write("C.whiley", "function h() => int: return y\n");
+		assertEquals(WycMain.SYNTAX_ERROR, compile("C.whiley"));
+		write("C.whiley", "function h() => int:\n    return 1\n");
+		assertEquals(WycMain.SUCCESS, compile("C.whiley"));
+	}
+
+	@Test(timeout = 60000) public void Daemon_4() throws Exception {
+		// Requests without the daemon's token are refused
+		int port = freePort();
+		File tokenFile = new File(dir, "token");
+		Thread server = start(port, tokenFile);
+		String token = WycDaemon.readToken(tokenFile);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		String[] args = { "-wp", WYRT_PATH, "A.whiley", "B.whiley" };
+		assertEquals(WycMain.INTERNAL_FAILURE,
+				WycDaemon.request(port, "wrong", dir, args, out, out));
+		assertFalse(new File(dir, "A.wyil").exists());
+		String[] stop = { "-stop" };
+		assertEquals(WycMain.INTERNAL_FAILURE,
+				WycDaemon.request(port, "wrong", dir, stop, out, out));
+		assertEquals(WycMain.SUCCESS,
+				WycDaemon.request(port, token, dir, args, out, out));
+		assertTrue(new File(dir, "A.wyil").exists());
+		assertEquals(WycMain.SUCCESS,
+				WycDaemon.request(port, token, dir, stop, out, out));
+		server.join();
+		assertFalse(tokenFile.exists());
+	}
+
+	@Test(timeout = 60000) public void Daemon_5() throws Exception {
+		// A client which never sends its request does not block others
+		int port = freePort();
+		File tokenFile = new File(dir, "token");
+		daemon.setTimeout(500);
+		Thread server = start(port, tokenFile);
+		String token = WycDaemon.readToken(tokenFile);
+		Socket idle = new Socket(InetAddress.getByName("127.0.0.1"), port);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			String[] args = { "-wp", WYRT_PATH, "A.whiley", "B.whiley" };
+			assertEquals(WycMain.SUCCESS,
+					WycDaemon.request(port, token, dir, args, out, out));
+			assertEquals(WycMain.SUCCESS, WycDaemon.request(port, token, dir,
+					new String[] { "-stop" }, out, out));
+			server.join();
+		} finally {
+			idle.close();
+		}
+	}
+
+	/**
+	 * Start the daemon on a given port in a separate thread, returning once
+	 * its token has been written.
+	 *
+	 * @param port
+	 * @param tokenFile
+	 * @return
+	 */
+	private Thread start(final int port, final File tokenFile)
+			throws InterruptedException {
+		Thread server = new Thread() {
+			public void run() {
+				try {
+					daemon.serve(port, tokenFile);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		server.start();
+		while (!tokenFile.exists() || tokenFile.length() == 0) {
+			Thread.sleep(10);
+		}
+		return server;
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private int compile(String... files) {
+		String[] args = new String[2 + files.length];
+		args[0] = "-wp";
+		args[1] = WYRT_PATH;
+		System.arraycopy(files, 0, args, 2, files.length);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		return daemon.build(dir, args, out, out);
+	}
+
+	private void write(String name, String contents) throws IOException {
+		FileWriter out = new FileWriter(new File(dir, name));
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+	}
+}
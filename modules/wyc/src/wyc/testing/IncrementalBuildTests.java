@@ -0,0 +1,138 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyc.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import org.junit.*;
+
+import wyc.WycMain;
+import wycc.util.Pair;
+
+/**
+ * Tests for dependency-aware incremental compilation. Each test compiles a
+ * small project in a fresh directory, modifies one module and then recompiles
+ * only that module. Modules which depend upon the modified module should be
+ * rebuilt if, and only if, its interface changed.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class IncrementalBuildTests {
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	/**
+	 * The path to the Whiley RunTime (WyRT) library. This contains the Whiley
+	 * standard library, which includes various helper functions, etc.
+	 */
+	private static String WYRT_PATH;
+
+	static {
+		File file = new File(WYC_LIB_DIR);
+		for(String f : file.list()) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				WYRT_PATH = WYC_LIB_DIR + f;
+			}
+		}
+	}
+
+	private static final String B_V1 = "public function f(int x) => int:\n    return x + 1\n";
+
+	private static final String A = "function g(int x) => int:\n    return B.f(x)\n";
+
+	private File dir;
+
+	@Before public void setUp() throws IOException {
+		dir = File.createTempFile("incremental", "");
+		dir.delete();
+		dir.mkdirs();
+		write("A.whiley", A);
+		write("B.whiley", B_V1);
+		compile("A.whiley", "B.whiley");
+		// Make the binary for A appear old, so rebuilding it can be detected
+		new File(dir, "A.wyil").setLastModified(0);
+	}
+
+	@After public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test public void Incremental_1() throws IOException {
+		// Changing only the body of B does not change its interface
+		write("B.whiley", "public function f(int x) => int:\n    return 1 + x\n");
+		assertEquals(WycMain.SUCCESS, compile("B.whiley").first().intValue());
+		assertEquals(0, new File(dir, "A.wyil").lastModified());
+	}
+
+	@Test public void Incremental_2() throws IOException {
+		// Adding a function to B changes its interface
+		write("B.whiley", B_V1
+				+ "\npublic function h(int x) => int:\n    return x\n");
+		assertEquals(WycMain.SUCCESS, compile("B.whiley").first().intValue());
+		assertTrue(new File(dir, "A.wyil").lastModified() != 0);
+	}
+
+	@Test public void Incremental_3() throws IOException {
+		// Making f private breaks A, which must therefore be rebuilt
+		write("B.whiley", "function f(int x) => int:\n    return x + 1\n");
+		Pair<Integer, String> r = compile("B.whiley");
+		assertEquals(WycMain.SYNTAX_ERROR, r.first().intValue());
+		assertTrue(r.second().contains("A.whiley"));
+	}
+
+	private Pair<Integer, String> compile(String... files) {
+		String[] args = new String[6 + files.length];
+		args[0] = "-wd";
+		args[1] = dir.getPath();
+		args[2] = "-wp";
+		args[3] = WYRT_PATH;
+		args[4] = "-deps";
+		args[5] = new File(dir, "deps").getPath();
+		for (int i = 0; i != files.length; ++i) {
+			args[6 + i] = new File(dir, files[i]).getPath();
+		}
+		return TestUtils.compile(args);
+	}
+
+	private void write(String name, String contents) throws IOException {
+		FileWriter out = new FileWriter(new File(dir, name));
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+	}
+}
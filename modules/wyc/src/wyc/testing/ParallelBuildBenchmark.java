@@ -0,0 +1,181 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package wyc.testing;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import wyc.WycMain;
+import wycc.util.Pair;
+
+/**
+ * A simple benchmark for measuring the effect of generating and transforming
+ * Wyil files in parallel. This compiles every valid test case (excluding those
+ * which the compiler currently rejects) as a single build, first using one
+ * thread and then using a given number of threads, and reports the wall-clock
+ * time taken for each. Verification is not enabled, so the time reported is
+ * dominated by the Whiley => Wyil builder. This should be run from the
+ * <code>modules/wyc</code> directory. For example:
+ *
+ * <pre>
+ * java wyc.testing.ParallelBuildBenchmark 4 5
+ * </pre>
+ *
+ * compiles the test cases five times with one thread, and five times with four
+ * threads.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ParallelBuildBenchmark {
+
+	/**
+	 * The directory containing the source files for each test case.
+	 */
+	public final static String WHILEY_SRC_DIR = "../../tests/valid".replace('/', File.separatorChar);
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	/**
+	 * The path to the Whiley RunTime (WyRT) library. This contains the Whiley
+	 * standard library, which includes various helper functions, etc.
+	 */
+	private static String WYRT_PATH;
+
+	static {
+		File file = new File(WYC_LIB_DIR);
+		for(String f : file.list()) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				WYRT_PATH = WYC_LIB_DIR + f;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		int runs = 3;
+		if (args.length > 0) {
+			threads = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			runs = Integer.parseInt(args[1]);
+		}
+
+		// Copy the test cases, so the compiled files don't clutter the tests
+		// directory.
+		File dir = File.createTempFile("benchmark", "");
+		dir.delete();
+		dir.mkdirs();
+		ArrayList<String> files = new ArrayList<String>();
+		String[] names = new File(WHILEY_SRC_DIR).list();
+		Arrays.sort(names);
+		for (String name : names) {
+			if (name.endsWith(".whiley")) {
+				copy(new File(WHILEY_SRC_DIR, name), new File(dir, name));
+				files.add(new File(dir, name).getPath());
+			}
+		}
+
+		// Remove test cases which do not compile. A build stops at the first
+		// error, so this removes them one at a time.
+		Pair<Integer, String> r;
+		while ((r = compile(dir, files, 1)).first() != WycMain.SUCCESS) {
+			String failed = null;
+			for (String file : files) {
+				if (r.second().contains(file)) {
+					failed = file;
+					break;
+				}
+			}
+			if (failed == null) {
+				throw new RuntimeException("unable to compile test cases\n"
+						+ r.second());
+			}
+			files.remove(failed);
+		}
+
+		System.out.println("Compiling " + files.size() + " files");
+		System.out.println("RUN\t1 THREAD (ms)\t" + threads + " THREADS (ms)");
+		for (int i = 0; i != runs; ++i) {
+			long sequential = time(dir, files, 1);
+			long parallel = time(dir, files, threads);
+			System.out.println(i + "\t" + sequential + "\t\t" + parallel);
+		}
+
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private static long time(File dir, ArrayList<String> files, int threads) {
+		long start = System.currentTimeMillis();
+		Pair<Integer, String> r = compile(dir, files, threads);
+		long time = System.currentTimeMillis() - start;
+		if (r.first() != WycMain.SUCCESS) {
+			throw new RuntimeException("compilation failed (" + threads
+					+ " threads)\n" + r.second());
+		}
+		return time;
+	}
+
+	private static Pair<Integer, String> compile(File dir,
+			ArrayList<String> files, int threads) {
+		String[] args = new String[6 + files.size()];
+		args[0] = "-wd";
+		args[1] = dir.getPath();
+		args[2] = "-wp";
+		args[3] = WYRT_PATH;
+		args[4] = "-threads";
+		args[5] = Integer.toString(threads);
+		for (int i = 0; i != files.size(); ++i) {
+			args[6 + i] = files.get(i);
+		}
+		return TestUtils.compile(args);
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		FileInputStream in = new FileInputStream(from);
+		try {
+			FileOutputStream out = new FileOutputStream(to);
+			try {
+				byte[] buffer = new byte[4096];
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,275 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package wyc.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Arrays;
+
+import org.junit.*;
+
+import wyc.WycMain;
+import wycc.util.Pair;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilInterface;
+
+/**
+ * Tests for building with more than one thread. Each test compiles the same
+ * small project twice, once sequentially and once in parallel, and checks
+ * that both builds produce identical results.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ParallelBuildTests {
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	/**
+	 * The path to the Whiley RunTime (WyRT) library. This contains the Whiley
+	 * standard library, which includes various helper functions, etc.
+	 */
+	private static String WYRT_PATH;
+
+	static {
+		File file = new File(WYC_LIB_DIR);
+		for(String f : file.list()) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				WYRT_PATH = WYC_LIB_DIR + f;
+			}
+		}
+	}
+
+	private static final String[] FILES = { "A.whiley", "B.whiley",
+			"C.whiley", "D.whiley" };
+
+	private static final String[] CONTENTS = {
+		"function g(int x) => int\nrequires x >= 0:\n    return B.f(x) + C.h([x])\n",
+		"public function f(int x) => (int r)\nensures r > x:\n    return x + 1\n",
+		"public function h([int] xs) => int\nrequires all { x in xs | x >= 0 }:\n    int r = 0\n    for x in xs where r >= 0:\n        if x >= 0:\n            r = r + x\n    return r\n",
+		"function k([int] xs) => [int]\nrequires all { x in xs | x > 0 }:\n    for x in xs:\n        assert x > 0\n    return xs\n"
+	};
+
+	private File sequential;
+	private File parallel;
+
+	@Before public void setUp() throws IOException {
+		sequential = directory();
+		parallel = directory();
+	}
+
+	@After public void tearDown() {
+		delete(sequential);
+		delete(parallel);
+	}
+
+	@Test public void Parallel_1() throws IOException {
+		assertEquals(WycMain.SUCCESS, compile(sequential, 1).first().intValue());
+		assertEquals(WycMain.SUCCESS, compile(parallel, 4).first().intValue());
+		assertSameFiles();
+	}
+
+	@Test public void Parallel_2() throws IOException {
+		assertEquals(WycMain.SUCCESS,
+				compile(sequential, 1, "-verify").first().intValue());
+		assertEquals(WycMain.SUCCESS,
+				compile(parallel, 4, "-verify").first().intValue());
+		assertSameFiles();
+	}
+
+	@Test public void Parallel_3() throws IOException {
+		// An error in one file is reported in the same way by both builds
+		write(sequential, "B.whiley", "public function f(int x) => int:\n    return y\n");
+		write(parallel, "B.whiley", "public function f(int x) => int:\n    return y\n");
+		Pair<Integer, String> r1 = compile(sequential, 1);
+		Pair<Integer, String> r2 = compile(parallel, 4);
+		assertEquals(WycMain.SYNTAX_ERROR, r1.first().intValue());
+		assertEquals(WycMain.SYNTAX_ERROR, r2.first().intValue());
+		assertEquals(r1.second().replace(sequential.getPath(), ""), r2
+				.second().replace(parallel.getPath(), ""));
+	}
+
+	@Test public void Parallel_4() throws IOException {
+		// Once their dependencies are known, independent files are built
+		// separately
+		assertEquals(WycMain.SUCCESS, compile(sequential, 1, deps(sequential))
+				.first().intValue());
+		assertEquals(WycMain.SUCCESS, compile(parallel, 4, deps(parallel))
+				.first().intValue());
+		File trace = File.createTempFile("trace", ".json");
+		try {
+			assertEquals(WycMain.SUCCESS, compile(sequential, 1,
+					deps(sequential)).first().intValue());
+			assertEquals(WycMain.SUCCESS, compile(parallel, 4,
+					deps(parallel), "-trace", trace.getPath()).first()
+					.intValue());
+			String events = new String(read(trace));
+			assertEquals(FILES.length,
+					events.split("\"Whiley => Wyil\"", -1).length - 1);
+		} finally {
+			trace.delete();
+		}
+		assertSameFiles();
+	}
+
+	@Test public void Parallel_5() throws IOException {
+		// A file which now depends upon a file it did not before is built
+		// again, once that file has been built. With two threads, B and C are
+		// built before D is started.
+		assertEquals(WycMain.SUCCESS, compile(sequential, 1, deps(sequential))
+				.first().intValue());
+		assertEquals(WycMain.SUCCESS, compile(parallel, 2, deps(parallel))
+				.first().intValue());
+		for (File dir : new File[] { sequential, parallel }) {
+			write(dir, "B.whiley",
+					"public function f(int x) => int:\n    return D.k(x) + 1\n");
+			write(dir, "D.whiley",
+					"public function k(int x) => int:\n    return x * 2\n");
+		}
+		assertEquals(WycMain.SUCCESS, compile(sequential, 1, deps(sequential))
+				.first().intValue());
+		Pair<Integer, String> r = compile(parallel, 2, deps(parallel));
+		assertEquals(r.second(), WycMain.SUCCESS, r.first().intValue());
+		assertSameFiles();
+	}
+
+	private static String[] deps(File dir) {
+		return new String[] { "-deps", new File(dir, "deps").getPath() };
+	}
+
+	private void assertSameFiles() throws IOException {
+		String[] names = sequential.list();
+		Arrays.sort(names);
+		String[] others = parallel.list();
+		Arrays.sort(others);
+		assertArrayEquals(names, others);
+		for (String name : names) {
+			if (name.endsWith(".wyili")) {
+				// NOTE: interface files record the modification time of their
+				// modules, which differ between builds.
+				WyilInterface i1 = readInterface(new File(sequential, name));
+				WyilInterface i2 = readInterface(new File(parallel, name));
+				assertEquals(name, i1.hash(), i2.hash());
+				assertArrayEquals(name, write(i1.module()), write(i2.module()));
+			} else {
+				assertArrayEquals(name, read(new File(sequential, name)),
+						read(new File(parallel, name)));
+			}
+		}
+	}
+
+	private static WyilInterface readInterface(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			return WyilInterface.ContentType.read(null, input);
+		} finally {
+			input.close();
+		}
+	}
+
+	private static byte[] write(WyilFile module) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		WyilFile.ContentType.write(output, module);
+		return output.toByteArray();
+	}
+
+	private Pair<Integer, String> compile(File dir, int threads,
+			String[] deps, String... options) {
+		String[] args = new String[deps.length + options.length];
+		System.arraycopy(deps, 0, args, 0, deps.length);
+		System.arraycopy(options, 0, args, deps.length, options.length);
+		return compile(dir, threads, args);
+	}
+
+	private Pair<Integer, String> compile(File dir, int threads,
+			String... options) {
+		String[] args = new String[10 + options.length + FILES.length];
+		int index = 0;
+		args[index++] = "-wd";
+		args[index++] = dir.getPath();
+		args[index++] = "-wp";
+		args[index++] = WYRT_PATH;
+		args[index++] = "-wyaldir";
+		args[index++] = dir.getPath();
+		args[index++] = "-wycsdir";
+		args[index++] = dir.getPath();
+		args[index++] = "-threads";
+		args[index++] = Integer.toString(threads);
+		for (String option : options) {
+			args[index++] = option;
+		}
+		for (String file : FILES) {
+			args[index++] = new File(dir, file).getPath();
+		}
+		return TestUtils.compile(args);
+	}
+
+	private static File directory() throws IOException {
+		File dir = File.createTempFile("parallel", "");
+		dir.delete();
+		dir.mkdirs();
+		for (int i = 0; i != FILES.length; ++i) {
+			write(dir, FILES[i], CONTENTS[i]);
+		}
+		return dir;
+	}
+
+	private static void delete(File dir) {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private static byte[] read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void write(File dir, String name, String contents)
+			throws IOException {
+		FileWriter out = new FileWriter(new File(dir, name));
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+	}
+}
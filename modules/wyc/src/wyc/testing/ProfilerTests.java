@@ -0,0 +1,131 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyc.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import org.junit.*;
+
+import wyc.WycMain;
+import wycc.util.Pair;
+import wycc.util.Profiler;
+
+/**
+ * Tests for build profiling. A file is compiled with profiling enabled, and the
+ * resulting summary and trace must then contain the expected phases.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ProfilerTests {
+
+	/**
+	 * The directory containing the source files for each test case.
+	 */
+	public final static String WHILEY_SRC_DIR = "../../tests/valid".replace('/', File.separatorChar);
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	/**
+	 * The path to the Whiley RunTime (WyRT) library. This contains the Whiley
+	 * standard library, which includes various helper functions, etc.
+	 */
+	private static String WYRT_PATH;
+
+	static {
+		File file = new File(WYC_LIB_DIR);
+		for(String f : file.list()) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				WYRT_PATH = WYC_LIB_DIR + f;
+			}
+		}
+	}
+
+	private File dir;
+
+	@Before public void setUp() throws IOException {
+		dir = File.createTempFile("profile", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test public void Profile_1() throws IOException {
+		File profile = new File(dir, "profile.json");
+		File trace = new File(dir, "trace.json");
+		String file = new File(WHILEY_SRC_DIR, "Function_Valid_18.whiley").getPath();
+		Pair<Integer, String> r = TestUtils.compile("-bp", WYRT_PATH, "-wd",
+				WHILEY_SRC_DIR, "-od", dir.getPath(), "-verify", "-profile",
+				profile.getPath(), "-trace", trace.getPath(), file);
+		assertEquals(r.second(), WycMain.SUCCESS, r.first().intValue());
+		String summary = read(profile);
+		assertTrue(summary.contains("\"Whiley => Wyil\""));
+		assertTrue(summary.contains("\"Wyal => Wycs\""));
+		assertTrue(summary.contains("\"Function_Valid_18\""));
+		assertTrue(summary.contains("\"counters\""));
+		String events = read(trace);
+		assertTrue(events.contains("\"traceEvents\""));
+		assertTrue(events.contains("\"Wyil => Wyal\""));
+		assertTrue(events.contains("\"assertion #"));
+	}
+
+	@Test public void Profile_2() throws IOException {
+		// Profiling must be switched off again after the build
+		File profile = new File(dir, "profile.json");
+		String file = new File(WHILEY_SRC_DIR, "Function_Valid_18.whiley").getPath();
+		TestUtils.compile("-bp", WYRT_PATH, "-wd", WHILEY_SRC_DIR, "-od",
+				dir.getPath(), "-profile", profile.getPath(), file);
+		assertTrue(profile.exists());
+		assertNull(Profiler.get());
+	}
+
+	private static String read(File file) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			StringBuilder r = new StringBuilder();
+			char[] buf = new char[4096];
+			int n;
+			while ((n = reader.read(buf)) >= 0) {
+				r.append(buf, 0, n);
+			}
+			return r.toString();
+		} finally {
+			reader.close();
+		}
+	}
+}
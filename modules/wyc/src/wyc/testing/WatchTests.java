@@ -0,0 +1,238 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyc.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+
+import wyc.util.WycBuildTask;
+import wyc.lang.WhileyFile;
+import wycc.lang.SyntaxError;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryWatcher;
+import wyfs.util.Trie;
+
+/**
+ * Tests for rebuilding source files as they change. Rather than running a
+ * watcher on a separate thread, most tests poll the source directory
+ * explicitly, and then rebuild the entries reported as changed.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class WatchTests {
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	/**
+	 * The path to the Whiley RunTime (WyRT) library. This contains the Whiley
+	 * standard library, which includes various helper functions, etc.
+	 */
+	private static String WYRT_PATH;
+
+	static {
+		File file = new File(WYC_LIB_DIR);
+		for(String f : file.list()) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				WYRT_PATH = WYC_LIB_DIR + f;
+			}
+		}
+	}
+
+	private File dir;
+
+	private WycBuildTask builder;
+
+	private DirectoryWatcher watcher;
+
+	@Before public void setUp() throws Exception {
+		dir = File.createTempFile("watch", "");
+		dir.delete();
+		dir.mkdirs();
+		write("A.whiley", "function g(int x) => int:\n    return B.f(x)\n");
+		write("B.whiley", "public function f(int x) => int:\n    return x + 1\n");
+		builder = new WycBuildTask();
+		builder.setWhileyDir(dir);
+		builder.setWhileyPath(Collections.singletonList(new File(WYRT_PATH)));
+		builder.build(Arrays.asList(new File(dir, "A.whiley"), new File(dir,
+				"B.whiley")));
+		watcher = new DirectoryWatcher(builder.getWhileyDir(), null);
+		watcher.poll();
+	}
+
+	@After public void tearDown() {
+		delete(dir);
+	}
+
+	@Test public void Watch_1() throws Exception {
+		// Nothing has changed
+		assertTrue(watcher.poll().isEmpty());
+		assertEquals(0, builder.rebuild(watcher.refresh(watcher.poll())));
+	}
+
+	@Test public void Watch_2() throws Exception {
+		new File(dir, "B.wyil").setLastModified(0);
+		write("B.whiley", "public function f(int x) => int:\n    return x + 2\n");
+		List<Path.Entry<?>> entries = changes();
+		assertEquals(1, entries.size());
+		assertEquals("B", entries.get(0).id().toString());
+		assertEquals(1, builder.rebuild(entries));
+		assertTrue(new File(dir, "B.wyil").lastModified() != 0);
+	}
+
+	@Test public void Watch_3() throws Exception {
+		// A new file is added to the directory
+		write("C.whiley", "function h() => int:\n    return 1\n");
+		assertEquals(1, builder.rebuild(changes()));
+		assertTrue(new File(dir, "C.wyil").exists());
+	}
+
+	@Test public void Watch_4() throws Exception {
+		// An error does not prevent later changes from being built
+		write("A.whiley", "function g(int x) => int:\n    return B.f(y)\n");
+		try {
+			builder.rebuild(changes());
+			fail("syntax error not reported");
+		} catch (SyntaxError e) {
+			// expected
+		}
+		write("A.whiley", "function g(int x) => int:\n    return B.f(x) + 1\n");
+		assertEquals(1, builder.rebuild(changes()));
+	}
+
+	@Test public void Watch_5() throws Exception {
+		// A watcher running on its own thread reports a change
+		assertEquals(Collections.singletonList("C"),
+				watch("C.whiley", "function h() => int:\n    return 1\n"));
+	}
+
+	@Test public void Watch_6() throws Exception {
+		// A watcher running on its own thread reports a change in a new
+		// subdirectory
+		assertEquals(Collections.singletonList("sub/D"), watch("sub/D.whiley",
+				"function h() => int:\n    return 1\n"));
+	}
+
+	@Test public void Watch_7() throws Exception {
+		// A file is removed from the directory
+		new File(dir, "A.whiley").delete();
+		assertTrue(changes().isEmpty());
+		assertNull(builder.getWhileyDir().get(Trie.fromString("A"),
+				WhileyFile.ContentType));
+		assertNotNull(builder.getWhileyDir().get(Trie.fromString("B"),
+				WhileyFile.ContentType));
+	}
+
+	/**
+	 * Run a watcher on its own thread, and then write a given file. The IDs of
+	 * the entries which the watcher reports as changed are returned.
+	 *
+	 * @param name
+	 * @param contents
+	 * @return
+	 * @throws Exception
+	 */
+	private List<String> watch(String name, String contents) throws Exception {
+		final ArrayList<String> changed = new ArrayList<String>();
+		DirectoryWatcher watcher = new DirectoryWatcher(
+				builder.getWhileyDir(), new DirectoryWatcher.Listener() {
+					public void changed(List<Path.Entry<?>> entries) {
+						synchronized (changed) {
+							for (Path.Entry<?> e : entries) {
+								changed.add(e.id().toString());
+							}
+							changed.notifyAll();
+						}
+					}
+				});
+		watcher.setInterval(200);
+		watcher.setDelay(100);
+		Thread thread = new Thread(watcher);
+		thread.start();
+		try {
+			// give the watcher time to take its initial snapshot
+			Thread.sleep(500);
+			write(name, contents);
+			long end = System.currentTimeMillis() + 10000;
+			synchronized (changed) {
+				while (changed.isEmpty() && System.currentTimeMillis() < end) {
+					changed.wait(1000);
+				}
+			}
+		} finally {
+			watcher.stop();
+			thread.join(5000);
+		}
+		assertFalse(thread.isAlive());
+		return changed;
+	}
+
+	/**
+	 * Determine the entries which have changed since the last poll.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private List<Path.Entry<?>> changes() throws IOException {
+		Set<File> files = watcher.poll();
+		assertFalse(files.isEmpty());
+		return watcher.refresh(files);
+	}
+
+	private void write(String name, String contents) throws IOException {
+		File file = new File(dir, name);
+		file.getParentFile().mkdirs();
+		boolean exists = file.exists();
+		FileWriter out = new FileWriter(file);
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+		if (exists) {
+			// ensure the change is visible, even with coarse timestamps
+			file.setLastModified(file.lastModified() + 2000);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+}
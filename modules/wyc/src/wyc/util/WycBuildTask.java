@@ -7,6 +7,8 @@ import wybs.lang.*;
 import wybs.util.*;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
+import wyfs.util.AbstractEntry;
+import wyfs.util.BundleRoot;
 import wyfs.util.DirectoryRoot;
 import wyfs.util.JarFileRoot;
 import wyfs.util.VirtualRoot;
@@ -17,6 +19,7 @@ import wyc.builder.WhileyBuilder;
 import wyc.lang.WhileyFile;
 import wycc.lang.Pipeline;
 import wycc.util.Logger;
+import wycc.util.Profiler;
 import wycs.builders.Wyal2WycsBuilder;
 import wycs.core.WycsFile;
 import wycs.syntax.WyalFile;
@@ -25,6 +28,7 @@ import wycs.transforms.VerificationCheck;
 import wycs.util.WycsBuildTask;
 import wyil.io.WyilFilePrinter;
 import wyil.lang.WyilFile;
+import wyil.lang.WyilInterface;
 
 /**
  * <p>
@@ -61,7 +65,8 @@ public class WycBuildTask {
 	 */
 	public static final FileFilter wyilFileFilter = new FileFilter() {
 		public boolean accept(File f) {
-			return f.getName().endsWith(".wyil") || f.isDirectory();
+			return f.getName().endsWith(".wyil")
+					|| f.getName().endsWith(".wyili") || f.isDirectory();
 		}
 	};
 
@@ -97,7 +102,9 @@ public class WycBuildTask {
 	 */
 	public static final FileFilter wyilOrWycsFileFilter = new FileFilter() {
 		public boolean accept(File f) {
-			return f.getName().endsWith(".wyil") || f.getName().endsWith(".wycs") || f.isDirectory();
+			return f.getName().endsWith(".wyil")
+					|| f.getName().endsWith(".wyili")
+					|| f.getName().endsWith(".wycs") || f.isDirectory();
 		}
 	};
 
@@ -116,6 +123,8 @@ public class WycBuildTask {
 				e.associate(WhileyFile.ContentType, null);
 			} else if(suffix.equals("wyil")) {
 				e.associate(WyilFile.ContentType, null);
+			} else if(suffix.equals("wyili")) {
+				e.associate(WyilInterface.ContentType, null);
 			} else if(suffix.equals("wyal")) {
 				e.associate(WyalFile.ContentType, null);
 			} else if(suffix.equals("wycs")) {
@@ -128,6 +137,8 @@ public class WycBuildTask {
 				return "whiley";
 			} else if(t == WyilFile.ContentType) {
 				return "wyil";
+			} else if(t == WyilInterface.ContentType) {
+				return "wyili";
 			} else if(t == WyalFile.ContentType) {
 				return "wyal";
 			} else if(t == WycsFile.ContentType) {
@@ -294,6 +305,21 @@ public class WycBuildTask {
 	 */
 	protected boolean smtVerification = false;
 
+	/**
+	 * The file in which module dependencies are recorded between builds. When
+	 * this is set, any module which depends upon a module whose interface has
+	 * changed is rebuilt as well. This may be null, in which case dependencies
+	 * are not tracked.
+	 */
+	protected File dependencyFile = null;
+
+	/**
+	 * The number of threads which may be used to build files. When this is
+	 * greater than one, different stages of the build (e.g. verification) may
+	 * proceed concurrently on different files. Likewise, Wyil files are
+	 * generated and transformed concurrently once type checking is complete.
+	 */
+	protected int threads = 1;
 
 	// ==========================================================================
 	// Constructors & Configuration
@@ -329,6 +355,18 @@ public class WycBuildTask {
 		this.smtVerification = verification;
 	}
 
+	public void setDependencyFile(File dependencyFile) {
+		this.dependencyFile = dependencyFile;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public DirectoryRoot getWhileyDir() {
+		return whileyDir;
+	}
+
 	public boolean getVerification() {
 		return verification;
 	}
@@ -338,25 +376,25 @@ public class WycBuildTask {
 	}
 
 	public void setWhileyDir(File whileydir) throws IOException {
-		this.whileyDir = new DirectoryRoot(whileydir, whileyFileFilter, registry);
+		this.whileyDir = directoryRoot(whileydir, whileyFileFilter);
 		if(wyilDir instanceof VirtualRoot) {
 			// The point here is to ensure that when this build task is used in
 			// a standalone fashion, that wyil files are actually written to
 			// disk.
-			this.wyilDir = new DirectoryRoot(whileydir, wyilFileFilter, registry);
+			this.wyilDir = directoryRoot(whileydir, wyilFileFilter);
 		}
 	}
 
     public void setWyilDir (File wyildir) throws IOException {
-        this.wyilDir = new DirectoryRoot(wyildir, wyilFileFilter, registry);
+        this.wyilDir = directoryRoot(wyildir, wyilFileFilter);
     }
 
     public void setWyalDir (File wyaldir) throws IOException {
-        this.wyalDir = new DirectoryRoot(wyaldir, wyalFileFilter, registry);
+        this.wyalDir = directoryRoot(wyaldir, wyalFileFilter);
     }
 
     public void setWycsDir (File wycsdir) throws IOException {
-        this.wycsDir = new DirectoryRoot(wycsdir, wycsFileFilter, registry);
+        this.wycsDir = directoryRoot(wycsdir, wycsFileFilter);
     }
 
     public void setWhileyPath(List<File> roots) throws IOException {
@@ -364,9 +402,11 @@ public class WycBuildTask {
 		for (File root : roots) {
 			try {
 				if (root.getName().endsWith(".jar")) {
-					whileypath.add(new JarFileRoot(root, registry));
+					whileypath.add(jarRoot(root));
+				} else if (root.getName().endsWith(".wylib")) {
+					whileypath.add(bundleRoot(root));
 				} else {
-					whileypath.add(new DirectoryRoot(root, wyilFileFilter, registry));
+					whileypath.add(directoryRoot(root, wyilFileFilter));
 				}
 			} catch (IOException e) {
 				if (verbose) {
@@ -382,9 +422,11 @@ public class WycBuildTask {
 		for (File root : roots) {
 			try {
 				if (root.getName().endsWith(".jar")) {
-					bootpath.add(new JarFileRoot(root, registry));
+					bootpath.add(jarRoot(root));
+				} else if (root.getName().endsWith(".wylib")) {
+					bootpath.add(bundleRoot(root));
 				} else {
-					bootpath.add(new DirectoryRoot(root, wyilOrWycsFileFilter, registry));
+					bootpath.add(directoryRoot(root, wyilOrWycsFileFilter));
 				}
 			} catch (IOException e) {
 				if (verbose) {
@@ -492,6 +534,34 @@ public class WycBuildTask {
 		return delta.size();
 	}
 
+	/**
+	 * Rebuild those source files which have changed since the last build (for
+	 * example, as reported by a <code>DirectoryWatcher</code>). Entries which
+	 * are not included source files are ignored. Any source files read by a
+	 * previous build are discarded first, since their syntax trees are
+	 * annotated during type checking.
+	 *
+	 * @param entries
+	 *            --- entries which have changed.
+	 * @return the number of source files rebuilt.
+	 */
+	public int rebuild(List<Path.Entry<?>> entries) throws Exception {
+		for (Path.Entry<WhileyFile> e : whileyDir.get(whileyIncludes)) {
+			((AbstractEntry<WhileyFile>) e).discard();
+		}
+		ArrayList<Path.Entry<WhileyFile>> delta = new ArrayList<Path.Entry<WhileyFile>>();
+		for (Path.Entry<?> e : entries) {
+			if (e.contentType() == WhileyFile.ContentType
+					&& whileyIncludes.matches(e.id(), WhileyFile.ContentType)
+					&& (whileyExcludes == null || !whileyExcludes.matches(
+							e.id(), WhileyFile.ContentType))) {
+				delta.add((Path.Entry<WhileyFile>) e);
+			}
+		}
+		buildEntries(delta);
+		return delta.size();
+	}
+
 	protected <T> void buildEntries(List<Path.Entry<T>> delta) throws Exception {
 
 		// ======================================================================
@@ -510,9 +580,24 @@ public class WycBuildTask {
 		// Build!
 		// ======================================================================
 
-		project.build(delta);
+		Profiler.Timer timer = Profiler.start("build", "build");
+		try {
+			project.build(delta);
+
+			Profiler.Timer flushing = Profiler.start("phase", "flush");
+			try {
+				flush();
+			} finally {
+				flushing.stop();
+			}
+		} finally {
+			timer.stop();
+		}
 
-		flush();
+		DependencyGraph graph = project.getDependencyGraph();
+		if (graph != null) {
+			graph.save();
+		}
 	}
 
 	// ==========================================================================
@@ -538,7 +623,14 @@ public class WycBuildTask {
 		roots.addAll(bootpath);
 
 		// second, construct the module loader
-		return new StdProject(roots);
+		StdProject project = new StdProject(roots);
+		project.setThreads(threads);
+
+		if (dependencyFile != null) {
+			project.setDependencyGraph(DependencyGraph.load(dependencyFile));
+		}
+
+		return project;
 	}
 
 	/**
@@ -586,11 +678,14 @@ public class WycBuildTask {
 			WhileyBuilder wyilBuilder = new WhileyBuilder(project,wyilPipeline);
 
 			if(verbose) {
-				wyilBuilder.setLogger(new Logger.Default(System.err));
+				wyilBuilder.setLogger(logger());
 			}
 
+			wyilBuilder.setDependencyGraph(project.getDependencyGraph());
+			wyilBuilder.setThreads(threads);
+
 			project.add(new StdBuildRule(wyilBuilder, whileyDir,
-					whileyIncludes, whileyExcludes, wyilDir));
+					whileyIncludes, whileyExcludes, wyilDir, true));
 
 			// ========================================================
 			// Wyil => Wycs Compilation Rule
@@ -603,11 +698,11 @@ public class WycBuildTask {
 				Wyil2WyalBuilder wyalBuilder = new Wyil2WyalBuilder(project);
 
 				if(verbose) {
-					wyalBuilder.setLogger(new Logger.Default(System.err));
+					wyalBuilder.setLogger(logger());
 				}
 
 				project.add(new StdBuildRule(wyalBuilder, wyilDir,
-						wyilIncludes, wyilExcludes, wyalDir));
+						wyilIncludes, wyilExcludes, wyalDir, true));
 
 				// Second, handle the conversion of wyal to wycs
 
@@ -618,7 +713,7 @@ public class WycBuildTask {
 				Wyal2WycsBuilder wycsBuilder = new Wyal2WycsBuilder(project,wycsPipeline);
 
 				if(verbose) {
-					wycsBuilder.setLogger(new Logger.Default(System.err));
+					wycsBuilder.setLogger(logger());
 				}
 
 				project.add(new StdBuildRule(wycsBuilder, wyalDir,
@@ -657,6 +752,56 @@ public class WycBuildTask {
 		return sources;
 	}
 
+	/**
+	 * Construct the logger given to each builder when verbose output is
+	 * enabled. Messages logged by each builder are ordered, so that the output
+	 * of a build remains the same regardless of the number of threads used.
+	 *
+	 * @return
+	 */
+	protected Logger logger() {
+		return new OrderedLogger(new Logger.Default(logout));
+	}
+
+	/**
+	 * Construct a root representing a directory of files on the file system.
+	 *
+	 * @param dir
+	 *            --- location of the directory.
+	 * @param filter
+	 *            --- filter on which files are included.
+	 * @return
+	 * @throws IOException
+	 */
+	protected DirectoryRoot directoryRoot(File dir, FileFilter filter)
+			throws IOException {
+		return new DirectoryRoot(dir, filter, registry);
+	}
+
+	/**
+	 * Construct a root representing the contents of a jar file.
+	 *
+	 * @param jar
+	 *            --- location of the jar file.
+	 * @return
+	 * @throws IOException
+	 */
+	protected Path.Root jarRoot(File jar) throws IOException {
+		return new JarFileRoot(jar, registry);
+	}
+
+	/**
+	 * Construct a root representing the contents of a library bundle.
+	 *
+	 * @param bundle
+	 *            --- location of the bundle.
+	 * @return
+	 * @throws IOException
+	 */
+	protected Path.Root bundleRoot(File bundle) throws IOException {
+		return new BundleRoot(bundle, registry);
+	}
+
 	/**
 	 * Flush all built files to disk.
 	 */
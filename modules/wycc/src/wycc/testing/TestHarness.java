@@ -46,7 +46,7 @@ public class TestHarness {
 
 		File file = new File("../../lib/");
 		for(String f : file.list()) {
-			if(f.startsWith("wyrt-v")) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
 				WYRT_PATH="../../lib/" + f;
 			}
 		}
@@ -172,7 +172,7 @@ public class WyccBuildTask extends wyc.util.WycBuildTask {
 		Wyil2CBuilder cbuilder = new Wyil2CBuilder(this.ccOptions);
 		//System.err.println("Finished my init code yeah.");
 		if (verbose) {
-			cbuilder.setLogger(new Logger.Default(System.err));
+			cbuilder.setLogger(logger());
 		}
 		//System.err.println("Finished my init code true.");
 		project.add(new StdBuildRule(cbuilder, wyilDir, wyilIncludes,
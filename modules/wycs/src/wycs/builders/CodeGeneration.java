@@ -37,6 +37,7 @@ public class CodeGeneration {
 
 	public WycsFile generate(WyalFile file) {
 		this.filename = file.filename();
+		this.freshVar = 0;
 		ArrayList<WycsFile.Declaration> declarations = new ArrayList();
 		for(WyalFile.Declaration d : file.declarations()) {
 			WycsFile.Declaration e = generate(d);
@@ -445,9 +446,11 @@ public class CodeGeneration {
 	// FIXME: The following is a bit of a hack really. The purpose is to ensure
 	// every quantified variable is unique through an entire expression. This is
 	// necessary because the rewrite rules for quantifiers don't proper handle
-	// name clashes between quantified variables.  See #389
-	private static int freshVar = 0;
-	private static int freshVar(HashMap<String, Code> environment) {
+	// name clashes between quantified variables.  See #389.  The counter is
+	// reset for each file, so the generated names do not depend upon the order
+	// in which files are built.
+	private int freshVar = 0;
+	private int freshVar(HashMap<String, Code> environment) {
 		if(freshVar < environment.size()) {
 			freshVar = environment.size();
 		} else {
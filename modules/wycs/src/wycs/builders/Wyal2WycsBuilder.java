@@ -22,6 +22,7 @@ import wycc.lang.SyntaxError;
 import wycc.lang.Transform;
 import wycc.util.Logger;
 import wycc.util.Pair;
+import wycc.util.Profiler;
 import wycc.util.ResolveError;
 import wycs.core.SemanticType;
 import wycs.core.WycsFile;
@@ -100,6 +101,16 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 
 	@Override
 	public Set<Path.Entry<?>> build(Collection<Pair<Entry<?>, Path.Root>> delta) throws IOException {
+		Profiler.Timer timer = Profiler.start("phase", "Wyal => Wycs");
+		try {
+			return compile(delta);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	private Set<Path.Entry<?>> compile(Collection<Pair<Entry<?>, Path.Root>> delta)
+			throws IOException {
 		Runtime runtime = Runtime.getRuntime();
 		long startTime = System.currentTimeMillis();
 		long startMemory = runtime.freeMemory();
@@ -111,16 +122,20 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 		// ========================================================================
 
 		srcFiles.clear();
+		Profiler.Timer phase = Profiler.start("phase", "parse");
 		int count = 0;
 		for (Pair<Path.Entry<?>, Path.Root> p : delta) {
 			Path.Entry<?> src = p.first();
 			if (src.contentType() == WyalFile.ContentType) {
 				Path.Entry<WyalFile> sf = (Path.Entry<WyalFile>) src;
+				Profiler.Timer timer = Profiler.start("module", sf.id().toString());
 				WyalFile wf = sf.read();
+				timer.stop();
 				count++;
 				srcFiles.put(wf.id(), sf);
 			}
 		}
+		phase.stop();
 
 		logger.logTimedMessage("Parsed " + count + " source file(s).",
 				System.currentTimeMillis() - tmpTime,
@@ -132,6 +147,7 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 		runtime = Runtime.getRuntime();
 		tmpTime = System.currentTimeMillis();
 		tmpMem = runtime.freeMemory();
+		phase = Profiler.start("phase", "generate stubs");
 		HashSet<Path.Entry<?>> generatedFiles = new HashSet<Path.Entry<?>>();
 		for(Pair<Path.Entry<?>,Path.Root> p : delta) {
 			Path.Entry<?> src = p.first();
@@ -145,6 +161,7 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 				target.write(wycs);
 			}
 		}
+		phase.stop();
 		logger.logTimedMessage("Generated stubs for " + count + " source file(s).",
 				System.currentTimeMillis() - tmpTime, tmpMem - runtime.freeMemory());
 
@@ -155,15 +172,19 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 		tmpTime = System.currentTimeMillis();
 		tmpMem = runtime.freeMemory();
 
+		phase = Profiler.start("phase", "type");
 		TypePropagation typer = new TypePropagation(this);
 		for(Pair<Path.Entry<?>,Path.Root> p : delta) {
 			Path.Entry<?> f = p.first();
 			if (f.contentType() == WyalFile.ContentType) {
 				Path.Entry<WyalFile> sf = (Path.Entry<WyalFile>) f;
 				WyalFile wf = sf.read();
+				Profiler.Timer timer = Profiler.start("module", sf.id().toString());
 				typer.apply(wf);
+				timer.stop();
 			}
 		}
+		phase.stop();
 
 		logger.logTimedMessage("Typed " + count + " source file(s).",
 				System.currentTimeMillis() - tmpTime, tmpMem - runtime.freeMemory());
@@ -176,6 +197,7 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 		tmpTime = System.currentTimeMillis();
 		tmpMem = runtime.freeMemory();
 
+		phase = Profiler.start("phase", "generate code");
 		CodeGeneration generator = new CodeGeneration(this);
 		for (Pair<Path.Entry<?>, Path.Root> p : delta) {
 			Path.Entry<?> src = p.first();
@@ -185,10 +207,13 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 				Path.Entry<WycsFile> target = (Path.Entry<WycsFile>) dst
 						.create(src.id(), WycsFile.ContentType);
 				WyalFile wf = source.read();
+				Profiler.Timer timer = Profiler.start("module", src.id().toString());
 				WycsFile wycs = generator.generate(wf);
+				timer.stop();
 				target.write(wycs);
 			}
 		}
+		phase.stop();
 
 		logger.logTimedMessage("Generated code for " + count + " source file(s).",
 					System.currentTimeMillis() - tmpTime, tmpMem - runtime.freeMemory());
@@ -198,6 +223,8 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 		// ========================================================================
 
 		for (Transform<WycsFile> stage : pipeline) {
+			phase = Profiler.start("phase",
+					name(stage.getClass().getSimpleName()));
 			for (Pair<Path.Entry<?>, Path.Root> p : delta) {
 				Path.Root dst = p.second();
 				Path.Entry<WycsFile> df = dst.get(p.first().id(),WycsFile.ContentType);
@@ -222,6 +249,7 @@ public class Wyal2WycsBuilder implements Builder, Logger {
                             e.getAssertion(), e);
                 }
 			}
+			phase.stop();
 		}
 
 
@@ -265,13 +293,14 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 
 	/**
 	 * Get the Wycs module associated with a given module identifier. If the
-	 * module does not exist, null is returned.
+	 * module does not exist, null is returned. This is synchronised, since it
+	 * may be called concurrently during verification.
 	 *
 	 * @param mid
 	 * @return
 	 * @throws Exception
 	 */
-	public WycsFile getModule(Path.ID mid) throws Exception {
+	public synchronized WycsFile getModule(Path.ID mid) throws Exception {
 		Path.Entry<WycsFile> wyf = project.get(mid, WycsFile.ContentType);
 		if(wyf != null) {
 			return wyf.read();
@@ -502,6 +531,7 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 		long start = System.currentTimeMillis();
 		long memory = runtime.freeMemory();
 		String name = name(stage.getClass().getSimpleName());
+		Profiler.Timer timer = Profiler.start("module", module.id().toString());
 
 		try {
 			stage.apply(module);
@@ -521,6 +551,8 @@ public class Wyal2WycsBuilder implements Builder, Logger {
 					System.currentTimeMillis() - start,
 					memory - runtime.freeMemory());
 			throw ex;
+		} finally {
+			timer.stop();
 		}
 	}
 
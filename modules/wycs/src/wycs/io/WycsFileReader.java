@@ -31,7 +31,11 @@ public class WycsFileReader {
 
 	public WycsFileReader(Path.Entry<WycsFile> entry, InputStream input) {
 		this.entry = entry;
-		this.input = new BinaryInputStream(input);
+		if (input instanceof BinaryInputStream) {
+			this.input = (BinaryInputStream) input;
+		} else {
+			this.input = new BinaryInputStream(input);
+		}
 	}
 
 	public void close() throws IOException {
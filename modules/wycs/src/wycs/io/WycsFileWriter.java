@@ -13,6 +13,7 @@ import wycc.lang.NameID;
 import wycc.util.Pair;
 import wycc.util.Triple;
 import wycs.core.*;
+import wyfs.io.BinaryBufferOutputStream;
 import wyfs.io.BinaryOutputStream;
 import wyfs.lang.Path;
 
@@ -34,7 +35,7 @@ public class WycsFileWriter {
 	private final HashMap<SemanticType,Integer> typeCache = new HashMap<SemanticType,Integer>();
 
 	public WycsFileWriter(OutputStream output) {
-		this.out = new BinaryOutputStream(output);
+		this.out = new BinaryBufferOutputStream(output);
 	}
 
 	public void write(WycsFile module) throws IOException {
@@ -104,8 +105,7 @@ public class WycsFileWriter {
 	 */
 	private byte[] generateHeaderBlock(WycsFile module)
 			throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		// second, write the file version number
 		output.write_uv(MAJOR_VERSION);
@@ -129,12 +129,11 @@ public class WycsFileWriter {
 
 		output.close();
 
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	private byte[] generateModuleBlock(WycsFile module) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		output.write_uv(pathCache.get(module.id())); // FIXME: BROKEN!
 		output.write_uv(module.declarations().size());
@@ -145,7 +144,7 @@ public class WycsFileWriter {
 
 		output.close();
 
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	/**
@@ -269,8 +268,7 @@ public class WycsFileWriter {
 	}
 
 	private byte[] generateMacroBlock(WycsFile.Macro md) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		output.write_uv(stringCache.get(md.name()));
 		output.write_uv(typeCache.get(md.type));
@@ -278,12 +276,11 @@ public class WycsFileWriter {
 		writeBlock(BLOCK_Code,md.condition,output);
 
 		output.close();
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	private byte[] generateFunctionBlock(WycsFile.Function fd) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		output.write_uv(stringCache.get(fd.name()));
 		output.write_uv(typeCache.get(fd.type));
@@ -295,19 +292,18 @@ public class WycsFileWriter {
 		}
 
 		output.close();
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	private byte[] generateAssertBlock(WycsFile.Assert td) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		output.write_uv(stringCache.get(td.name()));
 		output.write_uv(1); // one sub-block
 		writeBlock(BLOCK_Code,td.condition,output);
 
 		output.close();
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	/**
@@ -320,13 +316,12 @@ public class WycsFileWriter {
 	 * @throws IOException
 	 */
 	private byte[] generateCodeBlock(Code<?> code) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		writeCode(code,output);
 
 		output.close();
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	/**
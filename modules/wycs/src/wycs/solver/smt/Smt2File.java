@@ -27,6 +27,7 @@ package wycs.solver.smt;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -71,6 +72,15 @@ public final class Smt2File {
         this.elements.addAll(elements);
     }
 
+    /**
+     * Gets the elements of this file, in the order they were appended.
+     *
+     * @return the elements.
+     */
+    public Set<Element> getElements() {
+        return Collections.unmodifiableSet(elements);
+    }
+
     /**
      * Clears this file, removing all elements.
      */
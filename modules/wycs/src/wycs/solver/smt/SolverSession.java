@@ -0,0 +1,204 @@
+// Copyright (c) 2014, Henry J. Wylde (hjwylde@gmail.com)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wycs.solver.smt;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents a long-lived connection to an external SMT solver. Statements are written to the
+ * solver's standard input as they are produced and its responses are read back from its standard
+ * output, one line at a time. This allows a single solver process to be reused for many
+ * assertions, provided that each assertion is localised using a {@link wycs.solver.smt.Block}.
+ * <p>
+ * Responses are read by a background thread, so that a caller can wait for a response with a
+ * timeout. A session that has timed out should be closed, since the solver may still be working on
+ * the previous request.
+ *
+ * @author Henry J. Wylde
+ */
+public final class SolverSession {
+
+    /**
+     * Marks the end of the solver's output. This is compared by identity.
+     */
+    private static final String EOF = new String("EOF");
+
+    private final List<String> command;
+    private final Process process;
+    private final Writer writer;
+    /**
+     * The lines of output read from the solver which have not yet been consumed.
+     */
+    private final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new {@code SolverSession} by starting the given solver command. The solver must
+     * read its commands from standard input (e.g., {@code z3 -in}).
+     *
+     * @param command the solver command and its arguments.
+     * @throws IOException if the solver could not be started.
+     */
+    public SolverSession(List<String> command) throws IOException {
+        this.command = Collections.unmodifiableList(new ArrayList<String>(command));
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        process = pb.start();
+        writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), "UTF-8"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lines.add(line);
+                    }
+                } catch (IOException e) {
+                    // Treat as the end of the output
+                } finally {
+                    lines.add(EOF);
+                }
+            }
+        }, "smt-session");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Gets the command used to start this session.
+     *
+     * @return the solver command and its arguments.
+     */
+    public List<String> getCommand() {
+        return command;
+    }
+
+    /**
+     * Writes the given element to the solver. The element is not guaranteed to reach the solver
+     * until {@link #flush()} is called.
+     *
+     * @param element the element to write.
+     * @throws IOException if the element could not be written.
+     */
+    public void write(Element element) throws IOException {
+        String str = element.toString();
+
+        writer.write(str);
+        if (!str.endsWith("\n")) {
+            writer.write("\n");
+        }
+    }
+
+    /**
+     * Flushes any written elements through to the solver.
+     *
+     * @throws IOException if the elements could not be written.
+     */
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Reads the next line of output from the solver, waiting for at most the given amount of
+     * time.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout argument.
+     * @return the line read, or {@code null} if the timeout elapsed first.
+     * @throws IOException if the solver has terminated.
+     */
+    public String readLine(long timeout, TimeUnit unit) throws IOException {
+        String line;
+        try {
+            line = lines.poll(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for solver");
+        }
+
+        if (line == EOF) {
+            // Leave the marker in place for any subsequent reads
+            lines.add(EOF);
+            throw new IOException("solver terminated unexpectedly");
+        }
+
+        return line;
+    }
+
+    /**
+     * Checks whether this session can still be used, i.e., it has not been closed and the solver
+     * process is still running.
+     *
+     * @return true if the session is usable.
+     */
+    public boolean isAlive() {
+        if (closed) {
+            return false;
+        }
+
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Closes this session, asking the solver to exit and then destroying its process.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            write(new Stmt.Exit());
+            writer.close();
+        } catch (IOException e) {
+            // Ignore, the solver may have already terminated
+        } finally {
+            process.destroy();
+        }
+    }
+}
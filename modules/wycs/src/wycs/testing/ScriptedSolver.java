@@ -0,0 +1,83 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wycs.testing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/**
+ * A stand-in for an external SMT solver, which can be used in place of the
+ * real solver binary when testing <code>SmtVerificationCheck</code>. This
+ * reads SMT2 commands from standard input and answers each
+ * <code>(check-sat)</code> with the next response from a script given on the
+ * command-line. For example:
+ *
+ * <pre>
+ * java wycs.testing.ScriptedSolver unsat unsat sat
+ * </pre>
+ *
+ * answers the first two checks with <code>unsat</code> and the third with
+ * <code>sat</code>. The special response <code>timeout</code> causes a check
+ * to go unanswered. Once the script is exhausted, every check is answered with
+ * <code>unknown</code>. Unbalanced <code>(pop)</code> commands are reported as
+ * errors, as a real solver would.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ScriptedSolver {
+
+	public static void main(String[] args) throws IOException {
+		BufferedReader input = new BufferedReader(new InputStreamReader(
+				System.in, "UTF-8"));
+		PrintStream output = System.out;
+		int next = 0;
+		int depth = 0;
+		String line;
+		while ((line = input.readLine()) != null) {
+			line = line.trim();
+			if (line.startsWith("(push")) {
+				depth++;
+			} else if (line.startsWith("(pop")) {
+				if (depth == 0) {
+					output.println("(error \"pop without matching push\")");
+				} else {
+					depth--;
+				}
+			} else if (line.equals("(check-sat)")) {
+				String response = next < args.length ? args[next++] : "unknown";
+				if (!response.equals("timeout")) {
+					output.println(response);
+				}
+			} else if (line.equals("(exit)")) {
+				break;
+			}
+			output.flush();
+		}
+	}
+}
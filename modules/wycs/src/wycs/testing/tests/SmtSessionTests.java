@@ -0,0 +1,96 @@
+package wycs.testing.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import wycs.core.Code;
+import wycs.core.Value;
+import wycs.core.WycsFile;
+import wycs.testing.ScriptedSolver;
+import wycs.transforms.SmtVerificationCheck;
+import wyfs.util.Trie;
+
+/**
+ * Tests for the persistent solver session mode of
+ * <code>SmtVerificationCheck</code>. These use the <code>ScriptedSolver</code>
+ * in place of a real solver, so that the responses for each assertion are
+ * known in advance.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SmtSessionTests {
+
+	@Test public void Session_1() throws IOException {
+		SmtVerificationCheck check = check("unsat", "unsat", "unsat");
+		check.apply(file(3));
+	}
+
+	@Test(expected = SmtVerificationCheck.AssertionFailure.class)
+	public void Session_2() throws IOException {
+		SmtVerificationCheck check = check("unsat", "sat");
+		check.apply(file(1));
+		// The second file can only fail if the same solver process was used.
+		check.apply(file(1));
+	}
+
+	@Test(expected = SmtVerificationCheck.SolverFailure.class)
+	public void Session_3() throws IOException {
+		check("unsat", "unknown").apply(file(2));
+	}
+
+	@Test public void Session_4() throws IOException {
+		SmtVerificationCheck check = check("unsat", "timeout", "sat");
+		try {
+			check.apply(file(2));
+			throw new AssertionError("timeout not reported");
+		} catch (SmtVerificationCheck.SolverFailure e) {
+			// expected
+		}
+		// The session which timed out must not be reused, so this is answered
+		// from the start of the script by a fresh solver process.
+		check.apply(file(1));
+	}
+
+	/**
+	 * Construct a check which uses a solver session running the
+	 * <code>ScriptedSolver</code> with the given script.
+	 *
+	 * @param script
+	 * @return
+	 */
+	private static SmtVerificationCheck check(String... script) {
+		StringBuilder command = new StringBuilder();
+		command.append(System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java");
+		command.append(" -cp " + System.getProperty("java.class.path"));
+		command.append(" " + ScriptedSolver.class.getName());
+		for (String response : script) {
+			command.append(" " + response);
+		}
+		SmtVerificationCheck check = new SmtVerificationCheck(null);
+		check.setEnable(true);
+		check.setSession(true);
+		check.setSolver(command.toString());
+		check.setTimeout(5);
+		return check;
+	}
+
+	/**
+	 * Construct a file containing a given number of (trivial) assertions.
+	 *
+	 * @param n
+	 * @return
+	 */
+	private static WycsFile file(int n) {
+		ArrayList<WycsFile.Declaration> declarations = new ArrayList<WycsFile.Declaration>();
+		for (int i = 0; i != n; ++i) {
+			declarations.add(new WycsFile.Assert("assertion #" + i, Code
+					.Constant(Value.Bool(true))));
+		}
+		return new WycsFile(Trie.ROOT, "test.wyal", declarations);
+	}
+}
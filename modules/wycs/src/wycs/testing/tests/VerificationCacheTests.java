@@ -0,0 +1,113 @@
+package wycs.testing.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import wycc.lang.Attribute;
+import wycs.core.Code;
+import wycs.core.SemanticType;
+import wycs.core.Value;
+import wycs.util.VerificationCache;
+
+/**
+ * Tests for the on-disk verification cache, covering both the keys generated
+ * for verification conditions and the eviction of entries.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class VerificationCacheTests {
+
+	@Test public void Key_1() {
+		// Equivalent conditions have the same key, regardless of attributes
+		Code<?> c1 = condition(1);
+		Code<?> c2 = Code.Binary(SemanticType.Int, Code.Op.LT,
+				Code.Variable(SemanticType.Int, 0),
+				Code.Constant(Value.Integer(java.math.BigInteger.valueOf(1))),
+				new Attribute.Source(0, 10, 1));
+		assertEquals(VerificationCache.key(c1, "config"),
+				VerificationCache.key(c2, "config"));
+	}
+
+	@Test public void Key_2() {
+		assertFalse(VerificationCache.key(condition(1), "config").equals(
+				VerificationCache.key(condition(2), "config")));
+	}
+
+	@Test public void Key_3() {
+		assertFalse(VerificationCache.key(condition(1), "config").equals(
+				VerificationCache.key(condition(1), "other")));
+	}
+
+	@Test public void Key_4() {
+		// A solver with different rules gives a different key
+		byte[] other = VerificationCache.fingerprint().clone();
+		other[0] ^= 1;
+		assertEquals(VerificationCache.key(condition(1), "config"),
+				VerificationCache.key(condition(1), "config",
+						VerificationCache.fingerprint()));
+		assertFalse(VerificationCache.key(condition(1), "config").equals(
+				VerificationCache.key(condition(1), "config", other)));
+	}
+
+	@Test public void Cache_1() throws IOException {
+		File dir = directory();
+		VerificationCache cache = VerificationCache.open(dir, 10);
+		String key = VerificationCache.key(condition(1), "config");
+		assertFalse(cache.contains(key));
+		cache.add(key);
+		assertTrue(cache.contains(key));
+		assertTrue(new File(dir, key).exists());
+		assertEquals(1, cache.numHits());
+		assertEquals(1, cache.numMisses());
+	}
+
+	@Test public void Cache_2() throws IOException {
+		File dir = directory();
+		VerificationCache cache = VerificationCache.open(dir, 2);
+		String k1 = VerificationCache.key(condition(1), "config");
+		String k2 = VerificationCache.key(condition(2), "config");
+		String k3 = VerificationCache.key(condition(3), "config");
+		cache.add(k1);
+		cache.add(k2);
+		// Using k1 means k2 is now the least recently used entry
+		assertTrue(cache.contains(k1));
+		cache.add(k3);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.numEvictions());
+		assertTrue(cache.contains(k1));
+		assertFalse(cache.contains(k2));
+		assertTrue(cache.contains(k3));
+	}
+
+	/**
+	 * Construct a simple condition, <code>r0 < constant</code>.
+	 *
+	 * @param constant
+	 * @return
+	 */
+	private static Code<?> condition(int constant) {
+		return Code.Binary(SemanticType.Int, Code.Op.LT,
+				Code.Variable(SemanticType.Int, 0),
+				Code.Constant(Value.Integer(java.math.BigInteger
+						.valueOf(constant))));
+	}
+
+	/**
+	 * Create a fresh (empty) directory to hold a cache.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private static File directory() throws IOException {
+		File dir = File.createTempFile("vcache", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		return dir;
+	}
+}
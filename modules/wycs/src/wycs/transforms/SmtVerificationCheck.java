@@ -38,6 +38,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -56,10 +57,12 @@ import wycs.core.SemanticType;
 import wycs.core.Value;
 import wycs.core.WycsFile;
 import wycs.solver.smt.Block;
+import wycs.solver.smt.Element;
 import wycs.solver.smt.Logic;
 import wycs.solver.smt.Option;
 import wycs.solver.smt.Response;
 import wycs.solver.smt.Smt2File;
+import wycs.solver.smt.SolverSession;
 import wycs.solver.smt.Sort;
 import wycs.solver.smt.Stmt;
 
@@ -72,12 +75,17 @@ import wycs.solver.smt.Stmt;
  */
 public final class SmtVerificationCheck implements Transform<WycsFile> {
 
-    private static final long SMT2_TIMEOUT = 10;
     private static final TimeUnit TIMEOUT_UNIT = TimeUnit.SECONDS;
 
     private static final String VAR_PREFIX = "r";
     private static final String GEN_VAR_PREFIX = "g";
 
+    /**
+     * The solver sessions which are not currently in use. A session is taken from here (or
+     * started) when a file is verified, and returned afterwards so that it can be reused.
+     */
+    private static final LinkedList<SolverSession> sessions = new LinkedList<SolverSession>();
+
     private final Wyal2WycsBuilder builder;
 
     /**
@@ -92,6 +100,16 @@ public final class SmtVerificationCheck implements Transform<WycsFile> {
      * The external SMT solver to use for verification.
      */
     private String solver = getSolver();
+    /**
+     * Determines whether assertions are sent to a persistent solver session, rather than a new
+     * solver process being started for each file.
+     */
+    private boolean session = getSession();
+    /**
+     * The time limit (in seconds) for the solver. In session mode, this applies to each assertion
+     * individually, otherwise it applies to the file as a whole.
+     */
+    private int timeout = getTimeout();
 
     /**
      * The WycsFile we are currently applying this check to.
@@ -172,7 +190,11 @@ public final class SmtVerificationCheck implements Transform<WycsFile> {
         writeFooter();
 
         // Attempt to verify the generated SMT2 file
-        verify(write());
+        if (session) {
+            verifyInSession();
+        } else {
+            verify(write());
+        }
     }
 
     /**
@@ -202,6 +224,24 @@ public final class SmtVerificationCheck implements Transform<WycsFile> {
         return "Set the external SMT solver to use";
     }
 
+    /**
+     * Gets the description of the session option.
+     *
+     * @return the session description.
+     */
+    public static String describeSession() {
+        return "Enable/disable a persistent solver session (the solver must read from stdin)";
+    }
+
+    /**
+     * Gets the description of the timeout option.
+     *
+     * @return the timeout description.
+     */
+    public static String describeTimeout() {
+        return "Set the solver time limit in seconds (per assertion in session mode)";
+    }
+
     /**
      * Gets the default value of the debug option. The default is {@value false}.
      *
@@ -230,6 +270,24 @@ public final class SmtVerificationCheck implements Transform<WycsFile> {
     	return System.getenv("SMT_SOLVER");
     }
 
+    /**
+     * Gets the default value of the session option. The default is {@value false}.
+     *
+     * @return the session default value.
+     */
+    public static boolean getSession() {
+        return false;
+    }
+
+    /**
+     * Gets the default value of the timeout option. The default is {@value 10}.
+     *
+     * @return the timeout default value.
+     */
+    public static int getTimeout() {
+        return 10;
+    }
+
     /**
      * Sets the value of the debug option.
      *
@@ -258,6 +316,28 @@ public final class SmtVerificationCheck implements Transform<WycsFile> {
         this.solver = solver;
     }
 
+    /**
+     * Sets the value of the session option.
+     *
+     * @param flag the new session value.
+     */
+    public void setSession(boolean flag) {
+        this.session = flag;
+    }
+
+    /**
+     * Sets the value of the timeout option.
+     *
+     * @param timeout the new timeout value, in seconds.
+     */
+    public void setTimeout(int timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+
+        this.timeout = timeout;
+    }
+
     /**
      * Builds up a generic binding map that can be used to instantiate generics in function or macro
      * definitions.
@@ -980,6 +1060,58 @@ public final class SmtVerificationCheck implements Transform<WycsFile> {
         return var;
     }
 
+    /**
+     * Gets the command used to run the solver. The solver option may include arguments for the
+     * solver, separated by whitespace.
+     *
+     * @return the solver command and its arguments.
+     */
+    private List<String> getCommand() {
+        if (solver == null) {
+            throw new InternalError("Environment variable $SMT_SOLVER not set");
+        }
+
+        return new ArrayList<String>(Arrays.asList(solver.trim().split("\\s+")));
+    }
+
+    /**
+     * Checks a single line of solver output against the given assertion. If the line answers the
+     * assertion but does not match the expected result, then an appropriate error is thrown.
+     *
+     * @param line the line of solver output.
+     * @param pair the assertion and its expected result.
+     * @return true if the line answered the assertion, false if it can be skipped.
+     */
+    private static boolean checkResponse(String line, Pair<WycsFile.Assert, String> pair) {
+        WycsFile.Assert assertion = pair.first();
+        String expectedResult = pair.second();
+
+        if (line.isEmpty()) {
+            return false;
+        } else if (line.equals(expectedResult)) {
+            // Assertion was valid, move to the next assertion
+            return true;
+        } else if (line.equals(Response.UNKNOWN)) {
+            throw new SolverFailure("solver returned unknown");
+        } else if (line.equals(Response.SAT) || line.equals(Response.UNSAT)) {
+            // Assertion was invalid, create an appropriate error
+            if (assertion.message == null) {
+                throw new AssertionFailure(assertion);
+            } else {
+                throw new AssertionFailure(assertion.message, assertion);
+            }
+        } else if (line.equals(Response.UNSUPPORTED)) {
+            // A set-option was unsupported, skip this line
+            return false;
+        } else if (line.startsWith("(error")) {
+            // Internal error occurred that shouldn't have, unwrap the error message
+            String error = line.substring(7, line.length() - 1);
+            throw new SolverFailure(error);
+        } else {
+            throw new RuntimeException(line);
+        }
+    }
+
     /**
      * Runs a solver on the given file and checks that all of the assertions passed. If any
      * assertion failed, then an appropriate error is thrown.
@@ -989,13 +1121,7 @@ public final class SmtVerificationCheck implements Transform<WycsFile> {
      */
     private void verify(File file) throws IOException {
         // Create the process to call the solver
-        List<String> args = new ArrayList();
-        String solver = getSolver();
-        if(solver == null) {
-        	throw new InternalError("Environment variable $SMT_SOLVER not set");
-        }
-        args.add(getSolver());
-        // Add the solvers custom arguments
+        List<String> args = getCommand();
         args.add(file.getAbsolutePath());
         ProcessBuilder pb = new ProcessBuilder(args);
         final Process process = pb.start();
@@ -1009,10 +1135,10 @@ public final class SmtVerificationCheck implements Transform<WycsFile> {
                 public void run() {
                     process.destroy();
                     throw new SolverFailure(
-                            "solver timed out after " + SMT2_TIMEOUT + " " + TIMEOUT_UNIT
+                            "solver timed out after " + timeout + " " + TIMEOUT_UNIT
                                     .toString());
                 }
-            }, TimeUnit.MILLISECONDS.convert(SMT2_TIMEOUT, TIMEOUT_UNIT));
+            }, TimeUnit.MILLISECONDS.convert(timeout, TIMEOUT_UNIT));
 
             process.waitFor();
             timer.cancel();
@@ -1041,37 +1167,111 @@ public final class SmtVerificationCheck implements Transform<WycsFile> {
         // field
         int index = 0;
         for (String line : output) {
-            if (line.isEmpty()) {
-                continue;
+            if (checkResponse(line, assertions.get(index))) {
+                index++;
             }
+        }
+    }
 
-            // Get the current assertion and expected result
-            Pair<WycsFile.Assert, String> pair = assertions.get(index);
-            WycsFile.Assert assertion = pair.first();
-            String expectedResult = pair.second();
+    /**
+     * Verifies the {@link #smt2File} using a persistent solver session. Each assertion block is
+     * written to the solver in turn and its response is read back before the next block is written.
+     * Since every block is surrounded by a {@link wycs.solver.smt.Stmt.Push} and {@link
+     * wycs.solver.smt.Stmt.Pop} statement, the solver is left in its original state afterwards and
+     * the session can be reused. If any assertion failed, then an appropriate error is thrown.
+     *
+     * @throws IOException if the solver could not be communicated with.
+     */
+    private void verifyInSession() throws IOException {
+        SolverSession session = acquireSession();
+        boolean reusable = false;
+        try {
+            // A counter for what assertion we're up to
+            int index = 0;
+            for (Element element : smt2File.getElements()) {
+                // The header was written when the session was started
+                if (!(element instanceof Block)) {
+                    continue;
+                }
 
-            if (line.equals(expectedResult)) {
-                // Assertion was valid, move to the next assertion
-                index++;
-            } else if (line.equals(Response.UNKNOWN)) {
-                throw new SolverFailure("solver returned unknown");
-            } else if (line.equals(Response.SAT) || line.equals(Response.UNSAT)) {
-                // Assertion was invalid, create an appropriate error
-                if (assertion.message == null) {
-                    throw new AssertionFailure(assertion);
-                } else {
-                    throw new AssertionFailure(assertion.message, assertion);
+                session.write(element);
+                session.flush();
+
+                Pair<WycsFile.Assert, String> pair = assertions.get(index++);
+                long deadline = System.nanoTime() + TimeUnit.NANOSECONDS.convert(timeout,
+                        TIMEOUT_UNIT);
+                boolean answered = false;
+                while (!answered) {
+                    String line = session.readLine(deadline - System.nanoTime(),
+                            TimeUnit.NANOSECONDS);
+                    if (line == null) {
+                        throw new SolverFailure(
+                                "solver timed out after " + timeout + " " + TIMEOUT_UNIT
+                                        .toString());
+                    }
+
+                    answered = checkResponse(line, pair);
                 }
-            } else if (line.equals(Response.UNSUPPORTED)) {
-                // A set-option was unsupported, skip this line
-            } else if (line.startsWith("(error")) {
-                // Internal error occurred that shouldn't have, unwrap the error message
-                String error = line.substring(7, line.length() - 1);
-                throw new SolverFailure(error);
+            }
+
+            reusable = true;
+        } catch (AssertionFailure e) {
+            // The failing block was answered in full, so the session is still consistent
+            reusable = true;
+            throw e;
+        } finally {
+            if (reusable) {
+                releaseSession(session);
             } else {
-                throw new RuntimeException(line);
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Takes an idle solver session for the current solver command from the pool, or starts a new
+     * one if there are none. When a session is started, the header of the {@link #smt2File} is
+     * written to it.
+     *
+     * @return the solver session.
+     * @throws IOException if a new session could not be started.
+     */
+    private SolverSession acquireSession() throws IOException {
+        List<String> command = getCommand();
+
+        synchronized (sessions) {
+            for (int i = 0; i < sessions.size(); i++) {
+                SolverSession session = sessions.get(i);
+                if (session.getCommand().equals(command)) {
+                    sessions.remove(i);
+                    if (session.isAlive()) {
+                        return session;
+                    }
+                    session.close();
+                    i--;
+                }
+            }
+        }
+
+        SolverSession session = new SolverSession(command);
+        for (Element element : smt2File.getElements()) {
+            if (element instanceof Stmt.SetOption || element instanceof Stmt.SetLogic) {
+                session.write(element);
             }
         }
+
+        return session;
+    }
+
+    /**
+     * Returns a solver session to the pool, so that it may be reused.
+     *
+     * @param session the solver session.
+     */
+    private static void releaseSession(SolverSession session) {
+        synchronized (sessions) {
+            sessions.add(session);
+        }
     }
 
     /**
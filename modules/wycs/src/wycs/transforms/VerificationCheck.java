@@ -3,9 +3,12 @@ package wycs.transforms;
 import static wycc.lang.SyntaxError.*;
 import static wycs.solver.Solver.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import wyautl.core.*;
 import wyautl.io.PrettyAutomataWriter;
@@ -17,6 +20,7 @@ import wycc.lang.SyntacticElement;
 import wycc.lang.Transform;
 import wycc.util.Logger;
 import wycc.util.Pair;
+import wycc.util.Profiler;
 import wycc.util.Triple;
 import wycs.builders.Wyal2WycsBuilder;
 import wycs.core.Code;
@@ -28,6 +32,7 @@ import wycs.core.WycsFile;
 import wycs.io.WycsFilePrinter;
 import wycs.solver.Solver;
 import wycs.solver.SolverUtil;
+import wycs.util.VerificationCache;
 import wyfs.util.Trie;
 
 /**
@@ -41,7 +46,7 @@ import wyfs.util.Trie;
  *
  */
 public class VerificationCheck implements Transform<WycsFile> {
-    private enum RewriteMode { SIMPLE, STATICDISPATCH, GLOBALDISPATCH };
+    private enum RewriteMode { SIMPLE, STATICDISPATCH, GLOBALDISPATCH, INDEXEDDISPATCH };
 
 	/**
 	 * Determines whether this transform is enabled or not.
@@ -56,7 +61,7 @@ public class VerificationCheck implements Transform<WycsFile> {
 	/**
 	 * Determine what rewriter to use.
 	 */
-	private RewriteMode rwMode = RewriteMode.STATICDISPATCH;
+	private RewriteMode rwMode = RewriteMode.INDEXEDDISPATCH;
 
 	/**
 	 * Determine the maximum number of reduction steps permitted
@@ -68,6 +73,34 @@ public class VerificationCheck implements Transform<WycsFile> {
 	 */
 	private int maxInferences = getMaxInferences();
 
+	/**
+	 * Determine the number of threads used to verify assertions. When this is
+	 * greater than one, assertions are verified concurrently.
+	 */
+	private int threads = getThreads();
+
+	/**
+	 * Determine the directory used to cache assertions which have been
+	 * verified. When this is null, no cache is used.
+	 */
+	private String cacheDir = getCache();
+
+	/**
+	 * Determine the maximum number of entries in the verification cache.
+	 */
+	private int cacheSize = getCacheSize();
+
+	/**
+	 * The verification cache in use for the current file (if any).
+	 */
+	private VerificationCache cache;
+
+	/**
+	 * Counts the cache hits and misses for the current file.
+	 */
+	private final AtomicInteger cacheHits = new AtomicInteger();
+	private final AtomicInteger cacheMisses = new AtomicInteger();
+
 	private final Wyal2WycsBuilder builder;
 
 	private String filename;
@@ -109,11 +142,11 @@ public class VerificationCheck implements Transform<WycsFile> {
 	}
 
 	public static String describeRwMode() {
-		return "Set the rewrite mode to use (simple or static-dispatch)";
+		return "Set the rewrite mode to use (simple, static-dispatch, global-dispatch or indexed-dispatch)";
 	}
 
 	public static String getRwmode() {
-		return "staticdispatch"; // default value
+		return "indexeddispatch"; // default value
 	}
 
 	public void setRwmode(String mode) {
@@ -150,6 +183,45 @@ public class VerificationCheck implements Transform<WycsFile> {
 		this.maxInferences = limit;
 	}
 
+	public static String describeThreads() {
+		return "Set the number of threads used to verify assertions";
+	}
+
+	public static int getThreads() {
+		return 1; // default value
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new RuntimeException("invalid number of threads: " + threads);
+		}
+		this.threads = threads;
+	}
+
+	public static String describeCache() {
+		return "Set the directory used to cache verified assertions";
+	}
+
+	public static String getCache() {
+		return null; // default value
+	}
+
+	public void setCache(String dir) {
+		this.cacheDir = dir;
+	}
+
+	public static String describeCacheSize() {
+		return "Limits the number of entries in the verification cache";
+	}
+
+	public static int getCacheSize() {
+		return 100000; // default value
+	}
+
+	public void setCacheSize(int limit) {
+		this.cacheSize = limit;
+	}
+
 
 	// ======================================================================
 	// Apply Method
@@ -165,9 +237,42 @@ public class VerificationCheck implements Transform<WycsFile> {
 		if (enabled) {
 			this.filename = wf.filename();
 
-			// Traverse each statement and verify any assertions we
-			// encounter.
-			List<WycsFile.Declaration> statements = wf.declarations();
+			if (cacheDir != null && !debug) {
+				Runtime runtime = Runtime.getRuntime();
+				long startTime = System.currentTimeMillis();
+				long startMemory = runtime.freeMemory();
+				cache = VerificationCache.open(new File(cacheDir), cacheSize);
+				cacheHits.set(0);
+				cacheMisses.set(0);
+				try {
+					checkValid(wf.declarations());
+				} finally {
+					cache = null;
+				}
+				Profiler.cache("verification", cacheHits.get(),
+						cacheMisses.get());
+				long endTime = System.currentTimeMillis();
+				builder.logTimedMessage("[" + filename
+						+ "] Verification cache: " + cacheHits.get()
+						+ " hit(s), " + cacheMisses.get() + " miss(es)",
+						endTime - startTime,
+						startMemory - runtime.freeMemory());
+			} else {
+				checkValid(wf.declarations());
+			}
+		}
+	}
+
+	/**
+	 * Verify the given list of Wycs statements, either sequentially or
+	 * concurrently depending on the number of threads permitted.
+	 *
+	 * @param statements
+	 */
+	private void checkValid(List<WycsFile.Declaration> statements) {
+		if (threads > 1 && !debug) {
+			checkValidConcurrently(statements);
+		} else {
 			int count = 0;
 			for (int i = 0; i != statements.size(); ++i) {
 				WycsFile.Declaration stmt = statements.get(i);
@@ -187,11 +292,178 @@ public class VerificationCheck implements Transform<WycsFile> {
 		}
 	}
 
+	/**
+	 * Verify the given list of Wycs statements concurrently. Every assertion
+	 * is verified by a separate task, and tasks are taken from a shared queue
+	 * by whichever thread becomes free first. Once all tasks are submitted,
+	 * the results are then examined in declaration order. Thus, messages are
+	 * logged and failures are reported in exactly the same order as for
+	 * sequential verification.
+	 *
+	 * <p>
+	 * <b>NOTE:</b> when an assertion fails, any assertion declared after it
+	 * which has not yet started is skipped, since its outcome cannot be
+	 * reported.
+	 * </p>
+	 *
+	 * @param statements
+	 */
+	private void checkValidConcurrently(List<WycsFile.Declaration> statements) {
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "verification");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		try {
+			AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+			ArrayList<Future<long[]>> results = new ArrayList<Future<long[]>>();
+			Profiler.Timer timer = Profiler.current();
+			for (int i = 0; i != statements.size(); ++i) {
+				WycsFile.Declaration stmt = statements.get(i);
+				if (stmt instanceof WycsFile.Assert) {
+					results.add(executor.submit(new Verification(
+							(WycsFile.Assert) stmt, results.size(),
+							firstFailure, timer)));
+				}
+			}
+
+			int count = 0;
+			for (int i = 0; i != statements.size(); ++i) {
+				WycsFile.Declaration stmt = statements.get(i);
+
+				if (stmt instanceof WycsFile.Assert) {
+					long[] r = getResult(results.get(count++));
+					builder.logTimedMessage("[" + filename
+							+ "] Verified assertion #" + count, r[0], r[1]);
+				} else if (stmt instanceof WycsFile.Function
+						|| stmt instanceof WycsFile.Macro) {
+					// see above
+				} else {
+					internalFailure("unknown statement encountered " + stmt,
+							filename, stmt);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Wait for a given verification task to complete, and rethrow whatever
+	 * exception (e.g. an <code>AssertionFailure</code>) it raised.
+	 *
+	 * @param result
+	 * @return
+	 */
+	private static long[] getResult(Future<long[]> result) {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("verification interrupted", e);
+		}
+	}
+
+	/**
+	 * Responsible for verifying a single assertion on behalf of
+	 * <code>checkValidConcurrently()</code>. This produces the time taken and memory
+	 * used, so that the corresponding message can be logged in order later on.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private final class Verification implements Callable<long[]> {
+		private final WycsFile.Assert assertion;
+		private final int index;
+		private final AtomicInteger firstFailure;
+		private final Profiler.Timer timer;
+
+		public Verification(WycsFile.Assert assertion, int index,
+				AtomicInteger firstFailure, Profiler.Timer timer) {
+			this.assertion = assertion;
+			this.index = index;
+			this.firstFailure = firstFailure;
+			this.timer = timer;
+		}
+
+		public long[] call() {
+			if (index > firstFailure.get()) {
+				return null; // skipped, as never reported
+			}
+			Runtime runtime = Runtime.getRuntime();
+			long startTime = System.currentTimeMillis();
+			long startMemory = runtime.freeMemory();
+			Profiler.adopt(timer);
+			try {
+				verify(assertion, index + 1);
+			} catch (RuntimeException e) {
+				failed();
+				throw e;
+			} catch (Error e) {
+				failed();
+				throw e;
+			} finally {
+				Profiler.adopt(null);
+			}
+			long endTime = System.currentTimeMillis();
+			return new long[] { endTime - startTime,
+					startMemory - runtime.freeMemory() };
+		}
+
+		private void failed() {
+			int current = firstFailure.get();
+			while (index < current
+					&& !firstFailure.compareAndSet(current, index)) {
+				current = firstFailure.get();
+			}
+		}
+	}
+
 	private void checkValid(WycsFile.Assert stmt, int number) {
 		Runtime runtime = Runtime.getRuntime();
 		long startTime = System.currentTimeMillis();
 		long startMemory = runtime.freeMemory();
 
+		verify(stmt, number);
+
+		long endTime = System.currentTimeMillis();
+		builder.logTimedMessage("[" + filename + "] Verified assertion #" + number,
+				endTime - startTime, startMemory - runtime.freeMemory());
+	}
+
+	/**
+	 * Check that a given assertion holds, throwing an
+	 * <code>AssertionFailure</code> if it does not. Since a fresh automaton
+	 * and rewriter are constructed every time, this may be called
+	 * concurrently for different assertions. If a verification cache is in
+	 * use, the rewriter is skipped for any condition already known to hold.
+	 *
+	 * @param stmt
+	 * @param number
+	 *            --- position of the assertion in the file, starting from one.
+	 */
+	private void verify(WycsFile.Assert stmt, int number) {
+		Profiler.Timer timer = Profiler.start("assertion", "assertion #"
+				+ number);
+		try {
+			verify(stmt, timer);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	private void verify(WycsFile.Assert stmt, Profiler.Timer timer) {
 		Automaton automaton = new Automaton();
 		Automaton original = null;
 
@@ -208,6 +480,20 @@ public class VerificationCheck implements Transform<WycsFile> {
 
 		//debug(vc,filename);
 
+		// Check whether this exact condition has been verified before, under
+		// the same configuration. If so, there's nothing more to do.
+		String key = null;
+		if (cache != null) {
+			key = VerificationCache.key(vc, rwMode + ":" + maxReductions + ":"
+					+ maxInferences);
+			if (cache.contains(key)) {
+				cacheHits.incrementAndGet();
+				timer.count("cached", 1);
+				return;
+			}
+			cacheMisses.incrementAndGet();
+		}
+
 		int assertion = translate(vc,automaton,new HashMap<String,Integer>());
 		automaton.setRoot(0, assertion);
 		// NOTE: don't need to minimise or compact here since the rewriter does
@@ -224,6 +510,9 @@ public class VerificationCheck implements Transform<WycsFile> {
 
 		Rewriter rewriter = createRewriter(automaton);
 		boolean r = rewriter.apply();
+		if (Profiler.get() != null) {
+			profile(rewriter.getStats(), timer);
+		}
 
 		if(!r) {
 			throw new AssertionFailure("timeout occurred during verification",stmt,rewriter,automaton,original);
@@ -233,9 +522,29 @@ public class VerificationCheck implements Transform<WycsFile> {
 			throw new AssertionFailure(msg,stmt,rewriter,automaton,original);
 		}
 
-		long endTime = System.currentTimeMillis();
-		builder.logTimedMessage("[" + filename + "] Verified assertion #" + number,
-				endTime - startTime, startMemory - runtime.freeMemory());
+		if (key != null) {
+			cache.add(key);
+		}
+	}
+
+	/**
+	 * Record the work done by a rewriter, both against the timer for the
+	 * assertion being verified and in total.
+	 *
+	 * @param stats
+	 * @param timer
+	 */
+	private static void profile(Stats stats, Profiler.Timer timer) {
+		count(timer, "rewrite probes", stats.numProbes());
+		count(timer, "reduction activations", stats.numReductionActivations());
+		count(timer, "reduction successes", stats.numReductionSuccesses());
+		count(timer, "inference activations", stats.numInferenceActivations());
+		count(timer, "inference successes", stats.numInferenceSuccesses());
+	}
+
+	private static void count(Profiler.Timer timer, String name, long amount) {
+		timer.count(name, amount);
+		Profiler.count(name, amount);
 	}
 
 	private int translate(Code expr, Automaton automaton, HashMap<String,Integer> environment) {
@@ -800,6 +1109,12 @@ public class VerificationCheck implements Transform<WycsFile> {
 
 		// First, construct a fresh rewriter for this file.
 		switch(rwMode) {
+		case INDEXEDDISPATCH:
+			inferenceStrategy = new IndexedStateRuleRewriteStrategy<InferenceRule>(
+					automaton, Solver.inferences,Solver.SCHEMA);
+			reductionStrategy = new IndexedStateRuleRewriteStrategy<ReductionRule>(
+					automaton, Solver.reductions,Solver.SCHEMA);
+			break;
 		case STATICDISPATCH:
 			inferenceStrategy = new UnfairStateRuleRewriteStrategy<InferenceRule>(
 					automaton, Solver.inferences,Solver.SCHEMA);
@@ -0,0 +1,405 @@
+package wycs.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import wyautl.rw.RewriteRule;
+import wycc.util.Pair;
+import wycs.core.Code;
+import wycs.core.SemanticType;
+import wycs.solver.Solver;
+
+/**
+ * <p>
+ * An on-disk record of those verification conditions which have already been
+ * shown to hold. Each verification condition is identified by a key, which is
+ * a hash of its canonical form (see <code>key()</code>). The cache is simply a
+ * directory containing one (empty) file for each key. Thus, it can be shared
+ * between builds and between processes without any further coordination.
+ * </p>
+ *
+ * <p>
+ * The number of entries in the cache is bounded. When this bound is exceeded,
+ * the least recently used entries are evicted. Entries are ordered by their
+ * last modification time, which is updated whenever an entry is used.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class VerificationCache {
+
+	/**
+	 * The version of the key encoding. This must be changed whenever the
+	 * encoding changes, so that stale results are not reused. Changes to the
+	 * way verification conditions are checked are covered by the fingerprint
+	 * (see <code>fingerprint()</code>).
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The fingerprint of the solver, which is computed when first needed.
+	 */
+	private static byte[] fingerprint;
+
+	/**
+	 * The caches opened so far, indexed by directory. Every user of the same
+	 * directory shares the same cache object.
+	 */
+	private static final HashMap<File, VerificationCache> caches = new HashMap<File, VerificationCache>();
+
+	/**
+	 * The directory holding the entries of this cache.
+	 */
+	private final File dir;
+
+	/**
+	 * The entries of this cache, in order of least recent use.
+	 */
+	private final LinkedHashMap<String, File> entries = new LinkedHashMap<String, File>(
+			16, 0.75f, true);
+
+	/**
+	 * The maximum number of entries permitted in this cache.
+	 */
+	private int capacity;
+
+	private int numHits;
+	private int numMisses;
+	private int numEvictions;
+
+	private VerificationCache(File dir, int capacity) {
+		this.dir = dir;
+		this.capacity = capacity;
+		load();
+	}
+
+	/**
+	 * Open the cache held in a given directory, creating the directory if
+	 * necessary.
+	 *
+	 * @param dir
+	 *            --- directory holding the cache.
+	 * @param capacity
+	 *            --- maximum number of entries permitted in the cache.
+	 * @return
+	 */
+	public static synchronized VerificationCache open(File dir, int capacity) {
+		dir = dir.getAbsoluteFile();
+		VerificationCache cache = caches.get(dir);
+		if (cache == null) {
+			dir.mkdirs();
+			cache = new VerificationCache(dir, capacity);
+			caches.put(dir, cache);
+		} else {
+			cache.setCapacity(capacity);
+		}
+		return cache;
+	}
+
+	/**
+	 * Check whether or not a given key is in the cache. If so, the
+	 * corresponding entry becomes the most recently used.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized boolean contains(String key) {
+		File file = new File(dir, key);
+		// NOTE: the file system is consulted every time, since entries may be
+		// added or removed by other processes.
+		if (file.exists()) {
+			file.setLastModified(System.currentTimeMillis());
+			entries.put(key, file);
+			numHits++;
+			return true;
+		} else {
+			entries.remove(key);
+			numMisses++;
+			return false;
+		}
+	}
+
+	/**
+	 * Add a given key to the cache, evicting the least recently used entries
+	 * if the cache is full. Failing to record an entry is not an error, since
+	 * the cache is only an optimisation.
+	 *
+	 * @param key
+	 */
+	public synchronized void add(String key) {
+		File file = new File(dir, key);
+		try {
+			file.createNewFile();
+		} catch (IOException e) {
+			return;
+		}
+		entries.put(key, file);
+		evict();
+	}
+
+	public synchronized int numHits() {
+		return numHits;
+	}
+
+	public synchronized int numMisses() {
+		return numMisses;
+	}
+
+	public synchronized int numEvictions() {
+		return numEvictions;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		evict();
+	}
+
+	/**
+	 * Remove least recently used entries until the cache is within capacity.
+	 */
+	private void evict() {
+		Iterator<File> iter = entries.values().iterator();
+		while (entries.size() > capacity && iter.hasNext()) {
+			File file = iter.next();
+			iter.remove();
+			file.delete();
+			numEvictions++;
+		}
+	}
+
+	/**
+	 * Read the entries currently held on disk, ordering them by their last
+	 * modification time.
+	 */
+	private void load() {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		final long[] times = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i != files.length; ++i) {
+			times[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i, Integer j) {
+				return times[i] < times[j] ? -1 : (times[i] == times[j] ? 0 : 1);
+			}
+		});
+		for (Integer i : order) {
+			File file = files[i];
+			if (isKey(file.getName())) {
+				entries.put(file.getName(), file);
+			}
+		}
+		evict();
+	}
+
+	private static boolean isKey(String name) {
+		if (name.length() != 64) {
+			return false;
+		}
+		for (int i = 0; i != name.length(); ++i) {
+			if (Character.digit(name.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// =========================================================================
+	// Keys
+	// =========================================================================
+
+	/**
+	 * Determine the key for a given verification condition. This is a SHA-256
+	 * hash of a canonical encoding of the condition, which includes every
+	 * opcode, type, constant and variable index, but excludes any attributes
+	 * (e.g. source locations). The given configuration is also included, since
+	 * the outcome of verification depends upon it (e.g. the rewrite mode and
+	 * limits), as is the fingerprint of the solver.
+	 *
+	 * @param condition
+	 *            --- verification condition to be checked.
+	 * @param configuration
+	 *            --- configuration under which it is checked.
+	 * @return
+	 */
+	public static String key(Code<?> condition, String configuration) {
+		return key(condition, configuration, fingerprint());
+	}
+
+	/**
+	 * Determine the key for a given verification condition, as checked by a
+	 * solver with a given fingerprint.
+	 *
+	 * @param condition
+	 *            --- verification condition to be checked.
+	 * @param configuration
+	 *            --- configuration under which it is checked.
+	 * @param fingerprint
+	 *            --- fingerprint of the solver which checks it.
+	 * @return
+	 */
+	public static String key(Code<?> condition, String configuration,
+			byte[] fingerprint) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(VERSION);
+			out.writeInt(fingerprint.length);
+			out.write(fingerprint);
+			writeString(configuration, out);
+			write(condition, out);
+			out.flush();
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(bytes.toByteArray());
+			StringBuilder r = new StringBuilder();
+			for (byte b : hash) {
+				r.append(Character.forDigit((b >> 4) & 0xF, 16));
+				r.append(Character.forDigit(b & 0xF, 16));
+			}
+			return r.toString();
+		} catch (IOException e) {
+			// dead code, since writing to a byte array cannot fail
+			throw new RuntimeException(e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Determine the fingerprint of the solver used to check verification
+	 * conditions. This is a SHA-256 hash of the version of the enclosing jar
+	 * (when known), along with the class files of the generated
+	 * <code>Solver</code> and of each of its rewrite rules. Thus, rebuilding
+	 * the solver with different rules, or upgrading the compiler, means
+	 * existing entries are no longer used.
+	 * </p>
+	 *
+	 * <p>
+	 * <b>NOTE:</b> if a class file cannot be read, then the fingerprint is
+	 * unique to this process. In this case, entries are never reused, since
+	 * otherwise a change to the rules could go unnoticed.
+	 * </p>
+	 *
+	 * @return
+	 */
+	public static synchronized byte[] fingerprint() {
+		if (fingerprint == null) {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				String version = Solver.class.getPackage()
+						.getImplementationVersion();
+				digest.update(String.valueOf(version).getBytes("UTF-8"));
+				ArrayList<Class<?>> classes = new ArrayList<Class<?>>();
+				classes.add(Solver.class);
+				for (RewriteRule rule : Solver.inferences) {
+					classes.add(rule.getClass());
+				}
+				for (RewriteRule rule : Solver.reductions) {
+					classes.add(rule.getClass());
+				}
+				for (Class<?> c : classes) {
+					digest.update(c.getName().getBytes("UTF-8"));
+					if (!read(c, digest)) {
+						fingerprint = new byte[32];
+						new SecureRandom().nextBytes(fingerprint);
+						return fingerprint;
+					}
+				}
+				fingerprint = digest.digest();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Add the contents of the class file for a given class to a digest.
+	 *
+	 * @param c
+	 * @param digest
+	 * @return false if the class file could not be found.
+	 * @throws IOException
+	 */
+	private static boolean read(Class<?> c, MessageDigest digest)
+			throws IOException {
+		String name = c.getName();
+		name = name.substring(name.lastIndexOf('.') + 1) + ".class";
+		InputStream in = c.getResourceAsStream(name);
+		if (in == null) {
+			return false;
+		}
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void write(Code<?> code, DataOutputStream out)
+			throws IOException {
+		out.writeByte(code.opcode.ordinal());
+		write(code.type, out);
+		if (code instanceof Code.Variable) {
+			out.writeInt(((Code.Variable) code).index);
+		} else if (code instanceof Code.Constant) {
+			writeString(((Code.Constant) code).value.toString(), out);
+		} else if (code instanceof Code.Load) {
+			out.writeInt(((Code.Load) code).index);
+		} else if (code instanceof Code.Quantifier) {
+			Pair<SemanticType, Integer>[] types = ((Code.Quantifier) code).types;
+			out.writeInt(types.length);
+			for (Pair<SemanticType, Integer> p : types) {
+				write(p.first(), out);
+				out.writeInt(p.second());
+			}
+		} else if (code instanceof Code.FunCall) {
+			writeString(((Code.FunCall) code).nid.toString(), out);
+		}
+		out.writeInt(code.operands.length);
+		for (Code<?> operand : code.operands) {
+			write(operand, out);
+		}
+	}
+
+	private static void write(SemanticType type, DataOutputStream out)
+			throws IOException {
+		writeString(type == null ? "" : type.toString(), out);
+	}
+
+	private static void writeString(String str, DataOutputStream out)
+			throws IOException {
+		byte[] bytes = str.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
@@ -19,6 +19,7 @@ import wycs.syntax.WyalFile;
 import wycs.transforms.*;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
+import wyfs.util.BundleRoot;
 import wyfs.util.DirectoryRoot;
 import wyfs.util.JarFileRoot;
 import wyfs.util.VirtualRoot;
@@ -238,6 +239,8 @@ public class WycsBuildTask {
 			try {
 				if (root.getName().endsWith(".jar")) {
 					wycspath.add(new JarFileRoot(root, registry));
+				} else if (root.getName().endsWith(".wylib")) {
+					wycspath.add(new BundleRoot(root, registry));
 				} else {
 					wycspath.add(new DirectoryRoot(root, wycsFileFilter,
 							registry));
@@ -257,6 +260,8 @@ public class WycsBuildTask {
 			try {
 				if (root.getName().endsWith(".jar")) {
 					bootpath.add(new JarFileRoot(root, registry));
+				} else if (root.getName().endsWith(".wylib")) {
+					bootpath.add(new BundleRoot(root, registry));
 				} else {
 					bootpath.add(new DirectoryRoot(root, wyalFileFilter,
 							registry));
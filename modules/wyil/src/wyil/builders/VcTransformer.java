@@ -54,12 +54,12 @@ import wycs.syntax.*;
  *
  */
 public class VcTransformer {
-	private final Builder builder;
+	private final Wyil2WyalBuilder builder;
 	private final WyalFile wycsFile;
 	private final String filename;
 	private final boolean assume;
 
-	public VcTransformer(Builder builder, WyalFile wycsFile,
+	public VcTransformer(Wyil2WyalBuilder builder, WyalFile wycsFile,
 			String filename, boolean assume) {
 		this.builder = builder;
 		this.filename = filename;
@@ -81,8 +81,6 @@ public class VcTransformer {
 		branch.addAll(scope.constraints);
 	}
 
-	private static int indexCount = 0;
-
 	public void end(VcBranch.ForScope scope, VcBranch branch) {
 		// we need to build up a quantified formula here.
 
@@ -95,7 +93,7 @@ public class VcTransformer {
 		if (scope.loop.type instanceof Type.EffectiveList) {
 			// FIXME: hack to work around limitations of whiley for
 			// loops.
-			Expr.Variable idx = new Expr.Variable("i" + indexCount++);
+			Expr.Variable idx = new Expr.Variable("i" + builder.freshIndex());
 			Expr.Variable tmp = new Expr.Variable("_"
 					+ scope.index.name);
 			varExpr = new Expr.Nary(Expr.Nary.Op.TUPLE, new Expr[] {idx,tmp});
@@ -132,7 +130,7 @@ public class VcTransformer {
 		if (scope.loop.type instanceof Type.EffectiveList) {
 			// FIXME: hack to work around limitations of whiley for
 			// loops.
-			Expr.Variable idx = new Expr.Variable("i" + indexCount++);
+			Expr.Variable idx = new Expr.Variable("i" + builder.freshIndex());
 			Expr.Variable tmp = new Expr.Variable("_"
 					+ scope.index.name);
 			varExpr = new Expr.Nary(Expr.Nary.Op.TUPLE, new Expr[] {idx,tmp});
@@ -760,7 +758,7 @@ public class VcTransformer {
 					if (ls.loop.type instanceof Type.EffectiveList) {
 						// FIXME: hack to work around limitations of whiley for
 						// loops.
-						String i = "i" + indexCount++;
+						String i = "i" + builder.freshIndex();
 						vars.add(new TypePattern.Leaf(new SyntacticType.Int(),
 								new Expr.Variable(i)));
 						vars.add(new TypePattern.Leaf(type, ls.index));
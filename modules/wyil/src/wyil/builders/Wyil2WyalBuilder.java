@@ -36,12 +36,14 @@ import wyil.lang.*;
 import wyil.transforms.RuntimeAssertions;
 import wycc.util.Logger;
 import wycc.util.Pair;
+import wycc.util.Profiler;
 import wycs.syntax.Expr;
 import wycs.syntax.WyalFile;
 
 /**
  * Responsible for converting a Wyil file into a Wycs file which can then be
- * passed into the Whiley Constraint Solver (Wycs).
+ * passed into the Whiley Constraint Solver (Wycs). This builder keeps no
+ * state between files and, hence, may build several files at the same time.
  *
  * @author David J. Pearce
  *
@@ -60,7 +62,17 @@ public class Wyil2WyalBuilder implements Builder {
 	 */
 	protected Logger logger = Logger.NULL;
 
-	private String filename;
+	/**
+	 * Counter used to generate fresh index variables for quantifiers. This is
+	 * reset for each file, so that the names generated for a file do not
+	 * depend upon which other files were built before it. This is recorded
+	 * separately for each thread, since files may be built in parallel.
+	 */
+	private final ThreadLocal<int[]> indexCount = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
 
 	public Wyil2WyalBuilder(Build.Project project) {
 		this.project = project;
@@ -80,6 +92,7 @@ public class Wyil2WyalBuilder implements Builder {
 		Runtime runtime = Runtime.getRuntime();
 		long start = System.currentTimeMillis();
 		long memory = runtime.freeMemory();
+		Profiler.Timer phase = Profiler.start("phase", "Wyil => Wyal");
 
 		// ========================================================================
 		// Translate files
@@ -90,7 +103,9 @@ public class Wyil2WyalBuilder implements Builder {
 			Path.Root dst = p.second();
 			Path.Entry<WyalFile> df = (Path.Entry<WyalFile>) dst.create(sf.id(), WyalFile.ContentType);
 			generatedFiles.add(df);
+			Profiler.Timer timer = Profiler.start("module", sf.id().toString());
 			WyalFile contents = build(sf.read());
+			timer.stop();
 			// Write the file into its destination
 			df.write(contents);
 			// Then, flush contents to disk in case we generate an assertion
@@ -103,6 +118,7 @@ public class Wyil2WyalBuilder implements Builder {
 		// Done
 		// ========================================================================
 
+		phase.stop();
 		long endTime = System.currentTimeMillis();
 		logger.logTimedMessage("Wyil => Wyal: compiled " + delta.size()
 				+ " file(s)", endTime - start, memory - runtime.freeMemory());
@@ -111,21 +127,35 @@ public class Wyil2WyalBuilder implements Builder {
 	}
 
 	protected WyalFile build(WyilFile wyilFile) {
-		this.filename = wyilFile.filename();
+		indexCount.get()[0] = 0;
 
 		// TODO: definitely need a better module ID here.
-		final WyalFile wyalFile = new WyalFile(wyilFile.id(), filename);
+		final WyalFile wyalFile = new WyalFile(wyilFile.id(),
+				wyilFile.filename());
 
 		for (WyilFile.TypeDeclaration type : wyilFile.types()) {
+			Profiler.Timer timer = Profiler.start("declaration", type.name());
 			transform(type);
+			timer.stop();
 		}
 		for (WyilFile.FunctionOrMethodDeclaration method : wyilFile.functionOrMethods()) {
+			Profiler.Timer timer = Profiler.start("declaration", method.name());
 			transform(method, wyilFile, wyalFile);
+			timer.stop();
 		}
 
 		return wyalFile;
 	}
 
+	/**
+	 * Generate a fresh index, which is unique within the file being built.
+	 *
+	 * @return
+	 */
+	int freshIndex() {
+		return indexCount.get()[0]++;
+	}
+
 	protected void transform(WyilFile.TypeDeclaration def) {
 
 	}
@@ -140,6 +170,7 @@ public class Wyil2WyalBuilder implements Builder {
 	protected void transform(WyilFile.Case methodCase,
 			WyilFile.FunctionOrMethodDeclaration method, WyilFile wyilFile,
 			WyalFile wycsFile) {
+		String filename = wyilFile.filename();
 
 		if (!RuntimeAssertions.getEnable()) {
 			// inline constraints if they have not already been done.
@@ -28,10 +28,13 @@ package wyil.io;
 import java.io.*;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import wycc.lang.NameID;
 import wycc.util.Pair;
+import wyfs.io.BinaryBufferInputStream;
 import wyfs.io.BinaryInputStream;
 import wyfs.lang.Path;
 import wyfs.util.Trie;
@@ -48,18 +51,60 @@ public final class WyilFileReader {
 	private static final char[] magic = {'W','Y','I','L','F','I','L','E'};
 
 	private final BinaryInputStream input;
+	private int minorVersion;
 	private String[] stringPool;
 	private Path.ID[] pathPool;
 	private NameID[] namePool;
 	private Constant[] constantPool;
 	private Type[] typePool;
 
+	/**
+	 * The module block being decoded, and the stream over it from which this
+	 * reader is reading (if any). These are used to locate blocks whose
+	 * decoding is deferred.
+	 */
+	private final ByteBuffer data;
+	private final BinaryBufferInputStream bytes;
+
 	public WyilFileReader(String filename) throws IOException {
-		this.input = new BinaryInputStream(new FileInputStream(filename));
+		this.input = BinaryBufferInputStream.open(new File(filename));
+		this.data = null;
+		this.bytes = null;
 	}
 
 	public WyilFileReader(InputStream input) throws IOException {
-		this.input = new BinaryInputStream(input);
+		if (input instanceof BinaryInputStream) {
+			this.input = (BinaryInputStream) input;
+		} else {
+			this.input = new BinaryInputStream(input);
+		}
+		this.data = null;
+		this.bytes = null;
+	}
+
+	/**
+	 * Construct a reader for a block within a module block, which has already
+	 * been read into memory. The new reader shares the pools of its parent.
+	 *
+	 * @param parent
+	 *            --- reader which read the module block.
+	 * @param data
+	 *            --- contents of the module block.
+	 * @param offset
+	 *            --- offset of the block within the module block.
+	 */
+	private WyilFileReader(WyilFileReader parent, ByteBuffer data, int offset) {
+		ByteBuffer buffer = data.duplicate();
+		buffer.position(offset);
+		this.data = data;
+		this.bytes = new BinaryBufferInputStream(buffer);
+		this.input = bytes;
+		this.minorVersion = parent.minorVersion;
+		this.stringPool = parent.stringPool;
+		this.pathPool = parent.pathPool;
+		this.namePool = parent.namePool;
+		this.constantPool = parent.constantPool;
+		this.typePool = parent.typePool;
 	}
 
 	public void close() throws IOException {
@@ -85,7 +130,7 @@ public final class WyilFileReader {
 		}
 
 		int majorVersion = input.read_uv();
-		int minorVersion = input.read_uv();
+		minorVersion = input.read_uv();
 
 		int stringPoolCount = input.read_uv();
 		int pathPoolCount = input.read_uv();
@@ -288,25 +333,160 @@ public final class WyilFileReader {
 		typePool = myTypePool;
 	}
 
+	/**
+	 * Read a module block. The whole block is read into memory (rather than
+	 * left mapped onto the file), after which each declaration is decoded from its offset. From version 0.2, these
+	 * offsets are given by the offset table at the start of the block;
+	 * otherwise, they are determined by skipping over each declaration in
+	 * turn. Only the kind and name of each declaration are decoded here; the
+	 * remainder of the declaration (and, in turn, the code blocks it contains)
+	 * is decoded only when first required (see
+	 * <code>WyilFile.DeferredDeclaration</code>).
+	 *
+	 * @return
+	 * @throws IOException
+	 */
 	private WyilFile readModule() throws IOException {
 		int kind = input.read_uv(); // block identifier
 		int size = input.read_uv();
 		input.pad_u8();
 
-		int pathIdx = input.read_uv();
-		int modifiers = input.read_uv(); // unused
-		int numBlocks = input.read_uv();
+		ByteBuffer data;
+		if (input instanceof BinaryBufferInputStream) {
+			data = ((BinaryBufferInputStream) input).slice(size);
+			if (data.isDirect()) {
+				// NOTE: the buffer may be mapped onto the file itself, which
+				// could be rewritten (or truncated) before the deferred parts
+				// of this module are decoded. Therefore, it must be copied.
+				ByteBuffer copy = ByteBuffer.allocate(size);
+				copy.put(data);
+				copy.flip();
+				data = copy;
+			}
+		} else {
+			byte[] bytes = new byte[size];
+			input.read(bytes);
+			data = ByteBuffer.wrap(bytes);
+		}
+		WyilFileReader reader = new WyilFileReader(this, data, 0);
+		BinaryInputStream in = reader.input;
 
-		input.pad_u8();
+		int pathIdx = in.read_uv();
+		int modifiers = in.read_uv(); // unused
+		int numBlocks = in.read_uv();
+
+		in.pad_u8();
+
+		int[] offsets = new int[numBlocks];
+		if (minorVersion >= 2) {
+			for (int i = 0; i != numBlocks; ++i) {
+				int blockKind = in.read_uv(); // unused
+				offsets[i] = in.read_uv();
+			}
+			in.pad_u8();
+			int start = reader.position();
+			for (int i = 0; i != numBlocks; ++i) {
+				offsets[i] += start;
+			}
+		} else {
+			for (int i = 0; i != numBlocks; ++i) {
+				offsets[i] = reader.position();
+				reader.skipBlock();
+			}
+		}
 
 		List<WyilFile.Block> declarations = new ArrayList<WyilFile.Block>();
 		for(int i=0;i!=numBlocks;++i) {
-			declarations.add(readModuleBlock());
+			reader = new WyilFileReader(this, data, offsets[i]);
+			declarations.add(reader.readDeferredModuleBlock());
 		}
 
 		return new WyilFile(pathPool[pathIdx],"unknown.whiley",declarations);
 	}
 
+	/**
+	 * Determine the current offset of this reader within the module block.
+	 * This is only valid at a byte boundary.
+	 *
+	 * @return
+	 */
+	private int position() {
+		return bytes.position();
+	}
+
+	/**
+	 * Skip over the next block, without decoding it.
+	 *
+	 * @throws IOException
+	 */
+	private void skipBlock() throws IOException {
+		input.read_uv(); // kind
+		int size = input.read_uv();
+		input.pad_u8();
+		bytes.skip(size);
+	}
+
+	/**
+	 * Skip over the payload of the block whose header has just been read,
+	 * returning a reader positioned at its start. This allows the block to be
+	 * decoded later on.
+	 *
+	 * @param size
+	 *            --- size of the block's payload.
+	 * @return
+	 */
+	private WyilFileReader defer(int size) throws IOException {
+		WyilFileReader reader = new WyilFileReader(this, data, position());
+		bytes.skip(size);
+		return reader;
+	}
+
+	/**
+	 * Read the kind and name of the next module block, deferring the decoding
+	 * of the remainder until it is first required.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private WyilFile.Block readDeferredModuleBlock() throws IOException {
+		final int offset = position();
+		int kind = input.read_uv();
+		int size = input.read_uv();
+		input.pad_u8();
+		// NOTE: every kind of declaration begins with its name
+		String name = stringPool[input.read_uv()];
+
+		Class<? extends WyilFile.Declaration> declaration;
+		switch(kind) {
+			case WyilFileWriter.BLOCK_Constant:
+				declaration = WyilFile.ConstantDeclaration.class;
+				break;
+			case WyilFileWriter.BLOCK_Type:
+				declaration = WyilFile.TypeDeclaration.class;
+				break;
+			case WyilFileWriter.BLOCK_Function:
+			case WyilFileWriter.BLOCK_Method:
+				declaration = WyilFile.FunctionOrMethodDeclaration.class;
+				break;
+			default:
+				throw new RuntimeException("unknown module block encountered (" + kind + ")");
+		}
+
+		final WyilFileReader parent = this;
+		return new WyilFile.DeferredDeclaration(declaration, name,
+				new WyilFile.Deferred<WyilFile.Declaration>() {
+					public WyilFile.Declaration get() {
+						try {
+							return (WyilFile.Declaration) new WyilFileReader(
+									parent, data, offset).readModuleBlock();
+						} catch (IOException e) {
+							throw new RuntimeException(
+									"Unable to decode declaration", e);
+						}
+					}
+				});
+	}
+
 	private WyilFile.Block readModuleBlock() throws IOException {
 		int kind = input.read_uv();
 		int size = input.read_uv();
@@ -347,14 +527,24 @@ public final class WyilFileReader {
 
 		input.pad_u8();
 
-		Code.Block invariant = null;
+		WyilFile.Deferred<Code.Block> invariant = null;
 		for (int i = 0; i != nBlocks; ++i) {
 			int kind = input.read_uv();
 			int size = input.read_uv();
 			input.pad_u8();
 			switch (kind) {
 			case WyilFileWriter.BLOCK_Constraint:
-				invariant = readCodeBlock(1);
+				final WyilFileReader reader = defer(size);
+				invariant = new WyilFile.Deferred<Code.Block>() {
+					public Code.Block get() {
+						try {
+							return reader.readCodeBlock(1);
+						} catch (IOException e) {
+							throw new RuntimeException(
+									"Unable to decode type invariant", e);
+						}
+					}
+				};
 				break;
 			default:
 				throw new RuntimeException("Unknown type block encountered");
@@ -362,7 +552,8 @@ public final class WyilFileReader {
 		}
 
 		return new WyilFile.TypeDeclaration(generateModifiers(modifiers),
-				stringPool[nameIdx], typePool[typeIdx], invariant);
+				stringPool[nameIdx], typePool[typeIdx], invariant,
+				Collections.EMPTY_LIST);
 	}
 
 	private WyilFile.FunctionOrMethodDeclaration readFunctionBlock() throws IOException {
@@ -383,7 +574,7 @@ public final class WyilFileReader {
 
 			switch(kind) {
 				case WyilFileWriter.BLOCK_Case:
-					cases.add(readFunctionOrMethodCase(type));
+					cases.add(readDeferredCase(type, size));
 					break;
 				default:
 					throw new RuntimeException("Unknown function block encountered");
@@ -412,7 +603,7 @@ public final class WyilFileReader {
 
 			switch(kind) {
 				case WyilFileWriter.BLOCK_Case:
-					cases.add(readFunctionOrMethodCase(type));
+					cases.add(readDeferredCase(type, size));
 					break;
 				default:
 					throw new RuntimeException("Unknown method block encountered");
@@ -454,6 +645,30 @@ public final class WyilFileReader {
 		return mods;
 	}
 
+	/**
+	 * Construct a case whose code blocks are decoded when first required,
+	 * skipping over its payload.
+	 *
+	 * @param type
+	 *            --- type of the enclosing function or method.
+	 * @param size
+	 *            --- size of the case block's payload.
+	 * @return
+	 */
+	private WyilFile.Case readDeferredCase(final Type.FunctionOrMethod type,
+			int size) throws IOException {
+		final WyilFileReader reader = defer(size);
+		return new WyilFile.Case(new WyilFile.Deferred<WyilFile.Case>() {
+			public WyilFile.Case get() {
+				try {
+					return reader.readFunctionOrMethodCase(type);
+				} catch (IOException e) {
+					throw new RuntimeException("Unable to decode case", e);
+				}
+			}
+		}, Collections.EMPTY_LIST);
+	}
+
 	private WyilFile.Case readFunctionOrMethodCase(Type.FunctionOrMethod type)
 			throws IOException {
 		ArrayList<Code.Block> requires = new ArrayList<Code.Block>();
@@ -1020,13 +1235,13 @@ public final class WyilFileReader {
 		}
 	}
 
-	private static int labelCount = 0;
+	private static final AtomicInteger labelCount = new AtomicInteger();
 
 	private static Codes.Label findLabel(int target,
 			HashMap<Integer, Codes.Label> labels) {
 		Codes.Label label = labels.get(target);
 		if (label == null) {
-			label = Codes.Label("label" + labelCount++);
+			label = Codes.Label("label" + labelCount.getAndIncrement());
 			labels.put(target, label);
 		}
 		return label;
@@ -1036,7 +1251,7 @@ public final class WyilFileReader {
 			HashMap<Integer, Codes.Label> labels) {
 		Codes.Label label = labels.get(target);
 		if (label == null) {
-			Codes.LoopEnd end = Codes.LoopEnd("label" + labelCount++);
+			Codes.LoopEnd end = Codes.LoopEnd("label" + labelCount.getAndIncrement());
 			labels.put(target, end);
 			return end;
 		} else {
@@ -31,6 +31,7 @@ import java.util.*;
 
 import wycc.lang.NameID;
 import wycc.util.Pair;
+import wyfs.io.BinaryBufferOutputStream;
 import wyfs.io.BinaryOutputStream;
 import wyfs.lang.Path;
 import wyil.lang.*;
@@ -59,12 +60,19 @@ import wyautl.util.BigRational;
  * function declarations, type declarations and constant declarations.
  * </p>
  *
+ * <p>
+ * From version 0.2, each module block begins with an offset table, which
+ * gives the kind and (byte) offset of each declaration block. This allows a
+ * reader to locate any declaration without first reading those before it, and
+ * to postpone decoding parts of a declaration until they are needed.
+ * </p>
+ *
  * @author David J. Pearce
  *
  */
 public final class WyilFileWriter {
 	private static final int MAJOR_VERSION = 0;
-	private static final int MINOR_VERSION = 1;
+	private static final int MINOR_VERSION = 2;
 
 	private final BinaryOutputStream out;
 
@@ -80,7 +88,7 @@ public final class WyilFileWriter {
 	private final HashMap<Type,Integer> typeCache = new HashMap<Type,Integer>();
 
 	public WyilFileWriter(OutputStream output) {
-		this.out = new BinaryOutputStream(output);
+		this.out = new BinaryBufferOutputStream(output);
 	}
 
 	public void close() throws IOException {
@@ -163,8 +171,7 @@ public final class WyilFileWriter {
 	 */
 	private byte[] generateHeaderBlock(WyilFile module)
 			throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		// second, write the file version number
 		output.write_uv(MAJOR_VERSION);
@@ -188,7 +195,7 @@ public final class WyilFileWriter {
 
 		output.close();
 
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	/**
@@ -339,41 +346,61 @@ public final class WyilFileWriter {
 	}
 
 	private byte[] generateModuleBlock(WyilFile module) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		output.write_uv(pathCache.get(module.id())); // FIXME: BROKEN!
 		output.write_uv(MODIFIER_Public); // for now
 		output.write_uv(module.blocks().size());
 
+		// The declaration blocks are generated first, so that their offsets
+		// are known when the offset table is written.
+		BinaryBufferOutputStream declOutput = new BinaryBufferOutputStream();
+		int[] offsets = new int[module.blocks().size()];
+		int i = 0;
 		for(WyilFile.Block d : module.blocks()) {
-			writeModuleBlock(d,output);
+			offsets[i++] = declOutput.size();
+			writeModuleBlock(d,declOutput);
 		}
+		declOutput.close();
+
+		output.pad_u8();
+		i = 0;
+		for(WyilFile.Block d : module.blocks()) {
+			output.write_uv(moduleBlockKind(d));
+			output.write_uv(offsets[i++]);
+		}
+		output.pad_u8();
+		output.write(declOutput.toByteArray());
 
         output.close();
 
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	private void writeModuleBlock(WyilFile.Block d,
 			BinaryOutputStream output) throws IOException {
+		writeBlock(moduleBlockKind(d), d, output);
+	}
+
+	private static int moduleBlockKind(WyilFile.Block d) {
 		if(d instanceof WyilFile.ConstantDeclaration) {
-			writeBlock(BLOCK_Constant, d ,output);
+			return BLOCK_Constant;
 		} else if(d instanceof WyilFile.TypeDeclaration) {
-			writeBlock(BLOCK_Type, d, output);
+			return BLOCK_Type;
 		} else if(d instanceof WyilFile.FunctionOrMethodDeclaration) {
 			WyilFile.FunctionOrMethodDeclaration md = (WyilFile.FunctionOrMethodDeclaration) d;
 			if(md.type() instanceof Type.Function) {
-				writeBlock(BLOCK_Function, d, output);
+				return BLOCK_Function;
 			} else {
-				writeBlock(BLOCK_Method, d, output);
+				return BLOCK_Method;
 			}
+		} else {
+			throw new IllegalArgumentException("unknown module block encountered");
 		}
 	}
 
 	private byte[] generateConstantBlock(WyilFile.ConstantDeclaration cd) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		output.write_uv(stringCache.get(cd.name()));
 		output.write_uv(generateModifiers(cd.modifiers()));
@@ -382,12 +409,11 @@ public final class WyilFileWriter {
 		// TODO: write annotations
 
 		output.close();
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	private byte[] generateTypeBlock(WyilFile.TypeDeclaration td) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		output.write_uv(stringCache.get(td.name()));
 		output.write_uv(generateModifiers(td.modifiers()));
@@ -402,12 +428,11 @@ public final class WyilFileWriter {
 		}
 
 		output.close();
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	private byte[] generateFunctionOrMethodBlock(WyilFile.FunctionOrMethodDeclaration md) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		output.write_uv(stringCache.get(md.name()));
 		output.write_uv(generateModifiers(md.modifiers()));
@@ -420,12 +445,11 @@ public final class WyilFileWriter {
 
 		// TODO: write annotations
 		output.close();
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	private byte[] generateFunctionOrMethodCaseBlock(WyilFile.Case c) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		int bodyCount = c.body() == null ? 0 : 1;
 
@@ -442,12 +466,11 @@ public final class WyilFileWriter {
 		// TODO: write annotations
 
 		output.close();
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	private byte[] generateCodeBlock(Code.Block block) throws IOException {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
 
 		HashMap<String,Integer> labels = new HashMap<String,Integer>();
 
@@ -475,7 +498,7 @@ public final class WyilFileWriter {
 		}
 
 		output.close();
-		return bytes.toByteArray();
+		return output.toByteArray();
 	}
 
 	private void writeCode(Code code, int offset,
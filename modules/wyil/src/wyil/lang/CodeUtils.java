@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import wyil.lang.Codes.Comparator;
 
@@ -40,9 +41,9 @@ public class CodeUtils {
 	}
 
 
-	private static int _idx=0;
+	private static final AtomicInteger _idx = new AtomicInteger();
 	public static String freshLabel() {
-		return "blklab" + _idx++;
+		return "blklab" + _idx.getAndIncrement();
 	}
 
 	public static String arrayToString(int... operands) {
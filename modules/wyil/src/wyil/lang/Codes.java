@@ -10,6 +10,7 @@ import java.util.Map;
 import wycc.lang.NameID;
 import wycc.util.Pair;
 import wyil.lang.Code.*;
+import wyil.util.WeakInterner;
 import static wyil.lang.Code.*;
 import static wyil.lang.CodeUtils.*;
 
@@ -3978,17 +3979,13 @@ public abstract class Codes {
 		return noperands;
 	}
 
-	private static final ArrayList<Code> values = new ArrayList<Code>();
-	private static final HashMap<Code, Integer> cache = new HashMap<Code, Integer>();
+	/**
+	 * The table used for interning bytecodes. This may be accessed by multiple
+	 * threads, since modules may be compiled in parallel.
+	 */
+	private static final WeakInterner<Code> codes = new WeakInterner<Code>();
 
 	private static <T extends Code> T get(T type) {
-		Integer idx = cache.get(type);
-		if (idx != null) {
-			return (T) values.get(idx);
-		} else {
-			cache.put(type, values.size());
-			values.add(type);
-			return type;
-		}
+		return (T) codes.intern(type);
 	}
 }
@@ -32,6 +32,7 @@ import java.util.*;
 import wycc.lang.NameID;
 import wycc.util.Pair;
 import wyautl.util.BigRational;
+import wyil.util.WeakInterner;
 
 public abstract class Constant implements Comparable<Constant> {
 
@@ -849,17 +850,13 @@ public abstract class Constant implements Comparable<Constant> {
 		}
 	}
 
-	private static final ArrayList<Constant> values = new ArrayList<Constant>();
-	private static final HashMap<Constant,java.lang.Integer> cache = new HashMap<Constant,java.lang.Integer>();
+	/**
+	 * The table used for interning constants. This may be accessed by multiple
+	 * threads, since modules may be compiled in parallel.
+	 */
+	private static final WeakInterner<Constant> constants = new WeakInterner<Constant>();
 
 	private static <T extends Constant> T get(T type) {
-		java.lang.Integer idx = cache.get(type);
-		if(idx != null) {
-			return (T) values.get(idx);
-		} else {
-			cache.put(type, values.size());
-			values.add(type);
-			return type;
-		}
+		return (T) constants.intern(type);
 	}
 }
@@ -29,6 +29,7 @@ import wycc.lang.NameID;
 import wyfs.io.BinaryInputStream;
 import wyfs.io.BinaryOutputStream;
 import wyfs.util.Trie;
+import wyil.util.WeakInterner;
 import wyil.util.type.*;
 
 /**
@@ -72,6 +73,27 @@ public abstract class Type {
 	// Type Constructors
 	// =============================================================
 
+	/**
+	 * The following table is for implementing the fly-weight pattern. Every
+	 * type returned from <code>construct()</code> is interned, meaning equal
+	 * types are (almost always) the same object. Types which are no longer
+	 * used can still be reclaimed by the garbage collector.
+	 *
+	 * <b>NOTE:</b> this must be initialised before the type constants below,
+	 * since constructing them requires it.
+	 */
+	private static final WeakInterner<Type> types = new WeakInterner<Type>();
+
+	/**
+	 * Get the table used for interning types. This is useful for reporting its
+	 * size and hit rate.
+	 *
+	 * @return
+	 */
+	public static WeakInterner<Type> internTable() {
+		return types;
+	}
+
 	public static final Any T_ANY = new Any();
 	public static final Void T_VOID = new Void();
 	public static final Null T_NULL = new Null();
@@ -151,7 +173,7 @@ public abstract class Type {
 			throw new IllegalArgumentException(
 					"nominal name cannot be null");
 		}
-		return new Nominal(name);
+		return (Nominal) types.intern(new Nominal(name));
 	}
 
 	/**
@@ -527,15 +549,47 @@ public abstract class Type {
 	// Type operations
 	// =============================================================
 
+	/**
+	 * The maximum number of results held by each of the memo tables below.
+	 */
+	private static final int MEMO_CAPACITY = 10000;
+
+	/**
+	 * The following memo tables record the results of the most common (and
+	 * expensive) type operations, since the same pairs of types are queried
+	 * repeatedly during compilation.
+	 */
+	private static final TypeMemo<Boolean> subtypes = new TypeMemo<Boolean>(
+			"subtype", MEMO_CAPACITY);
+	private static final TypeMemo<Boolean> coercions = new TypeMemo<Boolean>(
+			"coercion", MEMO_CAPACITY);
+	private static final TypeMemo<Type> intersections = new TypeMemo<Type>(
+			"intersection", MEMO_CAPACITY);
+
+	/**
+	 * Get the memo tables used for type operations. This is useful for
+	 * reporting their hit rates.
+	 *
+	 * @return
+	 */
+	public static TypeMemo<?>[] memoTables() {
+		return new TypeMemo<?>[] { subtypes, coercions, intersections };
+	}
+
 	/**
 	 * Determine whether type <code>t2</code> is an <i>explicit coercive
 	 * subtype</i> of type <code>t1</code>.
 	 */
 	public static boolean isExplicitCoerciveSubtype(Type t1, Type t2) {
-		Automaton a1 = destruct(t1);
-		Automaton a2 = destruct(t2);
-		ExplicitCoercionOperator relation = new ExplicitCoercionOperator(a1,a2);
-		return relation.isSubtype(0, 0);
+		Boolean r = coercions.get(t1, t2);
+		if (r == null) {
+			Automaton a1 = destruct(t1);
+			Automaton a2 = destruct(t2);
+			ExplicitCoercionOperator relation = new ExplicitCoercionOperator(a1,a2);
+			r = relation.isSubtype(0, 0);
+			coercions.put(t1, t2, r);
+		}
+		return r;
 	}
 
 	/**
@@ -545,10 +599,15 @@ public abstract class Type {
 	 * that described by <code>t1</code>.
 	 */
 	public static boolean isSubtype(Type t1, Type t2) {
-		Automaton a1 = destruct(t1);
-		Automaton a2 = destruct(t2);
-		SubtypeOperator relation = new SubtypeOperator(a1,a2);
-		return relation.isSubtype(0, 0);
+		Boolean r = subtypes.get(t1, t2);
+		if (r == null) {
+			Automaton a1 = destruct(t1);
+			Automaton a2 = destruct(t2);
+			SubtypeOperator relation = new SubtypeOperator(a1,a2);
+			r = relation.isSubtype(0, 0);
+			subtypes.put(t1, t2, r);
+		}
+		return r;
 	}
 
 	/**
@@ -587,7 +646,12 @@ public abstract class Type {
 	 * @return
 	 */
 	public static Type intersect(Type t1, Type t2) {
-		return TypeAlgorithms.intersect(t1,t2);
+		Type r = intersections.get(t1, t2);
+		if (r == null) {
+			r = TypeAlgorithms.intersect(t1,t2);
+			intersections.put(t1, t2, r);
+		}
+		return r;
 	}
 
 	public static Reference effectiveReference(Type t) {
@@ -906,7 +970,9 @@ public abstract class Type {
 		}
 
 		public boolean equals(Object o) {
-			if (o instanceof Compound) {
+			if (o == this) {
+				return true;
+			} else if (o instanceof Compound) {
 				Compound c = (Compound) o;
 				//equalsCount++;
 				if(canonicalisation) {
@@ -2176,7 +2242,7 @@ public abstract class Type {
 
 		//distinctTypes.add(type);
 
-		return type;
+		return types.intern(type);
 	}
 
 	/**
@@ -2333,22 +2399,6 @@ public abstract class Type {
 	public static final byte K_METHOD = 20;
 	public static final byte K_NOMINAL = 21;
 
-	private static final ArrayList<Automaton> values = new ArrayList<Automaton>();
-	private static final HashMap<Automaton,Integer> cache = new HashMap<Automaton,Integer>();
-
-	/**
-	 * The following method is for implementing the fly-weight pattern.
-	 */
-	private static <T extends Automaton> T get(T type) {
-		Integer idx = cache.get(type);
-		if(idx != null) {
-			return (T) values.get(idx);
-		} else {
-			cache.put(type, values.size());
-			values.add(type);
-			return type;
-		}
-	}
 
 	public static void main(String[] args) {
 		//Type from = fromString("(null,null)");
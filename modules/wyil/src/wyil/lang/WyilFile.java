@@ -83,8 +83,12 @@ public final class WyilFile implements CompilationUnit {
 		}
 
 		public void write(OutputStream output, WyilFile module) throws IOException {
-			WyilFileWriter writer = new WyilFileWriter(output);
+			// record the checksum of the bytes written, so an interface file
+			// can identify them (see WyilInterface)
+			WyilInterface.Checksum checksum = new WyilInterface.Checksum(output);
+			WyilFileWriter writer = new WyilFileWriter(checksum);
 			writer.write(module);
+			module.checksum = checksum.toString();
 		}
 
 		public String toString() {
@@ -108,17 +112,30 @@ public final class WyilFile implements CompilationUnit {
 	private final String filename;
 
 	/**
-	 * The list of blocks in this WyiFile.
+	 * The list of blocks in this WyiFile. This may contain deferred
+	 * declarations, which are replaced by the declarations they provide when
+	 * first required. Therefore, blocks must be accessed using
+	 * <code>block()</code> rather than directly.
 	 */
 	private final ArrayList<Block> blocks;
 
+	/**
+	 * The checksum of this WyilFile as it was last written, or null if it has
+	 * not been written. See <code>WyilInterface</code> for more details.
+	 */
+	volatile String checksum;
+
 	// =========================================================================
 	// Constructors
 	// =========================================================================
 
 	/**
 	 * Construct a WyilFile objects with a given identifier, originating
-	 * filename and list of declarations.
+	 * filename and list of declarations. The declarations may include
+	 * deferred declarations (see <code>DeferredDeclaration</code>), which are
+	 * not decoded until first required. <b>NOTE:</b> since these are not
+	 * validated, they should only be used for files which were validated
+	 * before being written.
 	 *
 	 * @param mid
 	 * @param filename
@@ -193,12 +210,9 @@ public final class WyilFile implements CompilationUnit {
 	 * @return
 	 */
 	public boolean hasName(String name) {
-		for (Block d : blocks) {
-			if(d instanceof Declaration) {
-				Declaration nd = (Declaration) d;
-				if(nd.name().equals(name)) {
-					return true;
-				}
+		for (int i = 0; i != blocks.size(); ++i) {
+			if (matches(i, Declaration.class, name)) {
+				return true;
 			}
 		}
 		return false;
@@ -207,11 +221,15 @@ public final class WyilFile implements CompilationUnit {
 	/**
 	 * Returns all declarations declared in this WyilFile. This list is
 	 * modifiable, and one can add new declarations to this WyilFile by adding
-	 * them to the returned list.
+	 * them to the returned list. <b>NOTE:</b> any declarations whose decoding
+	 * was deferred are decoded first.
 	 *
 	 * @return
 	 */
 	public List<WyilFile.Block> blocks() {
+		for (int i = 0; i != blocks.size(); ++i) {
+			block(i);
+		}
 		return blocks;
 	}
 
@@ -223,12 +241,9 @@ public final class WyilFile implements CompilationUnit {
 	 * @return
 	 */
 	public TypeDeclaration type(String name) {
-		for (Block d : blocks) {
-			if(d instanceof TypeDeclaration) {
-				TypeDeclaration td = (TypeDeclaration) d;
-				if(td.name().equals(name)) {
-					return td;
-				}
+		for (int i = 0; i != blocks.size(); ++i) {
+			if (matches(i, TypeDeclaration.class, name)) {
+				return (TypeDeclaration) block(i);
 			}
 		}
 		return null;
@@ -243,9 +258,9 @@ public final class WyilFile implements CompilationUnit {
 	 */
 	public Collection<WyilFile.TypeDeclaration> types() {
 		ArrayList<TypeDeclaration> r = new ArrayList<TypeDeclaration>();
-		for (Block d : blocks) {
-			if(d instanceof TypeDeclaration) {
-				r.add((TypeDeclaration)d);
+		for (int i = 0; i != blocks.size(); ++i) {
+			if (matches(i, TypeDeclaration.class, null)) {
+				r.add((TypeDeclaration) block(i));
 			}
 		}
 		return Collections.unmodifiableList(r);
@@ -259,12 +274,9 @@ public final class WyilFile implements CompilationUnit {
 	 * @return
 	 */
 	public ConstantDeclaration constant(String name) {
-		for (Block d : blocks) {
-			if(d instanceof ConstantDeclaration) {
-				ConstantDeclaration cd = (ConstantDeclaration) d;
-				if(cd.name().equals(name)) {
-					return cd;
-				}
+		for (int i = 0; i != blocks.size(); ++i) {
+			if (matches(i, ConstantDeclaration.class, name)) {
+				return (ConstantDeclaration) block(i);
 			}
 		}
 		return null;
@@ -279,9 +291,9 @@ public final class WyilFile implements CompilationUnit {
 	 */
 	public Collection<WyilFile.ConstantDeclaration> constants() {
 		ArrayList<ConstantDeclaration> r = new ArrayList<ConstantDeclaration>();
-		for (Block d : blocks) {
-			if(d instanceof ConstantDeclaration) {
-				r.add((ConstantDeclaration)d);
+		for (int i = 0; i != blocks.size(); ++i) {
+			if (matches(i, ConstantDeclaration.class, null)) {
+				r.add((ConstantDeclaration) block(i));
 			}
 		}
 		return Collections.unmodifiableList(r);
@@ -297,12 +309,9 @@ public final class WyilFile implements CompilationUnit {
 	 */
 	public List<FunctionOrMethodDeclaration> functionOrMethod(String name) {
 		ArrayList<FunctionOrMethodDeclaration> r = new ArrayList<FunctionOrMethodDeclaration>();
-		for (Block d : blocks) {
-			if (d instanceof FunctionOrMethodDeclaration) {
-				FunctionOrMethodDeclaration m = (FunctionOrMethodDeclaration) d;
-				if (m.name().equals(name)) {
-					r.add(m);
-				}
+		for (int i = 0; i != blocks.size(); ++i) {
+			if (matches(i, FunctionOrMethodDeclaration.class, name)) {
+				r.add((FunctionOrMethodDeclaration) block(i));
 			}
 		}
 		return Collections.unmodifiableList(r);
@@ -316,10 +325,10 @@ public final class WyilFile implements CompilationUnit {
 	 * @return
 	 */
 	public FunctionOrMethodDeclaration functionOrMethod(String name, Type.FunctionOrMethod ft) {
-		for (Block d : blocks) {
-			if (d instanceof FunctionOrMethodDeclaration) {
-				FunctionOrMethodDeclaration md = (FunctionOrMethodDeclaration) d;
-				if (md.name().equals(name) && md.type().equals(ft)) {
+		for (int i = 0; i != blocks.size(); ++i) {
+			if (matches(i, FunctionOrMethodDeclaration.class, name)) {
+				FunctionOrMethodDeclaration md = (FunctionOrMethodDeclaration) block(i);
+				if (md.type().equals(ft)) {
 					return md;
 				}
 			}
@@ -336,19 +345,54 @@ public final class WyilFile implements CompilationUnit {
 	 */
 	public Collection<WyilFile.FunctionOrMethodDeclaration> functionOrMethods() {
 		ArrayList<FunctionOrMethodDeclaration> r = new ArrayList<FunctionOrMethodDeclaration>();
-		for (Block d : blocks) {
-			if(d instanceof FunctionOrMethodDeclaration) {
-				r.add((FunctionOrMethodDeclaration)d);
+		for (int i = 0; i != blocks.size(); ++i) {
+			if (matches(i, FunctionOrMethodDeclaration.class, null)) {
+				r.add((FunctionOrMethodDeclaration) block(i));
 			}
 		}
 		return Collections.unmodifiableList(r);
 	}
 
+	/**
+	 * Determine whether the block at a given index is a declaration of a given
+	 * kind with a given name (or any name, if this is null). This does not
+	 * require the block to be decoded.
+	 *
+	 * @param index
+	 * @param kind
+	 * @param name
+	 * @return
+	 */
+	private synchronized boolean matches(int index,
+			Class<? extends Declaration> kind, String name) {
+		Block b = blocks.get(index);
+		Class<?> bkind = b instanceof DeferredDeclaration ? ((DeferredDeclaration) b).kind
+				: b.getClass();
+		return kind.isAssignableFrom(bkind)
+				&& (name == null || ((Declaration) b).name().equals(name));
+	}
+
+	/**
+	 * Get the block at a given index, decoding it first if its decoding was
+	 * deferred.
+	 *
+	 * @param index
+	 * @return
+	 */
+	private synchronized Block block(int index) {
+		Block b = blocks.get(index);
+		if (b instanceof DeferredDeclaration) {
+			b = ((DeferredDeclaration) b).contents.get();
+			blocks.set(index, b);
+		}
+		return b;
+	}
+
 	// =========================================================================
 	// Mutators
 	// =========================================================================
 
-	public void replace(WyilFile.Block old, WyilFile.Block nuw) {
+	public synchronized void replace(WyilFile.Block old, WyilFile.Block nuw) {
 		for(int i=0;i!=blocks.size();++i) {
 			if(blocks.get(i) == old) {
 				blocks.set(i,nuw);
@@ -361,6 +405,20 @@ public final class WyilFile implements CompilationUnit {
 	// Types
 	// =========================================================================
 
+	/**
+	 * Provides part of a WyilFile which has not yet been decoded. This allows
+	 * a WyilFile read from disk to postpone decoding its code blocks until they
+	 * are first used. Since most modules loaded by a build are consulted only
+	 * for their signatures, most code blocks are never decoded at all.
+	 *
+	 * @author David J. Pearce
+	 *
+	 * @param <T>
+	 */
+	public interface Deferred<T> {
+		public T get();
+	}
+
 	/**
 	 * A block is an chunk of information within a WyIL file. For example, it
 	 * might be a declaration for a type, constant, function or method. However,
@@ -417,6 +475,37 @@ public final class WyilFile implements CompilationUnit {
 		}
 	}
 
+	/**
+	 * A declaration whose decoding has been deferred. This records only the
+	 * kind and name of the declaration, which allows it to be located without
+	 * decoding it. Deferred declarations are replaced by the declarations they
+	 * provide when first required, and are never returned from a WyilFile.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class DeferredDeclaration extends Declaration {
+		private final Class<? extends Declaration> kind;
+		private final Deferred<? extends Declaration> contents;
+
+		/**
+		 * Construct a deferred declaration.
+		 *
+		 * @param kind
+		 *            --- the kind of declaration provided.
+		 * @param name
+		 *            --- the name of the declaration provided.
+		 * @param contents
+		 *            --- provides the declaration itself.
+		 */
+		public DeferredDeclaration(Class<? extends Declaration> kind,
+				String name, Deferred<? extends Declaration> contents) {
+			super(name, Collections.<Modifier>emptyList());
+			this.kind = kind;
+			this.contents = contents;
+		}
+	}
+
 	/**
 	 * A type declaration is a top-level block within a WyilFile that associates
 	 * a name with a given type. These names can be used within types,
@@ -430,6 +519,7 @@ public final class WyilFile implements CompilationUnit {
 	public static final class TypeDeclaration extends Declaration {
 		private Type type;
 		private Code.Block invariant;
+		private Deferred<Code.Block> deferred;
 
 		public TypeDeclaration(Collection<Modifier> modifiers, String name, Type type,
 				Code.Block invariant, Attribute... attributes) {
@@ -446,11 +536,34 @@ public final class WyilFile implements CompilationUnit {
 			this.invariant = invariant;
 		}
 
+		/**
+		 * Construct a type declaration whose invariant is decoded when first
+		 * required.
+		 *
+		 * @param modifiers
+		 * @param name
+		 * @param type
+		 * @param invariant
+		 *            --- provides the invariant (which may be null).
+		 * @param attributes
+		 */
+		public TypeDeclaration(Collection<Modifier> modifiers, String name,
+				Type type, Deferred<Code.Block> invariant,
+				Collection<Attribute> attributes) {
+			super(name, modifiers, attributes);
+			this.type = type;
+			this.deferred = invariant;
+		}
+
 		public Type type() {
 			return type;
 		}
 
-		public Code.Block invariant() {
+		public synchronized Code.Block invariant() {
+			if (deferred != null) {
+				invariant = deferred.get();
+				deferred = null;
+			}
 			return invariant;
 		}
 	}
@@ -526,9 +639,10 @@ public final class WyilFile implements CompilationUnit {
 	}
 
 	public static final class Case extends SyntacticElement.Impl {
-		private final ArrayList<Code.Block> precondition;
-		private final ArrayList<Code.Block> postcondition;
-		private final Code.Block body;
+		private ArrayList<Code.Block> precondition;
+		private ArrayList<Code.Block> postcondition;
+		private Code.Block body;
+		private Deferred<Case> deferred;
 		//private final ArrayList<String> locals;
 
 		public Case(Code.Block body,
@@ -551,16 +665,42 @@ public final class WyilFile implements CompilationUnit {
 			this.postcondition = new ArrayList<Code.Block>(postcondition);
 		}
 
+		/**
+		 * Construct a case whose code blocks are decoded when first required.
+		 * The deferred case provides the body, precondition and postcondition
+		 * of this case.
+		 *
+		 * @param contents
+		 * @param attributes
+		 */
+		public Case(Deferred<Case> contents, Collection<Attribute> attributes) {
+			super(attributes);
+			this.deferred = contents;
+		}
+
 		public Code.Block body() {
+			decode();
 			return body;
 		}
 
 		public List<Code.Block> precondition() {
+			decode();
 			return precondition;
 		}
 
 		public List<Code.Block> postcondition() {
+			decode();
 			return postcondition;
 		}
+
+		private synchronized void decode() {
+			if (deferred != null) {
+				Case c = deferred.get();
+				body = c.body;
+				precondition = c.precondition;
+				postcondition = c.postcondition;
+				deferred = null;
+			}
+		}
 	}
 }
@@ -0,0 +1,514 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.lang;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import wybs.lang.Build;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+import wyil.io.WyilFileReader;
+import wyil.io.WyilFileWriter;
+import wyil.util.InterfaceHash;
+
+/**
+ * <p>
+ * Provides an in-memory representation of a WyIL interface file. This is a
+ * compact summary of a WyIL file, which is written alongside it and contains
+ * only what is needed to resolve names and types against it. That is, the name
+ * and modifiers of every declaration, the type and invariant of every type,
+ * the value of every constant, and the type, pre- and post-conditions of every
+ * function and method. The bodies of functions and methods are not retained.
+ * </p>
+ * <p>
+ * Each interface file also records the interface hash of the file it
+ * summarises (see <code>InterfaceHash</code>). This can be read without
+ * decoding the remainder of the file, thus providing a cheap means of
+ * determining whether the interface of a module has changed.
+ * </p>
+ * <p>
+ * Finally, each interface file records the checksum and modification time of
+ * the file it summarises, as written. An interface file is only used in place
+ * of that file when these match, since otherwise the file may have been
+ * rewritten without its interface file (e.g. by a partial build, or by copying
+ * it). The checksum is determined from the bytes written, and only needs to be
+ * recomputed from disk when the modification time or length of the file has
+ * changed.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> private declarations are retained since, for example, a public
+ * type may be defined in terms of a private type, and calls to a private
+ * function must still check its precondition.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class WyilInterface {
+
+	/**
+	 * The magic number which begins every WyIL interface file.
+	 */
+	private static final char[] MAGIC = { 'W', 'Y', 'I', 'F' };
+
+	/**
+	 * The version of the interface file format, which follows the magic
+	 * number.
+	 */
+	private static final int VERSION = 2;
+
+	// =========================================================================
+	// Content Type
+	// =========================================================================
+
+	public static final Content.Type<WyilInterface> ContentType = new Content.Type<WyilInterface>() {
+		public Path.Entry<WyilInterface> accept(Path.Entry<?> e) {
+			if (e.contentType() == this) {
+				return (Path.Entry<WyilInterface>) e;
+			}
+			return null;
+		}
+
+		public WyilInterface read(Path.Entry<WyilInterface> e, InputStream input)
+				throws IOException {
+			String hash = readHash(input);
+			String checksum = readString(input);
+			long modified = Long.parseLong(readString(input));
+			WyilFileReader reader = new WyilFileReader(input);
+			return new WyilInterface(hash, checksum, modified, reader.read());
+		}
+
+		public void write(OutputStream output, WyilInterface stub)
+				throws IOException {
+			for (char c : MAGIC) {
+				output.write(c);
+			}
+			output.write(VERSION);
+			writeString(stub.hash, output);
+			// NOTE: the checksum must be determined first, since this may
+			// write out the file being summarised.
+			String checksum = stub.checksum();
+			writeString(checksum, output);
+			writeString(Long.toString(stub.modified()), output);
+			WyilFileWriter writer = new WyilFileWriter(output);
+			writer.write(stub.module);
+		}
+
+		public String toString() {
+			return "Content-Type: wyili";
+		}
+	};
+
+	// =========================================================================
+	// State
+	// =========================================================================
+
+	/**
+	 * The interface hash of the file summarised by this interface.
+	 */
+	private final String hash;
+
+	/**
+	 * The summary itself, which is a WyIL file containing every declaration of
+	 * the file being summarised, less the bodies of its functions and methods.
+	 */
+	private final WyilFile module;
+
+	/**
+	 * The file being summarised, if this interface was constructed from it
+	 * (rather than read from disk).
+	 */
+	private final WyilFile source;
+
+	/**
+	 * The entry to which the file being summarised is written, if known. When
+	 * this interface is written, the entry is written first, so that the
+	 * checksum and modification time of the file as written can be recorded.
+	 */
+	private final Path.Entry<WyilFile> target;
+
+	/**
+	 * The checksum and modification time of the file being summarised, if
+	 * this interface was read from disk. Otherwise, these are determined when
+	 * the interface is written, since the source file may be transformed
+	 * further before then. The modification time is <code>-1</code> if it is
+	 * not known.
+	 */
+	private final String checksum;
+	private final long modified;
+
+	/**
+	 * The last modification time of the file being summarised when its
+	 * checksum was last read from disk and checked against that recorded in
+	 * this interface, and whether or not they matched.
+	 */
+	private long checked = -1;
+	private boolean matched;
+
+	/**
+	 * Construct the interface of a given WyIL file.
+	 *
+	 * @param file
+	 */
+	public WyilInterface(WyilFile file) {
+		this(file, null);
+	}
+
+	/**
+	 * Construct the interface of a given WyIL file, which is written to a
+	 * given entry. The interface then records the checksum of the file as
+	 * written to that entry, along with its modification time.
+	 *
+	 * @param file
+	 * @param target
+	 */
+	public WyilInterface(WyilFile file, Path.Entry<WyilFile> target) {
+		this.module = strip(file);
+		this.hash = InterfaceHash.hash(module);
+		this.source = file;
+		this.target = target;
+		this.checksum = null;
+		this.modified = -1;
+	}
+
+	private WyilInterface(String hash, String checksum, long modified,
+			WyilFile module) {
+		this.hash = hash;
+		this.module = module;
+		this.source = null;
+		this.target = null;
+		this.checksum = checksum;
+		this.modified = modified;
+	}
+
+	// =========================================================================
+	// Accessors
+	// =========================================================================
+
+	/**
+	 * Get the interface hash of the file summarised by this interface. This is
+	 * the same as the interface hash of that file.
+	 *
+	 * @return
+	 */
+	public String hash() {
+		return hash;
+	}
+
+	/**
+	 * Get the summary of the file, which can be used in place of it for
+	 * resolving names and types.
+	 *
+	 * @return
+	 */
+	public WyilFile module() {
+		return module;
+	}
+
+	/**
+	 * Read the interface hash from a given interface file, without reading the
+	 * remainder of the file.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public static String hash(Path.Entry<WyilInterface> entry)
+			throws IOException {
+		InputStream input = entry.inputStream();
+		try {
+			return readHash(input);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Read a given module from a project, or return null if it does not exist.
+	 * The interface file of the module is read in preference to the module
+	 * itself, provided it sits alongside the module. Only then does it
+	 * summarise that module, rather than some other module with the same name
+	 * (e.g. one left behind in an earlier root). Furthermore, the checksum it
+	 * records must match that of the module, since otherwise the interface
+	 * file is out of date. Thus, the bodies of the functions and methods in
+	 * the module returned may not be available.
+	 *
+	 * @param project
+	 * @param id
+	 * @return
+	 * @throws IOException
+	 */
+	public static WyilFile read(Build.Project project, Path.ID id)
+			throws IOException {
+		Path.Entry<WyilFile> file = project.get(id, WyilFile.ContentType);
+		if (file == null) {
+			return null;
+		}
+		Path.Entry<WyilInterface> stub = project.get(id, ContentType);
+		if (stub != null && base(stub).equals(base(file))) {
+			try {
+				WyilInterface i = stub.read();
+				if (i.summarises(file)) {
+					return i.module;
+				}
+			} catch (IOException e) {
+				// the interface file is unreadable (e.g. from an earlier
+				// version), so fall back to the module itself.
+			}
+		}
+		return file.read();
+	}
+
+	// =========================================================================
+	// Private Implementation
+	// =========================================================================
+
+	/**
+	 * Check whether this interface summarises the given file, as it currently
+	 * stands. If this interface was constructed from a file, then that must be
+	 * the file's contents. Otherwise, the file must be unmodified, and its
+	 * checksum must match that recorded in this interface. When the file has
+	 * the modification time and length recorded in this interface, it is
+	 * taken to be the file as written and is not read at all. Otherwise, its
+	 * checksum is read from disk, and the result is reused until the file is
+	 * next modified.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private synchronized boolean summarises(Path.Entry<WyilFile> file)
+			throws IOException {
+		if (source != null) {
+			return file.read() == source;
+		} else if (file.isModified()) {
+			return false;
+		}
+		long modified = file.lastModified();
+		long length = length(file);
+		if (modified == this.modified && modified != -1
+				&& (length == -1 || checksum.endsWith(":" + length))) {
+			return true;
+		} else if (modified != checked) {
+			InputStream input = file.inputStream();
+			try {
+				matched = checksum.equals(checksum(input));
+			} finally {
+				input.close();
+			}
+			checked = modified;
+		}
+		return matched;
+	}
+
+	/**
+	 * Determine the checksum of the file being summarised. If this interface
+	 * has a target, then this is first written out (if necessary), so the
+	 * checksum is that of the bytes written. Otherwise, the checksum is that
+	 * of the source file as last written, or it is written to memory if it has
+	 * not been written.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private String checksum() throws IOException {
+		if (checksum != null) {
+			return checksum;
+		}
+		WyilFile file = source;
+		if (target != null) {
+			target.flush();
+			file = target.read();
+		}
+		if (file.checksum == null) {
+			Checksum output = new Checksum(new ByteArrayOutputStream());
+			new WyilFileWriter(output).write(file);
+			return output.toString();
+		}
+		return file.checksum;
+	}
+
+	/**
+	 * Determine the last modification time of the file being summarised, or
+	 * <code>-1</code> if this is not known.
+	 *
+	 * @return
+	 */
+	private long modified() {
+		if (checksum != null) {
+			return modified;
+		} else if (target != null && !target.isModified()) {
+			return target.lastModified();
+		} else {
+			return -1;
+		}
+	}
+
+	/**
+	 * Determine the checksum of a given stream of bytes.
+	 *
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	private static String checksum(InputStream input) throws IOException {
+		Checksum output = new Checksum(null);
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = input.read(buffer)) >= 0) {
+			output.update(buffer, 0, n);
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Determine the length of a given entry, or <code>-1</code> if this is not
+	 * known.
+	 *
+	 * @param e
+	 * @return
+	 */
+	private static long length(Path.Entry<?> e) {
+		if (e instanceof DirectoryRoot.Entry) {
+			return ((DirectoryRoot.Entry<?>) e).file().length();
+		} else {
+			return -1;
+		}
+	}
+
+	private static String base(Path.Entry<?> e) {
+		String location = e.location();
+		String suffix = "." + e.suffix();
+		if (location.endsWith(suffix)) {
+			return location.substring(0, location.length() - suffix.length());
+		} else {
+			return location;
+		}
+	}
+
+	private static String readHash(InputStream input) throws IOException {
+		for (char c : MAGIC) {
+			if (input.read() != c) {
+				throw new IOException("invalid magic number");
+			}
+		}
+		if (input.read() != VERSION) {
+			throw new IOException("unsupported interface version");
+		}
+		return readString(input);
+	}
+
+	private static void writeString(String str, OutputStream output)
+			throws IOException {
+		byte[] bytes = str.getBytes("UTF-8");
+		output.write(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(InputStream input) throws IOException {
+		int length = input.read();
+		if (length < 0) {
+			throw new EOFException();
+		}
+		byte[] bytes = new byte[length];
+		int count = 0;
+		while (count < length) {
+			int n = input.read(bytes, count, length - count);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			count += n;
+		}
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Strip a given WyIL file down to its interface. That is, functions and
+	 * methods lose their bodies.
+	 *
+	 * @param file
+	 * @return
+	 */
+	private static WyilFile strip(WyilFile file) {
+		ArrayList<WyilFile.Block> blocks = new ArrayList<WyilFile.Block>();
+		for (WyilFile.Block b : file.blocks()) {
+			if (b instanceof WyilFile.FunctionOrMethodDeclaration) {
+				WyilFile.FunctionOrMethodDeclaration d = (WyilFile.FunctionOrMethodDeclaration) b;
+				ArrayList<WyilFile.Case> cases = new ArrayList<WyilFile.Case>();
+				for (WyilFile.Case c : d.cases()) {
+					cases.add(new WyilFile.Case(null, c.precondition(), c
+							.postcondition(), c.attributes()));
+				}
+				blocks.add(new WyilFile.FunctionOrMethodDeclaration(d
+						.modifiers(), d.name(), d.type(), cases, d.attributes()));
+			} else if (b instanceof WyilFile.Declaration) {
+				// types and constants are retained in full
+				blocks.add(b);
+			}
+		}
+		return new WyilFile(file.id(), file.filename(), blocks);
+	}
+
+	/**
+	 * An output stream which determines the checksum of the bytes written
+	 * through it. This consists of their CRC32 checksum and their number.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	static final class Checksum extends FilterOutputStream {
+		private final CRC32 crc = new CRC32();
+		private long length;
+
+		public Checksum(OutputStream output) {
+			super(output);
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			crc.update(b);
+			length++;
+		}
+
+		public void write(byte[] bytes, int offset, int length)
+				throws IOException {
+			out.write(bytes, offset, length);
+			update(bytes, offset, length);
+		}
+
+		private void update(byte[] bytes, int offset, int length) {
+			crc.update(bytes, offset, length);
+			this.length += length;
+		}
+
+		public String toString() {
+			return Long.toHexString(crc.getValue()) + ":" + length;
+		}
+	}
+}
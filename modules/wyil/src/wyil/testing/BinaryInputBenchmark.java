@@ -0,0 +1,185 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package wyil.testing;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import wyfs.io.BinaryBufferInputStream;
+import wyfs.io.BinaryInputStream;
+import wyfs.io.BinaryOutputStream;
+import wyil.io.WyilFilePrinter;
+import wyil.io.WyilFileReader;
+
+/**
+ * A simple benchmark for measuring the effect of reading binary files from an
+ * in-memory buffer, rather than through a chain of input streams. This
+ * performs two measurements. Firstly, every module of the Whiley standard
+ * library is decoded (including the bodies of all functions and methods) a
+ * given number of times, using each kind of stream. Secondly, a large
+ * sequence of variable-length integers is decoded using each kind of stream.
+ * The wall-clock time taken for each is reported. This should be run from the
+ * <code>modules/wyil</code> directory. For example:
+ *
+ * <pre>
+ * java wyil.testing.BinaryInputBenchmark 50
+ * </pre>
+ *
+ * decodes the standard library fifty times with each kind of stream.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BinaryInputBenchmark {
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	public static void main(String[] args) throws IOException {
+		int runs = 20;
+		if (args.length > 0) {
+			runs = Integer.parseInt(args[0]);
+		}
+
+		ArrayList<byte[]> modules = load();
+		System.out.println("Loaded " + modules.size() + " modules.");
+
+		// warm up both paths, so neither pays for class loading or
+		// compilation.
+		decodeModules(modules, false, 2);
+		decodeModules(modules, true, 2);
+
+		long stream = decodeModules(modules, false, runs);
+		long buffer = decodeModules(modules, true, runs);
+		System.out.println("Modules (stream): " + stream + "ms");
+		System.out.println("Modules (buffer): " + buffer + "ms");
+
+		int count = 1000000;
+		byte[] numbers = numbers(count);
+		decodeNumbers(numbers, count, false, 2);
+		decodeNumbers(numbers, count, true, 2);
+		stream = decodeNumbers(numbers, count, false, runs);
+		buffer = decodeNumbers(numbers, count, true, runs);
+		System.out.println("Integers (stream): " + stream + "ms");
+		System.out.println("Integers (buffer): " + buffer + "ms");
+	}
+
+	private static long decodeModules(ArrayList<byte[]> modules,
+			boolean buffered, int runs) throws IOException {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i != runs; ++i) {
+			for (byte[] bytes : modules) {
+				InputStream input = buffered ? new BinaryBufferInputStream(
+						bytes) : new ByteArrayInputStream(bytes);
+				// Printing the module forces every deferred block to be
+				// decoded.
+				PrintWriter out = new PrintWriter(new StringWriter());
+				new WyilFilePrinter(out).apply(new WyilFileReader(input).read());
+			}
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private static long decodeNumbers(byte[] bytes, int count,
+			boolean buffered, int runs) throws IOException {
+		long start = System.currentTimeMillis();
+		long total = 0;
+		for (int i = 0; i != runs; ++i) {
+			BinaryInputStream input = buffered ? new BinaryBufferInputStream(
+					bytes) : new BinaryInputStream(new ByteArrayInputStream(
+					bytes));
+			for (int j = 0; j != count; ++j) {
+				total += input.read_uv();
+			}
+		}
+		if (total == 0) {
+			// prevent the loop being optimised away
+			System.out.println("Nothing decoded!");
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Encode a given number of random variable-length integers, using a
+	 * mixture of small and large values.
+	 *
+	 * @param count
+	 * @return
+	 * @throws IOException
+	 */
+	private static byte[] numbers(int count) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		Random random = new Random(0);
+		for (int i = 0; i != count; ++i) {
+			int bits = 1 + random.nextInt(random.nextBoolean() ? 6 : 24);
+			output.write_uv(random.nextInt(1 << bits));
+		}
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	private static ArrayList<byte[]> load() throws IOException {
+		ArrayList<byte[]> modules = new ArrayList<byte[]>();
+		JarFile jar = new JarFile(wyrt());
+		try {
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				if (entry.getName().endsWith(".wyil")) {
+					InputStream input = jar.getInputStream(entry);
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					byte[] buf = new byte[4096];
+					int n;
+					while ((n = input.read(buf)) > 0) {
+						bytes.write(buf, 0, n);
+					}
+					input.close();
+					modules.add(bytes.toByteArray());
+				}
+			}
+		} finally {
+			jar.close();
+		}
+		return modules;
+	}
+
+	private static File wyrt() {
+		File dir = new File(WYC_LIB_DIR);
+		for (String f : dir.list()) {
+			if (f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				return new File(dir, f);
+			}
+		}
+		throw new RuntimeException("Whiley Runtime not found");
+	}
+}
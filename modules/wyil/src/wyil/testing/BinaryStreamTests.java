@@ -0,0 +1,168 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wyfs.io.BinaryBufferInputStream;
+import wyfs.io.BinaryBufferOutputStream;
+import wyfs.io.BinaryInputStream;
+import wyfs.io.BinaryOutputStream;
+
+/**
+ * Tests that the buffer-backed binary streams are interchangeable with the
+ * original binary streams. Each test writes a random sequence of values using
+ * both kinds of output stream, checks the bytes produced are identical, and
+ * then reads them back using both kinds of input stream.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BinaryStreamTests {
+
+	private static final int NUM_VALUES = 2000;
+
+	@Test public void Stream_1() throws IOException {
+		check(1);
+	}
+
+	@Test public void Stream_2() throws IOException {
+		check(2);
+	}
+
+	@Test public void Stream_3() throws IOException {
+		check(3);
+	}
+
+	@Test public void Stream_4() throws IOException {
+		// A buffer which is drained to an underlying stream
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream(bytes);
+		write(new Random(4), output, 20000);
+		output.close();
+		assertArrayEquals(original(4, 20000), bytes.toByteArray());
+	}
+
+	@Test public void Stream_5() throws IOException {
+		// Reading a whole stream into memory
+		byte[] data = original(5, NUM_VALUES);
+		BinaryInputStream input = BinaryBufferInputStream.load(
+				new ByteArrayInputStream(data), -1);
+		read(new Random(5), input, NUM_VALUES);
+	}
+
+	private static void check(int seed) throws IOException {
+		byte[] expected = original(seed, NUM_VALUES);
+		BinaryBufferOutputStream output = new BinaryBufferOutputStream();
+		write(new Random(seed), output, NUM_VALUES);
+		output.close();
+		assertArrayEquals(expected, output.toByteArray());
+		read(new Random(seed), new BinaryInputStream(new ByteArrayInputStream(
+				expected)), NUM_VALUES);
+		read(new Random(seed), new BinaryBufferInputStream(expected),
+				NUM_VALUES);
+	}
+
+	private static byte[] original(int seed, int count) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryOutputStream output = new BinaryOutputStream(bytes);
+		write(new Random(seed), output, count);
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Write a random sequence of values. The same sequence is generated for
+	 * the same seed, which allows it to be checked when read back.
+	 */
+	private static void write(Random random, BinaryOutputStream output,
+			int count) throws IOException {
+		for (int i = 0; i != count; ++i) {
+			switch (random.nextInt(6)) {
+			case 0:
+				output.write_bit(random.nextBoolean());
+				break;
+			case 1:
+				output.write_u8(random.nextInt(256));
+				break;
+			case 2:
+				output.write_u16(random.nextInt(65536));
+				break;
+			case 3: {
+				int n = random.nextInt(31) + 1;
+				output.write_un(random.nextInt() & ((1 << n) - 1), n);
+				break;
+			}
+			case 4:
+				output.write_uv(random.nextInt(1 << random.nextInt(31)));
+				break;
+			default:
+				output.pad_u8();
+				output.write(new byte[] { (byte) random.nextInt(),
+						(byte) random.nextInt() });
+			}
+		}
+	}
+
+	private static void read(Random random, BinaryInputStream input, int count)
+			throws IOException {
+		for (int i = 0; i != count; ++i) {
+			switch (random.nextInt(6)) {
+			case 0:
+				assertEquals(random.nextBoolean(), input.read_bit());
+				break;
+			case 1:
+				assertEquals(random.nextInt(256), input.read_u8());
+				break;
+			case 2:
+				assertEquals(random.nextInt(65536), input.read_u16());
+				break;
+			case 3: {
+				int n = random.nextInt(31) + 1;
+				assertEquals(random.nextInt() & ((1 << n) - 1),
+						input.read_un(n));
+				break;
+			}
+			case 4:
+				assertEquals(random.nextInt(1 << random.nextInt(31)),
+						input.read_uv());
+				break;
+			default:
+				input.pad_u8();
+				byte[] expected = new byte[] { (byte) random.nextInt(),
+						(byte) random.nextInt() };
+				byte[] actual = new byte[2];
+				input.read(actual);
+				assertArrayEquals(expected, actual);
+			}
+		}
+	}
+}
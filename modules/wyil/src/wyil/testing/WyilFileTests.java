@@ -0,0 +1,230 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import wyfs.io.BinaryBufferInputStream;
+import wyil.io.WyilFilePrinter;
+import wyil.io.WyilFileReader;
+import wyil.io.WyilFileWriter;
+import wyil.lang.WyilFile;
+
+/**
+ * Tests for reading and writing the binary WyIL format. Each module of the
+ * Whiley standard library is read, written out and then read back in again.
+ * The two modules read must then print identically. Since the standard library
+ * was compiled with an earlier version of the format, this checks that both
+ * versions can be read. Files which are read must also remain valid after
+ * the file from which they were read is rewritten, and declarations which are
+ * never used must never be decoded.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class WyilFileTests {
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	@Test public void RoundTrip_1() throws IOException {
+		JarFile jar = new JarFile(wyrt());
+		try {
+			int count = 0;
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				if (entry.getName().endsWith(".wyil")) {
+					WyilFile original = new WyilFileReader(
+							jar.getInputStream(entry)).read();
+					WyilFile copy = roundTrip(original);
+					assertEquals(entry.getName(), print(original), print(copy));
+					count++;
+				}
+			}
+			assertTrue(count > 0);
+		} finally {
+			jar.close();
+		}
+	}
+
+	@Test public void RoundTrip_2() throws IOException {
+		// A file written with the current version must also survive
+		JarFile jar = new JarFile(wyrt());
+		try {
+			JarEntry entry = jar.getJarEntry("whiley/lang/Math.wyil");
+			WyilFile original = roundTrip(new WyilFileReader(
+					jar.getInputStream(entry)).read());
+			assertEquals(print(original), print(roundTrip(original)));
+		} finally {
+			jar.close();
+		}
+	}
+
+	@Test public void Rewrite_1() throws IOException {
+		// A file large enough to be mapped into memory is read, and then
+		// rewritten before the deferred parts of it are decoded.
+		WyilFile original = roundTrip(large());
+		File file = File.createTempFile("Rewrite_1", ".wyil");
+		try {
+			FileOutputStream output = new FileOutputStream(file);
+			new WyilFileWriter(output).write(original);
+			output.close();
+			assertTrue(file.length() >= BinaryBufferInputStream.MAP_THRESHOLD);
+			WyilFileReader reader = new WyilFileReader(file.getPath());
+			WyilFile copy = reader.read();
+			reader.close();
+			// First truncate the file, and then write something else to it.
+			output = new FileOutputStream(file);
+			output.close();
+			output = new FileOutputStream(file);
+			new WyilFileWriter(output).write(roundTrip(new WyilFile(
+					original.id(), original.filename(),
+					new ArrayList<WyilFile.Block>())));
+			output.close();
+			assertEquals(print(original), print(copy));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test public void Lazy_1() throws IOException {
+		// The bytes of a file are overwritten after one function has been
+		// used. Another function can then be located, but not decoded.
+		JarFile jar = new JarFile(wyrt());
+		try {
+			JarEntry entry = jar.getJarEntry("whiley/lang/Math.wyil");
+			WyilFile math = new WyilFileReader(jar.getInputStream(entry))
+					.read();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			new WyilFileWriter(output).write(math);
+			byte[] bytes = output.toByteArray();
+			// NOTE: the file read shares the array of bytes it was read from
+			WyilFile file = new WyilFileReader(new BinaryBufferInputStream(
+					bytes)).read();
+			assertEquals(1, file.functionOrMethod("pow").size());
+			Arrays.fill(bytes, (byte) 0);
+			assertEquals(1, file.functionOrMethod("pow").size());
+			assertTrue(file.hasName("floor"));
+			try {
+				file.functionOrMethod("floor");
+				fail("unused declaration was decoded");
+			} catch (RuntimeException e) {
+				// expected, since the declaration was not decoded
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	/**
+	 * Construct a file containing many copies of the functions from the
+	 * standard library's <code>Math</code> module, such that it exceeds the
+	 * size at which files are mapped into memory.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private static WyilFile large() throws IOException {
+		JarFile jar = new JarFile(wyrt());
+		try {
+			JarEntry entry = jar.getJarEntry("whiley/lang/Math.wyil");
+			WyilFile math = new WyilFileReader(jar.getInputStream(entry))
+					.read();
+			ArrayList<WyilFile.Block> blocks = new ArrayList<WyilFile.Block>();
+			for (int i = 0; i != 100; ++i) {
+				for (WyilFile.FunctionOrMethodDeclaration d : math
+						.functionOrMethods()) {
+					blocks.add(new WyilFile.FunctionOrMethodDeclaration(d
+							.modifiers(), d.name() + "_" + i, d.type(), d
+							.cases()));
+				}
+			}
+			return new WyilFile(math.id(), math.filename(), blocks);
+		} finally {
+			jar.close();
+		}
+	}
+
+	private static WyilFile roundTrip(WyilFile file) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new WyilFileWriter(bytes).write(file);
+		return new WyilFileReader(new ByteArrayInputStream(bytes.toByteArray()))
+				.read();
+	}
+
+	/**
+	 * Print a given file. Since labels are given fresh names as they are
+	 * read, these are renamed in order of first occurrence (and the padding
+	 * which depends on them is removed).
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static String print(WyilFile file) throws IOException {
+		StringWriter str = new StringWriter();
+		new WyilFilePrinter(new PrintWriter(str)).apply(file);
+		Matcher m = Pattern.compile("label[0-9]+").matcher(str.toString());
+		HashMap<String, String> labels = new HashMap<String, String>();
+		StringBuffer r = new StringBuffer();
+		while (m.find()) {
+			String label = labels.get(m.group());
+			if (label == null) {
+				label = "label" + labels.size();
+				labels.put(m.group(), label);
+			}
+			m.appendReplacement(r, label);
+		}
+		m.appendTail(r);
+		return r.toString().replaceAll("[ \t]+", " ");
+	}
+
+	private static File wyrt() {
+		File dir = new File(WYC_LIB_DIR);
+		for (String f : dir.list()) {
+			if (f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				return new File(dir, f);
+			}
+		}
+		throw new RuntimeException("Whiley Runtime not found");
+	}
+}
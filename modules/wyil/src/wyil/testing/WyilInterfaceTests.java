@@ -0,0 +1,287 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.junit.Test;
+
+import wybs.util.StdProject;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+import wyfs.util.Trie;
+import wyil.io.WyilFileReader;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilInterface;
+import wyil.util.InterfaceHash;
+
+/**
+ * Tests for WyIL interface files. The interface of each module of the Whiley
+ * standard library is constructed, written out and then read back in again.
+ * The interface must have the same hash as the module, and must retain every
+ * declaration of the module, less the bodies of its functions and methods.
+ * Finally, an interface file must not be used in place of a module which has
+ * since been rewritten.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class WyilInterfaceTests {
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	@Test public void Interface_1() throws IOException {
+		JarFile jar = new JarFile(wyrt());
+		try {
+			int count = 0;
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				if (entry.getName().endsWith(".wyil")) {
+					WyilFile original = new WyilFileReader(
+							jar.getInputStream(entry)).read();
+					WyilInterface stub = roundTrip(new WyilInterface(original));
+					assertEquals(entry.getName(), InterfaceHash.hash(original),
+							stub.hash());
+					check(original, stub.module());
+					count++;
+				}
+			}
+			assertTrue(count > 0);
+		} finally {
+			jar.close();
+		}
+	}
+
+	@Test public void Interface_2() throws IOException {
+		// Interfaces should be (much) smaller than the modules they summarise
+		JarFile jar = new JarFile(wyrt());
+		try {
+			JarEntry entry = jar.getJarEntry("whiley/lang/Math.wyil");
+			WyilFile original = new WyilFileReader(jar.getInputStream(entry))
+					.read();
+			ByteArrayOutputStream module = new ByteArrayOutputStream();
+			WyilFile.ContentType.write(module, original);
+			ByteArrayOutputStream stub = new ByteArrayOutputStream();
+			WyilInterface.ContentType.write(stub, new WyilInterface(original));
+			assertTrue(stub.size() < module.size());
+		} finally {
+			jar.close();
+		}
+	}
+
+	@Test public void Interface_3() throws IOException {
+		// An interface file is not used once its module has been rewritten
+		File dir = File.createTempFile("interface", "");
+		dir.delete();
+		dir.mkdirs();
+		JarFile jar = new JarFile(wyrt());
+		try {
+			JarEntry entry = jar.getJarEntry("whiley/lang/Math.wyil");
+			WyilFile original = new WyilFileReader(jar.getInputStream(entry))
+					.read();
+			write(new File(dir, "Math.wyil"), WyilFile.ContentType, original);
+			write(new File(dir, "Math.wyili"), WyilInterface.ContentType,
+					new WyilInterface(original));
+			WyilFile m = read(dir);
+			assertTrue(m.hasName("pow"));
+			assertNull(m.functionOrMethod("pow").get(0).cases().get(0).body());
+			// Now, rewrite the module without pow(), but not its interface
+			ArrayList<WyilFile.Block> blocks = new ArrayList<WyilFile.Block>();
+			for (WyilFile.Block b : original.blocks()) {
+				if (!(b instanceof WyilFile.Declaration)
+						|| !((WyilFile.Declaration) b).name().equals("pow")) {
+					blocks.add(b);
+				}
+			}
+			write(new File(dir, "Math.wyil"), WyilFile.ContentType,
+					new WyilFile(original.id(), original.filename(), blocks));
+			m = read(dir);
+			assertFalse(m.hasName("pow"));
+			assertNotNull(m.functionOrMethod("floor").get(0).cases().get(0)
+					.body());
+		} finally {
+			jar.close();
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Test public void Interface_4() throws IOException {
+		// An interface file written with its module records the module's
+		// modification time and length, so the module need not be read to
+		// check it.
+		File dir = File.createTempFile("interface", "");
+		dir.delete();
+		dir.mkdirs();
+		JarFile jar = new JarFile(wyrt());
+		try {
+			JarEntry entry = jar.getJarEntry("whiley/lang/Math.wyil");
+			WyilFile original = new WyilFileReader(jar.getInputStream(entry))
+					.read();
+			Path.Root root = new DirectoryRoot(dir, registry());
+			Path.Entry<WyilFile> target = root.create(Trie.fromString("Math"),
+					WyilFile.ContentType);
+			Path.Entry<WyilInterface> stub = root.create(
+					Trie.fromString("Math"), WyilInterface.ContentType);
+			target.write(original);
+			stub.write(new WyilInterface(original, target));
+			// NOTE: flush the interface first, which must write the module
+			// before recording its checksum.
+			stub.flush();
+			root.flush();
+			File file = new File(dir, "Math.wyil");
+			assertTrue(file.length() > 0);
+			assertNull(read(dir).functionOrMethod("pow").get(0).cases().get(0)
+					.body());
+			// Overwrite the module with garbage of the same length, leaving its
+			// modification time unchanged. The interface is still used, which
+			// shows the module was not read.
+			long modified = file.lastModified();
+			byte[] bytes = new byte[(int) file.length()];
+			FileInputStream input = new FileInputStream(file);
+			try {
+				new DataInputStream(input).readFully(bytes);
+			} finally {
+				input.close();
+			}
+			FileOutputStream output = new FileOutputStream(file);
+			output.write(new byte[bytes.length]);
+			output.close();
+			file.setLastModified(modified);
+			assertNull(read(dir).functionOrMethod("pow").get(0).cases().get(0)
+					.body());
+			// Restore the module with a different modification time (e.g. as
+			// though copied). The interface is still used, since the checksums
+			// match.
+			output = new FileOutputStream(file);
+			output.write(bytes);
+			output.close();
+			file.setLastModified(modified + 10000);
+			assertNull(read(dir).functionOrMethod("pow").get(0).cases().get(0)
+					.body());
+		} finally {
+			jar.close();
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Read the module <code>Math</code> from a fresh project consisting of the
+	 * given directory.
+	 *
+	 * @param dir
+	 * @return
+	 * @throws IOException
+	 */
+	private static WyilFile read(File dir) throws IOException {
+		Path.Root root = new DirectoryRoot(dir, registry());
+		StdProject project = new StdProject(Collections.singleton(root));
+		return WyilInterface.read(project, Trie.fromString("Math"));
+	}
+
+	private static Content.Registry registry() {
+		return new Content.Registry() {
+			public void associate(Path.Entry e) {
+				if (e.suffix().equals("wyil")) {
+					e.associate(WyilFile.ContentType, null);
+				} else if (e.suffix().equals("wyili")) {
+					e.associate(WyilInterface.ContentType, null);
+				}
+			}
+
+			public String suffix(Content.Type<?> t) {
+				return t == WyilFile.ContentType ? "wyil" : "wyili";
+			}
+		};
+	}
+
+	private static <T> void write(File file, Content.Type<T> ct, T contents)
+			throws IOException {
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			ct.write(output, contents);
+		} finally {
+			output.close();
+		}
+	}
+
+	private static void check(WyilFile original, WyilFile stub) {
+		assertEquals(original.id(), stub.id());
+		assertEquals(original.blocks().size(), stub.blocks().size());
+		for (WyilFile.TypeDeclaration td : original.types()) {
+			assertEquals(td.type(), stub.type(td.name()).type());
+		}
+		for (WyilFile.ConstantDeclaration cd : original.constants()) {
+			assertEquals(cd.constant(), stub.constant(cd.name()).constant());
+		}
+		for (WyilFile.FunctionOrMethodDeclaration fmd : original.functionOrMethods()) {
+			WyilFile.FunctionOrMethodDeclaration d = stub.functionOrMethod(
+					fmd.name(), fmd.type());
+			assertNotNull(fmd.name(), d);
+			assertEquals(fmd.modifiers(), d.modifiers());
+			assertEquals(fmd.cases().size(), d.cases().size());
+			for (WyilFile.Case c : d.cases()) {
+				assertNull(c.body());
+			}
+		}
+	}
+
+	private static WyilInterface roundTrip(WyilInterface stub)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WyilInterface.ContentType.write(bytes, stub);
+		return WyilInterface.ContentType.read(null, new ByteArrayInputStream(
+				bytes.toByteArray()));
+	}
+
+	private static File wyrt() {
+		File dir = new File(WYC_LIB_DIR);
+		for (String f : dir.list()) {
+			if (f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				return new File(dir, f);
+			}
+		}
+		throw new RuntimeException("Whiley Runtime not found");
+	}
+}
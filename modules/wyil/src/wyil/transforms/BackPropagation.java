@@ -89,8 +89,8 @@ import wyil.util.dfa.BackwardFlowAnalysis;
  *
  */
 public final class BackPropagation extends BackwardFlowAnalysis<BackPropagation.Env> implements Transform<WyilFile> {
-	private static final HashMap<Integer,Code.Block> afterInserts = new HashMap<Integer,Code.Block>();
-	private static final HashMap<Integer,Code.Block.Entry> rewrites = new HashMap<Integer,Code.Block.Entry>();
+	private final HashMap<Integer,Code.Block> afterInserts = new HashMap<Integer,Code.Block>();
+	private final HashMap<Integer,Code.Block.Entry> rewrites = new HashMap<Integer,Code.Block.Entry>();
 
 	/**
 	 * Determines whether constant propagation is enabled or not.
@@ -41,7 +41,7 @@ import wyil.util.*;
 import wyil.util.dfa.ForwardFlowAnalysis;
 
 public class ConstantPropagation extends ForwardFlowAnalysis<ConstantPropagation.Env> implements Transform<WyilFile> {
-	private static final HashMap<Integer,Rewrite> rewrites = new HashMap<Integer,Rewrite>();
+	private final HashMap<Integer,Rewrite> rewrites = new HashMap<Integer,Rewrite>();
 
 	/**
 	 * Determines whether constant propagation is enabled or not.
@@ -68,7 +68,7 @@ import wyil.util.dfa.*;
  *
  */
 public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAnalysis.Env> implements Transform<WyilFile> {
-	private static final HashMap<Integer,Code.Block.Entry> rewrites = new HashMap<Integer,Code.Block.Entry>();
+	private final HashMap<Integer,Code.Block.Entry> rewrites = new HashMap<Integer,Code.Block.Entry>();
 
 	/**
 	 * Determines whether constant propagation is enabled or not.
@@ -77,6 +77,13 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 
 	private boolean nops = getNops();
 
+	/**
+	 * When non-null, this records the set of registers which are live
+	 * immediately after each bytecode of the block being propagated. See
+	 * <code>liveAfter(Code.Block)</code>.
+	 */
+	private Env[] liveAfter;
+
 	public LiveVariablesAnalysis(Builder builder) {
 
 	}
@@ -179,8 +186,39 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 		return nbody;
 	}
 
+	/**
+	 * <p>
+	 * Determine the set of registers which are live immediately after each
+	 * bytecode in the given block, without rewriting it. This is used by
+	 * back-ends to identify the last use of a register, so that its value can
+	 * be moved rather than copied and its reference count released. Entries for
+	 * bytecodes which are not propagated through sequentially (e.g. labels and
+	 * loop headers) are <code>null</code>.
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> a register which may be read by an exception handler is
+	 * considered live after any bytecode which can throw within the
+	 * corresponding try block.
+	 * </p>
+	 *
+	 * @param body
+	 *            --- block to compute liveness information for.
+	 * @return
+	 */
+	public Env[] liveAfter(Code.Block body) {
+		block = body;
+		stores = new HashMap<String,Env>();
+		rewrites.clear();
+		liveAfter = new Env[body.size()];
+		propagate(0, body.size(), lastStore(), Collections.EMPTY_LIST);
+		Env[] result = liveAfter;
+		liveAfter = null;
+		return result;
+	}
+
 	@Override
 	public Env propagate(int index, Entry entry, Env environment) {
+		record(index,environment);
 		rewrites.put(index,null);
 		Code code = entry.code;
 		boolean isLive = true;
@@ -234,6 +272,7 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 	public Env propagate(int index, Codes.If code, Entry entry, Env trueEnv,
 			Env falseEnv) {
 		Env r = join(trueEnv, falseEnv);
+		record(index,r);
 
 		r.add(code.leftOperand);
 		r.add(code.rightOperand);
@@ -251,6 +290,7 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 	public Env propagate(int index,
 			Codes.IfIs code, Entry entry, Env trueEnv, Env falseEnv) {
 		Env r = join(trueEnv,falseEnv);
+		record(index,r);
 
 		r.add(code.operand);
 
@@ -265,6 +305,7 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 		for(int i=0;i!=code.branches.size();++i) {
 			environment = join(environment,environments.get(i));
 		}
+		record(index,environment);
 
 		environment.add(code.operand);
 
@@ -331,6 +372,24 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 		return environment;
 	}
 
+	@Override
+	protected Env mergeHandlers(int index, Code code, Env store,
+			List<Pair<Type, String>> handlers, Map<String, Env> stores) {
+		Env r = super.mergeHandlers(index, code, store, handlers, stores);
+		if (liveAfter != null && r != store && liveAfter[index] != null) {
+			// registers read by a handler remain live after this bytecode,
+			// since control may transfer to the handler from here.
+			liveAfter[index] = join(liveAfter[index], r);
+		}
+		return r;
+	}
+
+	private void record(int index, Env environment) {
+		if (liveAfter != null) {
+			liveAfter[index] = new Env(environment);
+		}
+	}
+
 	private Env join(Env env1, Env env2) {
 		// implements set union
 		Env r = new Env(env1);
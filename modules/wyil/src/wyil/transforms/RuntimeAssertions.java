@@ -433,13 +433,12 @@ public class RuntimeAssertions implements Transform<WyilFile> {
 
 	protected Pair<String,List<Code.Block>> findPrecondition(NameID name, Type.FunctionOrMethod fun,
 			SyntacticElement elem) throws Exception {
-		Path.Entry<WyilFile> e = builder.project().get(name.module(),WyilFile.ContentType);
-		if(e == null) {
+		WyilFile m = WyilInterface.read(builder.project(), name.module());
+		if(m == null) {
 			syntaxError(
 					errorMessage(ErrorMessages.RESOLUTION_ERROR, name.module()
 							.toString()), filename, elem);
 		}
-		WyilFile m = e.read();
 		WyilFile.FunctionOrMethodDeclaration method = m.functionOrMethod(name.name(),fun);
 
 		for(WyilFile.Case c : method.cases()) {
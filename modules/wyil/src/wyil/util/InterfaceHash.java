@@ -0,0 +1,186 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import wyil.lang.Code;
+import wyil.lang.Modifier;
+import wyil.lang.WyilFile;
+
+/**
+ * <p>
+ * Computes a hash of the <i>interface</i> of a WyIL file. The interface
+ * consists of everything in the file upon which another module might depend.
+ * This includes the name and modifiers of every declaration, since these
+ * determine how names are resolved. For visible (i.e. public or protected)
+ * declarations it also includes: the type of every type, function and method;
+ * the invariant of every type; the value of every constant; and, the pre- and
+ * post-conditions of every function and method. It does not include the
+ * bodies of functions and methods, nor any attributes (e.g. source locations).
+ * </p>
+ * <p>
+ * Thus, a module which depends upon a given WyIL file need only be recompiled
+ * if the interface hash of that file changes.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class InterfaceHash {
+
+	/**
+	 * Matches the labels generated by <code>CodeUtils.freshLabel()</code>.
+	 * These are numbered using a global counter and, hence, differ between
+	 * compilations of the same file.
+	 */
+	private static final Pattern LABEL = Pattern.compile("blklab[0-9]+");
+
+	private InterfaceHash() {}
+
+	/**
+	 * Compute the interface hash of a given WyIL file. This is a SHA-256 hash
+	 * of a textual description of the interface, written as a hexadecimal
+	 * string.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static String hash(WyilFile file) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(describe(file).getBytes("UTF-8"));
+			StringBuilder r = new StringBuilder();
+			for (byte b : hash) {
+				r.append(Character.forDigit((b >> 4) & 0xF, 16));
+				r.append(Character.forDigit(b & 0xF, 16));
+			}
+			return r.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Construct a textual description of the interface of a given WyIL file.
+	 * Declarations are described in order of appearance.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static String describe(WyilFile file) {
+		StringBuilder out = new StringBuilder();
+		for (WyilFile.Block b : file.blocks()) {
+			if (!(b instanceof WyilFile.Declaration)) {
+				continue;
+			}
+			WyilFile.Declaration d = (WyilFile.Declaration) b;
+			boolean visible = d.hasModifier(Modifier.PUBLIC)
+					|| d.hasModifier(Modifier.PROTECTED);
+			if (d instanceof WyilFile.TypeDeclaration) {
+				out.append("type ");
+			} else if (d instanceof WyilFile.ConstantDeclaration) {
+				out.append("constant ");
+			} else if (d instanceof WyilFile.FunctionOrMethodDeclaration) {
+				out.append("function ");
+			}
+			out.append(d.name());
+			out.append(' ');
+			out.append(d.modifiers());
+			out.append('\n');
+			if (!visible) {
+				continue;
+			}
+			if (d instanceof WyilFile.TypeDeclaration) {
+				WyilFile.TypeDeclaration td = (WyilFile.TypeDeclaration) d;
+				out.append(td.type());
+				out.append('\n');
+				describe(td.invariant(), out);
+			} else if (d instanceof WyilFile.ConstantDeclaration) {
+				WyilFile.ConstantDeclaration cd = (WyilFile.ConstantDeclaration) d;
+				out.append(cd.constant());
+				out.append('\n');
+			} else if (d instanceof WyilFile.FunctionOrMethodDeclaration) {
+				WyilFile.FunctionOrMethodDeclaration fmd = (WyilFile.FunctionOrMethodDeclaration) d;
+				out.append(fmd.type());
+				out.append('\n');
+				for (WyilFile.Case c : fmd.cases()) {
+					out.append("requires\n");
+					describe(c.precondition(), out);
+					out.append("ensures\n");
+					describe(c.postcondition(), out);
+				}
+			}
+		}
+		return out.toString();
+	}
+
+	private static void describe(List<Code.Block> blocks, StringBuilder out) {
+		for (Code.Block block : blocks) {
+			describe(block, out);
+		}
+	}
+
+	/**
+	 * Describe a given block of code, excluding any attributes. Labels are
+	 * renumbered in order of their first occurrence, so that the description
+	 * does not depend upon the order in which files were compiled.
+	 *
+	 * @param block
+	 *            --- block to describe, which may be null.
+	 * @param out
+	 */
+	private static void describe(Code.Block block, StringBuilder out) {
+		if (block == null) {
+			return;
+		}
+		HashMap<String, String> labels = new HashMap<String, String>();
+		for (Code.Block.Entry e : block) {
+			Matcher m = LABEL.matcher(e.code.toString());
+			StringBuffer line = new StringBuffer();
+			while (m.find()) {
+				String label = labels.get(m.group());
+				if (label == null) {
+					label = "label" + labels.size();
+					labels.put(m.group(), label);
+				}
+				m.appendReplacement(line, label);
+			}
+			m.appendTail(line);
+			out.append(line);
+			out.append('\n');
+		}
+		out.append('\n');
+	}
+}
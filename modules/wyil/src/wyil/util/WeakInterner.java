@@ -0,0 +1,176 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A table for implementing the fly-weight pattern. That is, it maps every
+ * object to a canonical instance which is equal to it, such that equal objects
+ * can subsequently be compared by identity. The table may be safely accessed
+ * by multiple threads.
+ * </p>
+ *
+ * <p>
+ * Instances are held in the table using weak references. Thus, an instance
+ * which is no longer used elsewhere can be reclaimed by the garbage collector,
+ * after which its entry is removed from the table. This is important for
+ * long-running processes, where the table would otherwise grow without bound.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class WeakInterner<T> {
+	private final ConcurrentHashMap<Entry<T>, Entry<T>> table = new ConcurrentHashMap<Entry<T>, Entry<T>>();
+	private final ReferenceQueue<T> queue = new ReferenceQueue<T>();
+	private final AtomicLong numHits = new AtomicLong();
+	private final AtomicLong numMisses = new AtomicLong();
+	private final AtomicLong numReclaimed = new AtomicLong();
+
+	/**
+	 * Get the canonical instance for a given object. If there is no instance
+	 * equal to the object in the table, then the object itself becomes the
+	 * canonical instance.
+	 *
+	 * @param object
+	 * @return
+	 */
+	public T intern(T object) {
+		expunge();
+		Entry<T> entry = new Entry<T>(object, queue);
+		while (true) {
+			Entry<T> existing = table.putIfAbsent(entry, entry);
+			if (existing == null) {
+				numMisses.incrementAndGet();
+				return object;
+			}
+			T instance = existing.get();
+			if (instance != null) {
+				numHits.incrementAndGet();
+				return instance;
+			}
+			// The canonical instance has been reclaimed, but its entry has not
+			// yet been removed. Therefore, remove it and try again.
+			table.remove(existing, existing);
+		}
+	}
+
+	/**
+	 * Get the number of entries in the table. This may include some entries
+	 * whose instances have been reclaimed, but not yet removed.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return table.size();
+	}
+
+	/**
+	 * Get the number of times an existing instance was returned.
+	 *
+	 * @return
+	 */
+	public long numHits() {
+		return numHits.get();
+	}
+
+	/**
+	 * Get the number of times a new instance was added.
+	 *
+	 * @return
+	 */
+	public long numMisses() {
+		return numMisses.get();
+	}
+
+	/**
+	 * Get the number of entries removed because their instances were
+	 * reclaimed.
+	 *
+	 * @return
+	 */
+	public long numReclaimed() {
+		return numReclaimed.get();
+	}
+
+	public String toString() {
+		return size() + " entries, " + numHits() + " hits, " + numMisses()
+				+ " misses, " + numReclaimed() + " reclaimed";
+	}
+
+	/**
+	 * Remove any entries whose instances have been reclaimed.
+	 */
+	private void expunge() {
+		Object ref;
+		while ((ref = queue.poll()) != null) {
+			if (table.remove(ref) != null) {
+				numReclaimed.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * An entry in the table. The hash code of the instance is recorded, so
+	 * that an entry can still be located after its instance is reclaimed. Once
+	 * this happens, the entry is only equal to itself.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Entry<T> extends WeakReference<T> {
+		private final int hashCode;
+
+		public Entry(T object, ReferenceQueue<T> queue) {
+			super(object, queue);
+			this.hashCode = object.hashCode();
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			} else if (o instanceof Entry) {
+				Entry<?> e = (Entry<?>) o;
+				if (hashCode != e.hashCode) {
+					return false;
+				}
+				Object t1 = get();
+				Object t2 = e.get();
+				return t1 != null && t2 != null && t1.equals(t2);
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.util.type;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import wyil.lang.Type;
+
+/**
+ * <p>
+ * A bounded table for memoising the results of binary operations over types,
+ * such as subtyping and intersection. These operations are expensive, since
+ * they operate over the underlying automata, and yet the same pairs of types
+ * are queried over and over again during compilation. Results are looked up
+ * using type equality which, since types are kept in a canonical form, is
+ * much cheaper than recomputing them.
+ * </p>
+ *
+ * <p>
+ * The table holds at most a fixed number of results, and the least recently
+ * used results are discarded first. The table may be safely accessed by
+ * multiple threads. The number of hits and misses is recorded, so that the
+ * effectiveness of the table can be reported.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class TypeMemo<T> {
+	private final String name;
+	private final LinkedHashMap<Key, T> table;
+	private long numHits;
+	private long numMisses;
+
+	/**
+	 * Construct a memo table.
+	 *
+	 * @param name
+	 *            --- name of the operation being memoised (used for
+	 *            reporting).
+	 * @param capacity
+	 *            --- maximum number of results held in the table.
+	 */
+	public TypeMemo(String name, final int capacity) {
+		this.name = name;
+		this.table = new LinkedHashMap<Key, T>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, T> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Look up the result of the operation for a given pair of types. If no
+	 * such result has been recorded, then <code>null</code> is returned.
+	 *
+	 * @param t1
+	 * @param t2
+	 * @return
+	 */
+	public synchronized T get(Type t1, Type t2) {
+		T result = table.get(new Key(t1, t2));
+		if (result == null) {
+			numMisses++;
+		} else {
+			numHits++;
+		}
+		return result;
+	}
+
+	/**
+	 * Record the result of the operation for a given pair of types.
+	 *
+	 * @param t1
+	 * @param t2
+	 * @param result
+	 */
+	public synchronized void put(Type t1, Type t2, T result) {
+		table.put(new Key(t1, t2), result);
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public synchronized int size() {
+		return table.size();
+	}
+
+	public synchronized long numHits() {
+		return numHits;
+	}
+
+	public synchronized long numMisses() {
+		return numMisses;
+	}
+
+	/**
+	 * Determine the proportion of lookups which were answered from the table.
+	 *
+	 * @return
+	 */
+	public synchronized double hitRate() {
+		long total = numHits + numMisses;
+		return total == 0 ? 0 : (double) numHits / total;
+	}
+
+	/**
+	 * Discard all recorded results and reset the hit/miss counts.
+	 */
+	public synchronized void clear() {
+		table.clear();
+		numHits = 0;
+		numMisses = 0;
+	}
+
+	public synchronized String toString() {
+		return name + ": " + numHits + " hits, " + numMisses + " misses ("
+				+ Math.round(hitRate() * 100) + "%)";
+	}
+
+	/**
+	 * A pair of types used to index the table. The hash code is computed once,
+	 * since computing it for a compound type requires traversing its
+	 * automaton.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Key {
+		private final Type t1;
+		private final Type t2;
+		private final int hashCode;
+
+		public Key(Type t1, Type t2) {
+			this.t1 = t1;
+			this.t2 = t2;
+			this.hashCode = t1.hashCode() * 31 + t2.hashCode();
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return hashCode == k.hashCode && t1.equals(k.t1)
+						&& t2.equals(k.t2);
+			}
+			return false;
+		}
+	}
+}
@@ -36,12 +36,15 @@ import wycc.lang.NameID;
 import wycc.lang.SyntaxError;
 import wycc.util.Logger;
 import wycc.util.Pair;
+import wycc.util.Profiler;
 import static wycc.lang.SyntaxError.*;
 import wyautl.util.BigRational;
 import wyfs.io.BinaryOutputStream;
 import wyfs.lang.Path;
+import wyfs.util.Trie;
 import wyil.lang.*;
 import wyil.lang.Constant;
+import wyil.transforms.LiveVariablesAnalysis;
 import wyjc.util.WyjcBuildTask;
 import jasm.attributes.Code.Handler;
 import jasm.attributes.LineNumberTable;
@@ -64,6 +67,22 @@ import static jasm.lang.JvmTypes.*;
 public class Wyil2JavaBuilder implements Builder {
 	private static int CLASS_VERSION = 49;
 
+	/**
+	 * The maximum length of the name of a generated record class. Records
+	 * with longer field names use the general <code>WyRecord</code>
+	 * representation, since otherwise the class file name may exceed the
+	 * limits of the underlying file system.
+	 */
+	private static final int MAX_RECORD_CLASS_NAME = 200;
+
+	/**
+	 * The minimum number of branches in a switch on non-integer constants
+	 * (e.g. strings or records) for which a hashed dispatch is used. Smaller
+	 * switches are translated into a sequence of equality tests, since these
+	 * are cheaper than a hash table lookup when there are only a few of them.
+	 */
+	private static final int HASHED_SWITCH_THRESHOLD = 4;
+
 	/**
 	 * The master project for identifying all resources available to the
 	 * builder. This includes all modules declared in the project being verified
@@ -79,6 +98,38 @@ public class Wyil2JavaBuilder implements Builder {
 	protected String filename;
 	protected JvmType.Clazz owner;
 
+	/**
+	 * The set of registers which are live immediately after the bytecode
+	 * currently being translated. This is used to identify the last use of a
+	 * register, so that its value can be moved rather than copied and, hence,
+	 * subsequently updated in place. When <code>null</code>, all registers are
+	 * conservatively assumed to be live.
+	 */
+	private LiveVariablesAnalysis.Env liveAfter;
+
+	/**
+	 * Maps the target label of each <code>forall</code> loop to the slot
+	 * holding the collection being iterated, whose reference is released when
+	 * the loop exits.
+	 */
+	private HashMap<String,Integer> iterations = new HashMap<String,Integer>();
+
+	/**
+	 * Determines whether or not generated code constructs persistent lists,
+	 * sets and maps. These share structure when cloned, such that updating a
+	 * collection which is not uniquely owned costs <code>O(log n)</code>
+	 * rather than <code>O(n)</code>. However, they are slower to access and to
+	 * update in place.
+	 */
+	private boolean persistentCollections = false;
+
+	/**
+	 * The generated record classes used by the module currently being
+	 * translated, mapping the name of each class to its (sorted) field names.
+	 * See <code>recordClass()</code> for more details.
+	 */
+	private TreeMap<String,List<String>> records = new TreeMap<String,List<String>>();
+
 	public Wyil2JavaBuilder(Build.Project project) {
 		this.project = project;
 	}
@@ -87,6 +138,10 @@ public class Wyil2JavaBuilder implements Builder {
 		this.logger = logger;
 	}
 
+	public void setPersistentCollections(boolean flag) {
+		this.persistentCollections = flag;
+	}
+
 	public Build.Project project() {
 		return project;
 	}
@@ -96,11 +151,13 @@ public class Wyil2JavaBuilder implements Builder {
 		Runtime runtime = Runtime.getRuntime();
 		long start = System.currentTimeMillis();
 		long memory = runtime.freeMemory();
+		Profiler.Timer phase = Profiler.start("phase", "Wyil => Java");
 
 		// ========================================================================
 		// Translate files
 		// ========================================================================
 		HashSet<Path.Entry<?>> generatedFiles = new HashSet<Path.Entry<?>>();
+		HashSet<Pair<Path.Root,String>> generatedRecords = new HashSet<Pair<Path.Root,String>>();
 
 		for(Pair<Path.Entry<?>,Path.Root> p : delta) {
 			Path.Root dst = p.second();
@@ -110,7 +167,10 @@ public class Wyil2JavaBuilder implements Builder {
 
 			// Translate WyilFile into JVM ClassFile
 			ArrayList<ClassFile> lambdas = new ArrayList<ClassFile>();
+			records.clear();
+			Profiler.Timer timer = Profiler.start("module", sf.id().toString());
 			ClassFile contents = build(sf.read(), lambdas);
+			timer.stop();
 
 			// FIXME: deadCode elimination is currently unsafe because the
 			// LineNumberTable and Exceptions attributes do not deal with rewrites
@@ -134,12 +194,28 @@ public class Wyil2JavaBuilder implements Builder {
 				lf.write(lambdas.get(i));
 				generatedFiles.add(lf);
 			}
+
+			// Finally, write out any record classes used by the main class
+			// which have not already been written. These are shared by all
+			// modules, and hence do not belong to any one package.
+			for (Map.Entry<String, List<String>> e : records.entrySet()) {
+				String name = e.getKey();
+				if (generatedRecords.add(new Pair<Path.Root, String>(dst, name))) {
+					Path.ID id = Trie.ROOT.append("wyjc").append("records")
+							.append(name);
+					Path.Entry<ClassFile> rf = dst.create(id,
+							WyjcBuildTask.ContentType);
+					rf.write(buildRecordClass(name, e.getValue()));
+					generatedFiles.add(rf);
+				}
+			}
 		}
 
 		// ========================================================================
 		// Done
 		// ========================================================================
 
+		phase.stop();
 		long endTime = System.currentTimeMillis();
 		logger.logTimedMessage("Wyil => Java: compiled " + delta.size() + " file(s)",
 				endTime - start, memory - runtime.freeMemory());
@@ -195,14 +271,17 @@ public class Wyil2JavaBuilder implements Builder {
 		while(done.size() != constants.size()) {
 			// We have to clone the constants map, since it may be expanded as a
 			// result of buildCoercion(). This will occur if the coercion
-			// constructed requires a helper coercion that was not in the
-			// original constants map.
+			// constructed requires a helper coercion (or type test) that was
+			// not in the original constants map.
 			HashMap<JvmConstant,Integer> nconstants = new HashMap<JvmConstant,Integer>(constants);
 			for(Map.Entry<JvmConstant,Integer> entry : constants.entrySet()) {
 				JvmConstant e = entry.getKey();
 				if(!done.contains(e) && e instanceof JvmCoercion) {
 					JvmCoercion c = (JvmCoercion) e;
 					buildCoercion(c.from,c.to,entry.getValue(),nconstants,cf);
+				} else if(!done.contains(e) && e instanceof JvmTypeTest) {
+					JvmTypeTest t = (JvmTypeTest) e;
+					buildTypeTest(t.test,entry.getValue(),nconstants,cf);
 				}
 				done.add(e);
 			}
@@ -236,6 +315,41 @@ public class Wyil2JavaBuilder implements Builder {
 				// Now, create code to intialise this field
 				translate(constant,0,lambdas,bytecodes);
 				bytecodes.add(new Bytecode.PutField(owner, name, type, Bytecode.FieldMode.STATIC));
+			} else if(c instanceof JvmSwitchTable) {
+				nvalues++;
+				ArrayList<Constant> values = ((JvmSwitchTable)c).values;
+				int index = entry.getValue();
+
+				// First, create the static final field that will hold this table
+				String name = "switch$" + index;
+				ArrayList<Modifier> fmods = new ArrayList<Modifier>();
+				fmods.add(Modifier.ACC_PRIVATE);
+				fmods.add(Modifier.ACC_STATIC);
+				fmods.add(Modifier.ACC_FINAL);
+				ClassFile.Field field = new ClassFile.Field(name, JAVA_UTIL_HASHMAP, fmods);
+				cf.fields().add(field);
+
+				// Now, create code to map each constant to its branch index
+				JvmType.Function ftype = new JvmType.Function(T_VOID);
+				bytecodes.add(new Bytecode.New(JAVA_UTIL_HASHMAP));
+				bytecodes.add(new Bytecode.Dup(JAVA_UTIL_HASHMAP));
+				bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_HASHMAP, "<init>", ftype,
+						Bytecode.InvokeMode.SPECIAL));
+				for(int i=0;i!=values.size();++i) {
+					Constant constant = values.get(i);
+					bytecodes.add(new Bytecode.Dup(JAVA_UTIL_HASHMAP));
+					translate(constant,0,lambdas,bytecodes);
+					addWriteConversion(constant.type(),bytecodes);
+					bytecodes.add(new Bytecode.LoadConst(i));
+					ftype = new JvmType.Function(JAVA_LANG_INTEGER,T_INT);
+					bytecodes.add(new Bytecode.Invoke(JAVA_LANG_INTEGER, "valueOf", ftype,
+							Bytecode.InvokeMode.STATIC));
+					ftype = new JvmType.Function(JAVA_LANG_OBJECT,JAVA_LANG_OBJECT,JAVA_LANG_OBJECT);
+					bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_HASHMAP, "put", ftype,
+							Bytecode.InvokeMode.VIRTUAL));
+					bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
+				}
+				bytecodes.add(new Bytecode.PutField(owner, name, JAVA_UTIL_HASHMAP, Bytecode.FieldMode.STATIC));
 			}
 		}
 
@@ -387,6 +501,11 @@ public class Wyil2JavaBuilder implements Builder {
 
 		for (Type param : ft.params()) {
 			bytecodes.add(new Bytecode.Load(slot++, convertType(param)));
+			if (!method.hasModifier(wyil.lang.Modifier.NATIVE)) {
+				// values passed in from Java may still be referenced by the
+				// caller, hence they cannot be updated in place.
+				addIncRefs(param, bytecodes);
+			}
 		}
 
 		if (method.hasModifier(wyil.lang.Modifier.NATIVE)) {
@@ -441,14 +560,18 @@ public class Wyil2JavaBuilder implements Builder {
 			ArrayList<Bytecode> bytecodes) {
 
 		ArrayList<UnresolvedHandler> unresolvedHandlers = new ArrayList<UnresolvedHandler>();
-		for (Code.Block.Entry s : blk) {
+		LiveVariablesAnalysis.Env[] liveness = new LiveVariablesAnalysis(this).liveAfter(blk);
+		for (int i = 0; i != blk.size(); ++i) {
+			Code.Block.Entry s = blk.get(i);
 			Attribute.Source loc = s.attribute(Attribute.Source.class);
 			if(loc != null) {
 				lineNumbers.add(new LineNumberTable.Entry(bytecodes.size(),loc.line));
 			}
+			liveAfter = liveness[i];
 			freeSlot = translate(s, freeSlot, constants, lambdas,
 					unresolvedHandlers, bytecodes);
 		}
+		liveAfter = null;
 
 		if (unresolvedHandlers.size() > 0) {
 			HashMap<String, Integer> labels = new HashMap<String, Integer>();
@@ -555,7 +678,7 @@ public class Wyil2JavaBuilder implements Builder {
 			} else if(code instanceof Codes.SubString) {
 				 translate((Codes.SubString)code,entry,freeSlot,bytecodes);
 			} else if(code instanceof Codes.Switch) {
-				 translate((Codes.Switch)code,entry,freeSlot,lambdas,bytecodes);
+				 translate((Codes.Switch)code,entry,freeSlot,constants,lambdas,bytecodes);
 			} else if(code instanceof Codes.TryCatch) {
 				 translate((Codes.TryCatch)code,entry,freeSlot,handlers,constants,bytecodes);
 			} else if(code instanceof Codes.NewObject) {
@@ -600,20 +723,34 @@ public class Wyil2JavaBuilder implements Builder {
 			HashMap<JvmConstant, Integer> constants, ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Load(c.operand(0), convertType(c.type())));
 		addCoercion(c.type(), c.result, freeSlot, constants, bytecodes);
+		// the coercion may return its operand unchanged
+		addOwnership(c.result, 0, c.operands(), bytecodes);
 		bytecodes.add(new Bytecode.Store(c.target(), convertType(c.result)));
 	}
 
 	private void translate(Codes.Update code, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Load(code.target(), convertType(code.type())));
+		// The target register is overwritten by this update and, hence, its
+		// value is moved unless it is also read by another operand.
+		for (int operand : code.operands()) {
+			if (operand == code.target()) {
+				addIncRefs(code.type(), bytecodes);
+				break;
+			}
+		}
 		translateUpdate(code.iterator(), code, bytecodes);
 		bytecodes.add(new Bytecode.Store(code.target(),
 				convertType(code.afterType)));
+		addRelease(code.result(), code.rhs(), code.target(), bytecodes);
 	}
 
 	/**
 	 * Iterate down the chain of updates reading values out, updating them, and
-	 * writing them back.
+	 * writing them back. Values read out using <code>internal_get</code> are
+	 * moved (rather than copied) back using <code>internal_set</code> or
+	 * <code>internal_put</code>, so that uniquely owned values are updated in
+	 * place.
 	 *
 	 * @param iterator
 	 *            --- update iterator.
@@ -625,9 +762,10 @@ public class Wyil2JavaBuilder implements Builder {
 	private void translateUpdate(Iterator<Codes.LVal> iterator, Codes.Update code,
 			ArrayList<Bytecode> bytecodes) {
 		Codes.LVal lv = iterator.next();
+		boolean nested = iterator.hasNext();
 		if(lv instanceof Codes.ListLVal) {
 			Codes.ListLVal l = (Codes.ListLVal) lv;
-			if(iterator.hasNext()) {
+			if(nested) {
 				// In this case, we're partially updating the element at a
 				// given position.
 				bytecodes.add(new Bytecode.Dup(WHILEYLIST));
@@ -649,7 +787,8 @@ public class Wyil2JavaBuilder implements Builder {
 
 			JvmType.Function ftype = new JvmType.Function(WHILEYLIST,
 					WHILEYLIST,WHILEYINT,JAVA_LANG_OBJECT);
-			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "set", ftype,
+			bytecodes.add(new Bytecode.Invoke(WHILEYLIST,
+					nested ? "internal_set" : "set", ftype,
 					Bytecode.InvokeMode.STATIC));
 
 		} else if(lv instanceof Codes.StringLVal) {
@@ -666,7 +805,7 @@ public class Wyil2JavaBuilder implements Builder {
 			Codes.MapLVal l = (Codes.MapLVal) lv;
 			JvmType keyType = convertType(l.rawType().key());
 			JvmType valueType = convertType(l.rawType().value());
-			if(iterator.hasNext()) {
+			if(nested) {
 				// In this case, we're partially updating the element at a
 				// given position.
 				bytecodes.add(new Bytecode.Dup(WHILEYMAP));
@@ -690,14 +829,15 @@ public class Wyil2JavaBuilder implements Builder {
 
 			JvmType.Function ftype = new JvmType.Function(WHILEYMAP,
 					WHILEYMAP,JAVA_LANG_OBJECT,JAVA_LANG_OBJECT);
-			bytecodes.add(new Bytecode.Invoke(WHILEYMAP, "put", ftype,
+			bytecodes.add(new Bytecode.Invoke(WHILEYMAP,
+					nested ? "internal_put" : "put", ftype,
 					Bytecode.InvokeMode.STATIC));
 
 		} else if(lv instanceof Codes.RecordLVal) {
 			Codes.RecordLVal l = (Codes.RecordLVal) lv;
 			Type.EffectiveRecord type = l.rawType();
 
-			if (iterator.hasNext()) {
+			if (nested) {
 				bytecodes.add(new Bytecode.Dup(WHILEYRECORD));
 				bytecodes.add(new Bytecode.LoadConst(l.field));
 				JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
@@ -716,7 +856,9 @@ public class Wyil2JavaBuilder implements Builder {
 			}
 
 			JvmType.Function ftype = new JvmType.Function(WHILEYRECORD,WHILEYRECORD,JAVA_LANG_STRING,JAVA_LANG_OBJECT);
-			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"put",ftype,Bytecode.InvokeMode.STATIC));
+			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,
+					nested ? "internal_put" : "put", ftype,
+					Bytecode.InvokeMode.STATIC));
 		} else {
 			Codes.ReferenceLVal l = (Codes.ReferenceLVal) lv;
 			bytecodes.add(new Bytecode.Dup(WHILEYOBJECT));
@@ -747,6 +889,7 @@ public class Wyil2JavaBuilder implements Builder {
 		bytecodes.add(new Bytecode.New(WHILEYEXCEPTION));
 		bytecodes.add(new Bytecode.Dup(WHILEYEXCEPTION));
 		bytecodes.add(new Bytecode.Load(c.operand,convertType(c.type)));
+		addOwnership(c.type, 0, new int[] { c.operand }, bytecodes);
 		JvmType.Function ftype = new JvmType.Function(T_VOID,JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(WHILEYEXCEPTION, "<init>", ftype,
 				Bytecode.InvokeMode.SPECIAL));
@@ -764,24 +907,33 @@ public class Wyil2JavaBuilder implements Builder {
 		addReadConversion(c.type().elements().get(c.index), bytecodes);
 		bytecodes.add(new Bytecode.Store(c.target(),convertType(c.type()
 				.element(c.index))));
+		addRelease(c.operand(0), (Type) c.type(), c.target(), bytecodes);
 	}
 
 	private void translate(Codes.Switch c, Code.Block.Entry entry, int freeSlot,
+			HashMap<JvmConstant, Integer> constants,
 			ArrayList<ClassFile> lambdas, ArrayList<Bytecode> bytecodes) {
 
 		ArrayList<jasm.util.Pair<Integer, String>> cases = new ArrayList();
 		boolean canUseSwitchBytecode = true;
 		for (Pair<Constant, String> p : c.branches) {
-			// first, check whether the switch value is indeed an integer.
+			// first, check whether the switch value is indeed an integer (or
+			// a char or byte, when switching on one).
 			Constant v = (Constant) p.first();
-			if (!(v instanceof Constant.Integer)) {
-				canUseSwitchBytecode = false;
-				break;
-			}
-			// second, check whether integer value can fit into a Java int
-			Constant.Integer vi = (Constant.Integer) v;
-			int iv = vi.value.intValue();
-			if (!BigInteger.valueOf(iv).equals(vi.value)) {
+			int iv;
+			if (v instanceof Constant.Char && c.type instanceof Type.Char) {
+				iv = ((Constant.Char) v).value;
+			} else if (v instanceof Constant.Byte && c.type instanceof Type.Byte) {
+				iv = ((Constant.Byte) v).value;
+			} else if (v instanceof Constant.Integer) {
+				// second, check whether integer value can fit into a Java int
+				Constant.Integer vi = (Constant.Integer) v;
+				iv = vi.value.intValue();
+				if (!BigInteger.valueOf(iv).equals(vi.value)) {
+					canUseSwitchBytecode = false;
+					break;
+				}
+			} else {
 				canUseSwitchBytecode = false;
 				break;
 			}
@@ -790,10 +942,43 @@ public class Wyil2JavaBuilder implements Builder {
 		}
 
 		if (canUseSwitchBytecode) {
-			JvmType.Function ftype = new JvmType.Function(T_INT);
 			bytecodes.add(new Bytecode.Load(c.operand,convertType((Type) c.type)));
-			bytecodes.add(new Bytecode.Invoke(WHILEYINT, "intValue", ftype,
+			if (!(c.type instanceof Type.Char || c.type instanceof Type.Byte)) {
+				JvmType.Function ftype = new JvmType.Function(T_INT);
+				bytecodes.add(new Bytecode.Invoke(WHILEYINT, "intValue", ftype,
+						Bytecode.InvokeMode.VIRTUAL));
+			}
+			bytecodes.add(new Bytecode.Switch(c.defaultTarget, cases));
+		} else if (c.branches.size() >= HASHED_SWITCH_THRESHOLD) {
+			// In this case, we look up the index of the matching branch in a
+			// table of constants, and then switch on that instead.
+			ArrayList<Constant> values = new ArrayList<Constant>();
+			cases.clear();
+			for (Pair<Constant, String> p : c.branches) {
+				// NOTE: the first branch for a given constant takes precedence
+				if (!values.contains(p.first())) {
+					cases.add(new jasm.util.Pair(values.size(), p.second()));
+					values.add(p.first());
+				}
+			}
+			int id = JvmSwitchTable.get(values, constants);
+			String name = "switch$" + id;
+			bytecodes.add(new Bytecode.GetField(owner, name, JAVA_UTIL_HASHMAP,
+					Bytecode.FieldMode.STATIC));
+			bytecodes.add(new Bytecode.Load(c.operand, convertType(c.type)));
+			addWriteConversion(c.type, bytecodes);
+			JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
+					JAVA_LANG_OBJECT);
+			bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_HASHMAP, "get", ftype,
 					Bytecode.InvokeMode.VIRTUAL));
+			bytecodes.add(new Bytecode.Store(freeSlot, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.Load(freeSlot, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.If(Bytecode.IfMode.NULL, c.defaultTarget));
+			bytecodes.add(new Bytecode.Load(freeSlot, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.CheckCast(JAVA_LANG_INTEGER));
+			ftype = new JvmType.Function(T_INT);
+			bytecodes.add(new Bytecode.Invoke(JAVA_LANG_INTEGER, "intValue",
+					ftype, Bytecode.InvokeMode.VIRTUAL));
 			bytecodes.add(new Bytecode.Switch(c.defaultTarget, cases));
 		} else {
 			// ok, in this case we have to fall back to series of the if
@@ -1056,9 +1241,17 @@ public class Wyil2JavaBuilder implements Builder {
 		if (test instanceof Type.Null) {
 			// Easy case
 			bytecodes.add(new Bytecode.If(Bytecode.IfMode.NULL, trueTarget));
+		} else if(test instanceof Type.Any) {
+			bytecodes.add(new Bytecode.Pop(convertType(src)));
+			bytecodes.add(new Bytecode.Goto(trueTarget));
+		} else if(test instanceof Type.Void) {
+			bytecodes.add(new Bytecode.Pop(convertType(src)));
 		} else if(test instanceof Type.Bool) {
 			bytecodes.add(new Bytecode.InstanceOf(JAVA_LANG_BOOLEAN));
 			bytecodes.add(new Bytecode.If(Bytecode.IfMode.NE, trueTarget));
+		} else if(test instanceof Type.Byte) {
+			bytecodes.add(new Bytecode.InstanceOf(JAVA_LANG_BYTE));
+			bytecodes.add(new Bytecode.If(Bytecode.IfMode.NE, trueTarget));
 		} else if(test instanceof Type.Char) {
 			bytecodes.add(new Bytecode.InstanceOf(JAVA_LANG_CHARACTER));
 			bytecodes.add(new Bytecode.If(Bytecode.IfMode.NE, trueTarget));
@@ -1071,7 +1264,14 @@ public class Wyil2JavaBuilder implements Builder {
 		} else if(test instanceof Type.Strung) {
 			bytecodes.add(new Bytecode.InstanceOf(JAVA_LANG_STRING));
 			bytecodes.add(new Bytecode.If(Bytecode.IfMode.NE, trueTarget));
-
+		} else if(convertType(src) instanceof JvmType.Reference) {
+			// Use a dedicated test method (see buildTypeTest())
+			int id = JvmTypeTest.get(test,constants);
+			String name = "typeTest$" + id;
+			JvmType.Function ftype = new JvmType.Function(T_BOOL,JAVA_LANG_OBJECT);
+			bytecodes.add(new Bytecode.Invoke(owner, name, ftype,
+					Bytecode.InvokeMode.STATIC));
+			bytecodes.add(new Bytecode.If(Bytecode.IfMode.NE, trueTarget));
 		} else {
 			// Fall-back to an external (recursive) check
 			Constant constant = Constant.V_TYPE(test);
@@ -1096,35 +1296,54 @@ public class Wyil2JavaBuilder implements Builder {
 			int freeSlot, ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Goto(end.label + "$head"));
 		bytecodes.add(new Bytecode.Label(end.label));
+		Integer slot = iterations.remove(end.label);
+		if(slot != null) {
+			// release the collection iterated by a forall loop
+			bytecodes.add(new Bytecode.Load(slot, JAVA_LANG_OBJECT));
+			JvmType.Function ftype = new JvmType.Function(T_VOID, JAVA_LANG_OBJECT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "decRefs", ftype,
+					Bytecode.InvokeMode.STATIC));
+		}
 	}
 
 	private int translate(Codes.ForAll c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 
 		Type elementType = c.type.element();
+		int iterSlot = freeSlot++;
 
 		bytecodes.add(new Bytecode.Load(c.sourceOperand, convertType((Type) c.type)));
+		if(isRefCounted((Type) c.type)) {
+			// The collection must not be updated in place whilst it is being
+			// iterated, so it is held until the loop exits.
+			addIncRefs((Type) c.type, bytecodes);
+			bytecodes.add(new Bytecode.Dup(convertType((Type) c.type)));
+			bytecodes.add(new Bytecode.Store(freeSlot, convertType((Type) c.type)));
+			iterations.put(c.target, freeSlot++);
+		}
 		JvmType.Function ftype = new JvmType.Function(JAVA_UTIL_ITERATOR,JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(WHILEYCOLLECTION, "iterator", ftype, Bytecode.InvokeMode.STATIC));
 		ftype = new JvmType.Function(JAVA_UTIL_ITERATOR);
-		bytecodes.add(new Bytecode.Store(freeSlot, JAVA_UTIL_ITERATOR));
+		bytecodes.add(new Bytecode.Store(iterSlot, JAVA_UTIL_ITERATOR));
 		bytecodes.add(new Bytecode.Label(c.target + "$head"));
 		ftype = new JvmType.Function(T_BOOL);
-		bytecodes.add(new Bytecode.Load(freeSlot, JAVA_UTIL_ITERATOR));
+		bytecodes.add(new Bytecode.Load(iterSlot, JAVA_UTIL_ITERATOR));
 		bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_ITERATOR, "hasNext", ftype,
 				Bytecode.InvokeMode.INTERFACE));
 		bytecodes.add(new Bytecode.If(Bytecode.IfMode.EQ, c.target));
-		bytecodes.add(new Bytecode.Load(freeSlot, JAVA_UTIL_ITERATOR));
+		bytecodes.add(new Bytecode.Load(iterSlot, JAVA_UTIL_ITERATOR));
 		ftype = new JvmType.Function(JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_ITERATOR, "next", ftype,
 				Bytecode.InvokeMode.INTERFACE));
 		addReadConversion(elementType, bytecodes);
+		// the item is now shared between the collection and the index
+		addIncRefs(elementType, bytecodes);
 		bytecodes.add(new Bytecode.Store(c.indexOperand, convertType(elementType)));
 
-		// we need to increase the freeSlot, since we've allocated one slot to
-		// hold the iterator.
+		// we need to return the increased freeSlot, since we've allocated
+		// slots to hold the iterator (and the collection being iterated).
 
-		return freeSlot + 1;
+		return freeSlot;
 	}
 
 	private void translate(Codes.Goto c, int freeSlot,
@@ -1152,13 +1371,14 @@ public class Wyil2JavaBuilder implements Builder {
 	private void translate(Codes.Assign c, int freeSlot, ArrayList<Bytecode> bytecodes) {
 		JvmType jt = convertType(c.type());
 		bytecodes.add(new Bytecode.Load(c.operand(0), jt));
-		addIncRefs(c.type(),bytecodes);
+		addOwnership(c.type(), 0, c.operands(), bytecodes);
 		bytecodes.add(new Bytecode.Store(c.target(), jt));
 	}
 
 	private void translate(Codes.Move c, int freeSlot, ArrayList<Bytecode> bytecodes) {
 		JvmType jt = convertType(c.type());
 		bytecodes.add(new Bytecode.Load(c.operand(0), jt));
+		addOwnership(c.type(), 0, c.operands(), bytecodes);
 		bytecodes.add(new Bytecode.Store(c.target(), jt));
 	}
 
@@ -1167,17 +1387,22 @@ public class Wyil2JavaBuilder implements Builder {
 		JvmType leftType;
 		JvmType rightType;
 
+		// NOTE: list operands are moved into the operation, whilst element
+		// operands are copied.
 		switch(c.kind) {
 		case APPEND:
 			leftType = WHILEYLIST;
 			rightType = WHILEYLIST;
 			bytecodes.add(new Bytecode.Load(c.operand(0), leftType));
+			addOwnership((Type) c.type(), 0, c.operands(), bytecodes);
 			bytecodes.add(new Bytecode.Load(c.operand(1), rightType));
+			addOwnership((Type) c.type(), 1, c.operands(), bytecodes);
 			break;
 		case LEFT_APPEND:
 			leftType = WHILEYLIST;
 			rightType = JAVA_LANG_OBJECT;
 			bytecodes.add(new Bytecode.Load(c.operand(0), leftType));
+			addOwnership((Type) c.type(), 0, c.operands(), bytecodes);
 			bytecodes.add(new Bytecode.Load(c.operand(1), convertType(c.type().element())));
 			addWriteConversion(c.type().element(),bytecodes);
 			break;
@@ -1187,6 +1412,7 @@ public class Wyil2JavaBuilder implements Builder {
 			bytecodes.add(new Bytecode.Load(c.operand(0), convertType(c.type().element())));
 			addWriteConversion(c.type().element(),bytecodes);
 			bytecodes.add(new Bytecode.Load(c.operand(1), rightType));
+			addOwnership((Type) c.type(), 1, c.operands(), bytecodes);
 			break;
 		default:
 			internalFailure("unknown list operation",filename,stmt);
@@ -1197,6 +1423,12 @@ public class Wyil2JavaBuilder implements Builder {
 		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "append", ftype,
 				Bytecode.InvokeMode.STATIC));
 		bytecodes.add(new Bytecode.Store(c.target(), WHILEYLIST));
+
+		if(c.kind == Codes.ListOperatorKind.LEFT_APPEND) {
+			addRelease(c.operand(1), c.type().element(), c.target(), bytecodes);
+		} else if(c.kind == Codes.ListOperatorKind.RIGHT_APPEND) {
+			addRelease(c.operand(0), c.type().element(), c.target(), bytecodes);
+		}
 	}
 
 	private void translate(Codes.LengthOf c, Code.Block.Entry stmt, int freeSlot,
@@ -1207,11 +1439,13 @@ public class Wyil2JavaBuilder implements Builder {
 		bytecodes.add(new Bytecode.Invoke(WHILEYCOLLECTION, "length", ftype,
 				Bytecode.InvokeMode.STATIC));
 		bytecodes.add(new Bytecode.Store(c.target(), WHILEYINT));
+		addRelease(c.operand(0), (Type) c.type(), c.target(), bytecodes);
 	}
 
 	private void translate(Codes.SubList c, Code.Block.Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Load(c.operands()[0], WHILEYLIST));
+		addOwnership((Type) c.type(), 0, c.operands(), bytecodes);
 		bytecodes.add(new Bytecode.Load(c.operands()[1], WHILEYINT));
 		bytecodes.add(new Bytecode.Load(c.operands()[2], WHILEYINT));
 
@@ -1234,9 +1468,12 @@ public class Wyil2JavaBuilder implements Builder {
 		bytecodes.add(new Bytecode.Invoke(WHILEYCOLLECTION, "indexOf", ftype,
 				Bytecode.InvokeMode.STATIC));
 		addReadConversion(c.type().value(), bytecodes);
+		// the item is now shared between the collection and the target
+		addIncRefs(c.type().value(), bytecodes);
 
 		bytecodes.add(new Bytecode.Store(c.target(),
 				convertType(c.type().element())));
+		addRelease(c.operand(0), (Type) c.type(), c.target(), bytecodes);
 	}
 
 	private void translate(Codes.Fail c, int freeSlot,
@@ -1252,6 +1489,27 @@ public class Wyil2JavaBuilder implements Builder {
 
 	private void translate(Codes.FieldLoad c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
+		JvmType.Clazz clazz = recordClass((Type) c.type());
+		String exitLabel = null;
+
+		if (clazz != null) {
+			// The record almost certainly has a generated representation, in
+			// which case the field is read directly. Otherwise, fall through
+			// to the general case.
+			String mapLabel = freshLabel();
+			exitLabel = freshLabel();
+			bytecodes.add(new Bytecode.Load(c.operand(0), WHILEYRECORD));
+			bytecodes.add(new Bytecode.InstanceOf(clazz));
+			bytecodes.add(new Bytecode.If(Bytecode.IfMode.EQ, mapLabel));
+			bytecodes.add(new Bytecode.Load(c.operand(0), WHILEYRECORD));
+			bytecodes.add(new Bytecode.CheckCast(clazz));
+			bytecodes.add(new Bytecode.GetField(clazz, c.field,
+					JAVA_LANG_OBJECT, Bytecode.FieldMode.NONSTATIC));
+			addReadConversion(c.fieldType(), bytecodes);
+			addIncRefs(c.fieldType(), bytecodes);
+			bytecodes.add(new Bytecode.Goto(exitLabel));
+			bytecodes.add(new Bytecode.Label(mapLabel));
+		}
 
 		bytecodes.add(new Bytecode.Load(c.operand(0), WHILEYRECORD));
 
@@ -1260,7 +1518,11 @@ public class Wyil2JavaBuilder implements Builder {
 		bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"get",ftype,Bytecode.InvokeMode.STATIC));
 		addReadConversion(c.fieldType(),bytecodes);
 
+		if (exitLabel != null) {
+			bytecodes.add(new Bytecode.Label(exitLabel));
+		}
 		bytecodes.add(new Bytecode.Store(c.target(), convertType(c.fieldType())));
+		addRelease(c.operand(0), (Type) c.type(), c.target(), bytecodes);
 	}
 
 	private void translate(Codes.BinaryOperator c, Code.Block.Entry stmt, int freeSlot,
@@ -1300,8 +1562,7 @@ public class Wyil2JavaBuilder implements Builder {
 				// Hack for #418
 				bytecodes.add(new Bytecode.BinOp(Bytecode.BinOp.ADD, JvmTypes.T_INT));
 			} else {
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "add", ftype,
-					Bytecode.InvokeMode.VIRTUAL));
+				translateArithmetic(c.type(), "add", bytecodes);
 			}
 			break;
 		case SUB:
@@ -1309,8 +1570,7 @@ public class Wyil2JavaBuilder implements Builder {
 				// Hack for #418
 				bytecodes.add(new Bytecode.BinOp(Bytecode.BinOp.SUB, JvmTypes.T_INT));
 			} else {
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "subtract", ftype,
-					Bytecode.InvokeMode.VIRTUAL));
+				translateArithmetic(c.type(), "subtract", bytecodes);
 			}
 			break;
 		case MUL:
@@ -1318,8 +1578,7 @@ public class Wyil2JavaBuilder implements Builder {
 				// Hack for #418
 				bytecodes.add(new Bytecode.BinOp(Bytecode.BinOp.MUL, JvmTypes.T_INT));
 			} else {
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "multiply", ftype,
-					Bytecode.InvokeMode.VIRTUAL));
+				translateArithmetic(c.type(), "multiply", bytecodes);
 			}
 			break;
 		case DIV:
@@ -1327,8 +1586,7 @@ public class Wyil2JavaBuilder implements Builder {
 				// Hack for #418
 				bytecodes.add(new Bytecode.BinOp(Bytecode.BinOp.DIV, JvmTypes.T_INT));
 			} else {
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "divide", ftype,
-					Bytecode.InvokeMode.VIRTUAL));
+				translateArithmetic(c.type(), "divide", bytecodes);
 			}
 			break;
 		case REM:
@@ -1336,8 +1594,7 @@ public class Wyil2JavaBuilder implements Builder {
 				// Hack for #418
 				bytecodes.add(new Bytecode.BinOp(Bytecode.BinOp.REM, JvmTypes.T_INT));
 			} else {
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type,
-						"remainder", ftype, Bytecode.InvokeMode.VIRTUAL));
+				translateArithmetic(c.type(), "remainder", bytecodes);
 			}
 			break;
 		case RANGE:
@@ -1385,7 +1642,9 @@ public class Wyil2JavaBuilder implements Builder {
 				leftType = WHILEYSET;
 				rightType = WHILEYSET;
 				bytecodes.add(new Bytecode.Load(c.operand(0), leftType));
+				addOwnership((Type) c.type(), 0, c.operands(), bytecodes);
 				bytecodes.add(new Bytecode.Load(c.operand(1), rightType));
+				addOwnership((Type) c.type(), 1, c.operands(), bytecodes);
 				break;
 			case LEFT_UNION:
 			case LEFT_DIFFERENCE:
@@ -1393,6 +1652,7 @@ public class Wyil2JavaBuilder implements Builder {
 				leftType = WHILEYSET;
 				rightType = JAVA_LANG_OBJECT;
 				bytecodes.add(new Bytecode.Load(c.operand(0), leftType));
+				addOwnership((Type) c.type(), 0, c.operands(), bytecodes);
 				bytecodes.add(new Bytecode.Load(c.operand(1), convertType(c.type().element())));
 				addWriteConversion(c.type().element(),bytecodes);
 				break;
@@ -1403,6 +1663,7 @@ public class Wyil2JavaBuilder implements Builder {
 				bytecodes.add(new Bytecode.Load(c.operand(0), convertType(c.type().element())));
 				addWriteConversion(c.type().element(),bytecodes);
 				bytecodes.add(new Bytecode.Load(c.operand(1), rightType));
+				addOwnership((Type) c.type(), 1, c.operands(), bytecodes);
 				break;
 			default:
 				internalFailure("Unknown set operation encountered: ",filename,stmt);
@@ -1437,6 +1698,13 @@ public class Wyil2JavaBuilder implements Builder {
 				Bytecode.InvokeMode.STATIC));
 
 		bytecodes.add(new Bytecode.Store(c.target(), WHILEYSET));
+
+		// finally, release any element operand which is no longer live
+		if(leftType == JAVA_LANG_OBJECT) {
+			addRelease(c.operand(0), c.type().element(), c.target(), bytecodes);
+		} else if(rightType == JAVA_LANG_OBJECT) {
+			addRelease(c.operand(1), c.type().element(), c.target(), bytecodes);
+		}
 	}
 
 	private void translate(Codes.StringOperator c, Code.Block.Entry stmt, int freeSlot,
@@ -1487,6 +1755,33 @@ public class Wyil2JavaBuilder implements Builder {
 		bytecodes.add(new Bytecode.Store(c.target(), JAVA_LANG_STRING));
 	}
 
+	/**
+	 * Translate an arithmetic operation whose operands are already on the
+	 * stack. Operations on integers are dispatched to the fast paths provided
+	 * by <code>WyInt</code>, which avoid allocating a new object when the
+	 * operands and result are small. Otherwise, the corresponding method of
+	 * the operand type itself is invoked.
+	 *
+	 * @param type
+	 *            --- Whiley type of the operands.
+	 * @param name
+	 *            --- name of the method implementing the operation.
+	 * @param bytecodes
+	 */
+	private void translateArithmetic(Type type, String name,
+			ArrayList<Bytecode> bytecodes) {
+		if(type instanceof Type.Int) {
+			JvmType.Function ftype = new JvmType.Function(WHILEYINT,WHILEYINT,WHILEYINT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYINTOPS, name, ftype,
+					Bytecode.InvokeMode.STATIC));
+		} else {
+			JvmType.Clazz jt = (JvmType.Clazz) convertType(type);
+			JvmType.Function ftype = new JvmType.Function(jt,jt);
+			bytecodes.add(new Bytecode.Invoke(jt, name, ftype,
+					Bytecode.InvokeMode.VIRTUAL));
+		}
+	}
+
 	private void translate(Codes.Invert c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		JvmType type = convertType(c.type());
@@ -1515,10 +1810,16 @@ public class Wyil2JavaBuilder implements Builder {
 				name = "denominator";
 				break;
 		}
-		JvmType.Function ftype = new JvmType.Function(targetType);
 		bytecodes.add(new Bytecode.Load(c.operand(0), srcType));
-		bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) srcType, name,
-				ftype, Bytecode.InvokeMode.VIRTUAL));
+		if(c.kind == Codes.UnaryOperatorKind.NEG && c.type() instanceof Type.Int) {
+			JvmType.Function ftype = new JvmType.Function(WHILEYINT,WHILEYINT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYINTOPS, name, ftype,
+					Bytecode.InvokeMode.STATIC));
+		} else {
+			JvmType.Function ftype = new JvmType.Function(targetType);
+			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) srcType, name,
+					ftype, Bytecode.InvokeMode.VIRTUAL));
+		}
 		bytecodes.add(new Bytecode.Store(c.target(), targetType));
 	}
 
@@ -1528,6 +1829,7 @@ public class Wyil2JavaBuilder implements Builder {
 		bytecodes.add(new Bytecode.New(WHILEYOBJECT));
 		bytecodes.add(new Bytecode.Dup(WHILEYOBJECT));
 		bytecodes.add(new Bytecode.Load(c.operand(0), convertType(c.type().element())));
+		addOwnership(c.type().element(), 0, c.operands(), bytecodes);
 		addWriteConversion(c.type().element(),bytecodes);
 		JvmType.Function ftype = new JvmType.Function(T_VOID,JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(WHILEYOBJECT, "<init>", ftype,
@@ -1545,21 +1847,19 @@ public class Wyil2JavaBuilder implements Builder {
 		// finally, we need to cast the object we got back appropriately.
 		Type.Reference pt = (Type.Reference) c.type();
 		addReadConversion(pt.element(), bytecodes);
+		// the state is now shared between the object and the target
+		addIncRefs(pt.element(), bytecodes);
 		bytecodes.add(new Bytecode.Store(c.target(), convertType(c.type().element())));
 	}
 
 	protected void translate(Codes.NewList c, int freeSlot, ArrayList<Bytecode> bytecodes) {
-		bytecodes.add(new Bytecode.New(WHILEYLIST));
-		bytecodes.add(new Bytecode.Dup(WHILEYLIST));
-		bytecodes.add(new Bytecode.LoadConst(c.operands().length));
-		JvmType.Function ftype = new JvmType.Function(T_VOID,T_INT);
-		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "<init>", ftype,
-				Bytecode.InvokeMode.SPECIAL));
+		constructList(c.operands().length, bytecodes);
 
-		ftype = new JvmType.Function(WHILEYLIST, WHILEYLIST, JAVA_LANG_OBJECT);
+		JvmType.Function ftype = new JvmType.Function(WHILEYLIST, WHILEYLIST, JAVA_LANG_OBJECT);
 		for (int i = 0; i != c.operands().length; ++i) {
 			bytecodes.add(new Bytecode.Load(c.operands()[i], convertType(c.type()
 					.element())));
+			addOwnership(c.type().element(), i, c.operands(), bytecodes);
 			addWriteConversion(c.type().element(), bytecodes);
 			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "internal_add",
 					ftype, Bytecode.InvokeMode.STATIC));
@@ -1580,8 +1880,10 @@ public class Wyil2JavaBuilder implements Builder {
 		for (int i = 0; i != c.operands().length; i=i+2) {
 			bytecodes.add(new Bytecode.Dup(WHILEYMAP));
 			bytecodes.add(new Bytecode.Load(c.operands()[i], keyType));
+			addOwnership(c.type().key(), i, c.operands(), bytecodes);
 			addWriteConversion(c.type().key(), bytecodes);
 			bytecodes.add(new Bytecode.Load(c.operands()[i + 1],valueType));
+			addOwnership(c.type().value(), i + 1, c.operands(), bytecodes);
 			addWriteConversion(c.type().value(), bytecodes);
 			bytecodes.add(new Bytecode.Invoke(WHILEYMAP, "put", ftype,
 					Bytecode.InvokeMode.VIRTUAL));
@@ -1593,23 +1895,26 @@ public class Wyil2JavaBuilder implements Builder {
 
 	private void translate(Codes.NewRecord code, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
-		construct(WHILEYRECORD, freeSlot, bytecodes);
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
-				JAVA_LANG_OBJECT, JAVA_LANG_OBJECT);
-
 		HashMap<String,Type> fields = code.type().fields();
 		ArrayList<String> keys = new ArrayList<String>(fields.keySet());
 		Collections.sort(keys);
+		JvmType.Clazz clazz = recordClass(keys);
+		construct(clazz != null ? clazz : WHILEYRECORD, freeSlot, bytecodes);
+		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
+				JAVA_LANG_OBJECT, JAVA_LANG_OBJECT);
+
 		for (int i = 0; i != code.operands().length; i++) {
 			int register = code.operands()[i];
 			String key = keys.get(i);
 			Type fieldType = fields.get(key);
 			bytecodes.add(new Bytecode.Dup(WHILEYRECORD));
-			bytecodes.add(new Bytecode.LoadConst(key));
+			if (clazz == null) {
+				bytecodes.add(new Bytecode.LoadConst(key));
+			}
 			bytecodes.add(new Bytecode.Load(register, convertType(fieldType)));
+			addOwnership(fieldType, i, code.operands(), bytecodes);
 			addWriteConversion(fieldType,bytecodes);
-			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"put",ftype,Bytecode.InvokeMode.VIRTUAL));
-			bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
+			putField(clazz, key, bytecodes);
 		}
 
 		bytecodes.add(new Bytecode.Store(code.target(), WHILEYRECORD));
@@ -1623,6 +1928,7 @@ public class Wyil2JavaBuilder implements Builder {
 		for(int i=0;i!=c.operands().length;++i) {
 			bytecodes.add(new Bytecode.Load(c.operands()[i], convertType(c.type()
 					.element())));
+			addOwnership(c.type().element(), i, c.operands(), bytecodes);
 			addWriteConversion(c.type().element(),bytecodes);
 			bytecodes.add(new Bytecode.Invoke(WHILEYSET,"internal_add",ftype,Bytecode.InvokeMode.STATIC));
 		}
@@ -1642,6 +1948,7 @@ public class Wyil2JavaBuilder implements Builder {
 		for (int i = 0; i != c.operands().length; ++i) {
 			Type elementType = c.type().elements().get(i);
 			bytecodes.add(new Bytecode.Load(c.operands()[i], convertType(elementType)));
+			addOwnership(elementType, i, c.operands(), bytecodes);
 			addWriteConversion(elementType, bytecodes);
 			bytecodes.add(new Bytecode.Invoke(WHILEYTUPLE , "internal_add",
 					ftype, Bytecode.InvokeMode.STATIC));
@@ -1695,6 +2002,7 @@ public class Wyil2JavaBuilder implements Builder {
 				if (operand != Codes.NULL_REG) {
 					Type pt = c.type().params().get(i);
 					bytecodes.add(new Bytecode.Load(operand, convertType(pt)));
+					addOwnership(pt, i, c.operands(), bytecodes);
 					addWriteConversion(pt, bytecodes);
 				} else {
 					bytecodes.add(new Bytecode.LoadConst(null));
@@ -1721,8 +2029,9 @@ public class Wyil2JavaBuilder implements Builder {
 
 		for (int i = 0; i != c.operands().length; ++i) {
 			int register = c.operands()[i];
-			JvmType parameterType = convertType(c.type().params().get(i));
-			bytecodes.add(new Bytecode.Load(register, parameterType));
+			Type pt = c.type().params().get(i);
+			bytecodes.add(new Bytecode.Load(register, convertType(pt)));
+			addOwnership(pt, i, c.operands(), bytecodes);
 		}
 
 		Path.ID mid = c.name.module();
@@ -1759,6 +2068,7 @@ public class Wyil2JavaBuilder implements Builder {
 			bytecodes.add(new Bytecode.Dup(JAVA_LANG_OBJECT_ARRAY));
 			bytecodes.add(new Bytecode.LoadConst(i));
 			bytecodes.add(new Bytecode.Load(register, jpt));
+			addOwnership(pt, i, parameters, bytecodes);
 			addWriteConversion(pt,bytecodes);
 			bytecodes.add(new Bytecode.ArrayStore(JAVA_LANG_OBJECT_ARRAY));
 		}
@@ -1864,12 +2174,12 @@ public class Wyil2JavaBuilder implements Builder {
 			bytecodes.add(new Bytecode.LoadConst(num.intValue()));
 			bytecodes.add(new Bytecode.Conversion(T_INT,T_LONG));
 			JvmType.Function ftype = new JvmType.Function(WHILEYINT,T_LONG);
-			bytecodes.add(new Bytecode.Invoke(WHILEYINT, "valueOf", ftype,
+			bytecodes.add(new Bytecode.Invoke(WHILEYINTOPS, "valueOf", ftype,
 					Bytecode.InvokeMode.STATIC));
 		} else if(num.bitLength() < 64) {
 			bytecodes.add(new Bytecode.LoadConst(num.longValue()));
 			JvmType.Function ftype = new JvmType.Function(WHILEYINT,T_LONG);
-			bytecodes.add(new Bytecode.Invoke(WHILEYINT, "valueOf", ftype,
+			bytecodes.add(new Bytecode.Invoke(WHILEYINTOPS, "valueOf", ftype,
 					Bytecode.InvokeMode.STATIC));
 		} else {
 			// in this context, we need to use a byte array to construct the
@@ -1987,13 +2297,9 @@ public class Wyil2JavaBuilder implements Builder {
 	protected void translate(Constant.Set lv, int freeSlot,
 			ArrayList<ClassFile> lambdas,
 			ArrayList<Bytecode> bytecodes) {
-		bytecodes.add(new Bytecode.New(WHILEYSET));
-		bytecodes.add(new Bytecode.Dup(WHILEYSET));
-		JvmType.Function ftype = new JvmType.Function(T_VOID);
-		bytecodes.add(new Bytecode.Invoke(WHILEYSET, "<init>", ftype,
-				Bytecode.InvokeMode.SPECIAL));
+		construct(WHILEYSET, freeSlot, bytecodes);
 
-		ftype = new JvmType.Function(T_BOOL, JAVA_LANG_OBJECT);
+		JvmType.Function ftype = new JvmType.Function(T_BOOL, JAVA_LANG_OBJECT);
 		for (Constant e : lv.values) {
 			bytecodes.add(new Bytecode.Dup(WHILEYSET));
 			translate(e, freeSlot, lambdas, bytecodes);
@@ -2007,14 +2313,9 @@ public class Wyil2JavaBuilder implements Builder {
 	protected void translate(Constant.List lv, int freeSlot,
 			ArrayList<ClassFile> lambdas,
 			ArrayList<Bytecode> bytecodes) {
-		bytecodes.add(new Bytecode.New(WHILEYLIST));
-		bytecodes.add(new Bytecode.Dup(WHILEYLIST));
-		bytecodes.add(new Bytecode.LoadConst(lv.values.size()));
-		JvmType.Function ftype = new JvmType.Function(T_VOID,T_INT);
-		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "<init>", ftype,
-				Bytecode.InvokeMode.SPECIAL));
+		constructList(lv.values.size(), bytecodes);
 
-		ftype = new JvmType.Function(T_BOOL, JAVA_LANG_OBJECT);
+		JvmType.Function ftype = new JvmType.Function(T_BOOL, JAVA_LANG_OBJECT);
 		for (Constant e : lv.values) {
 			bytecodes.add(new Bytecode.Dup(WHILEYLIST));
 			translate(e, freeSlot, lambdas, bytecodes);
@@ -2049,18 +2350,17 @@ public class Wyil2JavaBuilder implements Builder {
 	protected void translate(Constant.Record expr, int freeSlot,
 			ArrayList<ClassFile> lambdas,
 			ArrayList<Bytecode> bytecodes) {
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
-				JAVA_LANG_OBJECT, JAVA_LANG_OBJECT);
-		construct(WHILEYRECORD, freeSlot, bytecodes);
+		JvmType.Clazz clazz = recordClass(expr.values.keySet());
+		construct(clazz != null ? clazz : WHILEYRECORD, freeSlot, bytecodes);
 		for (Map.Entry<String, Constant> e : expr.values.entrySet()) {
 			Type et = e.getValue().type();
 			bytecodes.add(new Bytecode.Dup(WHILEYRECORD));
-			bytecodes.add(new Bytecode.LoadConst(e.getKey()));
+			if (clazz == null) {
+				bytecodes.add(new Bytecode.LoadConst(e.getKey()));
+			}
 			translate(e.getValue(), freeSlot, lambdas, bytecodes);
 			addWriteConversion(et, bytecodes);
-			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "put", ftype,
-					Bytecode.InvokeMode.VIRTUAL));
-			bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
+			putField(clazz, e.getKey(), bytecodes);
 		}
 	}
 
@@ -2207,6 +2507,553 @@ public class Wyil2JavaBuilder implements Builder {
 		return cf;
 	}
 
+	/**
+	 * Determine the generated class used to represent records of a given type.
+	 * This is <code>null</code> if records of the type may have fields other
+	 * than those given (i.e. the type is open or not a record), in which case
+	 * the general <code>WyRecord</code> representation must be used.
+	 *
+	 * @param type
+	 * @return
+	 */
+	private JvmType.Clazz recordClass(Type type) {
+		if (type instanceof Type.Record && !((Type.Record) type).isOpen()) {
+			return recordClass(((Type.Record) type).fields().keySet());
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Determine the generated class used to represent records with a given set
+	 * of fields, and register it for the module being translated. Every such
+	 * class is named <code>wyjc.records.Record$f1$...$fn</code>, where
+	 * <code>f1...fn</code> are the sorted (and encoded) field names. Thus,
+	 * records with the same fields share the same class regardless of which
+	 * module constructs them. See <code>buildRecordClass()</code> for more
+	 * details.
+	 * </p>
+	 *
+	 * <p>
+	 * Since class files may be written to a case-insensitive file system, the
+	 * field names are encoded so that the class name contains no upper-case
+	 * letters. Specifically, an upper-case letter <code>X</code> is written
+	 * <code>_x</code> and an underscore is written <code>__</code>. For
+	 * example, records with fields <code>X</code> and <code>x</code> are
+	 * represented by <code>Record$_x</code> and <code>Record$x</code>
+	 * respectively.
+	 * </p>
+	 *
+	 * <p>
+	 * <b>NOTE:</b> this is <code>null</code> if there are no fields, or if a
+	 * field name contains characters other than ASCII letters, digits or
+	 * underscores. In such cases, the general <code>WyRecord</code>
+	 * representation must be used.
+	 * </p>
+	 *
+	 * @param fields
+	 * @return
+	 */
+	private JvmType.Clazz recordClass(Collection<String> fields) {
+		ArrayList<String> names = new ArrayList<String>(fields);
+		Collections.sort(names);
+		String name = "Record";
+		for (String field : names) {
+			name = name + "$";
+			for (int i = 0; i != field.length(); ++i) {
+				char c = field.charAt(i);
+				if (c == '_') {
+					name = name + "__";
+				} else if (c >= 'A' && c <= 'Z') {
+					name = name + "_" + Character.toLowerCase(c);
+				} else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+					name = name + c;
+				} else {
+					return null;
+				}
+			}
+		}
+		if (names.isEmpty() || name.length() > MAX_RECORD_CLASS_NAME) {
+			return null;
+		}
+		records.put(name, names);
+		return new JvmType.Clazz("wyjc.records", name);
+	}
+
+	/**
+	 * Add bytecodes for writing a field of a record under construction, which
+	 * is on the stack beneath the field's value. If the record has a generated
+	 * class, then the field is written directly. Otherwise, the field name is
+	 * on the stack beneath the value.
+	 *
+	 * @param clazz
+	 *            --- the generated class of the record, or <code>null</code>.
+	 * @param field
+	 * @param bytecodes
+	 */
+	private void putField(JvmType.Clazz clazz, String field,
+			ArrayList<Bytecode> bytecodes) {
+		if (clazz != null) {
+			bytecodes.add(new Bytecode.PutField(clazz, field, JAVA_LANG_OBJECT,
+					Bytecode.FieldMode.NONSTATIC));
+		} else {
+			JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
+					JAVA_LANG_OBJECT, JAVA_LANG_OBJECT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "put", ftype,
+					Bytecode.InvokeMode.VIRTUAL));
+			bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
+		}
+	}
+
+	/**
+	 * <p>
+	 * Construct a static method <code>typeTest$id(Object)</code> which tests
+	 * whether a given value is an instance of a given type. This amounts to a
+	 * decision tree over the Java classes used to represent values, which
+	 * exits as soon as the outcome is known. Compound elements are tested by
+	 * calling the test method for their type, which may be this method itself
+	 * when the type is recursive.
+	 * </p>
+	 *
+	 * <p>
+	 * When every item of a collection has been found to satisfy the element
+	 * type, this is recorded on the collection (using the type's string
+	 * representation, which is interned by the JVM, as its identity) so that
+	 * testing it again costs <code>O(1)</code>. Since the record is forgotten
+	 * whenever the collection is updated in place, and its items cannot be
+	 * updated in place whilst it references them, this is safe.
+	 * </p>
+	 *
+	 * @param test
+	 *            --- type being tested against.
+	 * @param id
+	 *            --- identifies the method being constructed.
+	 * @param constants
+	 * @param cf
+	 */
+	protected void buildTypeTest(Type test, int id,
+			HashMap<JvmConstant, Integer> constants, ClassFile cf) {
+		ArrayList<Bytecode> bytecodes = new ArrayList<Bytecode>();
+		String trueLabel = freshLabel();
+		String falseLabel = freshLabel();
+
+		if (test instanceof Type.Union) {
+			// Test the primitive bounds first, since these are cheap.
+			ArrayList<Type> bounds = new ArrayList<Type>();
+			for (Type bound : ((Type.Union) test).bounds()) {
+				if (bound instanceof Type.Leaf) {
+					bounds.add(bound);
+				}
+			}
+			for (Type bound : ((Type.Union) test).bounds()) {
+				if (!(bound instanceof Type.Leaf)) {
+					bounds.add(bound);
+				}
+			}
+			for (Type bound : bounds) {
+				bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+				translateTypeTest(trueLabel, Type.T_ANY, bound, bytecodes,
+						constants);
+			}
+			bytecodes.add(new Bytecode.Goto(falseLabel));
+		} else if (test instanceof Type.Negation) {
+			Type element = ((Type.Negation) test).element();
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			translateTypeTest(falseLabel, Type.T_ANY, element, bytecodes,
+					constants);
+			bytecodes.add(new Bytecode.Goto(trueLabel));
+		} else if (test instanceof Type.List) {
+			Type.List lt = (Type.List) test;
+			buildCollectionTest(WHILEYLIST, test, lt.element(), null,
+					lt.nonEmpty(), trueLabel, falseLabel, constants, bytecodes);
+		} else if (test instanceof Type.Set) {
+			Type.Set st = (Type.Set) test;
+			buildCollectionTest(WHILEYSET, test, st.element(), null, false,
+					trueLabel, falseLabel, constants, bytecodes);
+		} else if (test instanceof Type.Map) {
+			Type.Map mt = (Type.Map) test;
+			buildCollectionTest(WHILEYMAP, test, mt.key(), mt.value(), false,
+					trueLabel, falseLabel, constants, bytecodes);
+		} else if (test instanceof Type.Tuple) {
+			List<Type> elements = ((Type.Tuple) test).elements();
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.InstanceOf(WHILEYTUPLE));
+			bytecodes.add(new Bytecode.If(Bytecode.IfMode.EQ, falseLabel));
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.CheckCast(WHILEYTUPLE));
+			bytecodes.add(new Bytecode.Invoke(WHILEYTUPLE, "size",
+					new JvmType.Function(T_INT), Bytecode.InvokeMode.VIRTUAL));
+			bytecodes.add(new Bytecode.LoadConst(elements.size()));
+			bytecodes.add(new Bytecode.IfCmp(Bytecode.IfCmp.NE, T_INT, falseLabel));
+			for (int i = 0; i != elements.size(); ++i) {
+				String nextLabel = freshLabel();
+				bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+				bytecodes.add(new Bytecode.CheckCast(WHILEYTUPLE));
+				bytecodes.add(new Bytecode.LoadConst(i));
+				bytecodes.add(new Bytecode.Invoke(WHILEYTUPLE, "get",
+						new JvmType.Function(JAVA_LANG_OBJECT, T_INT),
+						Bytecode.InvokeMode.VIRTUAL));
+				translateTypeTest(nextLabel, Type.T_ANY, elements.get(i),
+						bytecodes, constants);
+				bytecodes.add(new Bytecode.Goto(falseLabel));
+				bytecodes.add(new Bytecode.Label(nextLabel));
+			}
+			bytecodes.add(new Bytecode.Goto(trueLabel));
+		} else if (test instanceof Type.Record) {
+			buildRecordTest((Type.Record) test, trueLabel, falseLabel,
+					constants, bytecodes);
+		} else {
+			// Fall-back to an external (recursive) check
+			Constant constant = Constant.V_TYPE(test);
+			String name = "constant$" + JvmValue.get(constant, constants);
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.GetField(owner, name, WHILEYTYPE,
+					Bytecode.FieldMode.STATIC));
+			JvmType.Function ftype = new JvmType.Function(T_BOOL,
+					JAVA_LANG_OBJECT, WHILEYTYPE);
+			bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "instanceOf", ftype,
+					Bytecode.InvokeMode.STATIC));
+			bytecodes.add(new Bytecode.Return(T_BOOL));
+		}
+
+		bytecodes.add(new Bytecode.Label(trueLabel));
+		bytecodes.add(new Bytecode.LoadConst(1));
+		bytecodes.add(new Bytecode.Return(T_BOOL));
+		bytecodes.add(new Bytecode.Label(falseLabel));
+		bytecodes.add(new Bytecode.LoadConst(0));
+		bytecodes.add(new Bytecode.Return(T_BOOL));
+
+		ArrayList<Modifier> modifiers = new ArrayList<Modifier>();
+		modifiers.add(Modifier.ACC_PRIVATE);
+		modifiers.add(Modifier.ACC_STATIC);
+		modifiers.add(Modifier.ACC_SYNTHETIC);
+		JvmType.Function ftype = new JvmType.Function(T_BOOL, JAVA_LANG_OBJECT);
+		String name = "typeTest$" + id;
+		ClassFile.Method method = new ClassFile.Method(name, ftype, modifiers);
+		cf.methods().add(method);
+		jasm.attributes.Code code = new jasm.attributes.Code(bytecodes,new ArrayList(),method);
+		method.attributes().add(code);
+	}
+
+	/**
+	 * Construct the body of a test against a list, set or map type. The value
+	 * being tested is in slot <code>0</code>. For a map, every key is tested
+	 * against the first element type and every value against the second;
+	 * otherwise, the second element type is <code>null</code>.
+	 */
+	private void buildCollectionTest(JvmType.Clazz clazz, Type test,
+			Type first, Type second, boolean nonEmpty, String trueLabel,
+			String falseLabel, HashMap<JvmConstant, Integer> constants,
+			ArrayList<Bytecode> bytecodes) {
+		JvmType.Function isEmpty = new JvmType.Function(T_BOOL);
+		bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+		bytecodes.add(new Bytecode.InstanceOf(clazz));
+		bytecodes.add(new Bytecode.If(Bytecode.IfMode.EQ, falseLabel));
+		if (nonEmpty) {
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.CheckCast(clazz));
+			bytecodes.add(new Bytecode.Invoke(clazz, "isEmpty", isEmpty,
+					Bytecode.InvokeMode.VIRTUAL));
+			bytecodes.add(new Bytecode.If(Bytecode.IfMode.NE, falseLabel));
+		}
+		if (first instanceof Type.Void || second instanceof Type.Void) {
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.CheckCast(clazz));
+			bytecodes.add(new Bytecode.Invoke(clazz, "isEmpty", isEmpty,
+					Bytecode.InvokeMode.VIRTUAL));
+			bytecodes.add(new Bytecode.Return(T_BOOL));
+			return;
+		} else if (first instanceof Type.Any
+				&& (second == null || second instanceof Type.Any)) {
+			bytecodes.add(new Bytecode.Goto(trueLabel));
+			return;
+		}
+
+		// First, check whether this collection is already known to satisfy
+		// the test.
+		String key = test.toString();
+		bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+		bytecodes.add(new Bytecode.CheckCast(clazz));
+		bytecodes.add(new Bytecode.LoadConst(key));
+		bytecodes.add(new Bytecode.Invoke(clazz, "hasCheckedType",
+				new JvmType.Function(T_BOOL, JAVA_LANG_OBJECT),
+				Bytecode.InvokeMode.VIRTUAL));
+		bytecodes.add(new Bytecode.If(Bytecode.IfMode.NE, trueLabel));
+
+		// Second, test every item of the collection.
+		String loopLabel = freshLabel();
+		String exitLabel = freshLabel();
+		JvmType.Function ftype = new JvmType.Function(JAVA_UTIL_ITERATOR);
+		bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+		bytecodes.add(new Bytecode.CheckCast(clazz));
+		if (second == null) {
+			bytecodes.add(new Bytecode.Invoke(clazz, "iterator", ftype,
+					Bytecode.InvokeMode.VIRTUAL));
+		} else {
+			bytecodes.add(new Bytecode.Invoke(clazz, "entrySet",
+					new JvmType.Function(JAVA_UTIL_SET),
+					Bytecode.InvokeMode.VIRTUAL));
+			bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_SET, "iterator",
+					ftype, Bytecode.InvokeMode.INTERFACE));
+		}
+		bytecodes.add(new Bytecode.Store(1, JAVA_UTIL_ITERATOR));
+		bytecodes.add(new Bytecode.Label(loopLabel));
+		bytecodes.add(new Bytecode.Load(1, JAVA_UTIL_ITERATOR));
+		bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_ITERATOR, "hasNext",
+				new JvmType.Function(T_BOOL), Bytecode.InvokeMode.INTERFACE));
+		bytecodes.add(new Bytecode.If(Bytecode.IfMode.EQ, exitLabel));
+		bytecodes.add(new Bytecode.Load(1, JAVA_UTIL_ITERATOR));
+		bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_ITERATOR, "next",
+				new JvmType.Function(JAVA_LANG_OBJECT),
+				Bytecode.InvokeMode.INTERFACE));
+		if (second == null) {
+			translateTypeTest(loopLabel, Type.T_ANY, first, bytecodes,
+					constants);
+		} else {
+			String valueLabel = freshLabel();
+			bytecodes.add(new Bytecode.CheckCast(JAVA_UTIL_MAP_ENTRY));
+			bytecodes.add(new Bytecode.Store(2, JAVA_UTIL_MAP_ENTRY));
+			bytecodes.add(new Bytecode.Load(2, JAVA_UTIL_MAP_ENTRY));
+			bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_MAP_ENTRY, "getKey",
+					new JvmType.Function(JAVA_LANG_OBJECT),
+					Bytecode.InvokeMode.INTERFACE));
+			translateTypeTest(valueLabel, Type.T_ANY, first, bytecodes,
+					constants);
+			bytecodes.add(new Bytecode.Goto(falseLabel));
+			bytecodes.add(new Bytecode.Label(valueLabel));
+			bytecodes.add(new Bytecode.Load(2, JAVA_UTIL_MAP_ENTRY));
+			bytecodes.add(new Bytecode.Invoke(JAVA_UTIL_MAP_ENTRY, "getValue",
+					new JvmType.Function(JAVA_LANG_OBJECT),
+					Bytecode.InvokeMode.INTERFACE));
+			translateTypeTest(loopLabel, Type.T_ANY, second, bytecodes,
+					constants);
+		}
+		bytecodes.add(new Bytecode.Goto(falseLabel));
+
+		// Third, record that this collection satisfies the test.
+		bytecodes.add(new Bytecode.Label(exitLabel));
+		bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+		bytecodes.add(new Bytecode.CheckCast(clazz));
+		bytecodes.add(new Bytecode.LoadConst(key));
+		bytecodes.add(new Bytecode.Invoke(clazz, "setCheckedType",
+				new JvmType.Function(T_VOID, JAVA_LANG_OBJECT),
+				Bytecode.InvokeMode.VIRTUAL));
+		bytecodes.add(new Bytecode.Goto(trueLabel));
+	}
+
+	/**
+	 * Construct the body of a test against a record type. The value being
+	 * tested is in slot <code>0</code>. When the record type is closed and
+	 * the value has the corresponding generated class, its fields are read
+	 * directly; otherwise, they are looked up by name.
+	 */
+	private void buildRecordTest(Type.Record test, String trueLabel,
+			String falseLabel, HashMap<JvmConstant, Integer> constants,
+			ArrayList<Bytecode> bytecodes) {
+		HashMap<String, Type> fields = test.fields();
+		ArrayList<String> names = new ArrayList<String>(fields.keySet());
+		Collections.sort(names);
+		bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+		bytecodes.add(new Bytecode.InstanceOf(WHILEYRECORD));
+		bytecodes.add(new Bytecode.If(Bytecode.IfMode.EQ, falseLabel));
+
+		JvmType.Clazz clazz = recordClass(test);
+		if (clazz != null) {
+			String mapLabel = freshLabel();
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.InstanceOf(clazz));
+			bytecodes.add(new Bytecode.If(Bytecode.IfMode.EQ, mapLabel));
+			for (String name : names) {
+				String nextLabel = freshLabel();
+				bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+				bytecodes.add(new Bytecode.CheckCast(clazz));
+				bytecodes.add(new Bytecode.GetField(clazz, name,
+						JAVA_LANG_OBJECT, Bytecode.FieldMode.NONSTATIC));
+				translateTypeTest(nextLabel, Type.T_ANY, fields.get(name),
+						bytecodes, constants);
+				bytecodes.add(new Bytecode.Goto(falseLabel));
+				bytecodes.add(new Bytecode.Label(nextLabel));
+			}
+			bytecodes.add(new Bytecode.Goto(trueLabel));
+			bytecodes.add(new Bytecode.Label(mapLabel));
+		}
+
+		if (!test.isOpen()) {
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.CheckCast(WHILEYRECORD));
+			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "size",
+					new JvmType.Function(T_INT), Bytecode.InvokeMode.VIRTUAL));
+			bytecodes.add(new Bytecode.LoadConst(names.size()));
+			bytecodes.add(new Bytecode.IfCmp(Bytecode.IfCmp.NE, T_INT, falseLabel));
+		}
+		for (String name : names) {
+			String nextLabel = freshLabel();
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.CheckCast(WHILEYRECORD));
+			bytecodes.add(new Bytecode.LoadConst(name));
+			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "containsKey",
+					new JvmType.Function(T_BOOL, JAVA_LANG_OBJECT),
+					Bytecode.InvokeMode.VIRTUAL));
+			bytecodes.add(new Bytecode.If(Bytecode.IfMode.EQ, falseLabel));
+			bytecodes.add(new Bytecode.Load(0, JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.CheckCast(WHILEYRECORD));
+			bytecodes.add(new Bytecode.LoadConst(name));
+			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "get",
+					new JvmType.Function(JAVA_LANG_OBJECT, JAVA_LANG_OBJECT),
+					Bytecode.InvokeMode.VIRTUAL));
+			translateTypeTest(nextLabel, Type.T_ANY, fields.get(name),
+					bytecodes, constants);
+			bytecodes.add(new Bytecode.Goto(falseLabel));
+			bytecodes.add(new Bytecode.Label(nextLabel));
+		}
+		bytecodes.add(new Bytecode.Goto(trueLabel));
+	}
+
+	/**
+	 * Construct the generated class used to represent records with a given
+	 * set of fields. This extends <code>wyjc.runtime.WyRecord</code> with a
+	 * public field for each record field, and implements the methods used by
+	 * <code>WyRecord</code> to access them by index.
+	 *
+	 * @param name
+	 *            --- the name of the class.
+	 * @param fields
+	 *            --- the field names, in sorted order.
+	 * @return
+	 */
+	protected ClassFile buildRecordClass(String name, List<String> fields) {
+		JvmType.Clazz recordClassType = new JvmType.Clazz("wyjc.records", name);
+		JvmType.Array namesType = new JvmType.Array(JAVA_LANG_STRING);
+
+		// === (1) Construct an empty class ===
+		ArrayList<Modifier> modifiers = new ArrayList<Modifier>();
+		modifiers.add(Modifier.ACC_PUBLIC);
+		modifiers.add(Modifier.ACC_FINAL);
+		ClassFile cf = new ClassFile(CLASS_VERSION, recordClassType, WHILEYRECORD,
+				new ArrayList<JvmType.Clazz>(), modifiers);
+
+		// === (2) Add fields ===
+		for (String field : fields) {
+			modifiers = new ArrayList<Modifier>();
+			modifiers.add(Modifier.ACC_PUBLIC);
+			cf.fields().add(new ClassFile.Field(field, JAVA_LANG_OBJECT, modifiers));
+		}
+		// NOTE: the field names cannot contain '$', so this cannot clash
+		modifiers = new ArrayList<Modifier>();
+		modifiers.add(Modifier.ACC_PRIVATE);
+		modifiers.add(Modifier.ACC_STATIC);
+		modifiers.add(Modifier.ACC_FINAL);
+		cf.fields().add(new ClassFile.Field("names$", namesType, modifiers));
+
+		// === (3) Add static initialiser for the field names ===
+		modifiers = new ArrayList<Modifier>();
+		modifiers.add(Modifier.ACC_STATIC);
+		ClassFile.Method clinit = new ClassFile.Method("<clinit>",
+				new JvmType.Function(T_VOID), modifiers);
+		cf.methods().add(clinit);
+		ArrayList<Bytecode> bytecodes = new ArrayList<Bytecode>();
+		bytecodes.add(new Bytecode.LoadConst(fields.size()));
+		bytecodes.add(new Bytecode.New(namesType));
+		for (int i = 0; i != fields.size(); ++i) {
+			bytecodes.add(new Bytecode.Dup(namesType));
+			bytecodes.add(new Bytecode.LoadConst(i));
+			bytecodes.add(new Bytecode.LoadConst(fields.get(i)));
+			bytecodes.add(new Bytecode.ArrayStore(namesType));
+		}
+		bytecodes.add(new Bytecode.PutField(recordClassType, "names$",
+				namesType, Bytecode.FieldMode.STATIC));
+		bytecodes.add(new Bytecode.Return(null));
+		jasm.attributes.Code code = new jasm.attributes.Code(bytecodes,new ArrayList<Handler>(),clinit);
+		clinit.attributes().add(code);
+
+		// === (4) Add constructor ===
+		modifiers = new ArrayList<Modifier>();
+		modifiers.add(Modifier.ACC_PUBLIC);
+		ClassFile.Method constructor = new ClassFile.Method("<init>",
+				new JvmType.Function(T_VOID), modifiers);
+		cf.methods().add(constructor);
+		bytecodes = new ArrayList<Bytecode>();
+		bytecodes.add(new Bytecode.Load(0, recordClassType));
+		bytecodes.add(new Bytecode.GetField(recordClassType, "names$",
+				namesType, Bytecode.FieldMode.STATIC));
+		bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "<init>",
+				new JvmType.Function(T_VOID, namesType),
+				Bytecode.InvokeMode.SPECIAL));
+		bytecodes.add(new Bytecode.Return(null));
+		code = new jasm.attributes.Code(bytecodes,new ArrayList<Handler>(),constructor);
+		constructor.attributes().add(code);
+
+		// === (5) Add implementations of getField(int) and setField(int,Object) ===
+		JvmType.Function getType = new JvmType.Function(JAVA_LANG_OBJECT, T_INT);
+		JvmType.Function setType = new JvmType.Function(T_VOID, T_INT, JAVA_LANG_OBJECT);
+		for (int m = 0; m != 2; ++m) {
+			boolean isGet = m == 0;
+			JvmType.Function ftype = isGet ? getType : setType;
+			modifiers = new ArrayList<Modifier>();
+			modifiers.add(Modifier.ACC_PROTECTED);
+			modifiers.add(Modifier.ACC_FINAL);
+			ClassFile.Method method = new ClassFile.Method(isGet ? "getField"
+					: "setField", ftype, modifiers);
+			cf.methods().add(method);
+			bytecodes = new ArrayList<Bytecode>();
+			ArrayList<jasm.util.Pair<Integer, String>> cases = new ArrayList<jasm.util.Pair<Integer, String>>();
+			for (int i = 0; i != fields.size(); ++i) {
+				cases.add(new jasm.util.Pair<Integer, String>(i, "field" + i));
+			}
+			bytecodes.add(new Bytecode.Load(1, T_INT));
+			bytecodes.add(new Bytecode.Switch("default", cases));
+			for (int i = 0; i != fields.size(); ++i) {
+				bytecodes.add(new Bytecode.Label("field" + i));
+				bytecodes.add(new Bytecode.Load(0, recordClassType));
+				if (isGet) {
+					bytecodes.add(new Bytecode.GetField(recordClassType, fields
+							.get(i), JAVA_LANG_OBJECT,
+							Bytecode.FieldMode.NONSTATIC));
+					bytecodes.add(new Bytecode.Return(JAVA_LANG_OBJECT));
+				} else {
+					bytecodes.add(new Bytecode.Load(2, JAVA_LANG_OBJECT));
+					bytecodes.add(new Bytecode.PutField(recordClassType, fields
+							.get(i), JAVA_LANG_OBJECT,
+							Bytecode.FieldMode.NONSTATIC));
+					bytecodes.add(new Bytecode.Return(null));
+				}
+			}
+			// an invalid index is passed up to WyRecord
+			bytecodes.add(new Bytecode.Label("default"));
+			bytecodes.add(new Bytecode.Load(0, recordClassType));
+			bytecodes.add(new Bytecode.Load(1, T_INT));
+			if (isGet) {
+				bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "getField",
+						ftype, Bytecode.InvokeMode.SPECIAL));
+				bytecodes.add(new Bytecode.Return(JAVA_LANG_OBJECT));
+			} else {
+				bytecodes.add(new Bytecode.Load(2, JAVA_LANG_OBJECT));
+				bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "setField",
+						ftype, Bytecode.InvokeMode.SPECIAL));
+				bytecodes.add(new Bytecode.Return(null));
+			}
+			code = new jasm.attributes.Code(bytecodes,new ArrayList<Handler>(),method);
+			method.attributes().add(code);
+		}
+
+		// === (6) Add implementation of newInstance() ===
+		modifiers = new ArrayList<Modifier>();
+		modifiers.add(Modifier.ACC_PROTECTED);
+		modifiers.add(Modifier.ACC_FINAL);
+		ClassFile.Method newInstance = new ClassFile.Method("newInstance",
+				new JvmType.Function(WHILEYRECORD), modifiers);
+		cf.methods().add(newInstance);
+		bytecodes = new ArrayList<Bytecode>();
+		construct(recordClassType, 0, bytecodes);
+		bytecodes.add(new Bytecode.Return(WHILEYRECORD));
+		code = new jasm.attributes.Code(bytecodes,new ArrayList<Handler>(),newInstance);
+		newInstance.attributes().add(code);
+
+		// Done
+		return cf;
+	}
+
 	protected void addCoercion(Type from, Type to, int freeSlot,
 			HashMap<JvmConstant, Integer> constants, ArrayList<Bytecode> bytecodes) {
 
@@ -2276,7 +3123,7 @@ public class Wyil2JavaBuilder implements Builder {
 			} else {
 				bytecodes.add(new Bytecode.Conversion(T_INT, T_LONG));
 				JvmType.Function ftype = new JvmType.Function(WHILEYINT,T_LONG);
-				bytecodes.add(new Bytecode.Invoke(WHILEYINT,"valueOf",ftype,Bytecode.InvokeMode.STATIC));
+				bytecodes.add(new Bytecode.Invoke(WHILEYINTOPS,"valueOf",ftype,Bytecode.InvokeMode.STATIC));
 			}
 		} else {
 			JvmType.Function ftype = new JvmType.Function(JAVA_LANG_CHARACTER,T_CHAR);
@@ -2391,6 +3238,7 @@ public class Wyil2JavaBuilder implements Builder {
 			addReadConversion(from,bytecodes);
 			// now perform recursive conversion
 			addCoercion(from,to,freeSlot,constants,bytecodes);
+			addIncRefs(to,bytecodes);
 			ftype = new JvmType.Function(T_BOOL,JAVA_LANG_OBJECT);
 			bytecodes.add(new Bytecode.Invoke(WHILEYTUPLE,"add",ftype,Bytecode.InvokeMode.VIRTUAL));
 			bytecodes.add(new Bytecode.Pop(T_BOOL));
@@ -2437,6 +3285,7 @@ public class Wyil2JavaBuilder implements Builder {
 		addReadConversion(fromType.element(),bytecodes);
 		addCoercion(fromType.element(), toType.element(), freeSlot,
 				constants, bytecodes);
+		addIncRefs(toType.element(), bytecodes);
 		ftype = new JvmType.Function(T_BOOL,JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "add",
 				ftype, Bytecode.InvokeMode.VIRTUAL));
@@ -2480,7 +3329,7 @@ public class Wyil2JavaBuilder implements Builder {
 		bytecodes.add(new Bytecode.Load(iter,T_INT));
 		bytecodes.add(new Bytecode.Conversion(T_INT,T_LONG));
 		ftype = new JvmType.Function(WHILEYINT,T_LONG);
-		bytecodes.add(new Bytecode.Invoke(WHILEYINT, "valueOf",
+		bytecodes.add(new Bytecode.Invoke(WHILEYINTOPS, "valueOf",
 				ftype, Bytecode.InvokeMode.STATIC));
 		bytecodes.add(new Bytecode.Load(source,WHILEYMAP));
 		bytecodes.add(new Bytecode.Load(iter,T_INT));
@@ -2620,6 +3469,7 @@ public class Wyil2JavaBuilder implements Builder {
 		addReadConversion(fromType.element(),bytecodes);
 		addCoercion(fromType.element(), toType.element(), freeSlot,
 				constants, bytecodes);
+		addIncRefs(toType.element(), bytecodes);
 		ftype = new JvmType.Function(T_BOOL,JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(WHILEYSET, "add",
 				ftype, Bytecode.InvokeMode.VIRTUAL));
@@ -2666,6 +3516,7 @@ public class Wyil2JavaBuilder implements Builder {
 		addReadConversion(fromType.element(),bytecodes);
 		addCoercion(fromType.element(), toType.element(), freeSlot,
 				constants, bytecodes);
+		addIncRefs(toType.element(), bytecodes);
 		ftype = new JvmType.Function(T_BOOL,JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(WHILEYSET, "add",
 				ftype, Bytecode.InvokeMode.VIRTUAL));
@@ -2681,7 +3532,8 @@ public class Wyil2JavaBuilder implements Builder {
 		int oldSlot = freeSlot++;
 		int newSlot = freeSlot++;
 		bytecodes.add(new Bytecode.Store(oldSlot,WHILEYRECORD));
-		construct(WHILEYRECORD,freeSlot,bytecodes);
+		JvmType.Clazz clazz = recordClass(toType);
+		construct(clazz != null ? clazz : WHILEYRECORD,freeSlot,bytecodes);
 		bytecodes.add(new Bytecode.Store(newSlot,WHILEYRECORD));
 		Map<String,Type> toFields = toType.fields();
 		Map<String,Type> fromFields = fromType.fields();
@@ -2689,7 +3541,9 @@ public class Wyil2JavaBuilder implements Builder {
 			Type to = toFields.get(key);
 			Type from = fromFields.get(key);
 			bytecodes.add(new Bytecode.Load(newSlot,WHILEYRECORD));
-			bytecodes.add(new Bytecode.LoadConst(key));
+			if(clazz == null) {
+				bytecodes.add(new Bytecode.LoadConst(key));
+			}
 			bytecodes.add(new Bytecode.Load(oldSlot,WHILEYRECORD));
 			bytecodes.add(new Bytecode.LoadConst(key));
 			JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,JAVA_LANG_OBJECT);
@@ -2698,10 +3552,9 @@ public class Wyil2JavaBuilder implements Builder {
 			// better here.
 			addReadConversion(from,bytecodes);
 			addCoercion(from,to,freeSlot,constants,bytecodes);
+			addIncRefs(to,bytecodes);
 			addWriteConversion(from,bytecodes);
-			ftype = new JvmType.Function(JAVA_LANG_OBJECT,JAVA_LANG_OBJECT,JAVA_LANG_OBJECT);
-			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"put",ftype,Bytecode.InvokeMode.VIRTUAL));
-			bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
+			putField(clazz,key,bytecodes);
 		}
 		bytecodes.add(new Bytecode.Load(newSlot,WHILEYRECORD));
 	}
@@ -2853,10 +3706,94 @@ public class Wyil2JavaBuilder implements Builder {
 			}
 			return false;
 		} else {
-			// FIXME: what about negations?
+			// NOTE: a negation may include any compound structure
 			return t instanceof Type.Any || t instanceof Type.List
 					|| t instanceof Type.Tuple || t instanceof Type.Set
-					|| t instanceof Type.Map || t instanceof Type.Record;
+					|| t instanceof Type.Map || t instanceof Type.Record
+					|| t instanceof Type.Negation;
+		}
+	}
+
+	/**
+	 * Check whether a given register may be read again after the bytecode
+	 * currently being translated.
+	 *
+	 * @param register
+	 * @return
+	 */
+	private boolean isLiveAfter(int register) {
+		return liveAfter == null || liveAfter.contains(register);
+	}
+
+	/**
+	 * Check whether a given operand of the bytecode currently being translated
+	 * is the last use of its register. That is, the register is not live
+	 * afterwards and is not read by any other operand of the bytecode.
+	 *
+	 * @param index
+	 *            --- index of operand being considered.
+	 * @param operands
+	 *            --- all registers read by the bytecode.
+	 * @return
+	 */
+	private boolean isLastUse(int index, int... operands) {
+		int register = operands[index];
+		if (isLiveAfter(register)) {
+			return false;
+		}
+		for (int i = 0; i != operands.length; ++i) {
+			if (i != index && operands[i] == register) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Add bytecodes for passing the value of a register (which is on top of
+	 * the stack) to an operation which takes ownership of it, such as storing
+	 * it in a new structure, passing it to a function or updating it. On the
+	 * last use of the register, its value is simply moved. Otherwise, it
+	 * remains shared and its reference count is incremented to prevent it from
+	 * being updated in place.
+	 *
+	 * @param type
+	 *            --- type of value being passed.
+	 * @param index
+	 *            --- index of operand being passed.
+	 * @param operands
+	 *            --- all registers read by the bytecode.
+	 * @param bytecodes
+	 */
+	private void addOwnership(Type type, int index, int[] operands,
+			ArrayList<Bytecode> bytecodes) {
+		if (!isLastUse(index, operands)) {
+			addIncRefs(type, bytecodes);
+		}
+	}
+
+	/**
+	 * Add bytecodes for releasing the value of a register which was read (but
+	 * not retained) by the bytecode just translated, provided this was the
+	 * last use of the register. This allows the value to be subsequently
+	 * updated in place by whatever else references it.
+	 *
+	 * @param register
+	 *            --- register which was read.
+	 * @param type
+	 *            --- type of the register.
+	 * @param target
+	 *            --- register assigned by the bytecode (which is not
+	 *            released, since it no longer holds the value read).
+	 * @param bytecodes
+	 */
+	private void addRelease(int register, Type type, int target,
+			ArrayList<Bytecode> bytecodes) {
+		if (register != target && !isLiveAfter(register) && isRefCounted(type)) {
+			bytecodes.add(new Bytecode.Load(register, convertType(type)));
+			JvmType.Function ftype = new JvmType.Function(T_VOID, JAVA_LANG_OBJECT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "decRefs", ftype,
+					Bytecode.InvokeMode.STATIC));
 		}
 	}
 
@@ -2899,6 +3836,14 @@ public class Wyil2JavaBuilder implements Builder {
 	 */
 	private void construct(JvmType.Clazz owner, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
+		if (persistentCollections
+				&& (owner.equals(WHILEYLIST) || owner.equals(WHILEYSET) || owner
+						.equals(WHILEYMAP))) {
+			JvmType.Function ftype = new JvmType.Function(owner);
+			bytecodes.add(new Bytecode.Invoke(owner, "persistent", ftype,
+					Bytecode.InvokeMode.STATIC));
+			return;
+		}
 		bytecodes.add(new Bytecode.New(owner));
 		bytecodes.add(new Bytecode.Dup(owner));
 		ArrayList<JvmType> paramTypes = new ArrayList<JvmType>();
@@ -2907,6 +3852,26 @@ public class Wyil2JavaBuilder implements Builder {
 				Bytecode.InvokeMode.SPECIAL));
 	}
 
+	/**
+	 * Construct an empty list which will hold a given number of items. When
+	 * persistent collections are enabled, the size is not needed.
+	 *
+	 * @param size
+	 * @param bytecodes
+	 */
+	private void constructList(int size, ArrayList<Bytecode> bytecodes) {
+		if (persistentCollections) {
+			construct(WHILEYLIST, 0, bytecodes);
+		} else {
+			bytecodes.add(new Bytecode.New(WHILEYLIST));
+			bytecodes.add(new Bytecode.Dup(WHILEYLIST));
+			bytecodes.add(new Bytecode.LoadConst(size));
+			JvmType.Function ftype = new JvmType.Function(T_VOID, T_INT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "<init>", ftype,
+					Bytecode.InvokeMode.SPECIAL));
+		}
+	}
+
 	private final static Type.Record WHILEY_PRINTWRITER_T = Type.Record(false,
 			new HashMap() {
 		{
@@ -2934,6 +3899,7 @@ public class Wyil2JavaBuilder implements Builder {
 	private final static JvmType.Clazz WHILEYOBJECT = new JvmType.Clazz("wyjc.runtime", "WyObject");
 	private final static JvmType.Clazz WHILEYEXCEPTION = new JvmType.Clazz("wyjc.runtime","WyException");
 	private final static JvmType.Clazz WHILEYINT = new JvmType.Clazz("java.math","BigInteger");
+	private final static JvmType.Clazz WHILEYINTOPS = new JvmType.Clazz("wyjc.runtime","WyInt");
 	private final static JvmType.Clazz WHILEYRAT = new JvmType.Clazz("wyjc.runtime","WyRat");
 	private final static JvmType.Clazz WHILEYLAMBDA = new JvmType.Clazz("wyjc.runtime","WyLambda");
 
@@ -2942,6 +3908,8 @@ public class Wyil2JavaBuilder implements Builder {
 	private static final JvmType.Array JAVA_LANG_OBJECT_ARRAY = new JvmType.Array(JAVA_LANG_OBJECT);
 	private static final JvmType.Clazz JAVA_UTIL_LIST = new JvmType.Clazz("java.util","List");
 	private static final JvmType.Clazz JAVA_UTIL_SET = new JvmType.Clazz("java.util","Set");
+	private static final JvmType.Clazz JAVA_UTIL_HASHMAP = new JvmType.Clazz("java.util","HashMap");
+	private static final JvmType.Clazz JAVA_UTIL_MAP_ENTRY = new JvmType.Clazz("java.util","Map","Entry");
 	//private static final JvmType.Clazz JAVA_LANG_REFLECT_METHOD = new JvmType.Clazz("java.lang.reflect","Method");
 	private static final JvmType.Clazz JAVA_IO_PRINTSTREAM = new JvmType.Clazz("java.io","PrintStream");
 	private static final JvmType.Clazz JAVA_LANG_RUNTIMEEXCEPTION = new JvmType.Clazz("java.lang","RuntimeException");
@@ -3060,6 +4028,65 @@ public class Wyil2JavaBuilder implements Builder {
 			}
 		}
 	}
+	/**
+	 * A table mapping each of the distinct constants in a switch statement to
+	 * the index of its branch. This is used to dispatch switches on constants
+	 * which cannot be used directly with the JVM switch bytecodes.
+	 */
+	private static final class JvmSwitchTable extends JvmConstant {
+		public final ArrayList<Constant> values;
+		public JvmSwitchTable(ArrayList<Constant> values) {
+			this.values = values;
+		}
+		public boolean equals(Object o) {
+			if(o instanceof JvmSwitchTable) {
+				JvmSwitchTable t = (JvmSwitchTable) o;
+				return values.equals(t.values);
+			}
+			return false;
+		}
+		public int hashCode() {
+			return values.hashCode();
+		}
+		public static int get(ArrayList<Constant> values, HashMap<JvmConstant,Integer> constants) {
+			JvmSwitchTable vc = new JvmSwitchTable(values);
+			Integer r = constants.get(vc);
+			if(r != null) {
+				return r;
+			} else {
+				int x = constants.size();
+				constants.put(vc, x);
+				return x;
+			}
+		}
+	}
+	private static final class JvmTypeTest extends JvmConstant {
+		public final Type test;
+		public JvmTypeTest(Type test) {
+			this.test = test;
+		}
+		public boolean equals(Object o) {
+			if(o instanceof JvmTypeTest) {
+				JvmTypeTest t = (JvmTypeTest) o;
+				return test.equals(t.test);
+			}
+			return false;
+		}
+		public int hashCode() {
+			return test.hashCode();
+		}
+		public static int get(Type test, HashMap<JvmConstant,Integer> constants) {
+			JvmTypeTest vc = new JvmTypeTest(test);
+			Integer r = constants.get(vc);
+			if(r != null) {
+				return r;
+			} else {
+				int x = constants.size();
+				constants.put(vc, x);
+				return x;
+			}
+		}
+	}
 	private static final class JvmCoercion extends JvmConstant {
 		public final Type from;
 		public final Type to;
@@ -47,7 +47,9 @@ public class WyjcMain extends WycMain {
 
 	public static final OptArg[] EXTRA_OPTIONS = {
 		new OptArg("classdir", "cd", OptArg.FILEDIR, "Specify where to place generated class files",
-			new File("."))
+			new File(".")),
+		new OptArg("persistent",
+			"Generate code using persistent (i.e. structurally shared) collections")
 	};
 
 	public static OptArg[] DEFAULT_OPTIONS;
@@ -75,6 +77,9 @@ public class WyjcMain extends WycMain {
 		if (classDir != null) {
 			((WyjcBuildTask) builder).setClassDir(classDir);
 		}
+
+		((WyjcBuildTask) builder).setPersistentCollections(values
+				.containsKey("persistent"));
 	}
 
 	public static void main(String[] args) {
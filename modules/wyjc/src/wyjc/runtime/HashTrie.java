@@ -0,0 +1,479 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.runtime;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * A persistent hash map, implemented as a hash array mapped trie (HAMT). Each
+ * node consumes five bits of an item's hash code, and holds a bitmap
+ * identifying which of its 32 slots are occupied, followed by a compact array
+ * of the occupied slots. Keys whose hash codes are identical are held together
+ * in a collision node. Items are accessed, added and removed in
+ * <code>O(log n)</code> time. This is used as the underlying representation of
+ * a <code>WyMap</code> or <code>WySet</code> when persistent collections are
+ * enabled (in the latter case, every key maps to itself).
+ * </p>
+ *
+ * <p>
+ * As for <code>ListTrie</code>, every node records the <i>edit token</i> of
+ * the trie which created it, and may only be updated in place by that trie.
+ * Calling <code>share()</code> gives both tries fresh tokens, after which every
+ * existing node is immutable.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class HashTrie {
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	/**
+	 * Indicates that a key is not present in the trie. This is necessary
+	 * because <code>null</code> is a valid Whiley value.
+	 */
+	static final Object NOT_FOUND = new Object();
+
+	/**
+	 * Stands in for a <code>null</code> key, since a <code>null</code> key
+	 * slot identifies a child node.
+	 */
+	private static final Object NULL_KEY = new Object();
+
+	/**
+	 * A bitmap indexed node. The array holds a key-value pair for each
+	 * occupied slot, where a <code>null</code> key indicates the value is a
+	 * child node.
+	 */
+	private static final class Node {
+		final Object edit;
+		int bitmap;
+		Object[] array;
+
+		Node(Object edit, int bitmap, Object[] array) {
+			this.edit = edit;
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+	}
+
+	/**
+	 * A node holding two or more key-value pairs whose keys have identical
+	 * hash codes.
+	 */
+	private static final class Collision {
+		final Object edit;
+		final int hash;
+		Object[] array;
+
+		Collision(Object edit, int hash, Object[] array) {
+			this.edit = edit;
+			this.hash = hash;
+			this.array = array;
+		}
+	}
+
+	private Object edit = new Object();
+	private int size;
+	private Node root;
+
+	// Used to return the value replaced, or removed, by an update.
+	private Object old;
+
+	public HashTrie() {
+		this.root = new Node(edit, 0, new Object[0]);
+	}
+
+	private HashTrie(int size, Node root) {
+		this.size = size;
+		this.root = root;
+	}
+
+	/**
+	 * Construct a new trie which shares all of the nodes of this trie. After
+	 * this, neither trie can update the existing nodes in place.
+	 *
+	 * @return
+	 */
+	public HashTrie share() {
+		edit = new Object();
+		return new HashTrie(size, root);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the value associated with a given key, or <code>NOT_FOUND</code>.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public Object get(Object key) {
+		key = mask(key);
+		int hash = key.hashCode();
+		Object node = root;
+		for(int shift = 0; ; shift += BITS) {
+			if(node instanceof Collision) {
+				Collision c = (Collision) node;
+				int i = c.hash == hash ? find(c, key) : -1;
+				return i < 0 ? NOT_FOUND : c.array[i + 1];
+			}
+			Node n = (Node) node;
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if((n.bitmap & bit) == 0) {
+				return NOT_FOUND;
+			}
+			int i = 2 * Integer.bitCount(n.bitmap & (bit - 1));
+			Object k = n.array[i];
+			if(k == null) {
+				node = n.array[i + 1];
+			} else if(k.equals(key)) {
+				return n.array[i + 1];
+			} else {
+				return NOT_FOUND;
+			}
+		}
+	}
+
+	/**
+	 * Associate a given key with a given value, returning the value previously
+	 * associated with it (or <code>NOT_FOUND</code>).
+	 *
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public Object put(Object key, Object value) {
+		key = mask(key);
+		old = NOT_FOUND;
+		root = (Node) put(root, 0, key.hashCode(), key, value);
+		if(old == NOT_FOUND) {
+			size++;
+		}
+		return release();
+	}
+
+	/**
+	 * Remove a given key, returning the value previously associated with it
+	 * (or <code>NOT_FOUND</code>).
+	 *
+	 * @param key
+	 * @return
+	 */
+	public Object remove(Object key) {
+		key = mask(key);
+		old = NOT_FOUND;
+		Object r = remove(root, 0, key.hashCode(), key);
+		root = r != null ? (Node) r : new Node(edit, 0, new Object[0]);
+		if(old != NOT_FOUND) {
+			size--;
+		}
+		return release();
+	}
+
+	/**
+	 * Iterate the entries of this trie.
+	 *
+	 * @return
+	 */
+	public java.util.Iterator<Map.Entry<Object,Object>> iterator() {
+		return new Iterator(root);
+	}
+
+	// ================================================================================
+	// Internals
+	// ================================================================================
+
+	private Object put(Object node, int shift, int hash, Object key,
+			Object value) {
+		if(node instanceof Collision) {
+			Collision c = (Collision) node;
+			if(c.hash != hash) {
+				// nest the collision node beneath a bitmap node
+				int bit = 1 << ((c.hash >>> shift) & MASK);
+				Node n = new Node(edit, bit, new Object[] { null, c });
+				return put(n, shift, hash, key, value);
+			}
+			int i = find(c, key);
+			c = editable(c);
+			if(i >= 0) {
+				old = c.array[i + 1];
+				c.array[i + 1] = value;
+			} else {
+				c.array = insert(c.array, c.array.length, key, value);
+			}
+			return c;
+		}
+		Node n = (Node) node;
+		int bit = 1 << ((hash >>> shift) & MASK);
+		int i = 2 * Integer.bitCount(n.bitmap & (bit - 1));
+		if((n.bitmap & bit) == 0) {
+			n = editable(n);
+			n.array = insert(n.array, i, key, value);
+			n.bitmap |= bit;
+			return n;
+		}
+		Object k = n.array[i];
+		Object v = n.array[i + 1];
+		Object nv;
+		if(k == null) {
+			nv = put(v, shift + BITS, hash, key, value);
+		} else if(k.equals(key)) {
+			old = v;
+			nv = value;
+		} else {
+			nv = pair(shift + BITS, k, v, hash, key, value);
+			k = null;
+		}
+		n = editable(n);
+		n.array[i] = k;
+		n.array[i + 1] = nv;
+		return n;
+	}
+
+	private Object remove(Object node, int shift, int hash, Object key) {
+		if(node instanceof Collision) {
+			Collision c = (Collision) node;
+			int i = c.hash == hash ? find(c, key) : -1;
+			if(i < 0) {
+				return c;
+			}
+			old = c.array[i + 1];
+			if(c.array.length == 2) {
+				return null;
+			}
+			c = editable(c);
+			c.array = delete(c.array, i);
+			return c;
+		}
+		Node n = (Node) node;
+		int bit = 1 << ((hash >>> shift) & MASK);
+		if((n.bitmap & bit) == 0) {
+			return n;
+		}
+		int i = 2 * Integer.bitCount(n.bitmap & (bit - 1));
+		Object k = n.array[i];
+		if(k == null) {
+			Object child = n.array[i + 1];
+			Object nchild = remove(child, shift + BITS, hash, key);
+			if(nchild == child) {
+				return n;
+			} else if(nchild != null) {
+				n = editable(n);
+				n.array[i + 1] = nchild;
+				return n;
+			}
+		} else if(k.equals(key)) {
+			old = n.array[i + 1];
+		} else {
+			return n;
+		}
+		// at this point, slot i is being emptied
+		if(n.bitmap == bit && shift > 0) {
+			return null;
+		}
+		n = editable(n);
+		n.array = delete(n.array, i);
+		n.bitmap ^= bit;
+		return n;
+	}
+
+	/**
+	 * Construct a node holding two distinct keys.
+	 */
+	private Object pair(int shift, Object k1, Object v1, int h2, Object k2,
+			Object v2) {
+		int h1 = k1.hashCode();
+		if(h1 == h2) {
+			return new Collision(edit, h1, new Object[] { k1, v1, k2, v2 });
+		}
+		Node n = new Node(edit, 0, new Object[0]);
+		n = (Node) put(n, shift, h1, k1, v1);
+		return put(n, shift, h2, k2, v2);
+	}
+
+	private Node editable(Node n) {
+		if(n.edit == edit) {
+			return n;
+		} else {
+			return new Node(edit, n.bitmap, n.array.clone());
+		}
+	}
+
+	private Collision editable(Collision c) {
+		if(c.edit == edit) {
+			return c;
+		} else {
+			return new Collision(edit, c.hash, c.array.clone());
+		}
+	}
+
+	private Object release() {
+		Object r = old;
+		old = null;
+		return r;
+	}
+
+	private static int find(Collision c, Object key) {
+		Object[] array = c.array;
+		for(int i = 0; i < array.length; i += 2) {
+			if(array[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static Object[] insert(Object[] array, int i, Object key,
+			Object value) {
+		Object[] r = new Object[array.length + 2];
+		System.arraycopy(array, 0, r, 0, i);
+		r[i] = key;
+		r[i + 1] = value;
+		System.arraycopy(array, i, r, i + 2, array.length - i);
+		return r;
+	}
+
+	private static Object[] delete(Object[] array, int i) {
+		Object[] r = new Object[array.length - 2];
+		System.arraycopy(array, 0, r, 0, i);
+		System.arraycopy(array, i + 2, r, i, r.length - i);
+		return r;
+	}
+
+	private static Object mask(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	private static Object unmask(Object key) {
+		return key == NULL_KEY ? null : key;
+	}
+
+	/**
+	 * Iterates the entries of a trie in depth-first order. The trie has at
+	 * most seven levels of bitmap nodes (i.e. 32 bits consumed five at a
+	 * time), plus one level of collision nodes.
+	 */
+	private static final class Iterator implements
+			java.util.Iterator<Map.Entry<Object, Object>> {
+		private final Object[][] arrays = new Object[8][];
+		private final int[] indices = new int[8];
+		private int depth;
+
+		Iterator(Node root) {
+			arrays[0] = root.array;
+			advance();
+		}
+
+		public boolean hasNext() {
+			return depth >= 0;
+		}
+
+		public Map.Entry<Object, Object> next() {
+			if(depth < 0) {
+				throw new NoSuchElementException();
+			}
+			Object[] array = arrays[depth];
+			int i = indices[depth];
+			indices[depth] = i + 2;
+			Map.Entry<Object, Object> e = new Entry(unmask(array[i]),
+					array[i + 1]);
+			advance();
+			return e;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Move to the next key-value pair, descending into child nodes as
+		 * necessary. When there are none left, depth becomes negative.
+		 */
+		private void advance() {
+			while(depth >= 0) {
+				Object[] array = arrays[depth];
+				int i = indices[depth];
+				if(i >= array.length) {
+					depth--;
+				} else if(array[i] != null) {
+					return;
+				} else {
+					indices[depth] = i + 2;
+					Object child = array[i + 1];
+					depth++;
+					if(child instanceof Node) {
+						arrays[depth] = ((Node) child).array;
+					} else {
+						arrays[depth] = ((Collision) child).array;
+					}
+					indices[depth] = 0;
+				}
+			}
+		}
+	}
+
+	private static final class Entry implements Map.Entry<Object, Object> {
+		private final Object key;
+		private final Object value;
+
+		Entry(Object key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public Object getKey() {
+			return key;
+		}
+
+		public Object getValue() {
+			return value;
+		}
+
+		public Object setValue(Object value) {
+			throw new UnsupportedOperationException();
+		}
+
+		public boolean equals(Object o) {
+			if(o instanceof Map.Entry) {
+				Map.Entry e = (Map.Entry) o;
+				return Util.equals(key, e.getKey())
+						&& Util.equals(value, e.getValue());
+			}
+			return false;
+		}
+
+		public int hashCode() {
+			return (key == null ? 0 : key.hashCode())
+					^ (value == null ? 0 : value.hashCode());
+		}
+	}
+}
@@ -0,0 +1,257 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.runtime;
+
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * A persistent vector, implemented as a bit-partitioned trie of branching
+ * factor 32 with a separate tail node. Items are accessed and updated in
+ * <code>O(log n)</code> time and appended in amortised constant time. This is
+ * used as the underlying representation of a <code>WyList</code> when
+ * persistent collections are enabled.
+ * </p>
+ *
+ * <p>
+ * Every node records the <i>edit token</i> of the trie which created it. A
+ * trie may update its own nodes in place, but must copy any other node along
+ * the path being updated. Calling <code>share()</code> gives both tries fresh
+ * tokens, after which every existing node is shared and, hence, immutable.
+ * Thus, sharing costs <code>O(1)</code> and a subsequent update copies only
+ * <code>O(log n)</code> nodes.
+ * </p>
+ *
+ * <p>
+ * <b>NOTE:</b> since nodes may be shared between any number of lists, the
+ * reference counts of the items held in a trie cannot be trusted. Instead,
+ * items are counted when they are added to a trie, and counted again whenever
+ * they are read out of one.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class ListTrie {
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	private static final class Node {
+		final Object edit;
+		final Object[] array;
+
+		Node(Object edit, Object[] array) {
+			this.edit = edit;
+			this.array = array;
+		}
+	}
+
+	private static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+
+	private Object edit = new Object();
+	private int size;
+	private int shift;
+	private Node root;
+	private Node tail;
+
+	public ListTrie() {
+		this.shift = BITS;
+		this.root = EMPTY_NODE;
+		this.tail = new Node(edit, new Object[WIDTH]);
+	}
+
+	public ListTrie(Iterable items) {
+		this();
+		for(Object item : items) {
+			add(item);
+		}
+	}
+
+	private ListTrie(int size, int shift, Node root, Node tail) {
+		this.size = size;
+		this.shift = shift;
+		this.root = root;
+		this.tail = tail;
+	}
+
+	/**
+	 * Construct a new trie which shares all of the nodes of this trie. After
+	 * this, neither trie can update the existing nodes in place.
+	 *
+	 * @return
+	 */
+	public ListTrie share() {
+		edit = new Object();
+		return new ListTrie(size, shift, root, tail);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Object get(int index) {
+		checkIndex(index);
+		return arrayFor(index)[index & MASK];
+	}
+
+	/**
+	 * Replace the item at a given index, returning the item previously held
+	 * there.
+	 *
+	 * @param index
+	 * @param item
+	 * @return
+	 */
+	public Object set(int index, Object item) {
+		checkIndex(index);
+		Node node;
+		if(index >= tailOffset()) {
+			node = tail = editable(tail);
+		} else {
+			node = root = editable(root);
+			for(int level = shift; level > 0; level -= BITS) {
+				int i = (index >>> level) & MASK;
+				Node child = editable((Node) node.array[i]);
+				node.array[i] = child;
+				node = child;
+			}
+		}
+		Object old = node.array[index & MASK];
+		node.array[index & MASK] = item;
+		return old;
+	}
+
+	public void add(Object item) {
+		if(size - tailOffset() < WIDTH) {
+			tail = editable(tail);
+			tail.array[size & MASK] = item;
+		} else {
+			// the tail is full, so push it into the trie
+			Node full = tail;
+			tail = new Node(edit, new Object[WIDTH]);
+			tail.array[0] = item;
+			if((size >>> BITS) > (1 << shift)) {
+				// the trie is full, so it grows a level
+				Node nroot = new Node(edit, new Object[WIDTH]);
+				nroot.array[0] = root;
+				nroot.array[1] = newPath(shift, full);
+				root = nroot;
+				shift += BITS;
+			} else {
+				root = pushTail(shift, root, full);
+			}
+		}
+		size++;
+	}
+
+	public java.util.Iterator iterator() {
+		return new Iterator();
+	}
+
+	private Object[] arrayFor(int index) {
+		if(index >= tailOffset()) {
+			return tail.array;
+		}
+		Node node = root;
+		for(int level = shift; level > 0; level -= BITS) {
+			node = (Node) node.array[(index >>> level) & MASK];
+		}
+		return node.array;
+	}
+
+	private int tailOffset() {
+		if(size < WIDTH) {
+			return 0;
+		} else {
+			return ((size - 1) >>> BITS) << BITS;
+		}
+	}
+
+	private Node pushTail(int level, Node parent, Node full) {
+		parent = editable(parent);
+		int i = ((size - 1) >>> level) & MASK;
+		Node child;
+		if(level == BITS) {
+			child = full;
+		} else {
+			Node existing = (Node) parent.array[i];
+			if(existing != null) {
+				child = pushTail(level - BITS, existing, full);
+			} else {
+				child = newPath(level - BITS, full);
+			}
+		}
+		parent.array[i] = child;
+		return parent;
+	}
+
+	private Node newPath(int level, Node node) {
+		if(level == 0) {
+			return node;
+		}
+		Node r = new Node(edit, new Object[WIDTH]);
+		r.array[0] = newPath(level - BITS, node);
+		return r;
+	}
+
+	private Node editable(Node node) {
+		if(node.edit == edit) {
+			return node;
+		} else {
+			return new Node(edit, node.array.clone());
+		}
+	}
+
+	private void checkIndex(int index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	private final class Iterator implements java.util.Iterator {
+		private int index;
+		private Object[] array;
+
+		public boolean hasNext() {
+			return index < size;
+		}
+
+		public Object next() {
+			if(index >= size) {
+				throw new NoSuchElementException();
+			}
+			if((index & MASK) == 0) {
+				array = arrayFor(index);
+			}
+			return array[index++ & MASK];
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -120,6 +120,26 @@ public class Util {
 	private static long nrecord_elems = 0;
 	static int nrecord_strong_updates = 0;
 
+	/**
+	 * Get the number of times a list has been cloned because it was shared
+	 * when updated.
+	 *
+	 * @return
+	 */
+	public static int listClones() {
+		return nlist_clones;
+	}
+
+	/**
+	 * Get the number of times a list has been updated in place because it was
+	 * not shared when updated.
+	 *
+	 * @return
+	 */
+	public static int listInplaceUpdates() {
+		return nlist_inplace_updates;
+	}
+
 	public static void countRefs(WyList l) {
 		total_ref_count += l.refCount;
 		total_population++;
@@ -185,7 +205,7 @@ public class Util {
 	}
 
 	public static BigInteger stringlength(final String lhs) {
-		return BigInteger.valueOf(lhs.length());
+		return WyInt.valueOf(lhs.length());
 	}
 
 	public static String substring(final String lhs, final BigInteger _start, final BigInteger _end) {
@@ -213,13 +233,12 @@ public class Util {
 	public static WyList range(BigInteger start, BigInteger end) {
 		WyList l = new WyList();
 
-		long st = start.longValue();
-		long en = start.longValue();
-		if (BigInteger.valueOf(st).equals(start)
-				&& BigInteger.valueOf(en).equals(end)) {
+		if (start.bitLength() < 64 && end.bitLength() < 64) {
+			long st = start.longValue();
+			long en = end.longValue();
 			int dir = st < en ? 1 : -1;
 			while(st != en) {
-				l.add(BigInteger.valueOf(st));
+				l.add(WyInt.valueOf(st));
 				st = st + dir;
 			}
 		} else {
@@ -274,7 +293,7 @@ public class Util {
 	public static WyList str2il(String str) {
 		WyList r = new WyList(str.length());
 		for(int i=0;i!=str.length();++i) {
-			r.add(BigInteger.valueOf(str.charAt(i)));
+			r.add(WyInt.valueOf(str.charAt(i)));
 		}
 		return r;
 	}
@@ -300,7 +319,7 @@ public class Util {
 	public static WySet str2is(String str) {
 		WySet r = new WySet();
 		for(int i=0;i!=str.length();++i) {
-			r.add(BigInteger.valueOf(str.charAt(i)));
+			r.add(WyInt.valueOf(str.charAt(i)));
 		}
 		return r;
 	}
@@ -331,7 +350,7 @@ public class Util {
 	 * Increment the reference count for an object. In some cases, this may
 	 * have no effect. In other cases, the current reference count will be
 	 * maintained and in-place updates can only occur when the reference count is
-	 * one.
+	 * zero (i.e. there are no other references).
 	 */
 	public static Object incRefs(Object obj) {
 		if(obj instanceof WyList) {
@@ -379,100 +398,56 @@ public class Util {
 	}
 
 	/**
-	 * Decrement the reference count for this object. In some cases, this may
-	 * have no effect. In other cases, the current reference count will be
-	 * maintained and in-place updates can only occur when the reference count is
-	 * one.
+	 * Decrement the reference count for an object. This is used when a
+	 * reference to it is released, either because the variable holding it is
+	 * no longer live, or because it was consumed by an update which cloned it.
+	 * In some cases, this may have no effect. Since a reference count of zero
+	 * indicates the sole remaining reference, it never drops below zero. In
+	 * such case, the object is no longer reachable, but the items it holds are
+	 * not released (i.e. they remain conservatively counted).
 	 */
 	public static void decRefs(Object obj) {
-//		if(obj instanceof List) {
-//			List list = (List) obj;
-//			list.refCount--;
-//			if(list.refCount == 0) {
-//				for(Object o : list) {
-//					decRefs(o);
-//				}
-//			}
-//		} else if(obj instanceof Record) {
-//			Record rec = (Record) obj;
-//			rec.refCount--;
-//			if(rec.refCount == 0) {
-//				for(Object o : rec.values()) {
-//					decRefs(o);
-//				}
-//			}
-//		} else if(obj instanceof Set) {
-//			Set set = (Set) obj;
-//			set.refCount--;
-//			if(set.refCount == 0) {
-//				for(Object o : set) {
-//					decRefs(o);
-//				}
-//			}
-//		} else if(obj instanceof Dictionary) {
-//			Dictionary dict = (Dictionary) obj;
-//			dict.refCount--;
-//			if(dict.refCount == 0) {
-//				for(Map.Entry e : dict.entrySet()) {
-//					decRefs(e.getKey());
-//					decRefs(e.getValue());
-//				}
-//			}
-//		} else if(obj instanceof Tuple) {
-//			Tuple tuple = (Tuple) obj;
-//			tuple.refCount--;
-//			if(tuple.refCount == 0) {
-//				for(Object o : tuple) {
-//					decRefs(o);
-//				}
-//			}
-//		}
+		if(obj instanceof WyList) {
+			decRefs((WyList) obj);
+		} else if(obj instanceof WyRecord) {
+			decRefs((WyRecord) obj);
+		} else if(obj instanceof WySet) {
+			decRefs((WySet) obj);
+		} else if(obj instanceof WyMap) {
+			decRefs((WyMap) obj);
+		} else if(obj instanceof WyTuple) {
+			decRefs((WyTuple) obj);
+		}
 	}
 
 	public static void decRefs(WyList list) {
-//		list.refCount--;
-//		if(list.refCount == 0) {
-//			for(Object o : list) {
-//				decRefs(o);
-//			}
-//		}
+		if(list.refCount > 0) {
+			list.refCount--;
+		}
 	}
 
 	public static void decRefs(WySet set) {
-//		set.refCount--;
-//		if(set.refCount == 0) {
-//			for(Object o : set) {
-//				decRefs(o);
-//			}
-//		}
+		if(set.refCount > 0) {
+			set.refCount--;
+		}
 	}
 
 	public static void decRefs(WyRecord rec) {
-//		rec.refCount--;
-//		if(rec.refCount == 0) {
-//			for(Object o : rec.values()) {
-//				decRefs(o);
-//			}
-//		}
+		if(rec.refCount > 0) {
+			rec.refCount--;
+		}
 	}
 
 	public static void decRefs(WyMap dict) {
-//		dict.refCount--;
-//		if(dict.refCount == 0) {
-//			for(Map.Entry e : dict.entrySet()) {
-//				decRefs(e.getKey());
-//				decRefs(e.getValue());
-//			}
-//		}
+		if(dict.refCount > 0) {
+			dict.refCount--;
+		}
 	}
 
 	public static void decRefs(WyTuple tuple) {
-//		tuple.refCount--;
-//		if(tuple.refCount == 0) {
-//			for(Object o : tuple) {
-//				decRefs(o);
-//			}
-//		}
+		if(tuple.refCount > 0) {
+			tuple.refCount--;
+		}
 	}
 
 	/**
@@ -1010,6 +985,18 @@ public class Util {
 	}
 
 	public static int compare(WyRecord o1, WyRecord o2) {
+		if(o1.names != null && o1.names == o2.names) {
+			// same generated representation, so the keys are already sorted
+			for(int i=0;i!=o1.names.length;++i) {
+				String mv = o1.getField(i).toString();
+				String tv = o2.getField(i).toString();
+				int c = mv.compareTo(tv);
+				if(c != 0) {
+					return c;
+				}
+			}
+			return 0;
+		}
 		ArrayList<String> mKeys = new ArrayList<String>(o1.keySet());
 		ArrayList<String> tKeys = new ArrayList<String>(o2.keySet());
 		Collections.sort(mKeys);
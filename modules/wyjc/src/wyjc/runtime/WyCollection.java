@@ -6,7 +6,6 @@ import java.util.Map;
 public class WyCollection {
 
 	public static java.util.Iterator iterator(Object col) {
-		Util.decRefs(col);
 		if(col instanceof java.util.Collection) {
 			java.util.Collection c = (java.util.Collection) col;
 			return c.iterator();
@@ -20,16 +19,15 @@ public class WyCollection {
 	}
 
 	public static BigInteger length(Object col) {
-		Util.decRefs(col);
 		if(col instanceof java.util.Collection) {
 			java.util.Collection c = (java.util.Collection) col;
-			return BigInteger.valueOf(c.size());
+			return WyInt.valueOf(c.size());
 		} else if (col instanceof java.util.Map) {
 			java.util.Map m = (java.util.Map) col;
-			return BigInteger.valueOf(m.size());
+			return WyInt.valueOf(m.size());
 		} else {
 			String s = (String) col;
-			return BigInteger.valueOf(s.length());
+			return WyInt.valueOf(s.length());
 		}
 	}
 
@@ -0,0 +1,163 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.runtime;
+
+import java.math.BigInteger;
+
+/**
+ * <p>
+ * Provides fast paths for arithmetic over Whiley integers. Whiley integers are
+ * unbounded and, hence, are represented using <code>BigInteger</code>. However,
+ * almost all integers which arise in practice (e.g. loop counters and list
+ * indices) are small. For these, the arithmetic is performed using
+ * <code>long</code> values instead, and the result is promoted back to a
+ * <code>BigInteger</code> only at the end. Since the operands are restricted
+ * to 62 bits, such arithmetic can never overflow.
+ * </p>
+ *
+ * <p>
+ * In addition, a cache of <code>BigInteger</code> instances is maintained for
+ * a range of small values. Thus, in the common case, loops and list indexing
+ * run without allocating any new objects at all.
+ * </p>
+ *
+ * <p>
+ * <b>NOTE:</b> <code>BigInteger</code> is retained as the representation of
+ * Whiley integers (rather than introducing a new class) since it is part of
+ * the interface between generated code, the runtime and native methods.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class WyInt {
+
+	/**
+	 * The smallest value held in the cache.
+	 */
+	private static final int CACHE_LOW = -1024;
+
+	/**
+	 * One more than the largest value held in the cache.
+	 */
+	private static final int CACHE_HIGH = 65536;
+
+	/**
+	 * The cache of small values, which is populated lazily. Races between
+	 * threads populating the same entry are harmless, since
+	 * <code>BigInteger</code> is immutable (and has only final fields).
+	 */
+	private static final BigInteger[] cache = new BigInteger[CACHE_HIGH
+			- CACHE_LOW];
+
+	/**
+	 * Operands with at most this many bits can be added, subtracted, divided
+	 * or negated using <code>long</code> arithmetic without overflow.
+	 */
+	private static final int SMALL = 62;
+
+	/**
+	 * Operands with at most this many bits can be multiplied using
+	 * <code>long</code> arithmetic without overflow.
+	 */
+	private static final int SMALLER = 31;
+
+	private WyInt() {}
+
+	public static BigInteger valueOf(long value) {
+		if (value >= CACHE_LOW && value < CACHE_HIGH) {
+			int index = (int) value - CACHE_LOW;
+			BigInteger r = cache[index];
+			if (r == null) {
+				r = BigInteger.valueOf(value);
+				cache[index] = r;
+			}
+			return r;
+		}
+		return BigInteger.valueOf(value);
+	}
+
+	public static BigInteger add(BigInteger lhs, BigInteger rhs) {
+		if (lhs.bitLength() <= SMALL && rhs.bitLength() <= SMALL) {
+			return valueOf(lhs.longValue() + rhs.longValue());
+		}
+		return lhs.add(rhs);
+	}
+
+	public static BigInteger subtract(BigInteger lhs, BigInteger rhs) {
+		if (lhs.bitLength() <= SMALL && rhs.bitLength() <= SMALL) {
+			return valueOf(lhs.longValue() - rhs.longValue());
+		}
+		return lhs.subtract(rhs);
+	}
+
+	public static BigInteger multiply(BigInteger lhs, BigInteger rhs) {
+		if (lhs.bitLength() <= SMALLER && rhs.bitLength() <= SMALLER) {
+			return valueOf(lhs.longValue() * rhs.longValue());
+		}
+		return lhs.multiply(rhs);
+	}
+
+	/**
+	 * Divide one integer by another, rounding towards zero. This follows
+	 * <code>BigInteger.divide()</code>, including for division by zero.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static BigInteger divide(BigInteger lhs, BigInteger rhs) {
+		if (lhs.bitLength() <= SMALL && rhs.bitLength() <= SMALL
+				&& rhs.signum() != 0) {
+			return valueOf(lhs.longValue() / rhs.longValue());
+		}
+		return lhs.divide(rhs);
+	}
+
+	/**
+	 * Determine the remainder of dividing one integer by another. As for
+	 * <code>BigInteger.remainder()</code>, the result takes the sign of the
+	 * dividend.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static BigInteger remainder(BigInteger lhs, BigInteger rhs) {
+		if (lhs.bitLength() <= SMALL && rhs.bitLength() <= SMALL
+				&& rhs.signum() != 0) {
+			return valueOf(lhs.longValue() % rhs.longValue());
+		}
+		return lhs.remainder(rhs);
+	}
+
+	public static BigInteger negate(BigInteger value) {
+		if (value.bitLength() <= SMALL) {
+			return valueOf(-value.longValue());
+		}
+		return value.negate();
+	}
+}
@@ -40,6 +40,10 @@ public abstract class WyLambda {
 			for (int i = 0, j = 0; i != bindings.length; ++i) {
 				if (bindings[i] == null) {
 					copyOfBindings[i] = parameters[j++];
+				} else {
+					// the bound value is passed on every call, and so must
+					// not be updated in place by the callee.
+					Util.incRefs(bindings[i]);
 				}
 			}
 			return copyOfBindings;
@@ -29,34 +29,183 @@ import java.math.BigInteger;
 import java.util.Collections;
 import java.util.Map;
 
-public final class WyList extends java.util.ArrayList {
+public final class WyList extends java.util.AbstractList implements java.util.RandomAccess {
 	/**
-	 * The reference count is use to indicate how many variables are currently
-	 * referencing this compound structure. This is useful for making imperative
-	 * updates more efficient. In particular, when the <code>refCount</code> is
-	 * <code>1</code> we can safely perform an in-place update of the structure.
+	 * The reference count is used to indicate how many additional variables
+	 * (or other structures) are currently referencing this compound structure.
+	 * This is useful for making imperative updates more efficient. In
+	 * particular, when the <code>refCount</code> is <code>0</code> the
+	 * structure is uniquely owned and we can safely perform an in-place update
+	 * of it.
 	 */
-	int refCount = 100; // temporary measure
+	int refCount = 0;
+
+	/**
+	 * The items of this list, when it is not persistent.
+	 */
+	private java.util.ArrayList items;
+
+	/**
+	 * The items of this list, when it is persistent. In this case, cloning the
+	 * list costs <code>O(1)</code> and the clone shares structure with the
+	 * original. See <code>ListTrie</code> for more details.
+	 */
+	private ListTrie trie;
+
+	/**
+	 * A type which every item of this list is known to satisfy, or
+	 * <code>null</code> if there is none. This is recorded by the type tests
+	 * generated by <code>Wyil2JavaBuilder</code>, which identify each type by an
+	 * interned string, so that repeated tests need not examine every item
+	 * again. It is forgotten whenever the list is updated in place.
+	 */
+	private Object checkedType;
 
 	// ================================================================================
 	// Generic Operations
 	// ================================================================================
 
 	public WyList() {
-		super();
+		this.items = new java.util.ArrayList();
 	}
 
 	public WyList(int size) {
-		super(size);
+		this.items = new java.util.ArrayList(size);
 	}
 
 	WyList(java.util.Collection items) {
-		super(items);
+		this.items = new java.util.ArrayList(items);
 		for(Object o : items) {
 			Util.incRefs(o);
 		}
 	}
 
+	private WyList(ListTrie trie) {
+		this.trie = trie;
+	}
+
+	/**
+	 * Construct an empty persistent list. Any list derived from this (e.g. by
+	 * updating or appending to it) is also persistent.
+	 *
+	 * @return
+	 */
+	public static WyList persistent() {
+		return new WyList(new ListTrie());
+	}
+
+	/**
+	 * Check whether this list is persistent or not. The items of a persistent
+	 * list may be shared with other lists and, hence, must always be counted
+	 * when read out of it.
+	 *
+	 * @return
+	 */
+	boolean isPersistent() {
+		return trie != null;
+	}
+
+	/**
+	 * Check whether every item of this list is known to satisfy a given type.
+	 * This is not intended for public consumption, and is used by generated
+	 * type tests only.
+	 *
+	 * @param type
+	 * @return
+	 */
+	public boolean hasCheckedType(Object type) {
+		return checkedType == type;
+	}
+
+	/**
+	 * Record that every item of this list satisfies a given type. This is not
+	 * intended for public consumption, and is used by generated type tests
+	 * only.
+	 *
+	 * @param type
+	 */
+	public void setCheckedType(Object type) {
+		checkedType = type;
+	}
+
+	public int size() {
+		return trie != null ? trie.size() : items.size();
+	}
+
+	public Object get(int index) {
+		return trie != null ? trie.get(index) : items.get(index);
+	}
+
+	public Object set(int index, Object item) {
+		checkedType = null;
+		return trie != null ? trie.set(index, item) : items.set(index, item);
+	}
+
+	public boolean add(Object item) {
+		checkedType = null;
+		if(trie != null) {
+			trie.add(item);
+		} else {
+			items.add(item);
+		}
+		return true;
+	}
+
+	public void add(int index, Object item) {
+		checkedType = null;
+		if(trie == null) {
+			items.add(index, item);
+		} else if(index == trie.size()) {
+			trie.add(item);
+		} else {
+			// NOTE: insertion into a persistent list costs O(n)
+			ListTrie r = new ListTrie();
+			for(int i = 0; i != index; ++i) {
+				r.add(trie.get(i));
+			}
+			r.add(item);
+			for(int i = index; i != trie.size(); ++i) {
+				r.add(trie.get(i));
+			}
+			trie = r;
+		}
+	}
+
+	public Object remove(int index) {
+		Object item = get(index);
+		removeRange(index, index + 1);
+		return item;
+	}
+
+	protected void removeRange(int start, int end) {
+		checkedType = null;
+		if(trie == null) {
+			items.subList(start, end).clear();
+		} else {
+			ListTrie r = new ListTrie();
+			for(int i = 0; i != start; ++i) {
+				r.add(trie.get(i));
+			}
+			for(int i = end; i != trie.size(); ++i) {
+				r.add(trie.get(i));
+			}
+			trie = r;
+		}
+	}
+
+	public void clear() {
+		checkedType = null;
+		if(trie != null) {
+			trie = new ListTrie();
+		} else {
+			items.clear();
+		}
+	}
+
+	public java.util.Iterator iterator() {
+		return trie != null ? trie.iterator() : items.iterator();
+	}
+
 	public String toString() {
 		String r = "[";
 		boolean firstTime=true;
@@ -84,13 +233,16 @@ public final class WyList extends java.util.ArrayList {
 		if(list.refCount > 0) {
 			Util.countClone(list);
 			// in this case, we need to clone the list in question
-			list = new WyList(list);
+			Util.decRefs(list);
+			list = copy(list);
 		} else {
 			Util.nlist_inplace_updates++;
 		}
-		Object v = list.set(index.intValue(),value);
-		Util.decRefs(v);
 		Util.incRefs(value);
+		Object v = list.set(index.intValue(),value);
+		if(list.trie == null) {
+			Util.decRefs(v);
+		}
 		return list;
 	}
 
@@ -99,7 +251,7 @@ public final class WyList extends java.util.ArrayList {
 		int st = start.intValue();
 		int en = end.intValue();
 
-		if(list.refCount == 0) {
+		if(list.refCount == 0 && list.trie == null) {
 			Util.nlist_inplace_updates++;
 			if(st <= en) {
 				for(int i=0;i!=st;++i) {
@@ -124,16 +276,20 @@ public final class WyList extends java.util.ArrayList {
 				return list;
 			}
 		} else {
+			Util.decRefs(list);
 			WyList r;
+			if(list.trie != null) {
+				r = persistent();
+			} else {
+				r = new WyList(Math.abs(en-st));
+			}
 			if(st <= en) {
-				r = new WyList(en-st);
 				for (int i = st; i != en; ++i) {
 					Object item = list.get(i);
 					Util.incRefs(item);
 					r.add(item);
 				}
 			} else {
-				r = new WyList(st-en);
 				for (int i = (st-1); i >= en; --i) {
 					Object item = list.get(i);
 					Util.incRefs(item);
@@ -146,7 +302,7 @@ public final class WyList extends java.util.ArrayList {
 	}
 
 	public static BigInteger length(WyList list) {
-		return BigInteger.valueOf(list.size());
+		return WyInt.valueOf(list.size());
 	}
 
 	public static WyList append(WyList lhs, WyList rhs) {
@@ -156,13 +312,20 @@ public final class WyList extends java.util.ArrayList {
 			Util.nlist_inplace_updates++;
 		} else {
 			Util.countClone(lhs);
-			lhs = new WyList(lhs);
+			Util.decRefs(lhs);
+			lhs = copy(lhs);
 		}
 
 		lhs.addAll(rhs);
 
-		for(Object o : rhs) {
-			Util.incRefs(o);
+		// when rhs is uniquely owned it is released by this operation, hence
+		// its items are moved (rather than copied) into lhs. However, the items
+		// of a persistent list may be shared with other lists.
+		if(rhs.refCount > 0 || rhs.trie != null) {
+			for(Object o : rhs) {
+				Util.incRefs(o);
+			}
+			Util.decRefs(rhs);
 		}
 
 		return lhs;
@@ -174,7 +337,8 @@ public final class WyList extends java.util.ArrayList {
 			Util.nlist_inplace_updates++;
 		} else {
 			Util.countClone(list);
-			list = new WyList(list);
+			Util.decRefs(list);
+			list = copy(list);
 		}
 		list.add(item);
 		Util.incRefs(item);
@@ -187,7 +351,8 @@ public final class WyList extends java.util.ArrayList {
 			Util.nlist_inplace_updates++;
 		} else {
 			Util.countClone(list);
-			list = new WyList(list);
+			Util.decRefs(list);
+			list = copy(list);
 		}
 		list.add(0,item);
 		Util.incRefs(item);
@@ -221,13 +386,59 @@ public final class WyList extends java.util.ArrayList {
 	 */
 	public static Object internal_get(WyList list, BigInteger index) {
 		Object item = list.get(index.intValue());
-		if(list.refCount > 0) {
+		if(list.refCount > 0 || list.trie != null) {
 			Util.incRefs(item);
 		}
 		return item;
 	}
 
+	/**
+	 * This method is not intended for public consumption. It is used internally
+	 * by the compiler during imperative updates only. Unlike
+	 * <code>set()</code>, the value is moved (rather than copied) into the
+	 * list, since it was previously obtained from <code>internal_get()</code>.
+	 *
+	 * @param list
+	 * @param index
+	 * @param value
+	 * @return
+	 */
+	public static WyList internal_set(WyList list, final BigInteger index, final Object value) {
+		Util.countRefs(list);
+		if(list.refCount > 0) {
+			Util.countClone(list);
+			Util.decRefs(list);
+			list = copy(list);
+			Object old = list.set(index.intValue(),value);
+			// the clone's reference to the original item is overwritten
+			if(list.trie == null) {
+				Util.decRefs(old);
+			}
+		} else {
+			Util.nlist_inplace_updates++;
+			list.set(index.intValue(),value);
+		}
+		return list;
+	}
+
 	public static java.util.Iterator iterator(WyList list) {
 		return list.iterator();
 	}
+
+	/**
+	 * Clone a list which is about to be updated. For a persistent list, this
+	 * costs <code>O(1)</code> since the clone shares structure with the
+	 * original, and its items are not counted again (since they will be
+	 * counted when read out of either list).
+	 *
+	 * @param list
+	 * @return
+	 */
+	private static WyList copy(WyList list) {
+		if(list.trie != null) {
+			return new WyList(list.trie.share());
+		} else {
+			return new WyList(list.items);
+		}
+	}
 }
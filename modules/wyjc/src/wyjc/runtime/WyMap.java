@@ -28,31 +28,166 @@ package wyjc.runtime;
 import java.math.BigInteger;
 import java.util.*;
 
-public final class WyMap extends java.util.HashMap<Object,Object> {
+public final class WyMap extends java.util.AbstractMap<Object,Object> {
 	/**
-	 * The reference count is use to indicate how many variables are currently
-	 * referencing this compound structure. This is useful for making imperative
-	 * updates more efficient. In particular, when the <code>refCount</code> is
-	 * <code>1</code> we can safely perform an in-place update of the structure.
+	 * The reference count is used to indicate how many additional variables
+	 * (or other structures) are currently referencing this compound structure.
+	 * This is useful for making imperative updates more efficient. In
+	 * particular, when the <code>refCount</code> is <code>0</code> the
+	 * structure is uniquely owned and we can safely perform an in-place update
+	 * of it.
 	 */
-	int refCount = 100;  // temporary measure
+	int refCount = 0;
+
+	/**
+	 * The entries of this map, when it is not persistent.
+	 */
+	private HashMap<Object,Object> items;
+
+	/**
+	 * The entries of this map, when it is persistent. See
+	 * <code>HashTrie</code> for more details.
+	 */
+	private HashTrie trie;
+
+	/**
+	 * A type which every key and value of this map is known to satisfy, or
+	 * <code>null</code> if there is none. This is recorded by the type tests
+	 * generated by <code>Wyil2JavaBuilder</code>, which identify each type by an
+	 * interned string, so that repeated tests need not examine every entry
+	 * again. It is forgotten whenever the map is updated in place.
+	 */
+	private Object checkedType;
 
 	// ================================================================================
 	// Generic Operations
 	// ================================================================================
 
 	public WyMap() {
-
+		this.items = new HashMap<Object,Object>();
 	}
 
 	WyMap(WyMap dict) {
-		super(dict);
+		this.items = new HashMap<Object,Object>(dict);
 		for(Map.Entry e : dict.entrySet()) {
 			Util.incRefs(e.getKey());
 			Util.incRefs(e.getValue());
 		}
 	}
 
+	private WyMap(HashTrie trie) {
+		this.trie = trie;
+	}
+
+	/**
+	 * Construct an empty persistent map. Any map derived from this (e.g. by
+	 * updating it) is also persistent.
+	 *
+	 * @return
+	 */
+	public static WyMap persistent() {
+		return new WyMap(new HashTrie());
+	}
+
+	/**
+	 * Check whether this map is persistent or not. The keys and values of a
+	 * persistent map may be shared with other maps and, hence, must always be
+	 * counted when read out of it.
+	 *
+	 * @return
+	 */
+	boolean isPersistent() {
+		return trie != null;
+	}
+
+	/**
+	 * Check whether every entry of this map is known to satisfy a given type.
+	 * This is not intended for public consumption, and is used by generated
+	 * type tests only.
+	 *
+	 * @param type
+	 * @return
+	 */
+	public boolean hasCheckedType(Object type) {
+		return checkedType == type;
+	}
+
+	/**
+	 * Record that every entry of this map satisfies a given type. This is not
+	 * intended for public consumption, and is used by generated type tests
+	 * only.
+	 *
+	 * @param type
+	 */
+	public void setCheckedType(Object type) {
+		checkedType = type;
+	}
+
+	public int size() {
+		return trie != null ? trie.size() : items.size();
+	}
+
+	public boolean containsKey(Object key) {
+		if(trie != null) {
+			return trie.get(key) != HashTrie.NOT_FOUND;
+		} else {
+			return items.containsKey(key);
+		}
+	}
+
+	public Object get(Object key) {
+		if(trie != null) {
+			Object value = trie.get(key);
+			return value != HashTrie.NOT_FOUND ? value : null;
+		} else {
+			return items.get(key);
+		}
+	}
+
+	public Object put(Object key, Object value) {
+		checkedType = null;
+		if(trie != null) {
+			Object old = trie.put(key, value);
+			return old != HashTrie.NOT_FOUND ? old : null;
+		} else {
+			return items.put(key, value);
+		}
+	}
+
+	public Object remove(Object key) {
+		checkedType = null;
+		if(trie != null) {
+			Object old = trie.remove(key);
+			return old != HashTrie.NOT_FOUND ? old : null;
+		} else {
+			return items.remove(key);
+		}
+	}
+
+	public void clear() {
+		checkedType = null;
+		if(trie != null) {
+			trie = new HashTrie();
+		} else {
+			items.clear();
+		}
+	}
+
+	public Set<Map.Entry<Object,Object>> entrySet() {
+		if(trie == null) {
+			return items.entrySet();
+		}
+		return new AbstractSet<Map.Entry<Object,Object>>() {
+			public int size() {
+				return trie.size();
+			}
+
+			public java.util.Iterator<Map.Entry<Object,Object>> iterator() {
+				return trie.iterator();
+			}
+		};
+	}
+
 	public String toString() {
 		String r = "{";
 		boolean firstTime=true;
@@ -88,22 +223,54 @@ public final class WyMap extends java.util.HashMap<Object,Object> {
 		Util.countRefs(dict);
 		if(dict.refCount > 0) {
 			Util.countClone(dict);
-			dict = new WyMap(dict);
+			Util.decRefs(dict);
+			dict = copy(dict);
 		} else {
 			Util.ndict_inplace_updates++;
 		}
+		Util.incRefs(value);
 		Object val = dict.put(key, value);
 		if(val != null) {
-			Util.decRefs(val);
+			if(dict.trie == null) {
+				Util.decRefs(val);
+			}
 		} else {
 			Util.incRefs(key);
 		}
-		Util.incRefs(value);
+		return dict;
+	}
+
+	/**
+	 * This method is not intended for public consumption. It is used internally
+	 * by the compiler during imperative updates only. Unlike
+	 * <code>put()</code>, the value is moved (rather than copied) into the
+	 * map, since it was previously obtained from <code>internal_get()</code>.
+	 *
+	 * @param dict
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public static WyMap internal_put(WyMap dict, Object key, Object value) {
+		Util.countRefs(dict);
+		if(dict.refCount > 0) {
+			Util.countClone(dict);
+			Util.decRefs(dict);
+			dict = copy(dict);
+			Object old = dict.put(key, value);
+			// the clone's reference to the original value is overwritten
+			if(dict.trie == null) {
+				Util.decRefs(old);
+			}
+		} else {
+			Util.ndict_inplace_updates++;
+			dict.put(key, value);
+		}
 		return dict;
 	}
 
 	public static BigInteger length(WyMap dict) {
-		return BigInteger.valueOf(dict.size());
+		return WyInt.valueOf(dict.size());
 	}
 
 	public static final class Iterator implements java.util.Iterator {
@@ -137,9 +304,26 @@ public final class WyMap extends java.util.HashMap<Object,Object> {
 	 */
 	public static Object internal_get(WyMap dict, Object key) {
 		Object item = dict.get(key);
-		if(dict.refCount > 0) {
+		if(dict.refCount > 0 || dict.trie != null) {
 			Util.incRefs(item);
 		}
 		return item;
 	}
+
+	/**
+	 * Clone a map which is about to be updated. For a persistent map, this
+	 * costs <code>O(1)</code> since the clone shares structure with the
+	 * original, and its entries are not counted again (since they will be
+	 * counted when read out of either map).
+	 *
+	 * @param dict
+	 * @return
+	 */
+	private static WyMap copy(WyMap dict) {
+		if(dict.trie != null) {
+			return new WyMap(dict.trie.share());
+		} else {
+			return new WyMap(dict);
+		}
+	}
 }
@@ -27,28 +27,239 @@ package wyjc.runtime;
 
 import java.util.*;
 
-public final class WyRecord extends HashMap<String,Object> {
+/**
+ * <p>
+ * Represents a Whiley record value. There are two representations of a record.
+ * Records of a known (i.e. closed) shape are instances of a subclass generated
+ * by the compiler (see <code>Wyil2JavaBuilder</code>), which holds each field
+ * directly in a Java field. Such a subclass passes the (sorted) names of its
+ * fields to the constructor, and implements <code>getField()</code>,
+ * <code>setField()</code> and <code>newInstance()</code>. All other records
+ * (e.g. those constructed by native methods) are instances of this class and
+ * hold their fields in a <code>HashMap</code>.
+ * </p>
+ *
+ * <p>
+ * Both representations implement the <code>Map</code> interface, and records
+ * with the same fields are equal regardless of their representation.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class WyRecord extends AbstractMap<String,Object> {
 	/**
-	 * The reference count is use to indicate how many variables are currently
-	 * referencing this compound structure. This is useful for making imperative
-	 * updates more efficient. In particular, when the <code>refCount</code> is
-	 * <code>1</code> we can safely perform an in-place update of the structure.
+	 * The reference count is used to indicate how many additional variables
+	 * (or other structures) are currently referencing this compound structure.
+	 * This is useful for making imperative updates more efficient. In
+	 * particular, when the <code>refCount</code> is <code>0</code> the
+	 * structure is uniquely owned and we can safely perform an in-place update
+	 * of it.
 	 */
-	int refCount = 100; // temporary measure
+	int refCount = 0;
 
-	public WyRecord() {}
+	/**
+	 * The field names of this record, in sorted order, when it has a
+	 * generated representation. This array is shared by all instances of the
+	 * generated class.
+	 */
+	final String[] names;
 
-	WyRecord(HashMap<String,Object> r) {
-		super(r);
-		for(Object item : r.values()) {
-			Util.incRefs(item);
+	/**
+	 * The fields of this record, when it does not have a generated
+	 * representation.
+	 */
+	private HashMap<String,Object> fields;
+
+	public WyRecord() {
+		this.names = null;
+		this.fields = new HashMap<String,Object>();
+	}
+
+	/**
+	 * Construct a record with a generated representation.
+	 *
+	 * @param names
+	 *            --- the field names of the generated class, in sorted order.
+	 */
+	protected WyRecord(String[] names) {
+		this.names = names;
+	}
+
+	/**
+	 * Read the field at a given index in <code>names</code>. This is
+	 * implemented by generated representations only.
+	 *
+	 * @param index
+	 * @return
+	 */
+	protected Object getField(int index) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Write the field at a given index in <code>names</code>. This is
+	 * implemented by generated representations only.
+	 *
+	 * @param index
+	 * @param value
+	 */
+	protected void setField(int index, Object value) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Construct an empty record with the same generated representation as
+	 * this. This is implemented by generated representations only.
+	 *
+	 * @return
+	 */
+	protected WyRecord newInstance() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Construct a copy of this record with the same representation,
+	 * incrementing the reference count of every field.
+	 *
+	 * @return
+	 */
+	private WyRecord copy() {
+		WyRecord r;
+		if(names == null) {
+			r = new WyRecord();
+			r.fields.putAll(fields);
+			for(Object item : fields.values()) {
+				Util.incRefs(item);
+			}
+		} else {
+			r = newInstance();
+			for(int i=0;i!=names.length;++i) {
+				Object item = getField(i);
+				Util.incRefs(item);
+				r.setField(i, item);
+			}
 		}
+		return r;
+	}
+
+	private int indexOf(Object name) {
+		// Field names are almost always string constants and, hence, interned.
+		for(int i=0;i!=names.length;++i) {
+			if(names[i] == name) {
+				return i;
+			}
+		}
+		for(int i=0;i!=names.length;++i) {
+			if(names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	// ================================================================================
 	// Generic Operations
 	// ================================================================================
 
+	public int size() {
+		if(names == null) {
+			return fields.size();
+		} else {
+			return names.length;
+		}
+	}
+
+	public boolean containsKey(Object key) {
+		if(names == null) {
+			return fields.containsKey(key);
+		} else {
+			return indexOf(key) >= 0;
+		}
+	}
+
+	public Object get(Object key) {
+		if(names == null) {
+			return fields.get(key);
+		}
+		int index = indexOf(key);
+		if(index >= 0) {
+			return getField(index);
+		} else {
+			return null;
+		}
+	}
+
+	public Object put(String key, Object value) {
+		if(names == null) {
+			return fields.put(key, value);
+		}
+		int index = indexOf(key);
+		if(index < 0) {
+			throw new IllegalArgumentException("invalid field: " + key);
+		}
+		Object old = getField(index);
+		setField(index, value);
+		return old;
+	}
+
+	public Set<Map.Entry<String,Object>> entrySet() {
+		if(names == null) {
+			return fields.entrySet();
+		}
+		return new AbstractSet<Map.Entry<String,Object>>() {
+			public int size() {
+				return names.length;
+			}
+			public Iterator<Map.Entry<String,Object>> iterator() {
+				return new Iterator<Map.Entry<String,Object>>() {
+					private int index = 0;
+					public boolean hasNext() {
+						return index < names.length;
+					}
+					public Map.Entry<String,Object> next() {
+						if(index >= names.length) {
+							throw new NoSuchElementException();
+						}
+						int i = index++;
+						return new AbstractMap.SimpleEntry<String,Object>(
+								names[i], getField(i));
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	public boolean equals(Object o) {
+		if(names != null && o instanceof WyRecord && ((WyRecord) o).names == names) {
+			// same generated representation, so compare fields pairwise
+			WyRecord r = (WyRecord) o;
+			for(int i=0;i!=names.length;++i) {
+				if(!Util.equals(getField(i),r.getField(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return super.equals(o);
+	}
+
+	public int hashCode() {
+		if(names == null) {
+			return fields.hashCode();
+		}
+		// NOTE: this must agree with the hashCode of an equivalent HashMap
+		int hashCode = 0;
+		for(int i=0;i!=names.length;++i) {
+			Object item = getField(i);
+			hashCode += names[i].hashCode() ^ (item == null ? 0 : item.hashCode());
+		}
+		return hashCode;
+	}
+
 	public String toString() {
 		String r = "{";
 		boolean firstTime = true;
@@ -79,13 +290,40 @@ public final class WyRecord extends HashMap<String,Object> {
 		Util.countRefs(record);
 		if(record.refCount > 0) {
 			Util.countClone(record);
-			record = new WyRecord(record);
+			Util.decRefs(record);
+			record = record.copy();
 		} else {
 			Util.nrecord_strong_updates++;
 		}
+		Util.incRefs(value);
 		Object val = record.put(field, value);
 		Util.decRefs(val); // decrement overwritten value
-		Util.incRefs(value);
+		return record;
+	}
+
+	/**
+	 * This method is not intended for public consumption. It is used internally
+	 * by the compiler during imperative updates only. Unlike
+	 * <code>put()</code>, the value is moved (rather than copied) into the
+	 * record, since it was previously obtained from <code>internal_get()</code>.
+	 *
+	 * @param record
+	 * @param field
+	 * @param value
+	 * @return
+	 */
+	public static WyRecord internal_put(WyRecord record, final String field, final Object value) {
+		Util.countRefs(record);
+		if(record.refCount > 0) {
+			Util.countClone(record);
+			Util.decRefs(record);
+			record = record.copy();
+			// the clone's reference to the original value is overwritten
+			Util.decRefs(record.put(field, value));
+		} else {
+			Util.nrecord_strong_updates++;
+			record.put(field, value);
+		}
 		return record;
 	}
 
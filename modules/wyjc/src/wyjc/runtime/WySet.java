@@ -29,30 +29,185 @@ import java.math.BigInteger;
 import java.util.*;
 
 
-public final class WySet extends java.util.HashSet {
+public final class WySet extends java.util.AbstractSet {
 	/**
-	 * The reference count is use to indicate how many variables are currently
-	 * referencing this compound structure. This is useful for making imperative
-	 * updates more efficient. In particular, when the <code>refCount</code> is
-	 * <code>1</code> we can safely perform an in-place update of the structure.
+	 * The reference count is used to indicate how many additional variables
+	 * (or other structures) are currently referencing this compound structure.
+	 * This is useful for making imperative updates more efficient. In
+	 * particular, when the <code>refCount</code> is <code>0</code> the
+	 * structure is uniquely owned and we can safely perform an in-place update
+	 * of it.
 	 */
-	int refCount = 100;  // temporary measure
+	int refCount = 0;
+
+	/**
+	 * The items of this set, when it is not persistent.
+	 */
+	private java.util.HashSet items;
+
+	/**
+	 * The items of this set, when it is persistent. In this case, each item
+	 * maps to itself. See <code>HashTrie</code> for more details.
+	 */
+	private HashTrie trie;
+
+	/**
+	 * A type which every item of this set is known to satisfy, or
+	 * <code>null</code> if there is none. This is recorded by the type tests
+	 * generated by <code>Wyil2JavaBuilder</code>, which identify each type by an
+	 * interned string, so that repeated tests need not examine every item
+	 * again. It is forgotten whenever the set is updated in place.
+	 */
+	private Object checkedType;
 
 	// ================================================================================
 	// Generic Operations
 	// ================================================================================
 
 	public WySet() {
-
+		this.items = new java.util.HashSet();
 	}
 
 	private WySet(java.util.Collection items) {
-		super(items);
+		this.items = new java.util.HashSet(items);
 		for(Object o : items) {
 			Util.incRefs(o);
 		}
 	}
 
+	private WySet(HashTrie trie) {
+		this.trie = trie;
+	}
+
+	/**
+	 * Construct an empty persistent set. Any set derived from this (e.g. by
+	 * adding to it) is also persistent.
+	 *
+	 * @return
+	 */
+	public static WySet persistent() {
+		return new WySet(new HashTrie());
+	}
+
+	/**
+	 * Check whether this set is persistent or not. The items of a persistent
+	 * set may be shared with other sets and, hence, must always be counted
+	 * when read out of it.
+	 *
+	 * @return
+	 */
+	boolean isPersistent() {
+		return trie != null;
+	}
+
+	/**
+	 * Check whether every item of this set is known to satisfy a given type.
+	 * This is not intended for public consumption, and is used by generated
+	 * type tests only.
+	 *
+	 * @param type
+	 * @return
+	 */
+	public boolean hasCheckedType(Object type) {
+		return checkedType == type;
+	}
+
+	/**
+	 * Record that every item of this set satisfies a given type. This is not
+	 * intended for public consumption, and is used by generated type tests
+	 * only.
+	 *
+	 * @param type
+	 */
+	public void setCheckedType(Object type) {
+		checkedType = type;
+	}
+
+	public int size() {
+		return trie != null ? trie.size() : items.size();
+	}
+
+	public boolean contains(Object item) {
+		if(trie != null) {
+			return trie.get(item) != HashTrie.NOT_FOUND;
+		} else {
+			return items.contains(item);
+		}
+	}
+
+	public boolean add(Object item) {
+		checkedType = null;
+		if(trie != null) {
+			return trie.put(item, item) == HashTrie.NOT_FOUND;
+		} else {
+			return items.add(item);
+		}
+	}
+
+	public boolean remove(Object item) {
+		checkedType = null;
+		if(trie != null) {
+			return trie.remove(item) != HashTrie.NOT_FOUND;
+		} else {
+			return items.remove(item);
+		}
+	}
+
+	public boolean removeAll(java.util.Collection c) {
+		boolean r = false;
+		for(Object item : c) {
+			r |= remove(item);
+		}
+		return r;
+	}
+
+	public boolean retainAll(java.util.Collection c) {
+		checkedType = null;
+		if(trie == null) {
+			return items.retainAll(c);
+		}
+		HashTrie r = new HashTrie();
+		java.util.Iterator iter = trie.iterator();
+		while(iter.hasNext()) {
+			Object item = ((Map.Entry) iter.next()).getKey();
+			if(c.contains(item)) {
+				r.put(item, item);
+			}
+		}
+		boolean changed = r.size() != trie.size();
+		trie = r;
+		return changed;
+	}
+
+	public void clear() {
+		checkedType = null;
+		if(trie != null) {
+			trie = new HashTrie();
+		} else {
+			items.clear();
+		}
+	}
+
+	public java.util.Iterator iterator() {
+		if(trie == null) {
+			return items.iterator();
+		}
+		final java.util.Iterator iter = trie.iterator();
+		return new java.util.Iterator() {
+			public boolean hasNext() {
+				return iter.hasNext();
+			}
+
+			public Object next() {
+				return ((Map.Entry) iter.next()).getKey();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
 	public String toString() {
 		String r = "{";
 		boolean firstTime=true;
@@ -94,11 +249,18 @@ public final class WySet extends java.util.HashSet {
 			lhs = tmp;
 		} else {
 			Util.countClone(lhs);
-			lhs = new WySet(lhs);
+			Util.decRefs(lhs);
+			lhs = copy(lhs);
 		}
 		lhs.addAll(rhs);
-		for(Object o : rhs) {
-			Util.incRefs(o);
+		// when rhs is uniquely owned it is released by this operation, hence
+		// its items are moved (rather than copied) into lhs. However, the items
+		// of a persistent set may be shared with other sets.
+		if(rhs.refCount > 0 || rhs.trie != null) {
+			for(Object o : rhs) {
+				Util.incRefs(o);
+			}
+			Util.decRefs(rhs);
 		}
 		return lhs;
 	}
@@ -110,7 +272,8 @@ public final class WySet extends java.util.HashSet {
 			Util.nset_inplace_updates++;
 		} else {
 			Util.countClone(lhs);
-			lhs = new WySet(lhs);
+			Util.decRefs(lhs);
+			lhs = copy(lhs);
 		}
 		lhs.add(rhs);
 		Util.incRefs(rhs);
@@ -124,7 +287,8 @@ public final class WySet extends java.util.HashSet {
 			Util.nset_inplace_updates++;
 		} else {
 			Util.countClone(rhs);
-			rhs = new WySet(rhs);
+			Util.decRefs(rhs);
+			rhs = copy(rhs);
 		}
 		rhs.add(lhs);
 		Util.incRefs(lhs);
@@ -139,12 +303,11 @@ public final class WySet extends java.util.HashSet {
 			Util.nset_inplace_updates++;
 		} else {
 			Util.countClone(lhs);
-			lhs = new WySet(lhs);
+			Util.decRefs(lhs);
+			lhs = copy(lhs);
 		}
 		lhs.removeAll(rhs);
-		for(Object o : rhs) {
-			Util.decRefs(o); // because of constructor increment
-		}
+		Util.decRefs(rhs);
 		return lhs;
 	}
 
@@ -154,10 +317,10 @@ public final class WySet extends java.util.HashSet {
 			Util.nset_inplace_updates++;
 		} else {
 			Util.countClone(lhs);
-			lhs = new WySet(lhs);
+			Util.decRefs(lhs);
+			lhs = copy(lhs);
 		}
 		lhs.remove(rhs);
-		Util.decRefs(rhs); // because of constructor increment
 		return lhs;
 	}
 
@@ -173,14 +336,11 @@ public final class WySet extends java.util.HashSet {
 			lhs = tmp;
 		} else {
 			Util.countClone(lhs);
-			lhs = new WySet(lhs);
+			Util.decRefs(lhs);
+			lhs = copy(lhs);
 		}
 		lhs.retainAll(rhs);
-		for(Object o : rhs) {
-			if(!lhs.contains(o)) {
-				Util.decRefs(o);
-			}
-		}
+		Util.decRefs(rhs);
 		return lhs;
 	}
 
@@ -191,11 +351,14 @@ public final class WySet extends java.util.HashSet {
 			Util.nset_inplace_updates++;
 		} else {
 			Util.countClone(lhs);
-			lhs = new WySet(lhs);
+			Util.decRefs(lhs);
+			lhs = copy(lhs);
 		}
 
-		for(Object o : lhs) {
-			Util.decRefs(o);
+		if(lhs.trie == null) {
+			for(Object o : lhs) {
+				Util.decRefs(o);
+			}
 		}
 
 		lhs.clear();
@@ -215,11 +378,14 @@ public final class WySet extends java.util.HashSet {
 			Util.nset_inplace_updates++;
 		} else {
 			Util.countClone(rhs);
-			rhs = new WySet(rhs);
+			Util.decRefs(rhs);
+			rhs = copy(rhs);
 		}
 
-		for(Object o : rhs) {
-			Util.decRefs(o);
+		if(rhs.trie == null) {
+			for(Object o : rhs) {
+				Util.decRefs(o);
+			}
 		}
 
 		rhs.clear();
@@ -233,7 +399,7 @@ public final class WySet extends java.util.HashSet {
 	}
 
 	public static BigInteger length(WySet set) {
-		return BigInteger.valueOf(set.size());
+		return WyInt.valueOf(set.size());
 	}
 
 	/**
@@ -248,4 +414,21 @@ public final class WySet extends java.util.HashSet {
 		lhs.add(rhs);
 		return lhs;
 	}
+
+	/**
+	 * Clone a set which is about to be updated. For a persistent set, this
+	 * costs <code>O(1)</code> since the clone shares structure with the
+	 * original, and its items are not counted again (since they will be
+	 * counted when read out of either set).
+	 *
+	 * @param set
+	 * @return
+	 */
+	private static WySet copy(WySet set) {
+		if(set.trie != null) {
+			return new WySet(set.trie.share());
+		} else {
+			return new WySet(set.items);
+		}
+	}
 }
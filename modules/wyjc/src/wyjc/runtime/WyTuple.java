@@ -30,12 +30,14 @@ import java.math.BigInteger;
 
 public final class WyTuple extends java.util.ArrayList {
 	/**
-	 * The reference count is use to indicate how many variables are currently
-	 * referencing this compound structure. This is useful for making imperative
-	 * updates more efficient. In particular, when the <code>refCount</code> is
-	 * <code>1</code> we can safely perform an in-place update of the structure.
+	 * The reference count is used to indicate how many additional variables
+	 * (or other structures) are currently referencing this compound structure.
+	 * This is useful for making imperative updates more efficient. In
+	 * particular, when the <code>refCount</code> is <code>0</code> the
+	 * structure is uniquely owned and we can safely perform an in-place update
+	 * of it.
 	 */
-	int refCount = 100; // temporary measure
+	int refCount = 0;
 
 	// ================================================================================
 	// Generic Operations
@@ -88,7 +90,7 @@ public final class WyTuple extends java.util.ArrayList {
 	}
 
 	public static BigInteger length(WyTuple tuple) {
-		return BigInteger.valueOf(tuple.size());
+		return WyInt.valueOf(tuple.size());
 	}
 
 	public static int size(final WyTuple list) {
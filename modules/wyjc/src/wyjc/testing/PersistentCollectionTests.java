@@ -0,0 +1,162 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.testing;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wyjc.runtime.Util;
+import wyjc.runtime.WyList;
+import wyjc.runtime.WyMap;
+import wyjc.runtime.WySet;
+
+/**
+ * Tests for the persistent representations of lists, sets and maps. These
+ * check that a sequence of random updates produces the same result as for the
+ * corresponding <code>java.util</code> collection, and that updating a shared
+ * collection leaves the original unchanged.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class PersistentCollectionTests {
+
+	@Test
+	public void List_Updates() {
+		Random random = new Random(1);
+		WyList list = WyList.persistent();
+		ArrayList<Object> expected = new ArrayList<Object>();
+		for (int i = 0; i != 5000; ++i) {
+			BigInteger item = BigInteger.valueOf(random.nextInt(1000));
+			if (expected.isEmpty() || random.nextInt(3) == 0) {
+				list = WyList.append(list, item);
+				expected.add(item);
+			} else {
+				int index = random.nextInt(expected.size());
+				list = WyList.set(list, BigInteger.valueOf(index), item);
+				expected.set(index, item);
+			}
+		}
+		assertEquals(expected, list);
+		assertEquals(expected, new ArrayList<Object>(list));
+		assertEquals(expected.subList(100, 1000), WyList.sublist(list,
+				BigInteger.valueOf(100), BigInteger.valueOf(1000)));
+	}
+
+	@Test
+	public void List_Sharing() {
+		WyList list = WyList.persistent();
+		for (int i = 0; i != 1000; ++i) {
+			list = WyList.append(list, BigInteger.valueOf(i));
+		}
+		WyList copy = Util.incRefs(list);
+		WyList updated = WyList.set(copy, BigInteger.valueOf(500),
+				BigInteger.valueOf(-1));
+		WyList appended = WyList.append(updated, BigInteger.valueOf(1000));
+		assertNotSame(list, updated);
+		assertEquals(BigInteger.valueOf(500), list.get(500));
+		assertEquals(BigInteger.valueOf(-1), updated.get(500));
+		assertEquals(1000, list.size());
+		assertEquals(1001, appended.size());
+	}
+
+	@Test
+	public void Set_Updates() {
+		Random random = new Random(2);
+		WySet set = WySet.persistent();
+		HashSet<Object> expected = new HashSet<Object>();
+		for (int i = 0; i != 5000; ++i) {
+			Object item = item(random);
+			if (random.nextInt(3) == 0) {
+				set = WySet.difference(set, item);
+				expected.remove(item);
+			} else {
+				set = WySet.union(set, item);
+				expected.add(item);
+			}
+		}
+		assertEquals(expected, set);
+		assertEquals(set, expected);
+		assertEquals(expected.hashCode(), set.hashCode());
+		assertEquals(expected, new HashSet<Object>(set));
+	}
+
+	@Test
+	public void Map_Updates() {
+		Random random = new Random(3);
+		WyMap map = WyMap.persistent();
+		HashMap<Object, Object> expected = new HashMap<Object, Object>();
+		for (int i = 0; i != 5000; ++i) {
+			Object key = item(random);
+			BigInteger value = BigInteger.valueOf(i);
+			map = WyMap.put(map, key, value);
+			expected.put(key, value);
+		}
+		assertEquals(expected, map);
+		assertEquals(map, expected);
+		for (Object key : expected.keySet()) {
+			assertEquals(expected.get(key), WyMap.get(map, key));
+		}
+	}
+
+	@Test
+	public void Map_Sharing() {
+		WyMap map = WyMap.persistent();
+		for (int i = 0; i != 1000; ++i) {
+			map = WyMap.put(map, BigInteger.valueOf(i), BigInteger.valueOf(i));
+		}
+		WyMap copy = Util.incRefs(map);
+		WyMap updated = WyMap.put(copy, BigInteger.valueOf(7), "seven");
+		assertEquals(BigInteger.valueOf(7), map.get(BigInteger.valueOf(7)));
+		assertEquals("seven", updated.get(BigInteger.valueOf(7)));
+		assertEquals(1000, map.size());
+		assertEquals(1000, updated.size());
+	}
+
+	/**
+	 * Generate a random item, which is sometimes <code>null</code> and
+	 * sometimes one of two strings with identical hash codes.
+	 */
+	private static Object item(Random random) {
+		switch (random.nextInt(20)) {
+		case 0:
+			return null;
+		case 1:
+			return "Aa";
+		case 2:
+			return "BB";
+		default:
+			return BigInteger.valueOf(random.nextInt(2000));
+		}
+	}
+}
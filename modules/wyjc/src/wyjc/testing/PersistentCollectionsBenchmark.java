@@ -0,0 +1,341 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.testing;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import wyc.WycMain;
+import wyjc.WyjcMain;
+import wyjc.util.WyjcBuildTask;
+
+/**
+ * A simple benchmark for comparing the default (i.e. mutable) and persistent
+ * representations of lists, sets and maps in the generated code. Each program
+ * is compiled twice (once with, and once without, the
+ * <code>-persistent</code> option) and then executed in this JVM a number of
+ * times, reporting the average wall-clock time taken. The programs are the
+ * matrix multiplication example (on a randomly generated input of a given
+ * size), the sort example and every valid test case which compiles and runs
+ * without error. The output of each program is also checked to be the same for
+ * both representations. This should be run from the
+ * <code>modules/wyjc</code> directory, with the compiled Whiley runtime on the
+ * classpath. For example:
+ *
+ * <pre>
+ * java wyjc.testing.PersistentCollectionsBenchmark 5 100
+ * </pre>
+ *
+ * runs each program five times with each representation, multiplying two 100x100
+ * matrices.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class PersistentCollectionsBenchmark {
+
+	/**
+	 * The directory containing the source files for each test case.
+	 */
+	public final static String WHILEY_SRC_DIR = "../../tests/valid".replace('/', File.separatorChar);
+
+	/**
+	 * The directory containing the example programs.
+	 */
+	public final static String EXAMPLES_DIR = "../../examples".replace('/', File.separatorChar);
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/".replace('/', File.separatorChar);
+
+	/**
+	 * The path to the Whiley RunTime (WyRT) library. This contains the Whiley
+	 * standard library, which includes various helper functions, etc.
+	 */
+	private static String WYRT_PATH;
+
+	static {
+		File file = new File(WYC_LIB_DIR);
+		for(String f : file.list()) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				WYRT_PATH = WYC_LIB_DIR + f;
+			}
+		}
+	}
+
+	/**
+	 * The number of times the sort example is executed in each run. This is
+	 * necessary since it only sorts a handful of small lists.
+	 */
+	private static final int SORT_REPEATS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int runs = 3;
+		int size = 60;
+		if (args.length > 0) {
+			runs = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			size = Integer.parseInt(args[1]);
+		}
+
+		File dir = File.createTempFile("benchmark", "");
+		dir.delete();
+		dir.mkdirs();
+		File input = new File(dir, "matrix.input");
+		writeMatrices(input, size);
+
+		// First, compile every program with both representations.
+		Mode mutable = new Mode(new File(dir, "mutable"), false);
+		Mode persistent = new Mode(new File(dir, "persistent"), true);
+		Mode[] modes = { mutable, persistent };
+
+		for (Mode mode : modes) {
+			for (String example : new String[] { "matrix-multiply", "sort" }) {
+				if (!compile(mode, new File(EXAMPLES_DIR, example + ".whiley"))) {
+					throw new RuntimeException("unable to compile " + example);
+				}
+			}
+		}
+		ArrayList<String> tests = new ArrayList<String>();
+		String[] names = new File(WHILEY_SRC_DIR).list();
+		Arrays.sort(names);
+		for (String name : names) {
+			if (name.endsWith(".whiley")) {
+				File file = new File(WHILEY_SRC_DIR, name);
+				if (compile(mutable, file) && compile(persistent, file)) {
+					tests.add(name.substring(0, name.length() - 7));
+				}
+			}
+		}
+
+		// Second, check the output of each program is the same for both
+		// representations. This also serves to warm up the JVM.
+		String[] matrixArgs = { input.getPath() };
+		check(modes, "matrix-multiply", matrixArgs);
+		check(modes, "sort", new String[0]);
+		for (int i = 0; i < tests.size(); ) {
+			if (check(modes, tests.get(i), new String[0])) {
+				i++;
+			} else {
+				tests.remove(i);
+			}
+		}
+
+		// Third, time each program with both representations.
+		System.out.println(String.format("%-32s%-16s%s", "PROGRAM",
+				"MUTABLE (ms)", "PERSISTENT (ms)"));
+		long[] times = new long[modes.length];
+		for (int m = 0; m != modes.length; ++m) {
+			times[m] = time(modes[m], "matrix-multiply", matrixArgs, 1, runs);
+		}
+		report("matrix-multiply (" + size + "x" + size + ")", times);
+		for (int m = 0; m != modes.length; ++m) {
+			times[m] = time(modes[m], "sort", new String[0], SORT_REPEATS, runs);
+		}
+		report("sort (x" + SORT_REPEATS + ")", times);
+		for (int m = 0; m != modes.length; ++m) {
+			times[m] = 0;
+			for (String test : tests) {
+				times[m] += time(modes[m], test, new String[0], 1, runs);
+			}
+		}
+		report("tests/valid (" + tests.size() + " files)", times);
+
+		delete(dir);
+	}
+
+	/**
+	 * Represents the generated class files for one representation of
+	 * collections.
+	 */
+	private static final class Mode {
+		private final File classDir;
+		private final boolean persistent;
+		private final ClassLoader loader;
+
+		public Mode(File classDir, boolean persistent) throws IOException {
+			this.classDir = classDir;
+			this.persistent = persistent;
+			classDir.mkdirs();
+			this.loader = new URLClassLoader(new URL[] { classDir.toURI()
+					.toURL() }, PersistentCollectionsBenchmark.class
+					.getClassLoader());
+		}
+	}
+
+	/**
+	 * Compile a given Whiley source file, placing the generated class file in
+	 * the class directory for the given representation.
+	 *
+	 * @param mode
+	 * @param file
+	 * @return
+	 */
+	private static boolean compile(Mode mode, File file) {
+		ArrayList<String> args = new ArrayList<String>();
+		args.add("-wd");
+		args.add(file.getParent());
+		args.add("-cd");
+		args.add(mode.classDir.getPath());
+		args.add("-wp");
+		args.add(WYRT_PATH);
+		if (mode.persistent) {
+			args.add("-persistent");
+		}
+		args.add(file.getPath());
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		try {
+			System.setOut(new PrintStream(new ByteArrayOutputStream()));
+			System.setErr(new PrintStream(new ByteArrayOutputStream()));
+			return new WyjcMain(new WyjcBuildTask(), WyjcMain.DEFAULT_OPTIONS)
+					.run(args.toArray(new String[args.size()])) == WycMain.SUCCESS;
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+		}
+	}
+
+	/**
+	 * Execute a given program with each representation, and check they
+	 * produce the same output.
+	 *
+	 * @param modes
+	 * @param name
+	 * @param args
+	 * @return
+	 */
+	private static boolean check(Mode[] modes, String name, String[] args) {
+		String expected = null;
+		for (Mode mode : modes) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			try {
+				run(mode, name, args, new PrintStream(output));
+			} catch (Throwable e) {
+				return false;
+			}
+			if (expected == null) {
+				expected = output.toString();
+			} else if (!expected.equals(output.toString())) {
+				System.err.println("Output differs for " + name);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Execute a given program a number of times in each run, returning the
+	 * average time taken per run.
+	 *
+	 * @param mode
+	 * @param name
+	 * @param args
+	 * @param repeats
+	 * @param runs
+	 * @return
+	 */
+	private static long time(Mode mode, String name, String[] args,
+			int repeats, int runs) throws Exception {
+		PrintStream nullOut = new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+		});
+		long start = System.currentTimeMillis();
+		for (int i = 0; i != runs; ++i) {
+			for (int j = 0; j != repeats; ++j) {
+				run(mode, name, args, nullOut);
+			}
+		}
+		return (System.currentTimeMillis() - start) / runs;
+	}
+
+	private static void run(Mode mode, String name, String[] args,
+			PrintStream output) throws Exception {
+		Method main = mode.loader.loadClass(name).getMethod("main",
+				String[].class);
+		PrintStream out = System.out;
+		try {
+			System.setOut(output);
+			main.invoke(null, (Object) args);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	private static void report(String name, long[] times) {
+		System.out.println(String.format("%-32s%-16d%d", name, times[0],
+				times[1]));
+	}
+
+	/**
+	 * Write two randomly generated square matrices of a given size, in the
+	 * format expected by the matrix multiplication example.
+	 *
+	 * @param file
+	 * @param size
+	 * @throws IOException
+	 */
+	private static void writeMatrices(File file, int size) throws IOException {
+		Random random = new Random(0);
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			out.println(size + " " + size);
+			for (int m = 0; m != 2; ++m) {
+				out.println("--");
+				for (int i = 0; i != size; ++i) {
+					for (int j = 0; j != size; ++j) {
+						if (j != 0) {
+							out.print(" ");
+						}
+						out.print(random.nextInt(100));
+					}
+					out.println();
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,137 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyjc.testing;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import wyjc.runtime.Util;
+import wyjc.runtime.WyRecord;
+
+/**
+ * Tests for the representations of records. These check that a record with a
+ * generated representation behaves the same as the equivalent record held in
+ * a <code>HashMap</code>. The generated representation is written by hand
+ * here, following the class generated by <code>Wyil2JavaBuilder</code>.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class RecordTests {
+
+	private static final class Point extends WyRecord {
+		private static final String[] names = { "x", "y" };
+		public Object x;
+		public Object y;
+
+		public Point() {
+			super(names);
+		}
+
+		protected Object getField(int index) {
+			switch (index) {
+			case 0:
+				return x;
+			case 1:
+				return y;
+			default:
+				return super.getField(index);
+			}
+		}
+
+		protected void setField(int index, Object value) {
+			switch (index) {
+			case 0:
+				x = value;
+				break;
+			case 1:
+				y = value;
+				break;
+			default:
+				super.setField(index, value);
+			}
+		}
+
+		protected WyRecord newInstance() {
+			return new Point();
+		}
+	}
+
+	@Test
+	public void Record_Equality() {
+		Point p = point(1, 2);
+		WyRecord q = record(1, 2);
+		assertEquals(p, q);
+		assertEquals(q, p);
+		assertEquals(p, point(1, 2));
+		assertFalse(p.equals(point(1, 3)));
+		assertEquals(q.hashCode(), p.hashCode());
+		assertEquals(new HashMap<String, Object>(q), new HashMap<String, Object>(p));
+		assertEquals(q.toString(), p.toString());
+		assertEquals(0, Util.compare(p, q));
+		assertTrue(Util.compare(p, point(1, 3)) < 0);
+	}
+
+	@Test
+	public void Record_Updates() {
+		Point p = point(1, 2);
+		Util.incRefs(p);
+		WyRecord q = WyRecord.put(p, "y", BigInteger.valueOf(3));
+		assertNotSame(p, q);
+		assertTrue(q instanceof Point);
+		assertEquals(BigInteger.valueOf(2), p.y);
+		assertEquals(BigInteger.valueOf(3), WyRecord.get(q, "y"));
+		WyRecord r = WyRecord.put(q, "x", BigInteger.valueOf(4));
+		assertSame(q, r);
+		assertEquals(point(4, 3), r);
+		assertTrue(r.containsKey("x"));
+		assertFalse(r.containsKey("z"));
+		try {
+			WyRecord.put(r, "z", BigInteger.ZERO);
+			fail("updated field which does not exist");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private static Point point(int x, int y) {
+		Point p = new Point();
+		p.x = BigInteger.valueOf(x);
+		p.y = BigInteger.valueOf(y);
+		return p;
+	}
+
+	private static WyRecord record(int x, int y) {
+		WyRecord r = new WyRecord();
+		r.put("x", BigInteger.valueOf(x));
+		r.put("y", BigInteger.valueOf(y));
+		return r;
+	}
+}
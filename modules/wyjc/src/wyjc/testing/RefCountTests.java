@@ -0,0 +1,162 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyjc.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.*;
+
+import wyc.WycMain;
+import wyjc.runtime.Util;
+import wyjc.runtime.WyList;
+
+/**
+ * Tests for the reference counting of lists in the generated code. Each test
+ * compiles a small Whiley function, and then calls it directly on a list whose
+ * reference count is known. The counters maintained by <code>Util</code> then
+ * show whether the list was updated in place, or cloned first.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class RefCountTests {
+
+	/**
+	 * The directory where compiler libraries are stored. This is necessary
+	 * since it will contain the Whiley Runtime.
+	 */
+	public final static String WYC_LIB_DIR = "../../lib/";
+
+	private static String WYRT_PATH;
+
+	static {
+		File file = new File(WYC_LIB_DIR);
+		for(String f : file.list()) {
+			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
+				WYRT_PATH = WYC_LIB_DIR + f;
+			}
+		}
+	}
+
+	private static final String INC = "function inc([int] xs) => [int]:\n"
+			+ "    int i = 0\n"
+			+ "    while i < |xs|:\n"
+			+ "        xs[i] = xs[i] + 1\n"
+			+ "        i = i + 1\n"
+			+ "    return xs\n";
+
+	@Test
+	public void RefCount_1() throws Exception {
+		// A list which no one else references is updated in place.
+		Method inc = compile("RefCount_1", INC, "inc");
+		WyList xs = list(1, 2, 3);
+		int clones = Util.listClones();
+		int updates = Util.listInplaceUpdates();
+		Object r = inc.invoke(null, xs);
+		assertSame(xs, r);
+		assertEquals(clones, Util.listClones());
+		assertTrue(Util.listInplaceUpdates() - updates >= 3);
+		assertEquals(list(2, 3, 4), r);
+	}
+
+	@Test
+	public void RefCount_2() throws Exception {
+		// A list which is also referenced elsewhere is cloned exactly once,
+		// and the other reference does not observe the update.
+		Method inc = compile("RefCount_2", INC, "inc");
+		WyList xs = list(1, 2, 3);
+		Util.incRefs(xs);
+		int clones = Util.listClones();
+		Object r = inc.invoke(null, xs);
+		assertNotSame(xs, r);
+		assertEquals(clones + 1, Util.listClones());
+		assertEquals(list(1, 2, 3), xs);
+		assertEquals(list(2, 3, 4), r);
+	}
+
+	// ======================================================================
+	// Test Harness
+	// ======================================================================
+
+	/**
+	 * Compile a single Whiley source file into a fresh directory, and find the
+	 * static method generated for a given function.
+	 *
+	 * @param name
+	 *            Name of the module to compile.
+	 * @param source
+	 *            Contents of the module.
+	 * @param function
+	 *            Name of the function to find.
+	 * @return
+	 */
+	private static Method compile(String name, String source, String function)
+			throws IOException, ClassNotFoundException {
+		File dir = File.createTempFile("refcount", "");
+		dir.delete();
+		dir.mkdir();
+		File file = new File(dir, name + ".whiley");
+		FileWriter writer = new FileWriter(file);
+		writer.write(source);
+		writer.close();
+
+		int r = RuntimeValidTests.compile("-wd", dir.getPath(), "-cd",
+				dir.getPath(), "-wp", WYRT_PATH, file.getPath());
+		if (r != WycMain.SUCCESS) {
+			fail("Test failed to compile!");
+		}
+
+		// Use this class's loader as the parent, so that the compiled code
+		// shares the runtime (and its counters) with the test.
+		URLClassLoader loader = new URLClassLoader(
+				new URL[] { dir.toURI().toURL() },
+				RefCountTests.class.getClassLoader());
+		for (Method m : loader.loadClass(name).getDeclaredMethods()) {
+			if (m.getName().startsWith(function + "$")) {
+				m.setAccessible(true);
+				return m;
+			}
+		}
+		fail("Function " + function + " not found!");
+		return null;
+	}
+
+	private static WyList list(int... items) {
+		WyList r = new WyList();
+		for (int i : items) {
+			r.add(BigInteger.valueOf(i));
+		}
+		return r;
+	}
+}
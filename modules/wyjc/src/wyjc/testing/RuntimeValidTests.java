@@ -89,7 +89,7 @@ import wyjc.util.WyjcBuildTask;
 
  		File file = new File(WYC_LIB_DIR);
  		for(String f : file.list()) {
- 			if(f.startsWith("wyrt-v")) {
+ 			if(f.startsWith("wyrt-v") && f.endsWith(".jar")) {
  				WYRT_PATH = WYC_LIB_DIR + f;
  			}
  		}
@@ -1394,6 +1394,11 @@ import wyjc.util.WyjcBuildTask;
 		runTest("Lambda_Valid_9");
 	}
 
+	@Test
+	public void Lambda_Valid_10() {
+		runTest("Lambda_Valid_10");
+	}
+
 	@Test
 	public void LengthOf_Valid_1() {
 		runTest("LengthOf_Valid_1");
@@ -1524,6 +1529,16 @@ import wyjc.util.WyjcBuildTask;
 		runTest("ListAssign_Valid_11");
 	}
 
+	@Test
+	public void ListAssign_Valid_13() {
+		runTest("ListAssign_Valid_13");
+	}
+
+	@Test
+	public void ListAssign_Valid_14() {
+		runTest("ListAssign_Valid_14");
+	}
+
 	@Test
 	public void ListAssign_Valid_2() {
 		runTest("ListAssign_Valid_2");
@@ -1989,6 +2004,11 @@ import wyjc.util.WyjcBuildTask;
 		runTest("RecordAssign_Valid_10");
 	}
 
+	@Test
+	public void RecordAssign_Valid_11() {
+		runTest("RecordAssign_Valid_11");
+	}
+
 	@Test
 	public void RecordAssign_Valid_2() {
 		runTest("RecordAssign_Valid_2");
@@ -2689,6 +2709,26 @@ import wyjc.util.WyjcBuildTask;
 		runTest("Switch_Valid_13");
 	}
 
+	@Test
+	public void Switch_Valid_14() {
+		runTest("Switch_Valid_14");
+	}
+
+	@Test
+	public void Switch_Valid_15() {
+		runTest("Switch_Valid_15");
+	}
+
+	@Test
+	public void Switch_Valid_16() {
+		runTest("Switch_Valid_16");
+	}
+
+	@Test
+	public void Switch_Valid_17() {
+		runTest("Switch_Valid_17");
+	}
+
 	@Test
 	public void Switch_Valid_2() {
 		runTest("Switch_Valid_2");
@@ -2754,6 +2794,11 @@ import wyjc.util.WyjcBuildTask;
 		runTest("TryCatch_Valid_4");
 	}
 
+	@Test
+	public void TryCatch_Valid_5() {
+		runTest("TryCatch_Valid_5");
+	}
+
 	@Test
 	public void TupleType_Valid_1() {
 		runTest("TupleType_Valid_1");
@@ -2999,6 +3044,26 @@ import wyjc.util.WyjcBuildTask;
 		runTest("TypeEquals_Valid_47");
 	}
 
+	@Test
+	public void TypeEquals_Valid_48() {
+		runTest("TypeEquals_Valid_48");
+	}
+
+	@Test
+	public void TypeEquals_Valid_49() {
+		runTest("TypeEquals_Valid_49");
+	}
+
+	@Test
+	public void TypeEquals_Valid_50() {
+		runTest("TypeEquals_Valid_50");
+	}
+
+	@Test
+	public void TypeEquals_Valid_51() {
+		runTest("TypeEquals_Valid_51");
+	}
+
 	@Test
 	public void TypeEquals_Valid_5() {
 		runTest("TypeEquals_Valid_5");
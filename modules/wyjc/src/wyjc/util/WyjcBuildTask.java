@@ -5,7 +5,6 @@ import java.util.List;
 
 import wybs.util.StdBuildRule;
 import wybs.util.StdProject;
-import wycc.util.Logger;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
 import wyfs.util.DirectoryRoot;
@@ -92,6 +91,12 @@ public class WyjcBuildTask extends wyc.util.WycBuildTask {
 	 */
 	protected DirectoryRoot classDir;
 
+	/**
+	 * Determines whether generated code uses persistent collections (see
+	 * <code>Wyil2JavaBuilder.setPersistentCollections()</code>).
+	 */
+	protected boolean persistentCollections = false;
+
 	public WyjcBuildTask() {
 		super(new Registry());
 	}
@@ -123,6 +128,10 @@ public class WyjcBuildTask extends wyc.util.WycBuildTask {
 				registry);
 	}
 
+	public void setPersistentCollections(boolean flag) {
+		this.persistentCollections = flag;
+	}
+
 	@Override
 	protected void addBuildRules(StdProject project) {
 		// Add default build rule for converting whiley files into wyil files.
@@ -134,9 +143,11 @@ public class WyjcBuildTask extends wyc.util.WycBuildTask {
 		Wyil2JavaBuilder jbuilder = new Wyil2JavaBuilder(project);
 
 		if (verbose) {
-			jbuilder.setLogger(new Logger.Default(System.err));
+			jbuilder.setLogger(logger());
 		}
 
+		jbuilder.setPersistentCollections(persistentCollections);
+
 		project.add(new StdBuildRule(jbuilder, wyilDir, wyilIncludes,
 				wyilExcludes, classDir));
 	}
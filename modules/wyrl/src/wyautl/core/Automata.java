@@ -28,6 +28,8 @@ package wyautl.core;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
 
 import wyautl.core.Automaton.State;
 import wyautl.util.BinaryMatrix;
@@ -345,12 +347,439 @@ public class Automata {
 		return tmp;
 	}
 
+	/**
+	 * <p>
+	 * Determine, for each state in the automaton, the unique representative of
+	 * its equivalence class. The representative is always the state with the
+	 * lowest index in its class. Entries in the mapping corresponding to null
+	 * states are left untouched. This function does not modify the automaton.
+	 * </p>
+	 * <p>
+	 * Equivalence classes are computed using partition refinement, in the style
+	 * of Hopcroft's algorithm for minimising DFAs. Initially, all (non-null)
+	 * states are placed into a single block. Then, each state is given a
+	 * <i>signature</i> derived from its kind, its value (for constants) and the
+	 * blocks of its children, and blocks are split until every state in a block
+	 * has the same signature. When a block is split, the largest part retains
+	 * the original block, and only states with a child in the other parts need
+	 * to be reconsidered. Set and bag children are handled by sorting their
+	 * signatures (and, for sets, eliminating duplicates) so that, as for
+	 * <code>determineEquivalenceClasses()</code>, two sets are equivalent when
+	 * every child of one has an equivalent child in the other. Unlike that
+	 * method, only linear space is required.
+	 * </p>
+	 *
+	 * @param automaton
+	 *            --- The automaton being minimised.
+	 * @param mapping
+	 *            --- Returns a mapping of states in the automaton to their
+	 *            representative states. This array must be at least of size
+	 *            <code>nStates</code>.
+	 */
+	public final static void determineRepresentativeStates(Automaton automaton,
+			int[] mapping) {
+		new Partition(automaton).refine().determineRepresentatives(mapping);
+	}
+
+	/**
+	 * A refinable partition of the states in an automaton, as used for
+	 * minimisation. Each block occupies a contiguous region of the
+	 * <code>elements</code> array, which allows a block to be split in time
+	 * proportional to the number of states moved.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private final static class Partition {
+		private final Automaton automaton;
+
+		/**
+		 * The states of the automaton, ordered by block.
+		 */
+		private final int[] elements;
+
+		/**
+		 * The position of each state within the elements array.
+		 */
+		private final int[] location;
+
+		/**
+		 * The block to which each state currently belongs.
+		 */
+		private final int[] block;
+
+		/**
+		 * The start (inclusive) and end (exclusive) of each block in the
+		 * elements array.
+		 */
+		private final int[] blockStart;
+		private final int[] blockEnd;
+
+		/**
+		 * The number of blocks allocated so far. Since a split never empties
+		 * the block being split, this never exceeds the number of states.
+		 */
+		private int nBlocks;
+
+		/**
+		 * The predecessors of each state, stored in compressed form. That is,
+		 * the predecessors of state <code>i</code> are held in
+		 * <code>preds[predStart[i]]</code> upto (but not including)
+		 * <code>preds[predStart[i+1]]</code>.
+		 */
+		private final int[] predStart;
+		private final int[] preds;
+
+		/**
+		 * The signature of each state, as determined the last time it was
+		 * considered. This is <code>null</code> for states which have not yet
+		 * been considered and for null states.
+		 */
+		private final int[][] signatures;
+
+		/**
+		 * Identifies each distinct constant in the automaton, so that constant
+		 * values can be embedded in signatures.
+		 */
+		private final HashMap<Automaton.State, Integer> constants = new HashMap<Automaton.State, Integer>();
+
+		/**
+		 * The set of states which need to be reconsidered, because one or more
+		 * of their children has changed block.
+		 */
+		private final int[] dirty;
+		private final boolean[] isDirty;
+		private int nDirty;
+
+		public Partition(Automaton automaton) {
+			int nStates = automaton.nStates();
+			this.automaton = automaton;
+			this.elements = new int[nStates];
+			this.location = new int[nStates];
+			this.block = new int[nStates];
+			this.blockStart = new int[nStates + 1];
+			this.blockEnd = new int[nStates + 1];
+			this.signatures = new int[nStates][];
+			this.dirty = new int[nStates];
+			this.isDirty = new boolean[nStates];
+			this.predStart = new int[nStates + 1];
+
+			// First, count the predecessors of each state.
+			for (int i = 0; i != nStates; ++i) {
+				Automaton.State state = automaton.get(i);
+				if (state instanceof Automaton.Term) {
+					int child = ((Automaton.Term) state).contents;
+					if (child >= 0) {
+						predStart[child + 1]++;
+					}
+				} else if (state instanceof Automaton.Collection) {
+					Automaton.Collection c = (Automaton.Collection) state;
+					for (int j = 0; j != c.length; ++j) {
+						int child = c.children[j];
+						if (child >= 0) {
+							predStart[child + 1]++;
+						}
+					}
+				}
+			}
+			for (int i = 0; i != nStates; ++i) {
+				predStart[i + 1] += predStart[i];
+			}
+
+			// Second, fill in the predecessors of each state.
+			this.preds = new int[predStart[nStates]];
+			int[] next = Arrays.copyOf(predStart, nStates);
+			for (int i = 0; i != nStates; ++i) {
+				Automaton.State state = automaton.get(i);
+				if (state instanceof Automaton.Term) {
+					int child = ((Automaton.Term) state).contents;
+					if (child >= 0) {
+						preds[next[child]++] = i;
+					}
+				} else if (state instanceof Automaton.Collection) {
+					Automaton.Collection c = (Automaton.Collection) state;
+					for (int j = 0; j != c.length; ++j) {
+						int child = c.children[j];
+						if (child >= 0) {
+							preds[next[child]++] = i;
+						}
+					}
+				}
+			}
+
+			// Third, place all non-null states into the first block, and each
+			// null state into a block of its own. Null states are never
+			// equivalent to any other state.
+			int count = 0;
+			for (int i = 0; i != nStates; ++i) {
+				if (automaton.get(i) != null) {
+					elements[count] = i;
+					location[i] = count++;
+					dirty[nDirty++] = i;
+					isDirty[i] = true;
+				}
+			}
+			blockEnd[0] = count;
+			nBlocks = 1;
+			for (int i = 0; i != nStates; ++i) {
+				if (automaton.get(i) == null) {
+					elements[count] = i;
+					location[i] = count;
+					block[i] = nBlocks;
+					blockStart[nBlocks] = count++;
+					blockEnd[nBlocks++] = count;
+				}
+			}
+		}
+
+		/**
+		 * Repeatedly split blocks until every state in each block has the same
+		 * signature.
+		 *
+		 * @return
+		 */
+		public Partition refine() {
+			int[] changed = new int[dirty.length];
+			while (nDirty > 0) {
+				// First, recompute the signature of every dirty state, and
+				// identify those whose signature actually changed.
+				int nChanged = 0;
+				for (int i = 0; i != nDirty; ++i) {
+					int state = dirty[i];
+					isDirty[state] = false;
+					int[] signature = signature(state);
+					if (!Arrays.equals(signature, signatures[state])) {
+						signatures[state] = signature;
+						changed[nChanged++] = state;
+					}
+				}
+				nDirty = 0;
+
+				// Second, sort the changed states by block and signature, such
+				// that states which should remain together are adjacent.
+				Integer[] sorted = new Integer[nChanged];
+				for (int i = 0; i != nChanged; ++i) {
+					sorted[i] = changed[i];
+				}
+				Arrays.sort(sorted, new Comparator<Integer>() {
+					public int compare(Integer s1, Integer s2) {
+						int b1 = block[s1];
+						int b2 = block[s2];
+						if (b1 != b2) {
+							return b1 < b2 ? -1 : 1;
+						}
+						return Partition.compare(signatures[s1], signatures[s2]);
+					}
+				});
+
+				// Third, split each block containing changed states.
+				for (int i = 0; i != nChanged;) {
+					int b = block[sorted[i]];
+					int j = i + 1;
+					while (j != nChanged && block[sorted[j]] == b) {
+						j++;
+					}
+					split(b, sorted, i, j);
+					i = j;
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Split a block according to the changed states it contains. States
+		 * whose signature has not changed remain together, whilst changed
+		 * states are grouped by signature. The largest such part keeps the
+		 * original block, and every state which is moved into a new block
+		 * causes its predecessors to become dirty.
+		 *
+		 * @param b
+		 *            --- Block being split.
+		 * @param sorted
+		 *            --- Changed states sorted by block and signature.
+		 * @param start
+		 *            --- Index of first changed state in this block.
+		 * @param end
+		 *            --- Index after the last changed state in this block.
+		 */
+		private void split(int b, Integer[] sorted, int start, int end) {
+			// First, move all changed states to the end of the block, whilst
+			// retaining their order.
+			int pos = blockEnd[b];
+			for (int i = end - 1; i >= start; --i) {
+				swap(sorted[i], elements[--pos]);
+			}
+
+			// Second, identify the largest part. The unchanged states form the
+			// first part (which may be empty).
+			int largestStart = blockStart[b];
+			int largestEnd = pos;
+			for (int i = start; i != end;) {
+				int j = i + 1;
+				while (j != end
+						&& Arrays.equals(signatures[sorted[i]],
+								signatures[sorted[j]])) {
+					j++;
+				}
+				if ((j - i) > (largestEnd - largestStart)) {
+					largestStart = pos + (i - start);
+					largestEnd = pos + (j - start);
+				}
+				i = j;
+			}
+
+			// Third, allocate a new block for every other part.
+			int partStart = blockStart[b];
+			int partEnd = pos;
+			int i = start;
+			int oldEnd = blockEnd[b];
+			blockStart[b] = largestStart;
+			blockEnd[b] = largestEnd;
+			while (partStart != oldEnd) {
+				if (partStart != partEnd && partStart != largestStart) {
+					int nb = nBlocks++;
+					blockStart[nb] = partStart;
+					blockEnd[nb] = partEnd;
+					for (int k = partStart; k != partEnd; ++k) {
+						int state = elements[k];
+						block[state] = nb;
+						markPredecessors(state);
+					}
+				}
+				// move on to the next group of changed states.
+				partStart = partEnd;
+				if (i != end) {
+					int j = i + 1;
+					while (j != end
+							&& Arrays.equals(signatures[sorted[i]],
+									signatures[sorted[j]])) {
+						j++;
+					}
+					partEnd = partStart + (j - i);
+					i = j;
+				}
+			}
+		}
+
+		/**
+		 * Determine the representative of each block, which is the state with
+		 * the lowest index.
+		 *
+		 * @param mapping
+		 */
+		public void determineRepresentatives(int[] mapping) {
+			int[] representatives = new int[nBlocks];
+			Arrays.fill(representatives, Automaton.K_VOID);
+			for (int i = 0; i != block.length; ++i) {
+				if (automaton.get(i) != null) {
+					int b = block[i];
+					if (representatives[b] == Automaton.K_VOID) {
+						representatives[b] = i;
+					}
+					mapping[i] = representatives[b];
+				}
+			}
+		}
+
+		/**
+		 * Compute the signature of a given (non-null) state with respect to
+		 * the current partition. Two states with the same signature are
+		 * equivalent under the current partition. Virtual children are
+		 * represented by their (negative) index, whilst all other children are
+		 * represented by their (non-negative) block.
+		 *
+		 * @param index
+		 * @return
+		 */
+		private int[] signature(int index) {
+			Automaton.State state = automaton.get(index);
+			if (state instanceof Automaton.Term) {
+				Automaton.Term term = (Automaton.Term) state;
+				return new int[] { term.kind, reference(term.contents) };
+			} else if (state instanceof Automaton.Collection) {
+				Automaton.Collection c = (Automaton.Collection) state;
+				int[] signature = new int[c.length + 1];
+				signature[0] = c.kind;
+				for (int i = 0; i != c.length; ++i) {
+					signature[i + 1] = reference(c.children[i]);
+				}
+				if (c instanceof Automaton.List) {
+					return signature;
+				}
+				Arrays.sort(signature, 1, signature.length);
+				if (c instanceof Automaton.Set) {
+					// eliminate duplicates
+					int length = Math.min(signature.length, 2);
+					for (int i = 2; i < signature.length; ++i) {
+						if (signature[i] != signature[length - 1]) {
+							signature[length++] = signature[i];
+						}
+					}
+					if (length != signature.length) {
+						signature = Arrays.copyOf(signature, length);
+					}
+				}
+				return signature;
+			} else {
+				Integer id = constants.get(state);
+				if (id == null) {
+					id = constants.size();
+					constants.put(state, id);
+				}
+				return new int[] { state.kind, id };
+			}
+		}
+
+		private int reference(int child) {
+			return child < 0 ? child : block[child];
+		}
+
+		/**
+		 * Mark all predecessors of a given state as dirty.
+		 *
+		 * @param state
+		 */
+		private void markPredecessors(int state) {
+			for (int i = predStart[state]; i != predStart[state + 1]; ++i) {
+				int pred = preds[i];
+				if (!isDirty[pred]) {
+					isDirty[pred] = true;
+					dirty[nDirty++] = pred;
+				}
+			}
+		}
+
+		/**
+		 * Swap the positions of two states in the elements array.
+		 */
+		private void swap(int s1, int s2) {
+			int l1 = location[s1];
+			int l2 = location[s2];
+			elements[l1] = s2;
+			elements[l2] = s1;
+			location[s1] = l2;
+			location[s2] = l1;
+		}
+
+		private static int compare(int[] s1, int[] s2) {
+			int length = Math.min(s1.length, s2.length);
+			for (int i = 0; i != length; ++i) {
+				if (s1[i] != s2[i]) {
+					return s1[i] < s2[i] ? -1 : 1;
+				}
+			}
+			return s1.length - s2.length;
+		}
+	}
+
 	/**
 	 * Given a relation identifying equivalence classes determine, for each, the
 	 * mapping from states to their representatives. This function does not
-	 * modify the automaton.
+	 * modify the automaton. This (together with
+	 * <code>determineEquivalenceClasses()</code>) was originally used for
+	 * minimisation, and is retained as a cross-check.
 	 */
-	final static void determineRepresentativeStates(Automaton automaton,
+	public final static void determineRepresentativeStates(Automaton automaton,
 			BinaryMatrix equivs, int[] mapping) {
 		final int size = automaton.nStates();
 
@@ -375,8 +804,9 @@ public class Automata {
 
 	/**
 	 * Determine which states are equivalent using a binary matrix of size N*N,
-	 * where N is the number of states in the given automaton. This method is
-	 * part of the minimisation process.
+	 * where N is the number of states in the given automaton. This method was
+	 * originally part of the minimisation process, and is retained as a
+	 * cross-check.
 	 *
 	 * @param automaton
 	 *            --- The automaton being minimised.
@@ -384,7 +814,7 @@ public class Automata {
 	 *            --- Binary matrix comparing every state in automaton with
 	 *            every other state for equivalence.
 	 */
-	final static void determineEquivalenceClasses(Automaton automaton,
+	public final static void determineEquivalenceClasses(Automaton automaton,
 			BinaryMatrix equivs) {
 		boolean changed = true;
 		int size = automaton.nStates();
@@ -29,7 +29,6 @@ import java.math.BigInteger;
 import java.util.*;
 
 import wyautl.util.BigRational;
-import wyautl.util.BinaryMatrix;
 
 /**
  * <p>
@@ -186,9 +185,44 @@ public final class Automaton {
 	 */
 	private int[] roots;
 
+	/**
+	 * The hash index used to quickly locate a state equivalent to a given
+	 * state. Each bucket holds the index of the first state in its chain, or
+	 * <code>K_VOID</code> if the bucket is empty. The length of this array is
+	 * always a power of two. <b>NOTE:</b> every non-null state below
+	 * <code>nStates</code> is held in exactly one chain.
+	 */
+	private int[] buckets;
+
+	/**
+	 * Links states in the same bucket together, such that
+	 * <code>chain[i]</code> gives the next state after <code>i</code> in its
+	 * bucket (or <code>K_VOID</code> if none). This array has the same length
+	 * as the states array.
+	 */
+	private int[] chain;
+
+	/**
+	 * The hash code of each indexed state, as determined when it was last
+	 * indexed. This is retained so that a state can be removed from the index
+	 * even when it has since been modified in place. This array has the same
+	 * length as the states array.
+	 */
+	private int[] hashes;
+
+	/**
+	 * Records the index of every state which is modified in place, replaced or
+	 * eliminated, or <code>null</code> if modifications are not being
+	 * tracked. This allows clients (e.g. a rewriter) to update information
+	 * derived from the automaton incrementally, rather than recomputing it
+	 * from scratch. See <code>trackModifications()</code> for more.
+	 */
+	private BitSet modified;
+
 	public Automaton() {
 		this.states = new Automaton.State[DEFAULT_NUM_STATES];
 		this.roots = new int[DEFAULT_NUM_ROOTS];
+		rebuildIndex();
 	}
 
 	public Automaton(Automaton automaton) {
@@ -202,12 +236,14 @@ public final class Automaton {
 		}
 		this.nRoots = automaton.nRoots;
 		this.roots = Arrays.copyOf(automaton.roots, nRoots);
+		rebuildIndex();
 	}
 
 	public Automaton(State[] states) {
 		this.nStates = states.length;
 		this.states = states;
 		this.roots = new int[DEFAULT_NUM_ROOTS];
+		rebuildIndex();
 	}
 
 	/**
@@ -254,7 +290,10 @@ public final class Automaton {
 	}
 
 	/**
-	 * Return the state at a given index into the automaton.
+	 * Return the state at a given index into the automaton. <b>NOTE:</b> the
+	 * returned state should not be modified in place, since this would
+	 * invalidate the automaton's internal state index. Instead, a modified
+	 * clone should be written back using <code>set()</code>.
 	 *
 	 * @param index
 	 *            --- Index of state to return where
@@ -299,7 +338,14 @@ public final class Automaton {
 	 *            --- state to replace existing state with.
 	 */
 	public void set(int index, State state) {
+		if (states[index] != null) {
+			unindex(index);
+		}
+		modified(index);
 		states[index] = state;
+		if (state != null) {
+			index(index);
+		}
 	}
 
 	/**
@@ -340,11 +386,9 @@ public final class Automaton {
 
 		// Second, check to see whether there already exists an equivalent
 		// state.
-		for (int i = 0; i != nStates; ++i) {
-			State ith = states[i];
-			if (ith != null && ith.equals(state)) {
-				return i; // match
-			}
+		int i = find(state);
+		if (i != K_VOID) {
+			return i; // match
 		}
 
 		// Finally, allocate a new state!
@@ -407,6 +451,19 @@ public final class Automaton {
 		this.nStates = other_nstates;
 		this.roots = other_roots;
 		this.nRoots = other_nroots;
+		// finally, swap the state indices
+		int[] other_buckets = other.buckets;
+		int[] other_chain = other.chain;
+		int[] other_hashes = other.hashes;
+		other.buckets = buckets;
+		other.chain = chain;
+		other.hashes = hashes;
+		this.buckets = other_buckets;
+		this.chain = other_chain;
+		this.hashes = other_hashes;
+		// every state may now be different
+		modifiedAll(Math.max(nStates, other_nstates));
+		other.modifiedAll(Math.max(nStates, other_nstates));
 	}
 
 	/**
@@ -482,8 +539,8 @@ public final class Automaton {
 			binding[from] = to;
 			for (int i = 0; i < nStates; ++i) {
 				State s = states[i];
-				if (s != null) {
-					s.remap(binding);
+				if (s != null && s.remap(binding)) {
+					modified(i);
 				}
 			}
 			// map root markers
@@ -532,8 +589,9 @@ public final class Automaton {
 			binding[search] = replacement;
 			for (int i = 0; i != initialNumStates; ++i) {
 				int index = binding[i];
-				if (index != K_VOID && i != search) {
-					states[index].remap(binding);
+				if (index != K_VOID && i != search
+						&& states[index].remap(binding)) {
+					modified(index);
 				}
 			}
 			source = binding[source];
@@ -592,8 +650,9 @@ public final class Automaton {
 		}
 		for (int i = 0; i != initialNumStates; ++i) {
 			int index = binding[i];
-			if (index != K_VOID && mapping[i] == i) {
-				states[index].remap(binding);
+			if (index != K_VOID && mapping[i] == i
+					&& states[index].remap(binding)) {
+				modified(index);
 			}
 		}
 		source = binding[source];
@@ -675,6 +734,12 @@ public final class Automaton {
 			}
 		}
 
+		for(int i=j;i<nStates;++i) {
+			states[i] = null;
+		}
+
+		// the layout has changed, hence every state may now be different
+		modifiedAll(nStates);
 		nStates = j;
 
 		for(int i=0;i!=nStates;++i) {
@@ -686,6 +751,8 @@ public final class Automaton {
 				roots[i] = binding[root];
 			}
 		}
+
+		rebuildIndex();
 	}
 
 	/**
@@ -697,13 +764,15 @@ public final class Automaton {
 	public void resize(int nStates) {
 		if (nStates < this.nStates) {
 			for (int i = this.nStates-1; i >= nStates; --i) {
-				states[i] = null; // nullify
+				if (states[i] != null) {
+					unindex(i);
+					modified(i);
+					states[i] = null; // nullify
+				}
 			}
 		} else if (nStates > states.length) {
 			// need more capacity.
-			State[] nstates = new State[nStates * 2];
-			System.arraycopy(states, 0, nstates, 0, nStates);
-			states = nstates;
+			grow(nStates * 2);
 		}
 		this.nStates = nStates;
 	}
@@ -783,7 +852,10 @@ public final class Automaton {
 	 */
 	public void remap(int[] binding) {
 		for(int i=0;i!=nStates;++i) {
-			states[i].remap(binding);
+			State state = states[i];
+			if(state != null && state.remap(binding)) {
+				modified(i);
+			}
 		}
 		for (int i = 0; i != nRoots; ++i) {
 			int root = roots[i];
@@ -791,6 +863,31 @@ public final class Automaton {
 				roots[i] = binding[root];
 			}
 		}
+		rebuildIndex();
+	}
+
+	/**
+	 * <p>
+	 * Track the states of this automaton which are subsequently modified. From
+	 * this point on, the index of every state which is modified in place (e.g.
+	 * by <code>rewrite()</code> or <code>remap()</code>), replaced (e.g. by
+	 * <code>set()</code>) or eliminated (e.g. by <code>minimise()</code>) is
+	 * added to the given set. States which are simply added onto the end of the
+	 * automaton are not recorded, since every reference to them must come from
+	 * a recorded state (or a root). The set is never cleared by the automaton
+	 * itself; this is the responsibility of the client.
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> states modified in place through a reference obtained from
+	 * <code>get()</code> cannot be tracked.
+	 * </p>
+	 *
+	 * @param modified
+	 *            --- set into which modified states are recorded, or
+	 *            <code>null</code> to stop tracking modifications.
+	 */
+	public void trackModifications(BitSet modified) {
+		this.modified = modified;
 	}
 
 	/**
@@ -1053,7 +1150,7 @@ public final class Automaton {
 		}
 
 		public int hashCode() {
-			return contents * kind;
+			return (contents * 31) + kind;
 		}
 
 		public String toString() {
@@ -1656,9 +1753,18 @@ public final class Automaton {
 	 *            array must be at least of size <code>nStates</code>.
 	 */
 	private void minimise(int[] binding) {
-		BinaryMatrix equivs = new BinaryMatrix(nStates, nStates, true);
-		Automata.determineEquivalenceClasses(this, equivs);
-		Automata.determineRepresentativeStates(this, equivs, binding);
+		Automata.determineRepresentativeStates(this, binding);
+
+		// NOTE: the following lines are for debugging purposes. In particular,
+		// if you think there's a problem with the partition refinement
+		// algorithm, you can compare its result against that of the original
+		// algorithm based on a binary matrix. If they're the same, then the
+		// problem is elsewhere.
+		//
+		// wyautl.util.BinaryMatrix equivs = new wyautl.util.BinaryMatrix(
+		//		nStates, nStates, true);
+		// Automata.determineEquivalenceClasses(this, equivs);
+		// Automata.determineRepresentativeStates(this, equivs, binding);
 
 		// First, remap states so all references are to the unique
 		// representatives.
@@ -1667,12 +1773,17 @@ public final class Automaton {
 				// This state has be subsumed by another state which was the
 				// representative for its equivalence class. Therefore, the
 				// state must now be unreachable.
+				if (states[i] != null) {
+					modified(i);
+				}
 				states[i] = null;
 			} else if(states[i] != null) {
 				// This state is the unique representative for its equivalence
 				// class. Therefore, retain it whilst remapping all of its
 				// references appropriately.
-				states[i].remap(binding);
+				if (states[i].remap(binding)) {
+					modified(i);
+				}
 			}
 		}
 
@@ -1684,6 +1795,10 @@ public final class Automaton {
 				roots[i] = binding[root];
 			}
 		}
+
+		// Finally, since states have been modified in place, the state index
+		// must be recomputed from scratch.
+		rebuildIndex();
 	}
 
 	/**
@@ -1694,16 +1809,153 @@ public final class Automaton {
 	private int internalAdd(Automaton.State state) {
 		if (nStates == states.length) {
 			// oh dear, need to increase space
-			State[] nstates = nStates == 0 ? new State[DEFAULT_NUM_STATES]
-					: new State[nStates * 2];
-			System.arraycopy(states, 0, nstates, 0, nStates);
-			states = nstates;
+			grow(nStates == 0 ? DEFAULT_NUM_STATES : nStates * 2);
 		}
 
 		states[nStates] = state;
+		index(nStates);
 		return nStates++;
 	}
 
+	/**
+	 * Increase the capacity of the states array (and the corresponding parts
+	 * of the state index) to a given size.
+	 *
+	 * @param capacity
+	 *            --- new capacity, which must be at least
+	 *            <code>nStates</code>.
+	 */
+	private void grow(int capacity) {
+		State[] nstates = new State[capacity];
+		System.arraycopy(states, 0, nstates, 0, nStates);
+		states = nstates;
+		chain = Arrays.copyOf(chain, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+		if (capacity > buckets.length) {
+			// maintain a load factor of at most one.
+			rebuildIndex();
+		}
+	}
+
+	/**
+	 * Find the lowest index of a state equivalent to the given state, or
+	 * <code>K_VOID</code> if no such state exists. This returns the same
+	 * result as a linear scan over all states, but only examines those states
+	 * which share a bucket with the given state.
+	 *
+	 * @param state
+	 *            --- state to look for.
+	 * @return
+	 */
+	private int find(Automaton.State state) {
+		int hash = state.hashCode();
+		int result = K_VOID;
+		for (int i = buckets[bucket(hash)]; i != K_VOID; i = chain[i]) {
+			if (hashes[i] == hash && (result == K_VOID || i < result)
+					&& states[i].equals(state)) {
+				result = i;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Add the (non-null) state at a given index into the state index.
+	 *
+	 * @param index
+	 */
+	private void index(int index) {
+		int hash = states[index].hashCode();
+		int bucket = bucket(hash);
+		hashes[index] = hash;
+		chain[index] = buckets[bucket];
+		buckets[bucket] = index;
+	}
+
+	/**
+	 * Remove the (non-null) state at a given index from the state index. The
+	 * hash code recorded when the state was indexed is used to locate its
+	 * bucket, since the state may have been modified in place since then.
+	 *
+	 * @param index
+	 */
+	private void unindex(int index) {
+		int bucket = bucket(hashes[index]);
+		int i = buckets[bucket];
+		if (i == index) {
+			buckets[bucket] = chain[index];
+		} else {
+			while (chain[i] != index) {
+				i = chain[i];
+			}
+			chain[i] = chain[index];
+		}
+	}
+
+	/**
+	 * Determine the bucket for a given hash code. The high bits are folded
+	 * into the low bits, since state hash codes are often poorly distributed.
+	 *
+	 * @param hash
+	 * @return
+	 */
+	private int bucket(int hash) {
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		return hash & (buckets.length - 1);
+	}
+
+	/**
+	 * Recompute the state index from scratch. This is necessary after any
+	 * operation which modifies states in place, since this can change their
+	 * hash codes.
+	 */
+	private void rebuildIndex() {
+		int capacity = states.length;
+		int size = DEFAULT_NUM_STATES;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		if (buckets == null || buckets.length != size) {
+			buckets = new int[size];
+		}
+		Arrays.fill(buckets, K_VOID);
+		if (chain == null || chain.length != capacity) {
+			chain = new int[capacity];
+			hashes = new int[capacity];
+		}
+		for (int i = 0; i != nStates; ++i) {
+			if (states[i] != null) {
+				index(i);
+			}
+		}
+	}
+
+	/**
+	 * Record that the state at a given index has been modified, if
+	 * modifications are being tracked.
+	 *
+	 * @param index
+	 */
+	private void modified(int index) {
+		if (modified != null) {
+			modified.set(index);
+		}
+	}
+
+	/**
+	 * Record that every state below a given index has been modified, if
+	 * modifications are being tracked.
+	 *
+	 * @param n
+	 */
+	private void modifiedAll(int n) {
+		if (modified != null) {
+			modified.set(0, n);
+		}
+	}
+
 	private static int[] sortedRemoveAll(int[] lhs, int lhs_len, int[] rhs,
 			int rhs_len) {
 		boolean[] marks = new boolean[lhs_len];
@@ -0,0 +1,210 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyautl.rw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+import wyautl.core.Automaton;
+import wyautl.core.Schema;
+
+/**
+ * <p>
+ * An implementation of <code>StrategyRewriter.Strategy</code> which extends
+ * the static dispatch approach of <code>UnfairStateRuleRewriteStrategy</code>
+ * with an index of the reachable states. The dispatch table maps every
+ * automaton state kind to the list of rules whose root matches that kind (as
+ * given by <code>RewriteRule.kind()</code>). The index then identifies those
+ * reachable states whose kind has at least one rule in the table. Thus, states
+ * which cannot possibly match any rule are never visited at all, and only
+ * rules which can match a given state are probed on it.
+ * </p>
+ *
+ * <p>
+ * The index is updated incrementally as states are added, rewritten or
+ * become unreachable, using the notifications provided by the rewriter.
+ * States and rules are explored in exactly the same order as for
+ * <code>UnfairStateRuleRewriteStrategy</code>, hence the two strategies
+ * produce identical rewrites.
+ * </p>
+ *
+ * <p>
+ * <b>NOTE:</b> this is not designed to be used in a concurrent setting.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class IndexedStateRuleRewriteStrategy<T extends RewriteRule> extends IterativeRewriter.Strategy<T> {
+
+	/**
+	 * The static dispatch table
+	 */
+	private final RewriteRule[][] dispatchTable;
+
+	/**
+	 * The total number of rules available to this strategy.
+	 */
+	private final int numRules;
+
+	/**
+	 * The index of reachable states whose kind has at least one rule in the
+	 * dispatch table.
+	 */
+	private final BitSet index = new BitSet();
+
+	/**
+	 * The set of all reachable terms. This is used only for determining the
+	 * number of probes avoided.
+	 */
+	private final BitSet terms = new BitSet();
+
+	/**
+	 * Temporary list of inference activations used.
+	 */
+	private final ArrayList<Activation> worklist = new ArrayList<Activation>();
+
+	/**
+	 * The automaton being rewritten
+	 */
+	private final Automaton automaton;
+
+	/**
+	 * The current state being explored by this strategy
+	 */
+	private int current;
+
+	/**
+	 * Record the number of probes for statistical reporting purposes
+	 */
+	private int numProbes;
+
+	/**
+	 * Record the number of probes avoided for statistical reporting purposes
+	 */
+	private int numProbesAvoided;
+
+	public IndexedStateRuleRewriteStrategy(Automaton automaton, T[] rules, Schema schema) {
+		this(automaton, rules, schema,new RewriteRule.RankComparator());
+	}
+
+	public IndexedStateRuleRewriteStrategy(Automaton automaton, T[] rules,
+			Schema schema, Comparator<RewriteRule> comparator) {
+		this.automaton = automaton;
+		this.numRules = rules.length;
+		this.dispatchTable = constructDispatchTable(rules,schema,comparator);
+	}
+
+	@Override
+	protected Activation next(boolean[] reachable) {
+		int nStates = automaton.nStates();
+
+		while (current < nStates && worklist.size() == 0) {
+			int next = index.nextSetBit(current);
+			if (next < 0 || next >= nStates) {
+				next = nStates;
+			}
+			// Every reachable term skipped over would have been probed with
+			// every rule.
+			for (int i = terms.nextSetBit(current); i >= 0 && i < next; i = terms
+					.nextSetBit(i + 1)) {
+				numProbesAvoided += numRules;
+			}
+			if (next < nStates) {
+				Automaton.State state = automaton.get(next);
+				RewriteRule[] rules = dispatchTable[state.kind];
+				for (int j = 0; j != rules.length; ++j) {
+					RewriteRule rw = rules[j];
+					rw.probe(automaton, next, worklist);
+					numProbes++;
+				}
+				numProbesAvoided += numRules - rules.length;
+			}
+			current = Math.min(next + 1, nStates);
+		}
+
+		if (worklist.size() > 0) {
+			int lastIndex = worklist.size() - 1;
+			Activation last = worklist.get(lastIndex);
+			worklist.remove(lastIndex);
+			return last;
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	protected void changed(BitSet states, boolean[] reachable) {
+		int nStates = automaton.nStates();
+		for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1)) {
+			Automaton.State state = i < nStates ? automaton.get(i) : null;
+			// Only reachable terms can be roots of rewrite rules.
+			if (reachable[i] && state instanceof Automaton.Term) {
+				terms.set(i);
+				index.set(i, dispatchTable[state.kind].length > 0);
+			} else {
+				terms.clear(i);
+				index.clear(i);
+			}
+		}
+	}
+
+	@Override
+	protected void reset() {
+		worklist.clear();
+		current = 0;
+	}
+
+	@Override
+	public int numProbes() {
+		return numProbes;
+	}
+
+	@Override
+	public int numProbesAvoided() {
+		return numProbesAvoided;
+	}
+
+	private static RewriteRule[][] constructDispatchTable(RewriteRule[] rules,
+			Schema schema, Comparator<RewriteRule> comparator) {
+		RewriteRule[][] table = new RewriteRule[schema.size()][];
+		for (int i = 0; i != table.length; ++i) {
+			ArrayList<RewriteRule> tmp = new ArrayList<RewriteRule>();
+			for (int j = 0; j != rules.length; ++j) {
+				RewriteRule rw = rules[j];
+				if (rw.kind() == i) {
+					tmp.add(rw);
+				}
+			}
+			RewriteRule[] rs = tmp.toArray(new RewriteRule[tmp.size()]);
+			Arrays.sort(rs, comparator);
+			table[i] = rs;
+		}
+		return table;
+	}
+}
@@ -25,7 +25,7 @@
 
 package wyautl.rw;
 
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
@@ -122,6 +122,13 @@ public final class IterativeRewriter implements Rewriter {
 	 */
 	private boolean[] reachable;
 
+	/**
+	 * Maintains the reachability information for the automaton, such that it
+	 * can be updated incrementally after each successful activation rather
+	 * than recomputed from scratch.
+	 */
+	private final Reachability reachability;
+
 	/**
 	 * The oneStepUndo provides a mapping from new automaton states to their
 	 * original states during a reduction. Using this map, every unreachable
@@ -154,6 +161,7 @@ public final class IterativeRewriter implements Rewriter {
 			IterativeRewriter.Strategy<ReductionRule> reductionStrategy, Schema schema) {
 		this.automaton = automaton;
 		this.schema = schema;
+		this.reachability = new Reachability(automaton);
 		this.reachable = new boolean[automaton.nStates() * 2];
 		this.oneStepUndo = new int[automaton.nStates() * 2];
 		this.inferenceStrategy = inferenceStrategy;
@@ -176,8 +184,10 @@ public final class IterativeRewriter implements Rewriter {
 
 		// Need to update the reachability and undo information here: (1) after
 		// a successful inference application; (2) the first time this is called
-		// prior to any inference activations.
-		reachable = updateReachable(automaton, reachable);
+		// prior to any inference activations. Since the automaton has just been
+		// compacted, this must be done from scratch.
+		reachable = reachability.recompute();
+		notifyStrategies();
 
 		// Now, perform initial reduction to ensure everything is compact as
 		// possible.
@@ -211,7 +221,8 @@ public final class IterativeRewriter implements Rewriter {
 				// an infinite loop of re-activations. More specifically, where
 				// we activate on a state and rewrite it, but then it remains
 				// and so we repeat.
-				reachable = updateReachable(automaton, reachable);
+				reachable = reachability.update();
+				notifyStrategies();
 
 				Result r = reduce(from,target,pivot);
 
@@ -328,7 +339,8 @@ public final class IterativeRewriter implements Rewriter {
 				// an infinite loop of re-activations. More specifically, where
 				// we activate on a state and rewrite it, but then it remains
 				// and so we repeat.
-				reachable = updateReachable(automaton, reachable);
+				reachable = reachability.update();
+				notifyStrategies();
 
 				// Revert all states below the pivot which are now unreachable.
 				// This is essential to ensuring that the automaton will return
@@ -340,7 +352,7 @@ public final class IterativeRewriter implements Rewriter {
 				// states and prevent the automaton from growing continually.
 				// This is possible because automton.rewrite() can introduce
 				// null states into the automaton.
-				compact(automaton, pivot, reachable, oneStepUndo);
+				compact(pivot);
 
 				//assertValidOneStepUndo(oneStepUndo,pivot);
 
@@ -408,38 +420,12 @@ public final class IterativeRewriter implements Rewriter {
 		} else {
 			// Otherwise, the automaton has definitely changed. Therefore, we
 			// compact the automaton down by eliminating all unreachable states.
-			compact(automaton, 0, reachable, oneStepUndo);
+			compact(0);
 
 			return false;
 		}
 	}
 
-	/**
-	 * Update the reachability information associated with the automaton after
-	 * some change has occurred. This information is currently recomputed from
-	 * scratch, though in principle it could be updated incrementally.
-	 */
-	private static boolean[] updateReachable(Automaton automaton,
-			boolean[] reachable) {
-
-		// TODO: update reachability information incrementally
-
-		if (reachable.length < automaton.nStates()) {
-			reachable = new boolean[automaton.nStates() * 2];
-		} else {
-			Arrays.fill(reachable, false);
-		}
-		// first, visit all nodes
-		for (int i = 0; i != automaton.nRoots(); ++i) {
-			int root = automaton.getRoot(i);
-			if (root >= 0) {
-				findReachable(automaton, reachable, root);
-			}
-		}
-
-		return reachable;
-	}
-
 	/**
 	 * The purpose of this method is to ensure that states below the pivot which
 	 * are now unreachable (if any) are reverted to their original state. This
@@ -481,7 +467,8 @@ public final class IterativeRewriter implements Rewriter {
 			// At this point, the automaton is not necessarily minimised and,
 			// hence, we must minimise it.
 			automaton.minimise();
-			reachable = updateReachable(automaton, reachable);
+			reachable = reachability.update();
+			notifyStrategies();
 		}
 
 		// Finally, update the oneStepUndo information. This has to be done last
@@ -566,10 +553,15 @@ public final class IterativeRewriter implements Rewriter {
 		}
 	}
 
-	private static void compact(Automaton automaton, int pivot,
-			boolean[] reachable, int[] oneStepUndo) {
+	/**
+	 * Compact all states at or above the pivot, eliminating those which are
+	 * unreachable. The reachability and oneStepUndo information is updated
+	 * accordingly.
+	 *
+	 * @param pivot
+	 */
+	private void compact(int pivot) {
 		int nStates = automaton.nStates();
-		int nRoots = automaton.nRoots();
 		int[] binding = new int[nStates];
 
 		// First, initialise binding for all states upto start state. This
@@ -579,18 +571,18 @@ public final class IterativeRewriter implements Rewriter {
 		}
 
 		// Second, go through and eliminate all unreachable states and compact
-		// the automaton down, whilst updating reachable one oneStepUndo
-		// information accordingly.
+		// the automaton down, whilst updating the oneStepUndo information
+		// accordingly.
 		int j = pivot;
 
 		for (int i = pivot; i < nStates; ++i) {
 			if (reachable[i]) {
-				State ith = automaton.get(i);
 				binding[i] = j;
-				reachable[i] = false;
-				reachable[j] = true;
 				oneStepUndo[j] = oneStepUndo[i];
-				automaton.set(j++, ith);
+				if (i != j) {
+					automaton.set(j, automaton.get(i));
+				}
+				j = j + 1;
 			}
 		}
 
@@ -607,25 +599,32 @@ public final class IterativeRewriter implements Rewriter {
 			nStates = j;
 			automaton.resize(nStates); // will nullify all deleted states
 
-			// Update mapping and oneStepUndo for *all* states
+			// Update mapping for *all* states and roots
+			automaton.remap(binding);
+
+			// Update oneStepUndo for *all* states
 			for (int i = 0; i != nStates; ++i) {
-				Automaton.State state = automaton.get(i);
-				if(state != null) {
-					state.remap(binding);
-				}
 				oneStepUndo[i] = binding[oneStepUndo[i]];
 			}
 
-			// Update mapping for all roots
-			for (int i = 0; i != nRoots; ++i) {
-				int root = automaton.getRoot(i);
-				if (root >= 0) {
-					automaton.setRoot(i, binding[root]);
-				}
-			}
+			// Update reachability information to match
+			reachability.compact(binding, pivot);
+			notifyStrategies();
 		}
 	}
 
+	/**
+	 * Notify both strategies of those states whose reachability or contents
+	 * may have changed since they were last notified. This allows them to
+	 * maintain information about reachable states incrementally.
+	 */
+	private void notifyStrategies() {
+		BitSet changed = reachability.changed();
+		inferenceStrategy.changed(changed, reachable);
+		reductionStrategy.changed(changed, reachable);
+		changed.clear();
+	}
+
 	public void printAutomatonStats(Automaton automaton) {
 		HashMap<Integer,Integer> data = new HashMap<Integer,Integer>();
 
@@ -716,10 +715,13 @@ public final class IterativeRewriter implements Rewriter {
 	public Rewriter.Stats getStats() {
 		int numProbes = inferenceStrategy.numProbes()
 				+ reductionStrategy.numProbes();
+		int numProbesAvoided = inferenceStrategy.numProbesAvoided()
+				+ reductionStrategy.numProbesAvoided();
 		return new Stats(numProbes, numReductionActivations,
 				numReductionFailures, numReductionSuccesses,
 				numInferenceActivations, numInferenceFailures,
-				numInferenceSuccesses);
+				numInferenceSuccesses, numProbesAvoided,
+				reachability.numVisited(), reachability.numStates());
 	}
 
 	@Override
@@ -730,6 +732,7 @@ public final class IterativeRewriter implements Rewriter {
 		this.numInferenceActivations = 0;
 		this.numInferenceFailures = 0;
 		this.numInferenceSuccesses = 0;
+		reachability.resetStats();
 	}
 
 
@@ -755,5 +758,31 @@ public final class IterativeRewriter implements Rewriter {
 		 * @return
 		 */
 		protected abstract int numProbes();
+
+		/**
+		 * Return the number of probes avoided by this strategy, compared with
+		 * probing every rule against every reachable term. By default, no
+		 * probes are considered avoided.
+		 *
+		 * @return
+		 */
+		protected int numProbesAvoided() {
+			return 0;
+		}
+
+		/**
+		 * Notify this strategy that the reachability or contents of some
+		 * states may have changed. This is called whenever the reachability
+		 * information is updated (including when the automaton is compacted)
+		 * and, initially, with every state. By default, this is ignored.
+		 *
+		 * @param states
+		 *            --- states which may have changed.
+		 * @param reachable
+		 *            --- states which are now reachable.
+		 */
+		protected void changed(BitSet states, boolean[] reachable) {
+
+		}
 	}
 }
@@ -0,0 +1,467 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyautl.rw;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import wyautl.core.Automaton;
+
+/**
+ * <p>
+ * Maintains information about which states of an automaton are reachable from
+ * its roots, and updates this incrementally as the automaton is rewritten.
+ * The automaton records every state which is modified in place, replaced or
+ * eliminated (see <code>Automaton.trackModifications()</code>) and, from these
+ * alone, the reachable states are brought up-to-date. Thus, the cost of an
+ * update is proportional to the number of states affected by a rewrite,
+ * rather than the size of the automaton.
+ * </p>
+ *
+ * <p>
+ * Updates are performed using reference counting. That is, every reachable
+ * state records the number of references to it from reachable states and
+ * roots. When a reachable state is modified, the references it held are
+ * released and those it now holds are acquired. States whose count drops to
+ * zero are unreachable (and release their own references), whilst states
+ * acquiring their first reference become reachable (along with everything they
+ * reach). A snapshot of the references held by each reachable state is kept,
+ * since states are modified in place.
+ * </p>
+ *
+ * <p>
+ * <b>NOTE:</b> reference counting cannot identify unreachable cycles. To deal
+ * with this, a topological numbering of the reachable states is maintained
+ * where possible (i.e. such that every state is numbered above the states it
+ * refers to). Whilst this holds, there can be no cycles and the reference
+ * counts are exact. Otherwise, the reachable states are recomputed from
+ * scratch whenever an update could have left an unreachable cycle behind.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class Reachability {
+
+	private static final int[] NO_CHILDREN = new int[0];
+
+	/**
+	 * The automaton whose reachable states are being maintained.
+	 */
+	private final Automaton automaton;
+
+	/**
+	 * The set of states modified in the automaton since the last update.
+	 */
+	private final BitSet modified = new BitSet();
+
+	/**
+	 * The set of states whose reachability or contents may have changed since
+	 * this set was last cleared. This allows clients (e.g. a rewrite strategy)
+	 * to maintain their own information about reachable states incrementally.
+	 */
+	private final BitSet changed = new BitSet();
+
+	/**
+	 * Identifies which states are currently reachable. This array is always
+	 * at least as large as the automaton.
+	 */
+	private boolean[] reachable;
+
+	/**
+	 * The number of references to each reachable state from reachable states
+	 * and roots.
+	 */
+	private int[] refs;
+
+	/**
+	 * The topological number of each reachable state. Whilst
+	 * <code>acyclic</code> holds, every reachable state is numbered strictly
+	 * above any state it refers to.
+	 */
+	private int[] order;
+
+	/**
+	 * A snapshot of the references held by each reachable state, as determined
+	 * when the state was last updated.
+	 */
+	private int[][] children;
+
+	/**
+	 * A snapshot of the automaton's roots, as determined at the last update.
+	 */
+	private int[] roots = NO_CHILDREN;
+
+	/**
+	 * Indicates whether the topological numbering is valid (hence, that there
+	 * are no cycles amongst the reachable states).
+	 */
+	private boolean acyclic;
+
+	/**
+	 * Worklist of states whose reference count has decreased during the
+	 * current update.
+	 */
+	private int[] released = new int[16];
+
+	private int nReleased;
+
+	/**
+	 * Used to count the total number of states visited when updating
+	 * reachability information.
+	 */
+	private long numVisited;
+
+	/**
+	 * Used to count the total number of states which would have been visited
+	 * had reachability information always been recomputed from scratch.
+	 */
+	private long numStates;
+
+	public Reachability(Automaton automaton) {
+		this.automaton = automaton;
+		int size = automaton.nStates() * 2;
+		this.reachable = new boolean[size];
+		this.refs = new int[size];
+		this.order = new int[size];
+		this.children = new int[size][];
+		automaton.trackModifications(modified);
+	}
+
+	/**
+	 * Get the total number of states visited when updating reachability
+	 * information.
+	 *
+	 * @return
+	 */
+	public long numVisited() {
+		return numVisited;
+	}
+
+	/**
+	 * Get the total number of states which would have been visited had
+	 * reachability information always been recomputed from scratch.
+	 *
+	 * @return
+	 */
+	public long numStates() {
+		return numStates;
+	}
+
+	/**
+	 * Get the set of states whose reachability or contents may have changed
+	 * since this set was last cleared. The set is never cleared by this
+	 * class; this is the responsibility of the client.
+	 *
+	 * @return
+	 */
+	public BitSet changed() {
+		return changed;
+	}
+
+	public void resetStats() {
+		numVisited = 0;
+		numStates = 0;
+	}
+
+	/**
+	 * Recompute the reachable states of the automaton from scratch. This is
+	 * necessary after an operation which changes the layout of the automaton
+	 * (e.g. <code>Automaton.compact()</code>).
+	 *
+	 * @return The reachable states of the automaton.
+	 */
+	public boolean[] recompute() {
+		numStates += automaton.nStates();
+		return rebuild();
+	}
+
+	/**
+	 * Update the reachable states of the automaton after some change has
+	 * occurred. Only those states which were modified since the last update,
+	 * and those whose reachability is affected as a result, are visited.
+	 *
+	 * @return The reachable states of the automaton.
+	 */
+	public boolean[] update() {
+		int nStates = automaton.nStates();
+		ensureCapacity(nStates);
+		numStates += nStates;
+
+		// First, update any roots which have changed.
+		int nRoots = automaton.nRoots();
+		if (roots.length != nRoots) {
+			int[] nroots = new int[nRoots];
+			System.arraycopy(roots, 0, nroots, 0, Math.min(nRoots, roots.length));
+			for (int i = roots.length; i < nRoots; ++i) {
+				nroots[i] = Automaton.K_VOID;
+			}
+			for (int i = nRoots; i < roots.length; ++i) {
+				release(roots[i]);
+			}
+			roots = nroots;
+		}
+		for (int i = 0; i != nRoots; ++i) {
+			int root = automaton.getRoot(i);
+			if (roots[i] != root) {
+				acquire(root);
+				release(roots[i]);
+				roots[i] = root;
+			}
+		}
+
+		// Second, update the references held by every reachable state which
+		// was modified. Any states newly referenced become reachable at this
+		// point, whilst those whose references were released are dealt with
+		// afterwards.
+		for (int i = modified.nextSetBit(0); i >= 0 && i < reachable.length; i = modified
+				.nextSetBit(i + 1)) {
+			if (reachable[i]) {
+				numVisited++;
+				changed.set(i);
+				int[] ochildren = children[i];
+				Automaton.State state = i < nStates ? automaton.get(i) : null;
+				int[] nchildren = children(state);
+				children[i] = nchildren;
+				for (int child : nchildren) {
+					acquire(child);
+					if (child >= 0 && order[child] >= order[i]) {
+						acyclic = false;
+					}
+				}
+				for (int child : ochildren) {
+					release(child);
+				}
+			}
+		}
+		modified.clear();
+
+		// Third, eliminate all states which are no longer referenced. Whilst
+		// there are no cycles, any state which is still referenced must remain
+		// reachable. Otherwise, we cannot be sure and must recompute.
+		boolean referenced = false;
+		while (nReleased > 0) {
+			int index = released[--nReleased];
+			if (!reachable[index]) {
+				continue;
+			} else if (refs[index] == 0) {
+				numVisited++;
+				changed.set(index);
+				reachable[index] = false;
+				int[] ochildren = children[index];
+				children[index] = null;
+				for (int child : ochildren) {
+					release(child);
+				}
+			} else {
+				referenced = true;
+			}
+		}
+
+		if (referenced && !acyclic) {
+			return rebuild();
+		} else {
+			return reachable;
+		}
+	}
+
+	/**
+	 * Recompute the reachable states of the automaton from scratch, including
+	 * the reference counts and topological numbering.
+	 *
+	 * @return
+	 */
+	private boolean[] rebuild() {
+		int nStates = automaton.nStates();
+		long visited = numVisited;
+		if (reachable.length < nStates) {
+			int size = nStates * 2;
+			reachable = new boolean[size];
+			refs = new int[size];
+			order = new int[size];
+			children = new int[size][];
+		} else {
+			Arrays.fill(reachable, false);
+			Arrays.fill(children, null);
+		}
+		changed.set(0, reachable.length);
+		modified.clear();
+		acyclic = true;
+		roots = new int[automaton.nRoots()];
+		for (int i = 0; i != roots.length; ++i) {
+			int root = automaton.getRoot(i);
+			roots[i] = root;
+			acquire(root);
+		}
+		nReleased = 0;
+		numVisited = visited + nStates;
+		return reachable;
+	}
+
+	/**
+	 * Update reachability information after the automaton has been compacted,
+	 * such that every state (at or above the pivot) has been moved to the
+	 * location given by the binding. States not reachable beforehand must be
+	 * eliminated by the compaction.
+	 *
+	 * @param binding
+	 *            --- Maps states before compaction to their location
+	 *            afterwards.
+	 * @param pivot
+	 *            --- States below the pivot are not moved by the compaction.
+	 */
+	public void compact(int[] binding, int pivot) {
+		int nStates = binding.length;
+		// First, move states to their new locations. Since states only move
+		// downwards, visiting them in order means a moved state never
+		// overwrites one which has yet to be moved.
+		for (int i = pivot; i < nStates; ++i) {
+			int j = binding[i];
+			if (reachable[i] && i != j) {
+				reachable[j] = true;
+				refs[j] = refs[i];
+				order[j] = order[i];
+				children[j] = children[i];
+				reachable[i] = false;
+				refs[i] = 0;
+				children[i] = null;
+			}
+		}
+		// Second, update the references held by every state to match.
+		for (int i = 0; i != nStates; ++i) {
+			if (reachable[i]) {
+				int[] ichildren = children[i];
+				for (int k = 0; k != ichildren.length; ++k) {
+					int child = ichildren[k];
+					if (child >= 0) {
+						ichildren[k] = binding[child];
+					}
+				}
+			}
+		}
+		for (int i = 0; i != roots.length; ++i) {
+			int root = roots[i];
+			if (root >= 0) {
+				roots[i] = binding[root];
+			}
+		}
+		// Finally, the modifications made during compaction have now been
+		// accounted for.
+		modified.clear();
+		changed.set(pivot, nStates);
+	}
+
+	/**
+	 * Acquire a reference to a given state. If this is the first reference,
+	 * then the state becomes reachable and acquires references to all of its
+	 * children.
+	 *
+	 * @param index
+	 */
+	private void acquire(int index) {
+		if (index < 0) {
+			return;
+		} else if (reachable[index]) {
+			refs[index]++;
+		} else {
+			numVisited++;
+			changed.set(index);
+			reachable[index] = true;
+			refs[index] = 1;
+			order[index] = -1; // indicates visit in progress
+			int[] ichildren = children(automaton.get(index));
+			children[index] = ichildren;
+			int max = 0;
+			for (int child : ichildren) {
+				acquire(child);
+				if (child >= 0) {
+					if (order[child] < 0) {
+						acyclic = false; // back edge
+					}
+					max = Math.max(max, order[child]);
+				}
+			}
+			order[index] = max + 1;
+		}
+	}
+
+	/**
+	 * Release a reference to a given state. If this is the last reference,
+	 * then the state will be eliminated at the end of the update.
+	 *
+	 * @param index
+	 */
+	private void release(int index) {
+		if (index >= 0) {
+			refs[index]--;
+			if (nReleased == released.length) {
+				int[] nreleased = new int[nReleased * 2];
+				System.arraycopy(released, 0, nreleased, 0, nReleased);
+				released = nreleased;
+			}
+			released[nReleased++] = index;
+		}
+	}
+
+	/**
+	 * Determine the references held by a given state.
+	 *
+	 * @param state
+	 * @return
+	 */
+	private static int[] children(Automaton.State state) {
+		if (state instanceof Automaton.Term) {
+			Automaton.Term term = (Automaton.Term) state;
+			if (term.contents >= 0) {
+				return new int[] { term.contents };
+			}
+		} else if (state instanceof Automaton.Collection) {
+			Automaton.Collection compound = (Automaton.Collection) state;
+			if (compound.size() > 0) {
+				return compound.toArray();
+			}
+		}
+		return NO_CHILDREN;
+	}
+
+	private void ensureCapacity(int nStates) {
+		if (reachable.length < nStates) {
+			int size = nStates * 2;
+			boolean[] nreachable = new boolean[size];
+			int[] nrefs = new int[size];
+			int[] norder = new int[size];
+			int[][] nchildren = new int[size][];
+			System.arraycopy(reachable, 0, nreachable, 0, reachable.length);
+			System.arraycopy(refs, 0, nrefs, 0, refs.length);
+			System.arraycopy(order, 0, norder, 0, order.length);
+			System.arraycopy(children, 0, nchildren, 0, children.length);
+			reachable = nreachable;
+			refs = nrefs;
+			order = norder;
+			children = nchildren;
+		}
+	}
+}
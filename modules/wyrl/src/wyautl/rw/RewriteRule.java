@@ -81,6 +81,17 @@ public interface RewriteRule {
 	 */
 	public Pattern.Term pattern();
 
+	/**
+	 * Get the kind of automaton state which this rule matches at its root.
+	 * Since only terms can be the roots of rewrite rules, this always
+	 * identifies a term in the schema. Probing a state of any other kind is
+	 * guaranteed not to produce an activation, and this is useful for
+	 * creating dispatch tables without needing to inspect the rule's pattern.
+	 *
+	 * @return
+	 */
+	public int kind();
+
 	/**
 	 * Probe a given root to see whether or not this rule could be applied to
 	 * it. If it can, the corresponding activation record(s) are added to the
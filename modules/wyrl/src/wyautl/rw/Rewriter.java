@@ -118,6 +118,24 @@ public interface Rewriter {
 		 */
 		private final int numProbes;
 
+		/**
+		 * Counts the total number of activation probes avoided, compared with
+		 * probing every rule against every reachable term.
+		 */
+		private final int numProbesAvoided;
+
+		/**
+		 * Counts the total number of states visited when updating
+		 * reachability information.
+		 */
+		private final long numReachabilityVisits;
+
+		/**
+		 * Counts the total number of states which would have been visited
+		 * had reachability information always been recomputed from scratch.
+		 */
+		private final long numReachabilityStates;
+
 		/**
 		 * Construct an object providing statistical information about how a
 		 * given rewrite system has performed.
@@ -132,7 +150,37 @@ public interface Rewriter {
 				int numReductionFailures, int numReductionSuccesses,
 				int numInferenceActivations, int numInferenceFailures,
 				int numInferenceSuccesses) {
+			this(numProbes, numReductionActivations, numReductionFailures,
+					numReductionSuccesses, numInferenceActivations,
+					numInferenceFailures, numInferenceSuccesses, 0, 0, 0);
+		}
+
+		/**
+		 * Construct an object providing statistical information about how a
+		 * given rewrite system has performed, including how many probes were
+		 * avoided and how much of the automaton was visited when updating
+		 * reachability information.
+		 *
+		 * @param numProbes
+		 * @param numReductionActivations
+		 * @param numReductionFailures
+		 * @param numReductionSuccesses
+		 * @param numInferenceActivations
+		 * @param numInferenceFailures
+		 * @param numInferenceSuccesses
+		 * @param numProbesAvoided
+		 * @param numReachabilityVisits
+		 * @param numReachabilityStates
+		 */
+		public Stats(int numProbes, int numReductionActivations,
+				int numReductionFailures, int numReductionSuccesses,
+				int numInferenceActivations, int numInferenceFailures,
+				int numInferenceSuccesses, int numProbesAvoided,
+				long numReachabilityVisits, long numReachabilityStates) {
 			this.numProbes = numProbes;
+			this.numProbesAvoided = numProbesAvoided;
+			this.numReachabilityVisits = numReachabilityVisits;
+			this.numReachabilityStates = numReachabilityStates;
 
 			this.numReductionActivations = numReductionActivations;
 			this.numReductionFailures = numReductionFailures;
@@ -150,6 +198,14 @@ public interface Rewriter {
 			return numProbes;
 		}
 
+		/**
+		 * Get the total number of activation probes avoided, compared with
+		 * probing every rule against every reachable term.
+		 */
+		public int numProbesAvoided() {
+			return numProbesAvoided;
+		}
+
 		/**
 		 * Get the total number of activations (successful or unsuccessful) made.
 		 */
@@ -209,15 +265,40 @@ public interface Rewriter {
 			return numInferenceSuccesses;
 		}
 
+		/**
+		 * Get the total number of states visited when updating reachability
+		 * information.
+		 */
+		public long numReachabilityVisits() {
+			return numReachabilityVisits;
+		}
+
+		/**
+		 * Get the total number of states which would have been visited had
+		 * reachability information always been recomputed from scratch. Thus,
+		 * <code>numReachabilityVisits() / numReachabilityStates()</code> gives
+		 * the fraction of the automaton touched by each update.
+		 */
+		public long numReachabilityStates() {
+			return numReachabilityStates;
+		}
+
 		/**
 		 * Return a standard overview of the statistics embodied here.
 		 */
 		public String toString() {
 			String r = "#activations = " + numActivations() + " / " + numProbes;
+			if (numProbesAvoided > 0) {
+				r += " (" + numProbesAvoided + " avoided)";
+			}
 			r += ", #reductions = " + numReductionSuccesses + " / "
 					+ numReductionActivations() + ", #inferences "
 					+ numInferenceSuccesses() + " / "
 					+ numInferenceActivations();
+			if (numReachabilityStates > 0) {
+				r += ", #reachability = " + numReachabilityVisits + " / "
+						+ numReachabilityStates;
+			}
 			return r;
 		}
 	}
@@ -50,6 +50,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Not; }
 
 		public final int minimum() { return 1; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -85,6 +86,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Not; }
 
 		public final int minimum() { return 1; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -140,6 +142,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Not; }
 
 		public final int minimum() { return 2; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -195,6 +198,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Not; }
 
 		public final int minimum() { return 2; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -246,6 +250,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 2; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -309,6 +314,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 3; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -381,6 +387,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 3; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -432,6 +439,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Or; }
 
 		public final int minimum() { return 2; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -495,6 +503,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Or; }
 
 		public final int minimum() { return 3; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -569,6 +578,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 2; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -620,6 +630,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 2; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -688,6 +699,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 0; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -767,6 +779,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 0; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -817,6 +830,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Or; }
 
 		public final int minimum() { return 2; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -868,6 +882,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Or; }
 
 		public final int minimum() { return 2; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -909,6 +924,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Ref; }
 
 		public final int minimum() { return 1; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -982,6 +998,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 5; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1050,6 +1067,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Or; }
 
 		public final int minimum() { return 5; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1130,6 +1148,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 6; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1171,6 +1190,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Meta; }
 
 		public final int minimum() { return 1; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1244,6 +1264,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 5; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1312,6 +1333,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Or; }
 
 		public final int minimum() { return 5; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1392,6 +1414,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 6; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1500,6 +1523,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 9; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1547,6 +1571,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Nominal; }
 
 		public final int minimum() { return 3; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1627,6 +1652,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Set; }
 
 		public final int minimum() { return 4; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1696,6 +1722,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_Bag; }
 
 		public final int minimum() { return 4; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1753,6 +1780,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_List; }
 
 		public final int minimum() { return 0; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -1827,6 +1855,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 0; }
 		public final int maximum() { return Integer.MAX_VALUE; }
@@ -2004,6 +2033,7 @@ public final class Types {
 		}
 		public final String name() { return ""; }
 		public final int rank() { return 0; }
+		public final int kind() { return K_And; }
 
 		public final int minimum() { return 0; }
 		public final int maximum() { return Integer.MAX_VALUE; }
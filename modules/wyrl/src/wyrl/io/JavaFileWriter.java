@@ -334,11 +334,12 @@ public class JavaFileWriter {
 		myOut(2, "}");
 
 		// ===============================================
-		// name() and rank()
+		// name(), rank() and kind()
 		// ===============================================
 
 		myOut(2, "public final String name() { return \"" + decl.name + "\"; }");
 		myOut(2, "public final int rank() { return " + decl.rank + "; }");
+		myOut(2, "public final int kind() { return K_" + decl.pattern.name + "; }");
 
 		// ===============================================
 		// min / max reduction sizes
@@ -0,0 +1,138 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyrl.testing;
+
+import java.util.Random;
+
+import wyautl.core.Automaton;
+
+/**
+ * A simple benchmark for measuring the cost of building large automata. This
+ * compares <code>Automaton.add()</code>, which locates equivalent states using
+ * the automaton's state index, against the original approach of scanning
+ * linearly through every state. The states added are a random mix of terms,
+ * constants and collections (with a fair amount of sharing) which roughly
+ * resembles the automata generated for verification conditions.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class AutomatonBenchmark {
+
+	/**
+	 * Number of distinct term kinds used when generating states.
+	 */
+	private static final int NUM_KINDS = 20;
+
+	public static void main(String[] args) {
+		int[] sizes = { 1000, 5000, 10000, 20000, 50000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i != args.length; ++i) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		// warm up the JIT before taking any measurements.
+		build(2000, false);
+		build(2000, true);
+
+		System.out.println("STATES\tINDEXED (ms)\tLINEAR (ms)");
+		for (int size : sizes) {
+			long start = System.currentTimeMillis();
+			Automaton indexed = build(size, false);
+			long indexedTime = System.currentTimeMillis() - start;
+			start = System.currentTimeMillis();
+			Automaton linear = build(size, true);
+			long linearTime = System.currentTimeMillis() - start;
+			if (!indexed.equals(linear)) {
+				throw new RuntimeException("automata differ (" + size
+						+ " states)");
+			}
+			System.out.println(indexed.nStates() + "\t" + indexedTime + "\t\t"
+					+ linearTime);
+		}
+	}
+
+	/**
+	 * Build an automaton by adding a given number of randomly generated
+	 * states. The same seed is used every time, so the resulting automata are
+	 * identical regardless of which approach is used.
+	 *
+	 * @param size
+	 *            --- number of states to add.
+	 * @param linear
+	 *            --- whether or not to use a linear scan to locate equivalent
+	 *            states.
+	 * @return
+	 */
+	private static Automaton build(int size, boolean linear) {
+		Random random = new Random(size);
+		Automaton automaton = new Automaton();
+		int last = automaton.add(new Automaton.Int(0));
+		for (int i = 0; i != size; ++i) {
+			Automaton.State state;
+			int n = automaton.nStates();
+			switch (random.nextInt(4)) {
+			case 0:
+				state = new Automaton.Int(random.nextInt(size / 2 + 1));
+				break;
+			case 1:
+				state = new Automaton.Term(random.nextInt(NUM_KINDS),
+						random.nextInt(n));
+				break;
+			case 2:
+				state = new Automaton.List(last, random.nextInt(n));
+				break;
+			default:
+				state = new Automaton.Set(random.nextInt(n),
+						random.nextInt(n), random.nextInt(n));
+			}
+			last = linear ? linearAdd(automaton, state) : automaton.add(state);
+		}
+		automaton.setRoot(0, last);
+		return automaton;
+	}
+
+	/**
+	 * Add a state to an automaton, using a linear scan over all states to
+	 * check for an existing equivalent state. This is how
+	 * <code>Automaton.add()</code> originally worked.
+	 *
+	 * @param automaton
+	 * @param state
+	 * @return
+	 */
+	private static int linearAdd(Automaton automaton, Automaton.State state) {
+		for (int i = 0; i != automaton.nStates(); ++i) {
+			Automaton.State ith = automaton.get(i);
+			if (ith != null && ith.equals(state)) {
+				return i; // match
+			}
+		}
+		return automaton.add(state);
+	}
+}
@@ -0,0 +1,195 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyrl.testing;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import wyautl.core.Automata;
+import wyautl.core.Automaton;
+import wyautl.util.BinaryMatrix;
+
+/**
+ * A simple benchmark for comparing the two approaches to minimisation. The
+ * first is the partition refinement algorithm used by
+ * <code>Automaton.minimise()</code>, whilst the second is the original
+ * algorithm based on an N*N binary matrix. Randomly generated automata
+ * (containing plenty of equivalent states, cycles, virtual states and
+ * collections of every kind) are minimised using both, and the resulting
+ * mappings are checked for consistency. This is also useful as a cross-check
+ * when changing either algorithm.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class MinimiseBenchmark {
+
+	/**
+	 * Number of distinct term kinds used when generating states. This is kept
+	 * small to ensure lots of equivalent states are generated.
+	 */
+	private static final int NUM_KINDS = 3;
+
+	public static void main(String[] args) {
+		int[] sizes = { 100, 500, 1000, 2000, 4000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i != args.length; ++i) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		// First, cross-check both algorithms on lots of small automata.
+		for (int seed = 0; seed != 10000; ++seed) {
+			check(generate(new Random(seed), 1 + (seed % 50)));
+		}
+
+		// Second, time both algorithms on some larger automata. These are
+		// cross-checked as well, unless they are too large.
+		System.out.println("STATES\tPARTITION (ms)\tMATRIX (ms)");
+		for (int size : sizes) {
+			Automaton automaton = generate(new Random(size), size);
+			int[] partition = new int[size];
+			int[] matrix = new int[size];
+			long start = System.currentTimeMillis();
+			Automata.determineRepresentativeStates(automaton, partition);
+			long partitionTime = System.currentTimeMillis() - start;
+			start = System.currentTimeMillis();
+			BinaryMatrix equivs = new BinaryMatrix(size, size, true);
+			Automata.determineEquivalenceClasses(automaton, equivs);
+			Automata.determineRepresentativeStates(automaton, equivs, matrix);
+			long matrixTime = System.currentTimeMillis() - start;
+			if (size <= 1000) {
+				check(automaton);
+			}
+			System.out.println(size + "\t" + partitionTime + "\t\t"
+					+ matrixTime);
+		}
+	}
+
+	/**
+	 * Check that both algorithms agree on a given automaton. The original
+	 * algorithm can fail to identify equivalent bags, since it counts
+	 * equivalent children using a relation which is not yet transitive.
+	 * Therefore, we check that the partition computed by refinement is a fixed
+	 * point of the original algorithm, and that it is at least as coarse as
+	 * the result of the original algorithm. When there are no bags, the two
+	 * must be identical.
+	 *
+	 * @param automaton
+	 */
+	private static void check(Automaton automaton) {
+		int size = automaton.nStates();
+		int[] partition = new int[size];
+		int[] matrix = new int[size];
+		int[] fixpoint = new int[size];
+		Automata.determineRepresentativeStates(automaton, partition);
+		BinaryMatrix equivs = new BinaryMatrix(size, size, true);
+		Automata.determineEquivalenceClasses(automaton, equivs);
+		Automata.determineRepresentativeStates(automaton, equivs, matrix);
+		// First, check the partition is a fixed point.
+		equivs = new BinaryMatrix(size, size, false);
+		boolean bags = false;
+		for (int i = 0; i != size; ++i) {
+			bags |= automaton.get(i) instanceof Automaton.Bag;
+			for (int j = 0; j != size; ++j) {
+				equivs.set(i, j, i == j || partition[i] == partition[j]);
+			}
+		}
+		Automata.determineEquivalenceClasses(automaton, equivs);
+		Automata.determineRepresentativeStates(automaton, equivs, fixpoint);
+		boolean valid = Arrays.equals(partition, fixpoint);
+		// Second, check the partition is at least as coarse.
+		for (int i = 0; i != size; ++i) {
+			valid &= partition[matrix[i]] == partition[i];
+		}
+		// Third, check the partition is identical when there are no bags.
+		valid &= bags || Arrays.equals(partition, matrix);
+		if (!valid) {
+			throw new RuntimeException("minimisation differs: " + automaton
+					+ "\n" + Arrays.toString(partition) + "\n"
+					+ Arrays.toString(matrix));
+		}
+	}
+
+	/**
+	 * Generate a random (and generally non-minimised) automaton with a given
+	 * number of states.
+	 *
+	 * @param random
+	 * @param size
+	 * @return
+	 */
+	private static Automaton generate(Random random, int size) {
+		Automaton.State[] states = new Automaton.State[size];
+		for (int i = 0; i != size; ++i) {
+			switch (random.nextInt(7)) {
+			case 0:
+				states[i] = new Automaton.Int(random.nextInt(3));
+				break;
+			case 1:
+			case 2:
+				states[i] = new Automaton.Term(random.nextInt(NUM_KINDS),
+						child(random, size));
+				break;
+			case 3:
+				states[i] = new Automaton.List(children(random, size));
+				break;
+			case 4:
+				states[i] = new Automaton.Set(children(random, size));
+				break;
+			case 5:
+				states[i] = new Automaton.Bag(children(random, size));
+				break;
+			default:
+				if (random.nextInt(4) == 0) {
+					states[i] = null;
+				} else {
+					states[i] = new Automaton.Term(random.nextInt(NUM_KINDS),
+							child(random, size));
+				}
+			}
+		}
+		return new Automaton(states);
+	}
+
+	private static int[] children(Random random, int size) {
+		int[] children = new int[random.nextInt(4)];
+		for (int i = 0; i != children.length; ++i) {
+			children[i] = child(random, size);
+		}
+		return children;
+	}
+
+	private static int child(Random random, int size) {
+		if (random.nextInt(5) == 0) {
+			// virtual term state
+			return Automaton.K_FREE - random.nextInt(NUM_KINDS);
+		} else {
+			return random.nextInt(size);
+		}
+	}
+}